@@ -0,0 +1,199 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import com.agomezmoron.appiumhandler.AppiumHandledDriver;
+
+import io.appium.java_client.MobileElement;
+
+/**
+ * Benchmarks of the most used {@link AppiumHandledDriver} operations against the {@link StubAppiumServer}: the finder
+ * family (hit and miss paths), the explicit waits, the element taps and the JavaScript execution.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppiumHandledDriverBenchmark {
+
+    /**
+     * Locator of an element returned by the stub server.
+     */
+    private static final String PRESENT_ID = "present";
+
+    /**
+     * Locator of an element missing in the stub server.
+     */
+    private static final String MISSING_ID = StubAppiumServer.MISSING_MARKER;
+
+    /**
+     * Latency (in microseconds) added by the server to every command.
+     */
+    @Param({ "0", "1000" })
+    private long latencyMicros;
+
+    /**
+     * Ratio (0 to 1) of commands failed by the server.
+     */
+    @Param({ "0" })
+    private double failureRate;
+
+    /**
+     * Stub server.
+     */
+    private StubAppiumServer server;
+
+    /**
+     * Driver under test.
+     */
+    private AppiumHandledDriver driver;
+
+    /**
+     * Element used by the taps.
+     */
+    private MobileElement element;
+
+    /**
+     * It starts the stub server and builds the driver.
+     * @throws IOException if the server can't be started.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.server = new StubAppiumServer().start();
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("platformName", "Android");
+        capabilities.setCapability("deviceName", "stub");
+        this.driver = AppiumHandledDriver.buildInstance(this.server.getUrl(), capabilities);
+        this.element = this.driver.findElementById(PRESENT_ID);
+        this.server.setLatencyMicros(this.latencyMicros);
+        this.server.setFailureRate(this.failureRate);
+    }
+
+    /**
+     * It quits the driver and stops the stub server.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.server.setFailureRate(0);
+        this.driver.quit();
+        this.server.stop();
+    }
+
+    /**
+     * @return the found element.
+     */
+    @Benchmark
+    public MobileElement findElementByIdHit() {
+        return this.driver.findElementById(PRESENT_ID);
+    }
+
+    /**
+     * @return null (the element is missing).
+     */
+    @Benchmark
+    public MobileElement findElementByIdMiss() {
+        return this.driver.findElementById(MISSING_ID);
+    }
+
+    /**
+     * @return the found elements.
+     */
+    @Benchmark
+    public List<MobileElement> findElementsByXPathHit() {
+        return this.driver.findElementsByXPath("//*[@resource-id='" + PRESENT_ID + "']");
+    }
+
+    /**
+     * @return an empty list (the elements are missing).
+     */
+    @Benchmark
+    public List<MobileElement> findElementsByXPathMiss() {
+        return this.driver.findElementsByXPath("//*[@resource-id='" + MISSING_ID + "']");
+    }
+
+    /**
+     * @return the waited element.
+     */
+    @Benchmark
+    public MobileElement waitFor() {
+        return this.driver.waitFor(By.id(PRESENT_ID), 5);
+    }
+
+    /**
+     * It taps the center of the element (failures injected by the server are part of the measurement).
+     * @return true if the tap succeeded.
+     */
+    @Benchmark
+    public boolean tapElement() {
+        boolean tapped = true;
+        try {
+            this.driver.tap(1, this.element, 100);
+        } catch (WebDriverException ex) {
+            tapped = false;
+        }
+        return tapped;
+    }
+
+    /**
+     * @return the result of the script (failures injected by the server are part of the measurement).
+     */
+    @Benchmark
+    public Object executeJavaScript() {
+        Object result;
+        try {
+            result = this.driver.executeJavaScript("return document.readyState");
+        } catch (WebDriverException ex) {
+            result = ex;
+        }
+        return result;
+    }
+
+}
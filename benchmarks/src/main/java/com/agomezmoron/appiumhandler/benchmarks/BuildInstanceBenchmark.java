@@ -0,0 +1,125 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import com.agomezmoron.appiumhandler.AppiumHandledDriver;
+
+/**
+ * Benchmark of {@link AppiumHandledDriver#buildInstance(java.net.URL, DesiredCapabilities)} against the
+ * {@link StubAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BuildInstanceBenchmark {
+
+    /**
+     * Latency (in microseconds) added by the server to every command.
+     */
+    @Param({ "0", "1000" })
+    private long latencyMicros;
+
+    /**
+     * Platform of the built sessions.
+     */
+    @Param({ "Android", "iOS" })
+    private String platform;
+
+    /**
+     * Stub server.
+     */
+    private StubAppiumServer server;
+
+    /**
+     * Driver built by the last invocation.
+     */
+    private AppiumHandledDriver driver;
+
+    /**
+     * It starts the stub server.
+     * @throws IOException if it can't be started.
+     */
+    @Setup(Level.Trial)
+    public void startServer() throws IOException {
+        this.server = new StubAppiumServer().start();
+        this.server.setLatencyMicros(this.latencyMicros);
+    }
+
+    /**
+     * It quits the driver built by the last invocation.
+     */
+    @TearDown(Level.Invocation)
+    public void quitDriver() {
+        if (this.driver != null) {
+            this.driver.quit();
+            this.driver = null;
+        }
+    }
+
+    /**
+     * It stops the stub server.
+     */
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        this.server.stop();
+    }
+
+    /**
+     * @return the built driver.
+     */
+    @Benchmark
+    public AppiumHandledDriver buildInstance() {
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("platformName", this.platform);
+        capabilities.setCapability("deviceName", "stub");
+        this.driver = AppiumHandledDriver.buildInstance(this.server.getUrl(), capabilities);
+        return this.driver;
+    }
+
+}
@@ -0,0 +1,268 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stub of an Appium server speaking the JSON wire protocol. It answers the commands used by the
+ * benchmarks with canned responses, adding a configurable latency and failing a configurable ratio of the commands,
+ * so the wrapper can be measured on a box without devices.
+ * <p>
+ * Every locator containing {@link #MISSING_MARKER} is answered as a missing element.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class StubAppiumServer implements HttpHandler {
+
+    /**
+     * Text that makes a locator to be answered as a missing element.
+     */
+    public static final String MISSING_MARKER = "missing";
+
+    /**
+     * Base path of the server.
+     */
+    private static final String BASE_PATH = "/wd/hub";
+
+    /**
+     * Id of the stub session.
+     */
+    private static final String SESSION_ID = "stub-session";
+
+    /**
+     * JSON of the stub element.
+     */
+    private static final String ELEMENT = "{\"ELEMENT\":\"1\"}";
+
+    /**
+     * Underlying HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Executor of the HTTP server.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Latency (in microseconds) added to every command.
+     */
+    private volatile long latencyMicros = 0;
+
+    /**
+     * Ratio (0 to 1) of commands answered with an unknown error.
+     */
+    private volatile double failureRate = 0;
+
+    /**
+     * Number of handled commands.
+     */
+    private final AtomicLong commands = new AtomicLong();
+
+    /**
+     * Constructor. The server listens on a random free port of the loopback interface.
+     * @throws IOException if the server can't be started.
+     */
+    public StubAppiumServer() throws IOException {
+        // without it, the delayed ACKs add ~40 ms to every command
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.executor);
+        this.server.createContext(BASE_PATH, this);
+    }
+
+    /**
+     * It starts the server.
+     * @return the server itself.
+     */
+    public StubAppiumServer start() {
+        this.server.start();
+        return this;
+    }
+
+    /**
+     * It stops the server.
+     */
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * @return the URL to be given to the drivers.
+     */
+    public URL getUrl() {
+        try {
+            return new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + BASE_PATH);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param latencyMicros latency (in microseconds) added to every command.
+     */
+    public void setLatencyMicros(long latencyMicros) {
+        this.latencyMicros = latencyMicros;
+    }
+
+    /**
+     * @param failureRate ratio (0 to 1) of commands answered with an unknown error.
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * @return the number of handled commands.
+     */
+    public long getCommands() {
+        return this.commands.get();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        this.commands.incrementAndGet();
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+        String body = read(exchange.getRequestBody());
+        this.pause();
+        if (this.failureRate > 0 && ThreadLocalRandom.current().nextDouble() < this.failureRate
+                && !path.equals("/session")) {
+            respond(exchange, 500, 13, "{\"message\":\"injected failure\"}");
+        } else {
+            this.route(exchange, method, path, body);
+        }
+    }
+
+    /**
+     * It answers a command.
+     * @param exchange in progress.
+     * @param method of the request.
+     * @param path of the request (without the base path).
+     * @param body of the request.
+     * @throws IOException if the response can't be written.
+     */
+    private void route(HttpExchange exchange, String method, String path, String body) throws IOException {
+        String command = path.startsWith("/session/") ? path.substring(path.indexOf('/', 9) < 0 ? path.length()
+                : path.indexOf('/', 9)) : path;
+        if ("/session".equals(path) && "POST".equals(method)) {
+            String platform = body.toLowerCase().contains("\"ios\"") ? "iOS" : "Android";
+            respond(exchange, 200, 0, "{\"platformName\":\"" + platform + "\",\"deviceName\":\"stub\"}");
+        } else if (command.equals("/element")) {
+            if (body.contains(MISSING_MARKER)) {
+                respond(exchange, 500, 7, "{\"message\":\"An element could not be located\"}");
+            } else {
+                respond(exchange, 200, 0, ELEMENT);
+            }
+        } else if (command.equals("/elements")) {
+            respond(exchange, 200, 0, body.contains(MISSING_MARKER) ? "[]" : "[" + ELEMENT + "]");
+        } else if (command.endsWith("/location")) {
+            respond(exchange, 200, 0, "{\"x\":10,\"y\":20}");
+        } else if (command.endsWith("/size")) {
+            respond(exchange, 200, 0, "{\"width\":100,\"height\":50}");
+        } else if (command.endsWith("/rect")) {
+            respond(exchange, 200, 0, "{\"x\":10,\"y\":20,\"width\":100,\"height\":50}");
+        } else if (command.endsWith("/displayed") || command.endsWith("/enabled")) {
+            respond(exchange, 200, 0, "true");
+        } else if (command.equals("/window_handle")) {
+            respond(exchange, 200, 0, "\"main\"");
+        } else if (command.equals("/context") && "GET".equals(method)) {
+            respond(exchange, 200, 0, "\"NATIVE_APP\"");
+        } else if (command.equals("/contexts")) {
+            respond(exchange, 200, 0, "[\"NATIVE_APP\"]");
+        } else if (command.equals("/execute")) {
+            respond(exchange, 200, 0, "\"complete\"");
+        } else {
+            respond(exchange, 200, 0, "null");
+        }
+    }
+
+    /**
+     * It adds the configured latency.
+     */
+    private void pause() {
+        long latency = this.latencyMicros;
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency / 1000, (int) (latency % 1000) * 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * It writes a JSON wire protocol response.
+     * @param exchange in progress.
+     * @param httpStatus of the response.
+     * @param status of the JSON wire protocol.
+     * @param value JSON of the value.
+     * @throws IOException if the response can't be written.
+     */
+    private static void respond(HttpExchange exchange, int httpStatus, int status, String value) throws IOException {
+        byte[] response = ("{\"sessionId\":\"" + SESSION_ID + "\",\"status\":" + status + ",\"value\":" + value + "}")
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(httpStatus, response.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(response);
+        output.close();
+    }
+
+    /**
+     * @param input to be read.
+     * @return the whole content as text.
+     * @throws IOException if it can't be read.
+     */
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
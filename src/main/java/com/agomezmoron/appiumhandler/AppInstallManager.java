@@ -0,0 +1,413 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import io.appium.java_client.remote.AndroidMobileCapabilityType;
+import io.appium.java_client.remote.IOSMobileCapabilityType;
+import io.appium.java_client.remote.MobileCapabilityType;
+
+/**
+ * It avoids reinstalling an app which is already installed on a device. Every APK/IPA/.app is identified by its SHA-256
+ * hash (computed once per file version) and the hash installed on every device is recorded in a local index file, so
+ * the install is skipped while the binary doesn't change.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class AppInstallManager {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(AppInstallManager.class);
+
+    /**
+     * Default index file.
+     */
+    private static Path DEFAULT_INDEX = Paths.get(System.getProperty("user.home"), ".appium-handler",
+            "installed-apps.properties");
+
+    /**
+     * Hashes of the apps by absolute path (they're computed again if the file changes).
+     */
+    private static final ConcurrentMap<String, AppHash> HASHES = new ConcurrentHashMap<String, AppHash>();
+
+    /**
+     * Lock serializing the updates of the index files within the JVM.
+     */
+    private static final Object INDEX_LOCK = new Object();
+
+    /**
+     * Index file.
+     */
+    private final Path indexFile;
+
+    /**
+     * Constructor using the default index file (~/.appium-handler/installed-apps.properties).
+     */
+    public AppInstallManager() {
+        this(DEFAULT_INDEX);
+    }
+
+    /**
+     * Constructor.
+     * @param indexFile where the installed hashes are recorded.
+     */
+    public AppInstallManager(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * It prepares the capabilities of a new session: if the app is already installed on the device, the app
+     * capability is removed so the installed app is launched (Appium still clears its data through its package or
+     * bundle id unless noReset is enabled). The reset capabilities defined by the caller are kept, the undefined ones
+     * are disabled. The install is only skipped if the device is identified by its udid (the device names are not
+     * unique, e.g. "Android Emulator") and a full reset (which reinstalls the app) wasn't requested.
+     * @param desiredCapabilities to be prepared.
+     * @return true if the install will be skipped.
+     */
+    public boolean prepareCapabilities(DesiredCapabilities desiredCapabilities) {
+        boolean skip = false;
+        File app = appOf(desiredCapabilities);
+        String key = keyOf(desiredCapabilities, bundleOf(desiredCapabilities));
+        boolean fullReset = Boolean.TRUE.equals(desiredCapabilities.getCapability(MobileCapabilityType.FULL_RESET))
+                || "true".equals(desiredCapabilities.getCapability(MobileCapabilityType.FULL_RESET));
+        if (app != null && key != null) {
+            try {
+                String hash = hashOf(app);
+                skip = !fullReset && hash.equals(this.getInstalledHash(key));
+            } catch (IOException ex) {
+                LOGGER.warn("The hash of " + app + " couldn't be computed: " + ex.getMessage());
+            }
+            if (skip) {
+                LOGGER.info("The app " + app + " is already installed on " + key + ", so it won't be installed");
+                desiredCapabilities.setCapability(MobileCapabilityType.APP, (Object) null);
+                if (desiredCapabilities.getCapability(MobileCapabilityType.FULL_RESET) == null) {
+                    desiredCapabilities.setCapability(MobileCapabilityType.FULL_RESET, false);
+                }
+            }
+            if (desiredCapabilities.getCapability(MobileCapabilityType.NO_RESET) == null) {
+                desiredCapabilities.setCapability(MobileCapabilityType.NO_RESET, false);
+            }
+        }
+        return skip;
+    }
+
+    /**
+     * It records the app of the capabilities as installed on their device.
+     * @param capabilities of a session created with the app capability.
+     */
+    public void recordInstalled(Capabilities capabilities) {
+        File app = appOf(capabilities);
+        String key = keyOf(capabilities, bundleOf(capabilities));
+        if (app != null && key != null) {
+            try {
+                this.setInstalledHash(key, hashOf(app));
+            } catch (IOException ex) {
+                LOGGER.warn("The install of " + app + " couldn't be recorded: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * It forgets the app of the capabilities (it's not installed on their device anymore).
+     * @param capabilities of the session.
+     */
+    public void forget(Capabilities capabilities) {
+        String key = keyOf(capabilities, bundleOf(capabilities));
+        if (key != null) {
+            this.setInstalledHash(key, null);
+        }
+    }
+
+    /**
+     * It installs an app in a running session only if the device doesn't have the same binary.
+     * @param driver of the session.
+     * @param appPath of the APK/IPA.
+     * @param bundleId of the app (package on Android).
+     * @return true if the app was (re)installed.
+     * @throws IOException if the app couldn't be read.
+     */
+    public boolean ensureInstalled(AppiumHandledDriver driver, String appPath, String bundleId) throws IOException {
+        File app = new File(appPath).getAbsoluteFile();
+        String hash = hashOf(app);
+        String key = keyOf(driver.getDriver().getCapabilities(), bundleId);
+        boolean installed = driver.isAppInstalled(bundleId);
+        boolean install = !installed || key == null || !hash.equals(this.getInstalledHash(key));
+        if (install) {
+            if (installed) {
+                driver.removeApp(bundleId);
+            }
+            driver.installApp(app.getPath());
+            if (key != null) {
+                this.setInstalledHash(key, hash);
+            }
+        } else {
+            LOGGER.info("The app " + app + " is already installed on " + key);
+        }
+        return install;
+    }
+
+    /**
+     * It computes the SHA-256 hash of an app, reusing the last one if the file didn't change (same modification
+     * time and size). The bundles (like the iOS .app directories) are hashed file by file, in path order.
+     * @param app to be hashed (a file or a bundle directory).
+     * @return the hex encoded hash.
+     * @throws IOException if the app couldn't be read.
+     */
+    public static String hashOf(File app) throws IOException {
+        String path = app.getAbsolutePath();
+        Path root = app.toPath();
+        List<Path> files = new ArrayList<Path>();
+        long modified = app.lastModified();
+        long size = 0;
+        if (app.isDirectory()) {
+            List<Path> paths;
+            try (Stream<Path> walk = Files.walk(root)) {
+                paths = walk.sorted().collect(Collectors.toList());
+            }
+            for (Path file : paths) {
+                modified = Math.max(modified, Files.getLastModifiedTime(file).toMillis());
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                    size += Files.size(file);
+                }
+            }
+        } else {
+            files.add(root);
+            size = app.length();
+        }
+        AppHash cached = HASHES.get(path);
+        if (cached == null || cached.modified != modified || cached.size != size) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            byte[] chunk = new byte[64 * 1024];
+            for (Path file : files) {
+                if (app.isDirectory()) {
+                    // the relative paths are hashed too, so a renamed file changes the hash
+                    String relative = root.relativize(file).toString().replace(File.separatorChar, '/');
+                    digest.update(relative.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                }
+                try (InputStream input = Files.newInputStream(file)) {
+                    int read;
+                    while ((read = input.read(chunk)) != -1) {
+                        digest.update(chunk, 0, read);
+                    }
+                }
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            cached = new AppHash(modified, size, hex.toString());
+            HASHES.put(path, cached);
+        }
+        return cached.hash;
+    }
+
+    /**
+     * @param key of the device and app.
+     * @return the installed hash or null if it's unknown.
+     */
+    private String getInstalledHash(String key) {
+        // the index is read again as other processes may have updated it (it's replaced atomically)
+        return this.load().getProperty(key);
+    }
+
+    /**
+     * It records the installed hash and it saves the index. The index is read again and updated while a lock file is
+     * held, so the processes sharing it don't lose each other's updates.
+     * @param key of the device and app.
+     * @param hash installed (null if it's not installed).
+     */
+    private void setInstalledHash(String key, String hash) {
+        Path parent = this.indexFile.toAbsolutePath().getParent();
+        Path lockFile = this.indexFile.resolveSibling(this.indexFile.getFileName() + ".lock");
+        // the file locks are held by the whole JVM, so the threads have to be serialized too
+        synchronized (INDEX_LOCK) {
+            try {
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+                    Properties index = this.load();
+                    if (hash == null) {
+                        index.remove(key);
+                    } else {
+                        index.setProperty(key, hash);
+                    }
+                    Path temp = Files.createTempFile(parent, "installed-apps", ".tmp");
+                    try (OutputStream output = Files.newOutputStream(temp)) {
+                        index.store(output, "Apps installed by appium-handler");
+                    }
+                    try {
+                        Files.move(temp, this.indexFile, StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(temp, this.indexFile, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            } catch (IOException ex) {
+                LOGGER.warn("The index " + this.indexFile + " couldn't be saved: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the index read from its file (empty if it doesn't exist).
+     */
+    private Properties load() {
+        Properties index = new Properties();
+        if (Files.exists(this.indexFile)) {
+            try (InputStream input = Files.newInputStream(this.indexFile)) {
+                index.load(input);
+            } catch (IOException ex) {
+                LOGGER.warn("The index " + this.indexFile + " couldn't be loaded: " + ex.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param capabilities of the session.
+     * @return the hash of the app (see {@link #hashOf(File)}) or null if it's not defined or it couldn't be read.
+     */
+    static String appHashOf(Capabilities capabilities) {
+        File app = appOf(capabilities);
+        String hash = null;
+        if (app != null) {
+            try {
+                hash = hashOf(app);
+            } catch (IOException ex) {
+                LOGGER.warn("The app " + app + " couldn't be hashed: " + ex.getMessage());
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param capabilities of the session.
+     * @return the app file (or bundle directory) or null if it's not defined or it's not local (e.g. an URL).
+     */
+    private static File appOf(Capabilities capabilities) {
+        Object app = capabilities.getCapability(MobileCapabilityType.APP);
+        File file = app instanceof String ? new File((String) app).getAbsoluteFile() : null;
+        return file != null && file.exists() ? file : null;
+    }
+
+    /**
+     * @param capabilities of the session.
+     * @return the bundle id (iOS) or package (Android) of the app or null if it's not defined.
+     */
+    private static String bundleOf(Capabilities capabilities) {
+        Object bundle = capabilities.getCapability(AndroidMobileCapabilityType.APP_PACKAGE);
+        if (bundle == null) {
+            bundle = capabilities.getCapability(IOSMobileCapabilityType.BUNDLE_ID);
+        }
+        return bundle instanceof String ? (String) bundle : null;
+    }
+
+    /**
+     * @param capabilities of the session.
+     * @param bundle of the app.
+     * @return the key of the device and app in the index or null if any of them is unknown (the device is only
+     * identified by its udid, as several devices can share the same name).
+     */
+    private static String keyOf(Capabilities capabilities, String bundle) {
+        Object device = capabilities.getCapability(MobileCapabilityType.UDID);
+        if (device == null) {
+            // udid reported by the server in the capabilities of an Android session
+            device = capabilities.getCapability("deviceUDID");
+        }
+        return device instanceof String && bundle != null ? device + "|" + bundle : null;
+    }
+
+    /**
+     * Hash of a version of an app.
+     */
+    private static class AppHash {
+
+        /**
+         * Modification time of the file.
+         */
+        private final long modified;
+
+        /**
+         * Size of the file.
+         */
+        private final long size;
+
+        /**
+         * SHA-256 hash (hex encoded).
+         */
+        private final String hash;
+
+        /**
+         * Constructor.
+         * @param modified time of the file.
+         * @param size of the file.
+         * @param hash of the file.
+         */
+        private AppHash(long modified, long size, String hash) {
+            this.modified = modified;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+}
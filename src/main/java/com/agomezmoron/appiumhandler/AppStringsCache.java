@@ -0,0 +1,344 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Two level cache of the string tables of an app (see {@link AppiumHandledDriver#getAppStringMap(String)}). The
+ * tables are kept in memory and stored on disk keyed by the hash of the app binary and the language, so the runs
+ * against the same build don't pull them from the device again. Every table is stored as a gzipped file of length
+ * prefixed UTF-8 keys and values.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class AppStringsCache {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(AppStringsCache.class);
+
+    /**
+     * Default folder of the stored tables.
+     */
+    private static Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("user.home"), ".appium-handler",
+            "app-strings");
+
+    /**
+     * Header of the stored tables (format version).
+     */
+    private static final int MAGIC = 0x41485331;
+
+    /**
+     * Name used for the default language (no encoded language is a single underscore).
+     */
+    private static String DEFAULT_LANGUAGE = "_";
+
+    /**
+     * Separator of the default language and the device locale (it's never written by {@link #encode(String)}).
+     */
+    private static String LOCALE_SEPARATOR = ".";
+
+    /**
+     * Folder of the stored tables.
+     */
+    private final Path directory;
+
+    /**
+     * Tables in memory by app hash and language.
+     */
+    private final ConcurrentMap<String, Map<String, String>> memory = new ConcurrentHashMap<String, Map<String, String>>();
+
+    /**
+     * Number of tables served from memory.
+     */
+    private final AtomicLong memoryHits = new AtomicLong();
+
+    /**
+     * Number of tables served from disk.
+     */
+    private final AtomicLong diskHits = new AtomicLong();
+
+    /**
+     * Number of tables pulled from the device.
+     */
+    private final AtomicLong fetches = new AtomicLong();
+
+    /**
+     * Flag to know if the lack of app hash was already reported.
+     */
+    private volatile boolean memoryOnlyReported = false;
+
+    /**
+     * Constructor using the default folder (~/.appium-handler/app-strings).
+     */
+    public AppStringsCache() {
+        this(DEFAULT_DIRECTORY);
+    }
+
+    /**
+     * Constructor.
+     * @param directory where the tables are stored.
+     */
+    public AppStringsCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * It gets a string table: from memory, from disk or, if it's not cached, from the device (it's cached then).
+     * @param appHash hash of the app binary (see {@link AppInstallManager#hashOf(java.io.File)}), null if it's unknown
+     * (e.g. the app is an URL, so the table is only kept in memory).
+     * @param language of the table (null for the default one, see {@link #getDefault(String, String, Supplier)}).
+     * @param fetch to pull the table from the device.
+     * @return the unmodifiable string table.
+     */
+    public Map<String, String> get(String appHash, String language, Supplier<Map<String, String>> fetch) {
+        Map<String, String> table;
+        if (language == null) {
+            // the locale of the device is unknown
+            table = this.getDefault(appHash, null, fetch);
+        } else {
+            table = this.get(appHash, encode(language), appHash != null, fetch);
+        }
+        return table;
+    }
+
+    /**
+     * It gets the string table of the default language, which is the one of the current locale of the device. It's
+     * only stored on disk if that locale is known, as the same app can run on devices with other locales.
+     * @param appHash hash of the app binary (null if it's unknown).
+     * @param deviceLocale locale of the device (null if it's unknown, so the table is only kept in memory).
+     * @param fetch to pull the table from the device.
+     * @return the unmodifiable string table.
+     */
+    public Map<String, String> getDefault(String appHash, String deviceLocale, Supplier<Map<String, String>> fetch) {
+        String name = DEFAULT_LANGUAGE;
+        if (deviceLocale != null) {
+            name += LOCALE_SEPARATOR + encode(deviceLocale);
+        }
+        return this.get(appHash, name, appHash != null && deviceLocale != null, fetch);
+    }
+
+    /**
+     * It gets a string table: from memory, from disk or, if it's not cached, from the device (it's cached then).
+     * @param appHash hash of the app binary (null if it's unknown).
+     * @param name of the table (encoded language).
+     * @param persistent true if the table can be stored on disk.
+     * @param fetch to pull the table from the device.
+     * @return the unmodifiable string table.
+     */
+    private Map<String, String> get(String appHash, String name, boolean persistent,
+            Supplier<Map<String, String>> fetch) {
+        String key = appHash + "|" + name;
+        if (appHash == null && !this.memoryOnlyReported) {
+            this.memoryOnlyReported = true;
+            LOGGER.info("The app binary is unknown (it's not a local file or bundle), so the app strings won't be "
+                    + "stored on disk");
+        }
+        Map<String, String> table = this.memory.get(key);
+        if (table != null) {
+            this.memoryHits.incrementAndGet();
+        } else {
+            Path file = persistent ? this.directory.resolve(appHash + "-" + name + ".strings.gz") : null;
+            if (file != null && Files.isRegularFile(file)) {
+                try {
+                    table = read(file);
+                    this.diskHits.incrementAndGet();
+                } catch (IOException ex) {
+                    LOGGER.warn("The strings " + file + " couldn't be read, so they'll be pulled: " + ex.getMessage());
+                }
+            }
+            if (table == null) {
+                table = Collections.unmodifiableMap(new LinkedHashMap<String, String>(fetch.get()));
+                this.fetches.incrementAndGet();
+                if (file != null) {
+                    this.write(file, table);
+                }
+            }
+            this.memory.put(key, table);
+        }
+        return table;
+    }
+
+    /**
+     * It encodes a language as a file name without collisions: the letters, digits and hyphens are kept and any other
+     * byte is written as an underscore followed by its hex value.
+     * @param language to be encoded (null for the default one).
+     * @return the encoded language.
+     */
+    static String encode(String language) {
+        String encoded = DEFAULT_LANGUAGE;
+        if (language != null) {
+            StringBuilder builder = new StringBuilder();
+            for (byte b : language.getBytes(StandardCharsets.UTF_8)) {
+                if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '-') {
+                    builder.append((char) b);
+                } else {
+                    builder.append('_').append(String.format("%02x", b & 0xff));
+                }
+            }
+            encoded = builder.toString();
+        }
+        return encoded;
+    }
+
+    /**
+     * It reads a stored table.
+     * @param file to be read.
+     * @return the unmodifiable table.
+     * @throws IOException if the file couldn't be read.
+     */
+    private static Map<String, String> read(Path file) throws IOException {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Unknown format");
+            }
+            int size = input.readInt();
+            Map<String, String> table = new LinkedHashMap<String, String>(size * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                table.put(readString(input), readString(input));
+            }
+            return Collections.unmodifiableMap(table);
+        }
+    }
+
+    /**
+     * It stores a table (atomically, so a concurrent reader never sees it half written).
+     * @param file to be written.
+     * @param table to be stored.
+     */
+    private void write(Path file, Map<String, String> table) {
+        try {
+            Files.createDirectories(this.directory);
+            Path temp = Files.createTempFile(this.directory, "app-strings", ".tmp");
+            try (DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                output.writeInt(MAGIC);
+                output.writeInt(table.size());
+                for (Map.Entry<String, String> entry : table.entrySet()) {
+                    writeString(output, entry.getKey());
+                    writeString(output, entry.getValue());
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("The strings " + file + " couldn't be stored: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @param input to be read.
+     * @return the read string (it can be null).
+     * @throws IOException if the string couldn't be read.
+     */
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        String value = null;
+        if (length >= 0) {
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    /**
+     * @param output to be written.
+     * @param value to be written (it can be null).
+     * @throws IOException if the string couldn't be written.
+     */
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * It forgets the tables kept in memory (the stored ones are kept).
+     */
+    public void invalidateMemory() {
+        this.memory.clear();
+    }
+
+    /**
+     * @return the number of tables served from memory.
+     */
+    public long getMemoryHits() {
+        return this.memoryHits.get();
+    }
+
+    /**
+     * @return the number of tables served from disk.
+     */
+    public long getDiskHits() {
+        return this.diskHits.get();
+    }
+
+    /**
+     * @return the number of tables pulled from the device.
+     */
+    public long getFetches() {
+        return this.fetches.get();
+    }
+
+    @Override
+    public String toString() {
+        return "AppStringsCache [directory=" + this.directory + ", memoryHits=" + this.memoryHits.get()
+                + ", diskHits=" + this.diskHits.get() + ", fetches=" + this.fetches.get() + "]";
+    }
+
+}
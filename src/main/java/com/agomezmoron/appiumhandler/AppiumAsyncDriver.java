@@ -0,0 +1,334 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.By;
+
+import io.appium.java_client.MobileElement;
+
+/**
+ * Asynchronous facade of an {@link AppiumHandledDriver}. Every operation returns a {@link CompletableFuture} and it's
+ * executed by a {@link SerialExecutor} of the session, so the commands of a session keep their order while many
+ * sessions share a small pool of threads (or virtual threads, when the JVM supports them).
+ * <p>
+ * The synchronous methods of the wrapped driver shouldn't be used while there are pending asynchronous operations.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class AppiumAsyncDriver {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(AppiumAsyncDriver.class);
+
+    /**
+     * Shared executor of platform threads (lazily created).
+     */
+    private static ExecutorService platformExecutor;
+
+    /**
+     * Shared executor of virtual threads (lazily created).
+     */
+    private static ExecutorService virtualExecutor;
+
+    /**
+     * Wrapped driver.
+     */
+    private final AppiumHandledDriver driver;
+
+    /**
+     * Executor of the session.
+     */
+    private final SerialExecutor executor;
+
+    /**
+     * Constructor.
+     * @param driver to be wrapped.
+     * @param executor shared executor running the commands.
+     */
+    private AppiumAsyncDriver(AppiumHandledDriver driver, Executor executor) {
+        this.driver = driver;
+        this.executor = new SerialExecutor(executor);
+    }
+
+    /**
+     * Builder method to create {@link AppiumAsyncDriver} instances.
+     * @param driver to be wrapped.
+     * @param executor shared executor running the commands (see {@link #platformThreadExecutor()} and
+     *            {@link #virtualThreadExecutor()}).
+     * @return the asynchronous facade.
+     */
+    public static AppiumAsyncDriver of(AppiumHandledDriver driver, Executor executor) {
+        return new AppiumAsyncDriver(driver, executor);
+    }
+
+    /**
+     * @return the shared executor of daemon platform threads.
+     */
+    public static synchronized ExecutorService platformThreadExecutor() {
+        if (platformExecutor == null) {
+            platformExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "appium-async-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return platformExecutor;
+    }
+
+    /**
+     * @return the shared executor of virtual threads or, if the JVM doesn't support them, the shared executor of
+     *         platform threads.
+     */
+    public static synchronized ExecutorService virtualThreadExecutor() {
+        if (virtualExecutor == null) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                virtualExecutor = (ExecutorService) factory.invoke(null);
+            } catch (Exception ex) {
+                LOGGER.warn("Virtual threads are not supported by this JVM, so platform threads will be used");
+                virtualExecutor = platformThreadExecutor();
+            }
+        }
+        return virtualExecutor;
+    }
+
+    /**
+     * It executes any operation of the wrapped driver asynchronously.
+     * @param operation to be executed.
+     * @return the future result of the operation.
+     */
+    public <T> CompletableFuture<T> submit(Function<AppiumHandledDriver, T> operation) {
+        return this.executor.supply(() -> operation.apply(this.driver));
+    }
+
+    /**
+     * It executes any operation without result of the wrapped driver asynchronously.
+     * @param operation to be executed.
+     * @return the future completion of the operation.
+     */
+    public CompletableFuture<Void> run(Consumer<AppiumHandledDriver> operation) {
+        return this.executor.supply(() -> {
+            operation.accept(this.driver);
+            return null;
+        });
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#findElement(By)}.
+     */
+    public CompletableFuture<MobileElement> findElement(By by) {
+        return this.submit(d -> d.findElement(by));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#findElements(By)}.
+     */
+    public CompletableFuture<List<MobileElement>> findElements(By by) {
+        return this.submit(d -> d.findElements(by));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#findElementById(String)}.
+     */
+    public CompletableFuture<MobileElement> findElementById(String id) {
+        return this.submit(d -> d.findElementById(id));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#findElementsById(String)}.
+     */
+    public CompletableFuture<List<MobileElement>> findElementsById(String id) {
+        return this.submit(d -> d.findElementsById(id));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#findElementByName(String)}.
+     */
+    public CompletableFuture<MobileElement> findElementByName(String using) {
+        return this.submit(d -> d.findElementByName(using));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#findElementsByXPath(String)}.
+     */
+    public CompletableFuture<List<MobileElement>> findElementsByXPath(String using) {
+        return this.submit(d -> d.findElementsByXPath(using));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#findElementsByAccessibilityId(String)}.
+     */
+    public CompletableFuture<List<MobileElement>> findElementsByAccessibilityId(String using) {
+        return this.submit(d -> d.findElementsByAccessibilityId(using));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#waitFor(By, long)}.
+     */
+    public CompletableFuture<MobileElement> waitFor(By selector, long seconds) {
+        return this.submit(d -> d.waitFor(selector, seconds));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#tap(int, MobileElement, int)}.
+     */
+    public CompletableFuture<Void> tap(int fingers, MobileElement element, int duration) {
+        return this.run(d -> d.tap(fingers, element, duration));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#tap(int, int, int, int)}.
+     */
+    public CompletableFuture<Void> tap(int fingers, int x, int y, int duration) {
+        return this.run(d -> d.tap(fingers, x, y, duration));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#swipe(int, int, int, int, int)}.
+     */
+    public CompletableFuture<Void> swipe(int startx, int starty, int endx, int endy, int duration) {
+        return this.run(d -> d.swipe(startx, starty, endx, endy, duration));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#pinch(int, int)}.
+     */
+    public CompletableFuture<Void> pinch(int x, int y) {
+        return this.run(d -> d.pinch(x, y));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#zoom(int, int)}.
+     */
+    public CompletableFuture<Void> zoom(int x, int y) {
+        return this.run(d -> d.zoom(x, y));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#executeJavaScript(String)}.
+     */
+    public CompletableFuture<Object> executeJavaScript(String script) {
+        return this.submit(d -> d.executeJavaScript(script));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#pullFile(String)}.
+     */
+    public CompletableFuture<byte[]> pullFile(String remotePath) {
+        return this.submit(d -> d.pullFile(remotePath));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#pullFolder(String)}.
+     */
+    public CompletableFuture<byte[]> pullFolder(String remotePath) {
+        return this.submit(d -> d.pullFolder(remotePath));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#isAppInstalled(String)}.
+     */
+    public CompletableFuture<Boolean> isAppInstalled(String bundleId) {
+        return this.submit(d -> d.isAppInstalled(bundleId));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#installApp(String)}.
+     */
+    public CompletableFuture<Void> installApp(String appPath) {
+        return this.run(d -> d.installApp(appPath));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#removeApp(String)}.
+     */
+    public CompletableFuture<Void> removeApp(String bundleId) {
+        return this.run(d -> d.removeApp(bundleId));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#launchApp()}.
+     */
+    public CompletableFuture<Void> launchApp() {
+        return this.run(d -> d.launchApp());
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#closeApp()}.
+     */
+    public CompletableFuture<Void> closeApp() {
+        return this.run(d -> d.closeApp());
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#resetApp()}.
+     */
+    public CompletableFuture<Void> resetApp() {
+        return this.run(d -> d.resetApp());
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#runAppInBackground(int)}.
+     */
+    public CompletableFuture<Void> runAppInBackground(int seconds) {
+        return this.run(d -> d.runAppInBackground(seconds));
+    }
+
+    /**
+     * @see {@link AppiumHandledDriver#quit()}.
+     */
+    public CompletableFuture<Void> quit() {
+        return this.run(d -> d.quit());
+    }
+
+    /**
+     * @return the wrapped {@link AppiumHandledDriver}.
+     */
+    public AppiumHandledDriver getHandledDriver() {
+        return this.driver;
+    }
+
+}
@@ -25,28 +25,45 @@
 package com.agomezmoron.appiumhandler;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import org.openqa.selenium.By;
 import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.Dimension;
 import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.Platform;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
 import org.openqa.selenium.ScreenOrientation;
+import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.UnsupportedCommandException;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebDriver.TargetLocator;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.html5.Location;
 import org.openqa.selenium.remote.DesiredCapabilities;
 import org.openqa.selenium.remote.ExecuteMethod;
 import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.SessionId;
+import org.openqa.selenium.remote.http.HttpClient;
 
 import com.google.gson.JsonObject;
 
@@ -88,6 +105,16 @@ public class AppiumHandledDriver {
      */
     private static String APP_HYBRID = "appHybrid";
 
+    /**
+     * Implicit wait (in seconds) configured for slow devices.
+     */
+    private static long IMPLICIT_WAIT_SECONDS = 35;
+
+    /**
+     * Max number of snapshot matches resolved one by one instead of using the XPath engine of the server.
+     */
+    private static int MAX_SNAPSHOT_RESOLVES = 5;
+
     /**
      * Parameter to have always the main window.
      */
@@ -103,6 +130,116 @@ public class AppiumHandledDriver {
      */
     private boolean isAnHybridApp;
 
+    /**
+     * Engine used by the explicit waits.
+     */
+    private final WaitEngine waitEngine;
+
+    /**
+     * Number of nested suspensions of the implicit wait.
+     */
+    private int implicitWaitSuspensions = 0;
+
+    /**
+     * Implicit wait (in milliseconds) applied out of the suspensions (it's shortened by the latency budgets).
+     */
+    private long implicitWaitMillis = TimeUnit.SECONDS.toMillis(IMPLICIT_WAIT_SECONDS);
+
+    /**
+     * Timeline of the last WEBVIEW context switch.
+     */
+    private ContextSwitchTimeline webViewSwitchTimeline;
+
+    /**
+     * Opt-in cache of the finders (null if it's disabled).
+     */
+    private volatile ElementCache elementCache;
+
+    /**
+     * Snapshot of the current page source (null if it was invalidated).
+     */
+    private volatile PageSnapshot pageSnapshot;
+
+    /**
+     * Max age (in milliseconds) of the snapshot used by the finders (a negative value disables the snapshot mode).
+     */
+    private volatile long snapshotMaxAgeMillis = -1;
+
+    /**
+     * Optimizer of the locators (null if it's disabled).
+     */
+    private volatile LocatorOptimizer locatorOptimizer;
+
+    /**
+     * Local mirror of the context, window handle, orientation and settings of the session.
+     */
+    private final SessionState state = new SessionState();
+
+    /**
+     * Latency metrics of the commands.
+     */
+    private final CommandMetrics metrics = new CommandMetrics();
+
+    /**
+     * Source of time of the waits, sleeps and metrics.
+     */
+    private volatile Clock clock = SystemClock.INSTANCE;
+
+    /**
+     * Tracer of the commands (null if the tracing is disabled).
+     */
+    private volatile SessionTracer tracer;
+
+    /**
+     * Folder where the trace is exported when the session is quitted (null to not export it).
+     */
+    private volatile Path traceDirectory;
+
+    /**
+     * Rects of the elements used by the gestures.
+     */
+    private final ElementGeometry geometry = new ElementGeometry();
+
+    /**
+     * Asynchronous facade (lazily created).
+     */
+    private AppiumAsyncDriver asyncDriver;
+
+    /**
+     * Factory of the HTTP clients of the session (null if it uses the default one).
+     */
+    private HttpClient.Factory httpClientFactory;
+
+    /**
+     * Streamer of the pulled files (created on demand).
+     */
+    private DeviceFileStreamer fileStreamer;
+
+    /**
+     * Registry of the named scripts (created on demand).
+     */
+    private ScriptRegistry scriptRegistry;
+
+    /**
+     * Size of the screen (null until it's fetched).
+     */
+    private volatile Dimension windowSize;
+
+    /**
+     * Cache of the string tables of the app (null if it's disabled).
+     */
+    private volatile AppStringsCache appStringsCache;
+
+    /**
+     * Hash of the app binary (null if it's unknown).
+     */
+    private String appHash;
+
+    /**
+     * Flag to know if the hash of the app binary was already resolved.
+     */
+    private boolean appHashResolved = false;
+
     /**
      * Builder method to create {@link AppiumHandledDriver} instances.
      * @param remoteAddress to be used.
@@ -110,6 +247,31 @@ public class AppiumHandledDriver {
      * @return an {@link AppiumHandledDriver} instance with the custom implementation.
      */
     public static AppiumHandledDriver buildInstance(URL remoteAddress, DesiredCapabilities desiredCapabilities) {
+        return buildInstance(remoteAddress, desiredCapabilities, (HttpClient.Factory) null);
+    }
+
+    /**
+     * Builder method to create {@link AppiumHandledDriver} instances using a tuned HTTP transport. Every session
+     * built with the same {@link TransportConfig} shares its connection pool.
+     * @param remoteAddress to be used.
+     * @param desiredCapabilities to be used.
+     * @param transportConfig of the HTTP transport.
+     * @return an {@link AppiumHandledDriver} instance with the custom implementation.
+     */
+    public static AppiumHandledDriver buildInstance(URL remoteAddress, DesiredCapabilities desiredCapabilities,
+            TransportConfig transportConfig) {
+        return buildInstance(remoteAddress, desiredCapabilities, transportConfig.getFactory());
+    }
+
+    /**
+     * Builder method to create {@link AppiumHandledDriver} instances using a custom HTTP client factory.
+     * @param remoteAddress to be used.
+     * @param desiredCapabilities to be used.
+     * @param httpClientFactory used by the command executor (null to use the default one).
+     * @return an {@link AppiumHandledDriver} instance with the custom implementation.
+     */
+    public static AppiumHandledDriver buildInstance(URL remoteAddress, DesiredCapabilities desiredCapabilities,
+            HttpClient.Factory httpClientFactory) {
         AppiumHandledDriver instance = null;
 
         // getting app path (if it's exists)
@@ -124,75 +286,147 @@ public class AppiumHandledDriver {
             }
         }
 
-        AppiumDriver<MobileElement> driver = null;
-
         // building the instance
+        AppiumDriver<MobileElement> driver = budgeted("newSession",
+                () -> newDriver(remoteAddress, desiredCapabilities, httpClientFactory));
+
+        ContextSwitchTimeline timeline = null;
+        try {
+            // implicit wait for slow devices
+            budgeted("implicitlyWait",
+                    () -> driver.manage().timeouts().implicitlyWait(IMPLICIT_WAIT_SECONDS, TimeUnit.SECONDS));
+            Boolean isHybrid = false;
+            Object appHybrid = desiredCapabilities.getCapability(APP_HYBRID);
+            desiredCapabilities.setCapability(MobileCapabilityType.TAKES_SCREENSHOT, "true");
+            if (appHybrid != null && appHybrid instanceof Boolean) {
+                isHybrid = (Boolean) appHybrid;
+                if (isHybrid) {
+                    // if the app is hybrid, we have to wait until the WEBVIEW context handler exists
+                    WebViewContextSwitcher switcher = WebViewContextSwitcher.fromCapabilities(desiredCapabilities);
+                    timeline = budgeted("switchToWebViewContext", () -> switcher.switchTo(driver));
+                    LatencyBudget budget = LatencyBudget.current();
+                    if (!timeline.isSwitched() && budget != null && budget.isExceeded()) {
+                        // the switch was cut by the budget, so the session is useless
+                        throw budget.exceeded("buildInstance", null);
+                    }
+                }
+            }
+            // now the driver is configured, we create the wrapper
+            instance = new AppiumHandledDriver(driver, isHybrid);
+        } catch (RuntimeException | Error ex) {
+            // the session was created, so it's quit instead of being leaked
+            quitQuietly(driver);
+            throw ex;
+        }
+        instance.httpClientFactory = httpClientFactory;
+        instance.webViewSwitchTimeline = timeline;
+        if (timeline != null && timeline.isSwitched()) {
+            instance.state.setContext(timeline.getContext());
+        }
+        return instance;
+    }
+
+    /**
+     * It creates the driver of the platform defined by the capabilities.
+     * @param remoteAddress to be used.
+     * @param desiredCapabilities to be used.
+     * @param httpClientFactory used by the command executor (null to use the default one).
+     * @return the created driver.
+     */
+    private static AppiumDriver<MobileElement> newDriver(URL remoteAddress, DesiredCapabilities desiredCapabilities,
+            HttpClient.Factory httpClientFactory) {
+        AppiumDriver<MobileElement> driver = null;
         if (isIOS(desiredCapabilities)) {
-            driver = new IOSDriver<MobileElement>(remoteAddress, desiredCapabilities);
+            driver = httpClientFactory == null ? new IOSDriver<MobileElement>(remoteAddress, desiredCapabilities)
+                    : new IOSDriver<MobileElement>(remoteAddress, httpClientFactory, desiredCapabilities);
         } else if (isAndroid(desiredCapabilities)) {
-            driver = new AndroidDriver<MobileElement>(remoteAddress, desiredCapabilities);
+            driver = httpClientFactory == null ? new AndroidDriver<MobileElement>(remoteAddress, desiredCapabilities)
+                    : new AndroidDriver<MobileElement>(remoteAddress, httpClientFactory, desiredCapabilities);
         } else {
             // TODO: work on it. Nowadays just iOS and android are supported by this handler.
-            driver = new AndroidDriver<MobileElement>(remoteAddress, desiredCapabilities);
-        }
-
-        // implicit wait for slow devices
-        driver.manage().timeouts().implicitlyWait(35, TimeUnit.SECONDS);
-        Boolean isHybrid = false;
-        Object appHybrid = desiredCapabilities.getCapability(APP_HYBRID);
-        desiredCapabilities.setCapability(MobileCapabilityType.TAKES_SCREENSHOT, "true");
-        if (appHybrid != null && appHybrid instanceof Boolean) {
-            isHybrid = (Boolean) appHybrid;
-            if (isHybrid) {
-                // if the app is hybrid, we have to wait until the WEBVIEW context handler exists
-                driver = switchToWebViewContext(driver);
-            }
+            driver = httpClientFactory == null ? new AndroidDriver<MobileElement>(remoteAddress, desiredCapabilities)
+                    : new AndroidDriver<MobileElement>(remoteAddress, httpClientFactory, desiredCapabilities);
         }
-        // now the driver is configured, we create the wrapper
-        instance = new AppiumHandledDriver(driver, isHybrid);
-        return instance;
+        return driver;
     }
 
     /**
-     * This method switches to webview context (for hybrid apps).
-     * @param driver to be switched to.
-     * @param 
-     * @return modified driver instance.
-     */
-    private static AppiumDriver<MobileElement> switchToWebViewContext(AppiumDriver<MobileElement> driver) {
-        long start = new Date().getTime();
-        long end = new Date().getTime();
-        long limit = 15; // waiting no more than 15 seconds to switch to a WEBVIEW context
-        boolean switched = false;
-        int maxRetries = 5;
-        // for HYBRID APPS, switching the context
-        do {
-            sleepFor(1);
-            Set<String> contextHandles = driver.getContextHandles();
-            for (String context : contextHandles) {
-                if (context.contains("WEBVIEW")) {
-                    // the context change needs some extra time
-                    int retries = 0;
-                    do {
-                        sleepFor(5);
-                        try {
-                            driver.context(context);
-                        } catch (Exception ex) {
-                            LOGGER.warn("An error occurred switching the context. Trying again...");
-                        }
-                        retries++;
-                    } while (!driver.getContext().contains("WEBVIEW") && retries < maxRetries);
-                    switched = true;
+     * It quits a driver ignoring any error (it's used when the session can't be configured).
+     * @param driver to be quit.
+     */
+    private static void quitQuietly(AppiumDriver<MobileElement> driver) {
+        try {
+            driver.quit();
+        } catch (Exception ex) {
+            LOGGER.warn("An error occurred quitting the session: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Builder method to create {@link AppiumHandledDriver} instances skipping the install of the app if the device
+     * already has the same binary (see {@link AppInstallManager}).
+     * @param remoteAddress to be used.
+     * @param desiredCapabilities to be used (they're not modified).
+     * @param installManager tracking the apps installed on the devices.
+     * @return an {@link AppiumHandledDriver} instance with the custom implementation.
+     */
+    public static AppiumHandledDriver buildInstance(URL remoteAddress, DesiredCapabilities desiredCapabilities,
+            AppInstallManager installManager) {
+        AppiumHandledDriver instance = null;
+        DesiredCapabilities capabilities = new DesiredCapabilities(desiredCapabilities);
+        if (installManager.prepareCapabilities(capabilities)) {
+            try {
+                instance = buildInstance(remoteAddress, capabilities);
+            } catch (SessionNotCreatedException ex) {
+                // the index may be stale (the app was removed from the device), so it's installed again. The entry
+                // is only replaced once the install succeeds, as the session may have failed for other reasons
+                LOGGER.warn("The installed app couldn't be launched, so it will be installed: " + ex.getMessage());
+                capabilities = new DesiredCapabilities(desiredCapabilities);
+                if (capabilities.getCapability(MobileCapabilityType.NO_RESET) == null) {
+                    capabilities.setCapability(MobileCapabilityType.NO_RESET, false);
                 }
             }
-            end = new Date().getTime();
-        } while (!switched && (start + (limit * 1000)) > end);
+        }
+        if (instance == null) {
+            instance = buildInstance(remoteAddress, capabilities);
+            installManager.recordInstalled(capabilities);
+        }
+        // the app capability may have been removed from the used capabilities, so it's hashed from the desired ones
+        instance.setAppHash(AppInstallManager.appHashOf(desiredCapabilities));
+        return instance;
+    }
 
-        if (!switched) {
-            LOGGER.error("After waiting for " + limit
-                    + " seconds, the driver couldn't switched to the WEBVIEW context, so the test of the hybrid application will failed!");
+    /**
+     * This method switches to webview context (for hybrid apps) using the capabilities of the session to configure the
+     * {@link WebViewContextSwitcher}.
+     * @return the {@link ContextSwitchTimeline} of the switch.
+     */
+    public ContextSwitchTimeline switchToWebViewContext() {
+        WebViewContextSwitcher switcher = WebViewContextSwitcher.fromCapabilities(this.driver.getCapabilities());
+        switcher.setClock(this.clock);
+        return this.switchToWebViewContext(switcher);
+    }
+
+    /**
+     * This method switches to webview context (for hybrid apps).
+     * @param switcher configured {@link WebViewContextSwitcher} to be used.
+     * @return the {@link ContextSwitchTimeline} of the switch.
+     */
+    public ContextSwitchTimeline switchToWebViewContext(WebViewContextSwitcher switcher) {
+        this.invalidateScreenState();
+        this.state.setContext(null);
+        this.webViewSwitchTimeline = this.timed("switchToWebViewContext", () -> switcher.switchTo(this.driver));
+        if (this.webViewSwitchTimeline.isSwitched()) {
+            this.state.setContext(this.webViewSwitchTimeline.getContext());
         }
-        return driver;
+        return this.webViewSwitchTimeline;
+    }
+
+    /**
+     * @return the {@link ContextSwitchTimeline} of the last WEBVIEW context switch (null if there was none).
+     */
+    public ContextSwitchTimeline getWebViewSwitchTimeline() {
+        return this.webViewSwitchTimeline;
     }
 
     /**
@@ -223,7 +457,74 @@ public class AppiumHandledDriver {
     private AppiumHandledDriver(AppiumDriver<MobileElement> driver, Boolean isHybridApp) {
         this.driver = driver;
         this.isAnHybridApp = isHybridApp;
-        this.mainWindow = this.driver.getWindowHandle();
+        if (isHybridApp) {
+            // the main window is only used by the hybrid apps
+            this.mainWindow = this.getWindowHandle();
+        }
+        this.waitEngine = new WaitEngine(this);
+    }
+
+    /**
+     * Package method to know if the wrapped session belongs to an hybrid app.
+     * @return true if the app is hybrid.
+     */
+    boolean isHybrid() {
+        return this.isAnHybridApp;
+    }
+
+    /**
+     * Package method invoked by the {@link AppiumSessionPool} after the app has been reset, so the wrapper forgets
+     * everything it knew about the previous app state and the next lessee gets the defaults instead of the settings of
+     * the previous one (element cache, snapshot mode, locator optimizer, tracing, clock, app strings cache and wait
+     * tuning). The trace of the previous lessee is exported if it had a directory.
+     */
+    void onRecycled() {
+        this.exportTrace(driver.getSessionId() + "-" + System.currentTimeMillis());
+        this.invalidateScreenState();
+        this.state.invalidate();
+        this.elementCache = null;
+        this.snapshotMaxAgeMillis = -1;
+        this.locatorOptimizer = null;
+        this.tracer = null;
+        this.traceDirectory = null;
+        this.appStringsCache = null;
+        this.setClock(SystemClock.INSTANCE);
+        this.waitEngine.reset();
+        if (this.isAnHybridApp) {
+            this.mainWindow = this.getWindowHandle();
+        }
+    }
+
+    /**
+     * It suspends the implicit wait, so lookups return immediately when the element is missing. Every call has to be
+     * followed by a {@link AppiumHandledDriver#restoreImplicitWait()} call (nested calls are supported).
+     */
+    synchronized void suspendImplicitWait() {
+        if (this.implicitWaitSuspensions == 0) {
+            // counted only once it succeeded, as the callers don't restore it if it throws
+            this.driver.manage().timeouts().implicitlyWait(0, TimeUnit.MILLISECONDS);
+        }
+        this.implicitWaitSuspensions++;
+    }
+
+    /**
+     * It looks the elements up for a wait (the implicit wait must be suspended), recording the lookup as a nested
+     * command of the wait.
+     * @param selector to be used.
+     * @return the found elements.
+     */
+    List<MobileElement> waitLookup(By selector) {
+        return this.timed("waitLookup", selector, () -> driver.findElements(selector));
+    }
+
+    /**
+     * It restores the implicit wait suspended by {@link AppiumHandledDriver#suspendImplicitWait()}.
+     */
+    synchronized void restoreImplicitWait() {
+        if (this.implicitWaitSuspensions > 0 && --this.implicitWaitSuspensions == 0) {
+            this.driver.manage().timeouts().implicitlyWait(IMPLICIT_WAIT_SECONDS, TimeUnit.SECONDS);
+            this.implicitWaitMillis = TimeUnit.SECONDS.toMillis(IMPLICIT_WAIT_SECONDS);
+        }
     }
 
     /**
@@ -231,8 +532,10 @@ public class AppiumHandledDriver {
      */
     public void switchToMainWindow() {
         if (this.isAnHybridApp && StringUtils.isNotBlank(this.mainWindow)
-                && !this.driver.getWindowHandle().equals(this.mainWindow)) {
-            this.driver.switchTo().window(this.mainWindow);
+                && !this.getWindowHandle().equals(this.mainWindow)) {
+            this.invalidateScreenState();
+            this.timed("switchToWindow", () -> this.driver.switchTo().window(this.mainWindow));
+            this.state.setWindowHandle(this.mainWindow);
         }
     }
 
@@ -278,36 +581,28 @@ public class AppiumHandledDriver {
      * @param selector to get the element.
      * @param seconds to wait for (timeout).
      * @param message to send to the log if something happens.
+     * @return the found element or null if it's missing after the timeout.
      */
-    public void waitFor(By selector, long seconds, String message) {
-        LOGGER.info("Waiting for " + selector.toString());
-        long start = new Date().getTime();
-        long end = start + (seconds * 1000);
-        long now = new Date().getTime();
-        MobileElement element = null;
-        do {
-            element = this.findElement(selector);
-            now = new Date().getTime();
-        } while (element == null && now <= end);
-
-        if (element == null) {
-            if (message != null && "".equals(message.trim())) {
-                LOGGER.error("After waiting " + seconds + " seconds for the element " + selector.toString()
-                        + ", the element is missing!. Custom message: " + message);
-            } else {
-                LOGGER.error("After waiting " + seconds + " seconds for the element " + selector.toString()
-                        + ", the element is missing!");
-            }
+    public MobileElement waitFor(By selector, long seconds, String message) {
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Waiting for " + selector.toString());
         }
+        WaitEngine.Result result = this.timed("waitFor", selector,
+                () -> this.waitEngine.until(selector, WaitCondition.PRESENT, seconds * 1000));
+        if (!result.isSatisfied()) {
+            logWaitError(selector, seconds, "the element is missing!", message);
+        }
+        return result.getElement();
     }
 
     /**
      * This method waits for the {@link MobileElement} described by the {@By} selector with a timeout of seconds.
      * @param selector to get the element.
      * @param seconds to wait for (timeout).
+     * @return the found element or null if it's missing after the timeout.
      */
-    public void waitFor(By selector, long seconds) {
-        this.waitFor(selector, seconds, null);
+    public MobileElement waitFor(By selector, long seconds) {
+        return this.waitFor(selector, seconds, null);
     }
 
     /**
@@ -315,54 +610,120 @@ public class AppiumHandledDriver {
      * @param selector to get the element.
      * @param seconds to wait for (timeout).
      * @param message to send to the log if something happens.
+     * @return the visible element or null if it's missing or not displayed after the timeout.
+     */
+    public MobileElement waitUntilVisible(By selector, long seconds, String message) {
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Waiting for " + selector.toString());
+        }
+        WaitEngine.Result result = this.timed("waitUntilVisible", selector,
+                () -> this.waitEngine.until(selector, WaitCondition.VISIBLE, seconds * 1000));
+        if (!result.isSatisfied()) {
+            logWaitError(selector, seconds, "the element is missing or it's not displayed.", message);
+        }
+        return result.getElement();
+    }
+
+    /**
+     * This method waits for the {@link MobileElement} until it's displayed and enabled described by the {@By} selector
+     * with a timeout of seconds.
+     * @param selector to get the element.
+     * @param seconds to wait for (timeout).
+     * @param message to send to the log if something happens.
+     * @return the clickable element or null if it's not clickable after the timeout.
      */
-    public void waitUntilVisible(By selector, long seconds, String message) {
-        LOGGER.info("Waiting for " + selector.toString());
-        this.waitFor(selector, seconds, message);
-        MobileElement element = this.findElement(selector);
-        if (element != null && !element.isDisplayed()) {
-            LOGGER.error("After waiting " + seconds + " seconds for the element " + selector.toString()
-                    + " exists in the DOM but is not displayed.");
+    public MobileElement waitUntilClickable(By selector, long seconds, String message) {
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Waiting for " + selector.toString() + " to be clickable");
+        }
+        WaitEngine.Result result = this.timed("waitUntilClickable", selector,
+                () -> this.waitEngine.until(selector, WaitCondition.CLICKABLE, seconds * 1000));
+        if (!result.isSatisfied()) {
+            logWaitError(selector, seconds, "the element is not clickable.", message);
         }
+        return result.getElement();
     }
 
     /**
-     * It sleeps the driver for n seconds.
+     * This method waits until the {@link MobileElement} described by the {@By} selector is missing or hidden with a
+     * timeout of seconds.
+     * @param selector to get the element.
+     * @param seconds to wait for (timeout).
+     * @param message to send to the log if something happens.
+     * @return true if the element is gone.
+     */
+    public boolean waitUntilGone(By selector, long seconds, String message) {
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Waiting for " + selector.toString() + " to be gone");
+        }
+        WaitEngine.Result result = this.timed("waitUntilGone", selector,
+                () -> this.waitEngine.until(selector, WaitCondition.GONE, seconds * 1000));
+        if (!result.isSatisfied()) {
+            logWaitError(selector, seconds, "the element is still displayed.", message);
+        }
+        return result.isSatisfied();
+    }
+
+    /**
+     * It logs a wait timeout.
+     * @param selector waited for.
+     * @param seconds waited.
+     * @param problem description of the problem.
+     * @param message custom message (it can be null).
+     */
+    private static void logWaitError(By selector, long seconds, String problem, String message) {
+        if (StringUtils.isNotBlank(message)) {
+            LOGGER.error("After waiting " + seconds + " seconds for the element " + selector.toString() + ", "
+                    + problem + " Custom message: " + message);
+        } else {
+            LOGGER.error("After waiting " + seconds + " seconds for the element " + selector.toString() + ", "
+                    + problem);
+        }
+    }
+
+    /**
+     * @return the {@link WaitEngine} used by the explicit waits (to tune its backoff).
+     */
+    public WaitEngine getWaitEngine() {
+        return this.waitEngine;
+    }
+
+    /**
+     * It sleeps the driver for n seconds (it returns earlier if the thread is interrupted, keeping it interrupted).
      * @param seconds to be slept.
      */
     public void wait(int seconds) {
-        long start = new Date().getTime();
-        try {
-            driver.wait(seconds * 1000);
-        } catch (InterruptedException e) {
-            long end = new Date().getTime();
-            do {
-                end = new Date().getTime();
-            } while ((start + (seconds * 1000)) > end);
-        }
+        sleep(this.clock, TimeUnit.SECONDS.toMillis(seconds));
     }
 
     /**
-     * It sleeps the process for n seconds.
+     * It sleeps the process for n seconds (it returns earlier if the thread is interrupted, keeping it interrupted).
      * @param seconds to be slept.
      */
     public void sleep(long seconds) {
-        sleepFor(seconds);
+        sleep(this.clock, TimeUnit.SECONDS.toMillis(seconds));
     }
 
     /**
-     * It sleeps the process for n seconds.
+     * It sleeps the process for n seconds (it returns earlier if the thread is interrupted, keeping it interrupted).
      * @param seconds to be slept.
      */
     public static void sleepFor(long seconds) {
-        long start = new Date().getTime();
+        sleep(SystemClock.INSTANCE, TimeUnit.SECONDS.toMillis(seconds));
+    }
+
+    /**
+     * It sleeps the current thread. If it's interrupted, it returns at once restoring the interrupted status, so the
+     * caller can stop.
+     * @param clock to be used.
+     * @param millis to be slept.
+     */
+    private static void sleep(Clock clock, long millis) {
         try {
-            Thread.sleep(seconds * 1000);
+            clock.sleep(millis);
         } catch (InterruptedException e) {
-            long end = new Date().getTime();
-            do {
-                end = new Date().getTime();
-            } while ((start + (seconds * 1000)) > end);
+            LOGGER.debug("The sleep was interrupted");
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -370,11 +731,11 @@ public class AppiumHandledDriver {
      * @see {@link AppiumDriver#findElements(By)}.
      */
     public List<MobileElement> findElements(By by) {
-        List<MobileElement> elements = null;
-        try {
-            elements = driver.findElements(by);
-        } catch (Exception ex) {
-            elements = new ArrayList<MobileElement>();
+        List<MobileElement> elements;
+        if (by instanceof By.ByXPath && this.locatorOptimizer != null) {
+            elements = this.findElementsByXPath(xpathOf(by));
+        } else {
+            elements = this.findAll("findElements", by.toString(), () -> driver.findElements(by));
         }
         return elements;
     }
@@ -383,91 +744,49 @@ public class AppiumHandledDriver {
      * @see {@link AppiumDriver#findElementsById(String)}.
      */
     public List<MobileElement> findElementsById(String id) {
-        List<MobileElement> elements = null;
-        try {
-            elements = driver.findElementsById(id);
-        } catch (Exception ex) {
-            elements = new ArrayList<MobileElement>();
-        }
-        return elements;
+        return this.findAll("findElementsById", id, () -> driver.findElementsById(id));
     }
 
     /**
      * @see {@link AppiumDriver#findElementsByLinkText(String)}.
      */
     public List<MobileElement> findElementsByLinkText(String using) {
-        List<MobileElement> elements = null;
-        try {
-            elements = driver.findElementsByLinkText(using);
-        } catch (Exception ex) {
-            elements = new ArrayList<MobileElement>();
-        }
-        return elements;
+        return this.findAll("findElementsByLinkText", using, () -> driver.findElementsByLinkText(using));
     }
 
     /**
      * @see {@link AppiumDriver#findElementsByPartialLinkText(String)}.
      */
     public List<MobileElement> findElementsByPartialLinkText(String using) {
-        List<MobileElement> elements = null;
-        try {
-            elements = driver.findElementsByPartialLinkText(using);
-        } catch (Exception ex) {
-            elements = new ArrayList<MobileElement>();
-        }
-        return elements;
+        return this.findAll("findElementsByPartialLinkText", using, () -> driver.findElementsByPartialLinkText(using));
     }
 
     /**
      * @see {@link AppiumDriver#findElementsByTagName(String)}.
      */
     public List<MobileElement> findElementsByTagName(String using) {
-        List<MobileElement> elements = null;
-        try {
-            elements = driver.findElementsByTagName(using);
-        } catch (Exception ex) {
-            elements = new ArrayList<MobileElement>();
-        }
-        return elements;
+        return this.findAll("findElementsByTagName", using, () -> driver.findElementsByTagName(using));
     }
 
     /**
      * @see {@link AppiumDriver#findElementsByName(String)}.
      */
     public List<MobileElement> findElementsByName(String using) {
-        List<MobileElement> elements = null;
-        try {
-            elements = driver.findElementsByName(using);
-        } catch (Exception ex) {
-            elements = new ArrayList<MobileElement>();
-        }
-        return elements;
+        return this.findAll("findElementsByName", using, () -> driver.findElementsByName(using));
     }
 
     /**
      * @see {@link AppiumDriver#findElementsByClassName(String)}.
      */
     public List<MobileElement> findElementsByClassName(String using) {
-        List<MobileElement> elements = null;
-        try {
-            elements = driver.findElementsByClassName(using);
-        } catch (Exception ex) {
-            elements = new ArrayList<MobileElement>();
-        }
-        return elements;
+        return this.findAll("findElementsByClassName", using, () -> driver.findElementsByClassName(using));
     }
 
     /**
      * @see {@link AppiumDriver#findElementsByCssSelector(String)}.
      */
     public List<MobileElement> findElementsByCssSelector(String using) {
-        List<MobileElement> elements = null;
-        try {
-            elements = driver.findElementsByCssSelector(using);
-        } catch (Exception ex) {
-            elements = new ArrayList<MobileElement>();
-        }
-        return elements;
+        return this.findAll("findElementsByCssSelector", using, () -> driver.findElementsByCssSelector(using));
     }
 
     /**
@@ -475,25 +794,110 @@ public class AppiumHandledDriver {
      */
     public List<MobileElement> findElementsByXPath(String using) {
         List<MobileElement> elements = null;
-        try {
-            elements = driver.findElementsByXPath(using);
-        } catch (Exception ex) {
-            elements = new ArrayList<MobileElement>();
+        PageSnapshot snapshot = this.modeSnapshot();
+        if (snapshot != null) {
+            // the XPath is evaluated locally and the matches with fast locators are resolved without the XPath engine
+            // of the server. The misses are never answered locally, as the screen may have changed since the
+            // snapshot (e.g. clicking an element), so they're looked up on the server with its implicit wait
+            List<PageSnapshot.Node> nodes = snapshot.findByXPath(using);
+            if (!nodes.isEmpty() && nodes.size() <= MAX_SNAPSHOT_RESOLVES && allHaveFastLocators(nodes)) {
+                elements = this.resolveAll(snapshot, nodes);
+            }
+        }
+        LocatorOptimizer optimizer = this.locatorOptimizer;
+        LocatorOptimizer.Rewrite rewrite = null;
+        if (elements == null && optimizer != null && this.isNativeContext()) {
+            rewrite = optimizer.rewrite(using);
+        }
+        if (elements == null && rewrite != null) {
+            LocatorOptimizer.Rewrite optimized = rewrite;
+            elements = this.findAll("findElementsByXPath", using,
+                    () -> this.findOptimized(optimizer, using, optimized));
+        } else if (elements == null) {
+            elements = this.findAll("findElementsByXPath", using, () -> driver.findElementsByXPath(using));
         }
         return elements;
     }
 
     /**
-     * @see {@link AppiumDriver#findElementsByAccessibilityId(String)}.
+     * It looks an XPath up using its rewrite and falling back to the XPath (without implicit wait, as the rewrite
+     * already waited) if the rewrite doesn't find anything.
+     * @param optimizer which rewrote the XPath (it's not read again, as it can be disabled meanwhile).
+     * @param xpath original locator.
+     * @param rewrite of the XPath.
+     * @return the found elements.
      */
-    public List<MobileElement> findElementsByAccessibilityId(String using) {
-        List<MobileElement> elements = null;
+    private List<MobileElement> findOptimized(LocatorOptimizer optimizer, String xpath,
+            LocatorOptimizer.Rewrite rewrite) {
+        List<MobileElement> elements = driver.findElements(rewrite.getStrategy(), rewrite.getValue());
+        if (elements.isEmpty()) {
+            this.suspendImplicitWait();
+            try {
+                elements = driver.findElementsByXPath(xpath);
+            } finally {
+                this.restoreImplicitWait();
+            }
+            if (!elements.isEmpty()) {
+                optimizer.reject(xpath);
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * @param by XPath locator.
+     * @return its XPath expression.
+     */
+    private static String xpathOf(By by) {
+        String locator = by.toString();
+        return locator.substring(locator.indexOf(':') + 1).trim();
+    }
+
+    /**
+     * @return true if the driver is in the native context (it's only asked to the server when it may have changed).
+     */
+    private boolean isNativeContext() {
+        String context = null;
         try {
-            elements = driver.findElementsByAccessibilityId(using);
+            context = this.getContext();
+        } catch (LatencyBudgetExceededException ex) {
+            throw ex;
         } catch (Exception ex) {
-            elements = new ArrayList<MobileElement>();
+            LOGGER.warn("The context couldn't be got: " + ex.getMessage());
         }
-        return elements;
+        return context != null && context.startsWith("NATIVE");
+    }
+
+    /**
+     * It enables the locator optimizer: the common XPath shapes are rewritten to the fastest strategy of the platform
+     * (in the native context) and the time spent on every locator is recorded.
+     */
+    public void enableLocatorOptimizer() {
+        Capabilities capabilities = driver.getCapabilities();
+        Object automation = capabilities.getCapability(MobileCapabilityType.AUTOMATION_NAME);
+        this.locatorOptimizer = new LocatorOptimizer(isIOS(capabilities), "XCUITest".equalsIgnoreCase(
+                String.valueOf(automation)));
+    }
+
+    /**
+     * It disables the locator optimizer.
+     */
+    public void disableLocatorOptimizer() {
+        this.locatorOptimizer = null;
+    }
+
+    /**
+     * @return the {@link LocatorOptimizer} (null if it's disabled).
+     */
+    public LocatorOptimizer getLocatorOptimizer() {
+        return this.locatorOptimizer;
+    }
+
+    /**
+     * @see {@link AppiumDriver#findElementsByAccessibilityId(String)}.
+     */
+    public List<MobileElement> findElementsByAccessibilityId(String using) {
+        return this.findAll("findElementsByAccessibilityId", using, () -> driver.findElementsByAccessibilityId(using));
     }
 
     /**
@@ -501,76 +905,383 @@ public class AppiumHandledDriver {
      */
     public MobileElement findElement(By by) {
         MobileElement element;
+        if (by instanceof By.ByXPath && this.locatorOptimizer != null) {
+            List<MobileElement> elements = this.findElementsByXPath(xpathOf(by));
+            element = elements.isEmpty() ? null : elements.get(0);
+        } else {
+            element = this.findOne("findElement", by.toString(), () -> driver.findElement(by));
+        }
+        return element;
+    }
+
+    /**
+     * @see {@link DefaultGenericMobileDriver#findElementById(String)}.
+     */
+    public MobileElement findElementById(String id) {
+        return this.findOne("findElementById", id, () -> driver.findElementById(id));
+    }
+
+    /**
+     * @see {@link DefaultGenericMobileDriver#findElementByLinkText(String)}.
+     */
+    public MobileElement findElementByLinkText(String using) {
+        return this.findOne("findElementByLinkText", using, () -> driver.findElementByLinkText(using));
+    }
+
+    /**
+     * @see {@link DefaultGenericMobileDriver#findElementByPartialLinkText(String)}.
+     */
+    public MobileElement findElementByPartialLinkText(String using) {
+        return this.findOne("findElementByPartialLinkText", using, () -> driver.findElementByPartialLinkText(using));
+    }
+
+    /**
+     * @see {@link DefaultGenericMobileDriver#findElementByTagName(String)}.
+     */
+    public MobileElement findElementByTagName(String using) {
+        return this.findOne("findElementByTagName", using, () -> driver.findElementByTagName(using));
+    }
+
+    /**
+     * @see {@link DefaultGenericMobileDriver#findElementByName(String)}.
+     */
+    public MobileElement findElementByName(String using) {
+        MobileElement element = null;
+        PageSnapshot snapshot = this.modeSnapshot();
+        if (snapshot != null) {
+            // only the hits are answered by the snapshot (see findElementsByXPath)
+            List<PageSnapshot.Node> nodes = snapshot.findByName(using);
+            if (!nodes.isEmpty() && nodes.get(0).hasFastLocator()) {
+                List<MobileElement> elements = this.resolveAll(snapshot, nodes.subList(0, 1));
+                element = elements == null ? null : elements.get(0);
+            }
+        }
+        if (element == null) {
+            element = this.findOne("findElementByName", using, () -> driver.findElementByName(using));
+        }
+        return element;
+    }
+
+    /**
+     * It checks if the element described by the selector is there without waiting for it: the implicit wait is
+     * suspended and, as {@link AppiumDriver#findElements(By)} is used, no exception is built when it's missing.
+     * @param selector to get the element.
+     * @return the first element found or an empty {@link Optional}.
+     */
+    public Optional<MobileElement> probe(By selector) {
+        List<MobileElement> elements = this.probeAll(selector);
+        return elements.isEmpty() ? Optional.<MobileElement> empty() : Optional.of(elements.get(0));
+    }
+
+    /**
+     * It checks if the element described by the selector exists without waiting for it.
+     * @see {@link AppiumHandledDriver#probe(By)}.
+     * @param selector to get the element.
+     * @return true if the element exists.
+     */
+    public boolean exists(By selector) {
+        return !this.probeAll(selector).isEmpty();
+    }
+
+    /**
+     * It counts the elements described by the selector without waiting for them.
+     * @see {@link AppiumHandledDriver#probe(By)}.
+     * @param selector to get the elements.
+     * @return the number of elements.
+     */
+    public int count(By selector) {
+        return this.probeAll(selector).size();
+    }
+
+    /**
+     * It gets the elements described by the selector with the implicit wait suspended.
+     * @param selector to get the elements.
+     * @return the found elements (or an empty list).
+     */
+    private List<MobileElement> probeAll(By selector) {
+        List<MobileElement> elements = null;
         try {
-            element = driver.findElement(by);
+            elements = this.timed("probe", selector, () -> {
+                this.suspendImplicitWait();
+                try {
+                    return driver.findElements(selector);
+                } finally {
+                    this.restoreImplicitWait();
+                }
+            });
+        } catch (LatencyBudgetExceededException ex) {
+            throw ex;
         } catch (Exception ex) {
-            element = null;
+            LOGGER.warn("An error occurred probing " + selector + ": " + ex.getMessage());
         }
-        return element;
+        return elements == null ? new ArrayList<MobileElement>() : elements;
+    }
+
+    /**
+     * It enables the cache of the finders with the default TTL ({@link ElementCache#DEFAULT_TTL_MILLIS}).
+     * @param maxEntries max number of cached locators (the least recently used ones are evicted).
+     */
+    public void enableElementCache(int maxEntries) {
+        this.enableElementCache(maxEntries, ElementCache.DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * It enables the cache of the finders. The cached elements are reused while the screen doesn't change (the cache
+     * is invalidated on context or window switches, gestures, app lifecycle commands and stale elements). As the
+     * elements can be clicked directly, every hit is validated with a cheap round trip (the entry is evicted and the
+     * element looked up again if it's stale).
+     * @param maxEntries max number of cached locators (the least recently used ones are evicted).
+     * @param ttlMillis time to live (in milliseconds) of every entry (0 means no TTL).
+     */
+    public void enableElementCache(int maxEntries, long ttlMillis) {
+        this.elementCache = new ElementCache(maxEntries, ttlMillis, this.clock);
+    }
+
+    /**
+     * It disables the cache of the finders.
+     */
+    public void disableElementCache() {
+        this.elementCache = null;
+    }
+
+    /**
+     * @return the {@link ElementCache} of the finders (null if it's disabled).
+     */
+    public ElementCache getElementCache() {
+        return this.elementCache;
+    }
+
+    /**
+     * It invalidates the cache of the finders. It has to be called if the screen changed by other means than this
+     * driver.
+     */
+    public void invalidateElementCache() {
+        this.invalidateScreenState();
+    }
+
+    /**
+     * It forgets everything cached about the current screen because it may have changed.
+     */
+    private void invalidateScreenState() {
+        ElementCache cache = this.elementCache;
+        if (cache != null) {
+            cache.invalidate();
+        }
+        this.geometry.invalidate();
+        this.pageSnapshot = null;
+    }
+
+    /**
+     * It gets the snapshot of the current page source, taking it if there is none (or it's older than the max age of
+     * the snapshot mode). The snapshot is invalidated by every command which may change the screen.
+     * @return the {@link PageSnapshot}.
+     */
+    public PageSnapshot snapshot() {
+        PageSnapshot snapshot = this.pageSnapshot;
+        long maxAge = this.snapshotMaxAgeMillis;
+        if (snapshot == null || (maxAge >= 0 && snapshot.getAgeMillis() > maxAge)) {
+            String source = this.timed("getPageSource", () -> driver.getPageSource());
+            long start = this.metrics.start();
+            snapshot = new PageSnapshot(this, source);
+            this.metrics.stop("parsePageSource", start);
+            this.pageSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * It enables the snapshot mode: {@link #findElementsByXPath(String)} and {@link #findElementByName(String)}
+     * evaluate their locators against a {@link PageSnapshot} first, so the matches are resolved with fast locators
+     * when it's possible. The misses are always looked up on the server (with its implicit wait), as the screen can
+     * change by other means than this driver (clicks on the elements, animations, async loads...). For the same
+     * reason, the snapshot is taken again when it's older than the given max age.
+     * @param maxAgeMillis max age (in milliseconds) of the snapshot used by the finders.
+     */
+    public void enableSnapshotMode(long maxAgeMillis) {
+        this.snapshotMaxAgeMillis = Math.max(0, maxAgeMillis);
+    }
+
+    /**
+     * It disables the snapshot mode.
+     */
+    public void disableSnapshotMode() {
+        this.snapshotMaxAgeMillis = -1;
+    }
+
+    /**
+     * @return the snapshot to be used by the finders or null if the snapshot mode is disabled or the page source
+     * couldn't be indexed.
+     */
+    private PageSnapshot modeSnapshot() {
+        PageSnapshot snapshot = null;
+        if (this.snapshotMaxAgeMillis >= 0) {
+            try {
+                snapshot = this.snapshot();
+            } catch (LatencyBudgetExceededException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                LOGGER.warn("The page snapshot couldn't be taken, so the server will be used: " + ex.getMessage());
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * It resolves the matches of a snapshot. If any of them is missing, the snapshot is stale, so it's dropped.
+     * @param snapshot where the nodes were matched.
+     * @param nodes to be resolved.
+     * @return the resolved elements or null if any of them is missing.
+     */
+    private List<MobileElement> resolveAll(PageSnapshot snapshot, List<PageSnapshot.Node> nodes) {
+        List<MobileElement> elements = new ArrayList<MobileElement>();
+        for (PageSnapshot.Node node : nodes) {
+            MobileElement element = node.resolve();
+            if (element == null) {
+                LOGGER.debug("A node of the page snapshot is missing, so the snapshot is dropped");
+                if (this.pageSnapshot == snapshot) {
+                    this.pageSnapshot = null;
+                }
+                return null;
+            }
+            elements.add(element);
+        }
+        return elements;
+    }
+
+    /**
+     * @param nodes of a snapshot.
+     * @return true if all of them can be resolved with fast locators.
+     */
+    private static boolean allHaveFastLocators(List<PageSnapshot.Node> nodes) {
+        boolean fast = true;
+        for (PageSnapshot.Node node : nodes) {
+            fast = fast && node.hasFastLocator();
+        }
+        return fast;
     }
 
     /**
-     * @see {@link DefaultGenericMobileDriver#findElementById(String)}.
+     * It gets the cache of the finders ready to be used, setting its context and window handle if they are unknown.
+     * @return the cache or null if it's disabled.
      */
-    public MobileElement findElementById(String id) {
-        MobileElement element;
-        try {
-            element = driver.findElementById(id);
-        } catch (Exception ex) {
-            element = null;
+    private ElementCache scopedElementCache() {
+        ElementCache cache = this.elementCache;
+        if (cache != null && !cache.hasScope()) {
+            try {
+                cache.setScope(this.getContext(), this.getWindowHandle());
+            } catch (LatencyBudgetExceededException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                LOGGER.warn("The element cache couldn't be scoped, so it won't be used: " + ex.getMessage());
+                cache = null;
+            }
         }
-        return element;
+        return cache;
     }
 
     /**
-     * @see {@link DefaultGenericMobileDriver#findElementByLinkText(String)}.
+     * It looks the elements up using the cache (if it's enabled) and returning an empty list if something happens.
+     * @param command name of the finder.
+     * @param value of the locator.
+     * @param lookup to be performed if the elements are not cached.
+     * @return the found elements.
      */
-    public MobileElement findElementByLinkText(String using) {
-        MobileElement element;
-        try {
-            element = driver.findElementByLinkText(using);
-        } catch (Exception ex) {
-            element = null;
+    @SuppressWarnings("unchecked")
+    private List<MobileElement> findAll(String command, String value, Supplier<List<MobileElement>> lookup) {
+        String locator = command + "=" + value;
+        ElementCache cache = this.scopedElementCache();
+        List<MobileElement> elements = cache == null ? null : (List<MobileElement>) cache.get(locator);
+        if (elements != null && !this.isAlive(cache, locator, elements.get(0))) {
+            elements = null;
         }
-        return element;
+        if (elements == null) {
+            long start = this.clock.nanoTime();
+            try {
+                elements = this.timed(command, value, () -> this.withinBudget(lookup));
+            } catch (LatencyBudgetExceededException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                elements = new ArrayList<MobileElement>();
+            }
+            this.recordLocator(locator, start);
+            if (cache != null && !elements.isEmpty()) {
+                cache.put(locator, new ArrayList<MobileElement>(elements));
+            }
+        } else {
+            elements = new ArrayList<MobileElement>(elements);
+        }
+        return elements;
     }
 
     /**
-     * @see {@link DefaultGenericMobileDriver#findElementByPartialLinkText(String)}.
+     * It validates a cached element with a single round trip, evicting its locator if the element is stale (the screen
+     * changed without the driver noticing it, e.g. clicking the element). A hidden element is not stale (e.g. an
+     * off-screen row), so it's reused.
+     * @param cache of the element.
+     * @param locator of the cached lookup.
+     * @param element to be validated (the first one of a cached list is enough, as they belong to the same screen).
+     * @return true if the element can be reused.
      */
-    public MobileElement findElementByPartialLinkText(String using) {
-        MobileElement element;
+    private boolean isAlive(ElementCache cache, String locator, MobileElement element) {
+        boolean alive;
         try {
-            element = driver.findElementByPartialLinkText(using);
-        } catch (Exception ex) {
-            element = null;
+            this.timed("validateCachedElement", () -> element.isDisplayed());
+            alive = true;
+        } catch (LatencyBudgetExceededException ex) {
+            throw ex;
+        } catch (StaleElementReferenceException ex) {
+            LOGGER.debug("The cached element of " + locator + " is stale, so it's looked up again");
+            alive = false;
+        } catch (WebDriverException ex) {
+            LOGGER.debug("The cached element of " + locator + " couldn't be validated: " + ex.getMessage());
+            alive = false;
         }
-        return element;
+        if (!alive) {
+            cache.remove(locator);
+        }
+        return alive;
     }
 
     /**
-     * @see {@link DefaultGenericMobileDriver#findElementByTagName(String)}.
+     * It records the time spent on a locator (if the locator optimizer is enabled).
+     * @param locator used.
+     * @param start of the lookup (in nanoseconds).
      */
-    public MobileElement findElementByTagName(String using) {
-        MobileElement element;
-        try {
-            element = driver.findElementByTagName(using);
-        } catch (Exception ex) {
-            element = null;
+    private void recordLocator(String locator, long start) {
+        LocatorOptimizer optimizer = this.locatorOptimizer;
+        if (optimizer != null) {
+            optimizer.record(locator, TimeUnit.NANOSECONDS.toMicros(this.clock.nanoTime() - start));
         }
-        return element;
     }
 
     /**
-     * @see {@link DefaultGenericMobileDriver#findElementByName(String)}.
+     * It looks the element up using the cache (if it's enabled) and returning null if something happens.
+     * @param command name of the finder.
+     * @param value of the locator.
+     * @param lookup to be performed if the element is not cached.
+     * @return the found element or null.
      */
-    public MobileElement findElementByName(String using) {
-        MobileElement element;
-        try {
-            element = driver.findElementByName(using);
-        } catch (Exception ex) {
+    private MobileElement findOne(String command, String value, Supplier<MobileElement> lookup) {
+        String locator = command + "=" + value;
+        ElementCache cache = this.scopedElementCache();
+        MobileElement element = cache == null ? null : (MobileElement) cache.get(locator);
+        if (element != null && !this.isAlive(cache, locator, element)) {
             element = null;
         }
+        if (element == null) {
+            long start = this.clock.nanoTime();
+            try {
+                element = this.timed(command, value, () -> this.withinBudget(lookup));
+            } catch (LatencyBudgetExceededException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                element = null;
+            }
+            this.recordLocator(locator, start);
+            if (cache != null && element != null) {
+                cache.put(locator, element);
+            }
+        }
         return element;
     }
 
@@ -585,212 +1296,493 @@ public class AppiumHandledDriver {
      * @see {@link AppiumDriver#resetApp()}.
      */
     public void resetApp() {
-        driver.resetApp();
+        this.invalidateScreenState();
+        this.state.invalidate();
+        this.timed("resetApp", () -> driver.resetApp());
     }
 
     /**
      * @see {@link AppiumDriver#isAppInstalled(String)}.
      */
     public boolean isAppInstalled(String bundleId) {
-        return driver.isAppInstalled(bundleId);
+        return this.timed("isAppInstalled", () -> driver.isAppInstalled(bundleId));
     }
 
     /**
      * @see {@link AppiumDriver#installApp(String)}.
      */
     public void installApp(String appPath) {
-        driver.installApp(appPath);
+        this.invalidateScreenState();
+        this.state.invalidate();
+        this.timed("installApp", () -> driver.installApp(appPath));
     }
 
     /**
      * @see {@link AppiumDriver#removeApp(String)}.
      */
     public void removeApp(String bundleId) {
-        driver.removeApp(bundleId);
+        this.invalidateScreenState();
+        this.state.invalidate();
+        this.timed("removeApp", () -> driver.removeApp(bundleId));
     }
 
     /**
      * @see {@link AppiumDriver#launchApp()}.
      */
     public void launchApp() {
-        driver.launchApp();
+        this.invalidateScreenState();
+        this.state.invalidate();
+        this.timed("launchApp", () -> driver.launchApp());
     }
 
     /**
      * @see {@link AppiumDriver#closeApp()}.
      */
     public void closeApp() {
-        driver.closeApp();
+        this.invalidateScreenState();
+        this.state.invalidate();
+        this.timed("closeApp", () -> driver.closeApp());
     }
 
     /**
      * @see {@link AppiumDriver#runAppInBackground(int)}.
      */
     public void runAppInBackground(int seconds) {
-        driver.runAppInBackground(seconds);
+        this.invalidateScreenState();
+        this.state.invalidate();
+        this.timed("runAppInBackground", () -> driver.runAppInBackground(seconds));
     }
 
     /**
      * @see {@link AppiumDriver#hideKeyboard()}.
      */
     public void hideKeyboard() {
-        driver.hideKeyboard();
+        this.invalidateScreenState();
+        this.timed("hideKeyboard", () -> driver.hideKeyboard());
     }
 
     /**
      * @see {@link AppiumDriver#pullFile(String)}.
      */
     public byte[] pullFile(String remotePath) {
-        return driver.pullFile(remotePath);
+        return this.timed("pullFile", () -> driver.pullFile(remotePath));
     }
 
     /**
      * @see {@link AppiumDriver#pullFolder(String)}.
      */
     public byte[] pullFolder(String remotePath) {
-        return driver.pullFolder(remotePath);
+        return this.timed("pullFolder", () -> driver.pullFolder(remotePath));
+    }
+
+    /**
+     * It pulls a file from the device streaming it to disk, so the file is never loaded in memory.
+     * @param remotePath of the file.
+     * @param target where the file is written (it's overwritten if it exists).
+     * @return the number of written bytes.
+     * @throws IOException if the file couldn't be transferred.
+     */
+    public long pullFile(String remotePath, Path target) throws IOException {
+        return this.timedTransfer("pullFileStreaming", remotePath, () -> this.fileStreamer().pullFile(remotePath, target));
+    }
+
+    /**
+     * It pulls a file from the device streaming it to the given output.
+     * @param remotePath of the file.
+     * @param output where the content of the file is written (it's not closed).
+     * @return the number of written bytes.
+     * @throws IOException if the file couldn't be transferred.
+     */
+    public long pullFile(String remotePath, OutputStream output) throws IOException {
+        return this.timedTransfer("pullFileStreaming", remotePath, () -> this.fileStreamer().pullFile(remotePath, output));
+    }
+
+    /**
+     * It pulls a folder from the device streaming it to disk, as a zip archive or extracted on the fly.
+     * @param remotePath of the folder.
+     * @param target zip file where the archive is written or directory where it's extracted.
+     * @param unzip true if the archive has to be extracted on the fly.
+     * @return the number of written bytes.
+     * @throws IOException if the folder couldn't be transferred.
+     */
+    public long pullFolder(String remotePath, Path target, boolean unzip) throws IOException {
+        return this.timedTransfer("pullFolderStreaming", remotePath, () -> this.fileStreamer().pullFolder(remotePath, target, unzip));
+    }
+
+    /**
+     * It pulls a folder from the device streaming its zip archive to the given output.
+     * @param remotePath of the folder.
+     * @param output where the zip archive is written (it's not closed).
+     * @return the number of written bytes.
+     * @throws IOException if the folder couldn't be transferred.
+     */
+    public long pullFolder(String remotePath, OutputStream output) throws IOException {
+        return this.timedTransfer("pullFolderStreaming", remotePath, () -> this.fileStreamer().pullFolder(remotePath, output));
+    }
+
+    /**
+     * @return the {@link DeviceFileStreamer} of the session (created on demand).
+     */
+    public synchronized DeviceFileStreamer fileStreamer() {
+        if (this.fileStreamer == null) {
+            this.fileStreamer = new DeviceFileStreamer(driver.getRemoteAddress(), driver.getSessionId().toString(),
+                    this.httpClientFactory);
+        }
+        return this.fileStreamer;
     }
 
     /**
      * @see {@link AppiumDriver#performTouchAction(TouchAction)}.
      */
     public TouchAction performTouchAction(TouchAction touchAction) {
-        return driver.performTouchAction(touchAction);
+        this.invalidateScreenState();
+        return this.timed("performTouchAction", () -> driver.performTouchAction(touchAction));
     }
 
     /**
      * @see {@link AppiumDriver#performMultiTouchAction(MultiTouchAction)}.
      */
     public void performMultiTouchAction(MultiTouchAction multiAction) {
-        driver.performMultiTouchAction(multiAction);
+        this.invalidateScreenState();
+        this.timed("performMultiTouchAction", () -> driver.performMultiTouchAction(multiAction));
     }
 
     /**
      * This method is the same than {@link AppiumHandledDriver#tap(int, WebElement, int)} but using a {@link MobileElement} object.
      */
     public void tap(int fingers, MobileElement element, int duration) {
-        int xPosition = element.getLocation().getX() + element.getSize().getWidth() / 2;
-        int yPosition = element.getLocation().getY() + element.getSize().getHeight() / 2;
-        this.tap(fingers, xPosition, yPosition, duration);
+        this.tap(fingers, element, 0, 0, duration);
+    }
+
+    /**
+     * It taps an element with an offset from its center.
+     * @param fingers number of fingers.
+     * @param element to be tapped.
+     * @param offsetX horizontal offset (in pixels) from the center of the element.
+     * @param offsetY vertical offset (in pixels) from the center of the element.
+     * @param duration of the tap (in milliseconds).
+     */
+    public void tap(int fingers, MobileElement element, int offsetX, int offsetY, int duration) {
+        this.timed("tapElement", element, () -> {
+            Point center = ElementGeometry.centerOf(this.rectOf(element));
+            this.tap(fingers, center.getX() + offsetX, center.getY() + offsetY, duration);
+        });
+    }
+
+    /**
+     * It swipes from the center of an element to the given point.
+     * @param element where the swipe starts.
+     * @param endx x coordinate where the swipe ends.
+     * @param endy y coordinate where the swipe ends.
+     * @param duration of the swipe (in milliseconds).
+     */
+    public void swipeFromElement(MobileElement element, int endx, int endy, int duration) {
+        Point center = ElementGeometry.centerOf(this.rectOf(element));
+        this.swipe(center.getX(), center.getY(), endx, endy, duration);
+    }
+
+    /**
+     * It gets the rect of an element. The rect is fetched in a single round trip and cached until the screen may
+     * have changed (next gesture, context or window switch...).
+     * @param element to be measured.
+     * @return its rect.
+     */
+    public Rectangle getRect(MobileElement element) {
+        return this.rectOf(element);
+    }
+
+    /**
+     * It gets the rects of several elements, fetching only the ones which are not cached yet.
+     * @param elements to be measured.
+     * @return their rects (in the same order).
+     */
+    public List<Rectangle> getRects(List<MobileElement> elements) {
+        try {
+            return this.timed("elementRects", () -> this.geometry.rectsOf(elements));
+        } catch (StaleElementReferenceException ex) {
+            this.invalidateScreenState();
+            throw ex;
+        }
+    }
+
+    /**
+     * It gets the size of the screen. The size is fetched only once per session (and orientation).
+     * @return the size of the screen.
+     */
+    public Dimension getWindowSize() {
+        Dimension size = this.windowSize;
+        if (size == null) {
+            size = this.timed("getWindowSize", () -> driver.manage().window().getSize());
+            this.windowSize = size;
+        }
+        return size;
+    }
+
+    /**
+     * It creates a lazy sequence of the rows of a long list matching a locator, which are found page by page
+     * swiping the list only when more rows are needed (see {@link ScrollingElements}).
+     * @param by locator of the rows.
+     * @param keyFunction giving the identity of a row (e.g. {@link ScrollingElements#byAttribute(String)}).
+     * @return the new sequence.
+     */
+    public ScrollingElements scrollElements(By by, Function<MobileElement, String> keyFunction) {
+        return new ScrollingElements(this, by, keyFunction);
+    }
+
+    /**
+     * It streams the rows of a long list matching a locator with the default settings of {@link ScrollingElements}.
+     * @param by locator of the rows.
+     * @param keyFunction giving the identity of a row (e.g. {@link ScrollingElements#byAttribute(String)}).
+     * @return a lazy stream of the rows (a short-circuiting operation stops the swipes).
+     */
+    public Stream<MobileElement> streamElements(By by, Function<MobileElement, String> keyFunction) {
+        return this.scrollElements(by, keyFunction).stream();
+    }
+
+    /**
+     * It creates a {@link GesturePipeline} to perform a sequence of gestures with as few round trips as possible.
+     * @return the new pipeline.
+     */
+    public GesturePipeline gestures() {
+        return new GesturePipeline(this);
+    }
+
+    /**
+     * @return the {@link ElementGeometry} used by the gestures.
+     */
+    public ElementGeometry getGeometry() {
+        return this.geometry;
+    }
+
+    /**
+     * @param element to be measured.
+     * @return the rect of the element (the cached one if it's available).
+     */
+    private Rectangle rectOf(WebElement element) {
+        try {
+            return this.timed("elementRect", () -> this.geometry.rectOf(element));
+        } catch (StaleElementReferenceException ex) {
+            this.invalidateScreenState();
+            throw ex;
+        }
     }
 
     /**
      * @see {@link AppiumDriver#tap(int, WebElement, int)}.
      */
     public void tap(int fingers, WebElement element, int duration) {
-        driver.tap(fingers, element, duration);
+        this.invalidateScreenState();
+        try {
+            this.timed("tap", () -> driver.tap(fingers, element, duration));
+        } catch (StaleElementReferenceException ex) {
+            this.invalidateScreenState();
+            throw ex;
+        }
     }
 
     /**
      * @see {@link AppiumDriver#tap(int, int, int, int)}.
      */
     public void tap(int fingers, int x, int y, int duration) {
-        driver.tap(fingers, x, y, duration);
+        this.invalidateScreenState();
+        this.timed("tap", () -> driver.tap(fingers, x, y, duration));
     }
 
     /**
      * @see {@link AppiumDriver#swipe(int, int, int, int, int)}.
      */
     public void swipe(int startx, int starty, int endx, int endy, int duration) {
-        driver.swipe(startx, starty, endx, endy, duration);
+        this.invalidateScreenState();
+        this.timed("swipe", () -> driver.swipe(startx, starty, endx, endy, duration));
     }
 
     /**
-     * @see {@link AppiumDriver#pinch(WebElement)}.
+     * Same gesture than {@link AppiumDriver#pinch(WebElement)} but using the cached rect of the element.
      */
     public void pinch(WebElement el) {
-        driver.pinch(el);
+        Rectangle rect = this.rectOf(el);
+        Point center = ElementGeometry.centerOf(rect);
+        int yOffset = center.getY() - rect.getY();
+        MultiTouchAction multiTouch = new MultiTouchAction(driver);
+        multiTouch.add(new TouchAction(driver).press(el, center.getX(), center.getY() - yOffset).moveTo(el).release());
+        multiTouch.add(new TouchAction(driver).press(el, center.getX(), center.getY() + yOffset).moveTo(el).release());
+        this.invalidateScreenState();
+        try {
+            this.timed("pinch", () -> driver.performMultiTouchAction(multiTouch));
+        } catch (StaleElementReferenceException ex) {
+            this.invalidateScreenState();
+            throw ex;
+        }
     }
 
     /**
      * @see {@link AppiumDriver#pinch(int, int)}.
      */
     public void pinch(int x, int y) {
-        driver.pinch(x, y);
+        this.invalidateScreenState();
+        this.timed("pinch", () -> driver.pinch(x, y));
     }
 
     /**
-     * @see {@link AppiumDriver#zoom(WebElement)}.
+     * Same gesture than {@link AppiumDriver#zoom(WebElement)} but using the cached rect of the element.
      */
     public void zoom(WebElement el) {
-        driver.zoom(el);
+        Rectangle rect = this.rectOf(el);
+        Point center = ElementGeometry.centerOf(rect);
+        int yOffset = center.getY() - rect.getY();
+        MultiTouchAction multiTouch = new MultiTouchAction(driver);
+        multiTouch.add(new TouchAction(driver).press(center.getX(), center.getY())
+                .moveTo(el, center.getX(), center.getY() - yOffset).release());
+        multiTouch.add(new TouchAction(driver).press(center.getX(), center.getY())
+                .moveTo(el, center.getX(), center.getY() + yOffset).release());
+        this.invalidateScreenState();
+        try {
+            this.timed("zoom", () -> driver.performMultiTouchAction(multiTouch));
+        } catch (StaleElementReferenceException ex) {
+            this.invalidateScreenState();
+            throw ex;
+        }
     }
 
     /**
      * @see {@link AppiumDriver#zoom(int, int)}.
      */
     public void zoom(int x, int y) {
-        driver.zoom(x, y);
+        this.invalidateScreenState();
+        this.timed("zoom", () -> driver.zoom(x, y));
     }
 
     /**
      * @see {@link AppiumDriver#getSettings()}.
      */
     public JsonObject getSettings() {
-        return driver.getSettings();
+        return this.state.getSettings(() -> this.timed("getSettings", () -> driver.getSettings()));
+    }
+
+    /**
+     * @see {@link AndroidDriver#ignoreUnimportantViews(Boolean)}.
+     */
+    public void ignoreUnimportantViews(Boolean compress) {
+        if (!(driver instanceof AndroidDriver)) {
+            throw new UnsupportedCommandException("ignoreUnimportantViews is only supported by Android sessions");
+        }
+        this.invalidateScreenState();
+        this.state.invalidateSettings();
+        this.timed("ignoreUnimportantViews",
+                () -> ((AndroidDriver<MobileElement>) driver).ignoreUnimportantViews(compress));
     }
 
     /**
      * @see {@link AppiumDriver#context(String)}.
      */
     public WebDriver context(String name) {
-        return driver.context(name);
+        this.invalidateScreenState();
+        this.state.setContext(null);
+        WebDriver switched = this.timed("context", () -> driver.context(name));
+        this.state.setContext(name);
+        return switched;
     }
 
     /**
      * @see {@link AppiumDriver#getContextHandles()}.
      */
     public Set<String> getContextHandles() {
-        return driver.getContextHandles();
+        return this.timed("getContextHandles", () -> driver.getContextHandles());
     }
 
     /**
      * @see {@link AppiumDriver#getContext()}.
      */
     public String getContext() {
-        return driver.getContext();
+        return this.state.getContext(() -> this.timed("getContext", () -> driver.getContext()));
     }
 
     /**
      * @see {@link AppiumDriver#rotate(ScreenOrientation)}.
      */
     public void rotate(ScreenOrientation orientation) {
-        driver.rotate(orientation);
+        this.invalidateScreenState();
+        this.state.setOrientation(null);
+        this.windowSize = null;
+        this.timed("rotate", () -> driver.rotate(orientation));
+        this.state.setOrientation(orientation);
     }
 
     /**
      * @see {@link AppiumDriver#getOrientation()}.
      */
     public ScreenOrientation getOrientation() {
-        return driver.getOrientation();
+        return this.state.getOrientation(() -> this.timed("getOrientation", () -> driver.getOrientation()));
     }
 
     /**
      * @see {@link AppiumDriver#location()}.
      */
     public Location location() {
-        return driver.location();
+        return this.timed("location", () -> driver.location());
     }
 
     /**
      * @see {@link AppiumDriver#setLocation(Location)}.
      */
     public void setLocation(Location location) {
-        driver.setLocation(location);
+        this.timed("setLocation", () -> driver.setLocation(location));
     }
 
     /**
      * @see {@link AppiumDriver#getAppStrings()}.
      */
     public Map<String, String> getAppStrings() {
-        return driver.getAppStringMap();
+        AppStringsCache cache = this.appStringsCache;
+        Supplier<Map<String, String>> fetch = () -> this.timed("getAppStrings", () -> driver.getAppStringMap());
+        return cache == null ? fetch.get() : cache.getDefault(this.appHash(), this.deviceLocale(), fetch);
+    }
+
+    /**
+     * @return the locale of the device as it was set by the capabilities of the session (language and locale) or
+     * null if they didn't set it.
+     */
+    private String deviceLocale() {
+        Capabilities capabilities = driver.getCapabilities();
+        Object language = capabilities.getCapability(MobileCapabilityType.LANGUAGE);
+        Object locale = capabilities.getCapability(MobileCapabilityType.LOCALE);
+        String deviceLocale = null;
+        if (language != null && locale != null) {
+            deviceLocale = language + "_" + locale;
+        } else if (language != null || locale != null) {
+            deviceLocale = String.valueOf(language != null ? language : locale);
+        }
+        return deviceLocale;
     }
 
     /**
      * @see {@link AppiumDriver#getAppStrings(String)}.
      */
     public Map<String, String> getAppStringMap(String language) {
-        return driver.getAppStringMap(language);
+        AppStringsCache cache = this.appStringsCache;
+        Supplier<Map<String, String>> fetch = () -> this.timed("getAppStringMap",
+                () -> driver.getAppStringMap(language));
+        return cache == null ? fetch.get() : cache.get(this.appHash(), language, fetch);
+    }
+
+    /**
+     * @return the hash of the app binary (it's computed from the capabilities of the session the first time) or null
+     * if it's unknown.
+     */
+    private synchronized String appHash() {
+        if (!this.appHashResolved) {
+            this.appHash = AppInstallManager.appHashOf(driver.getCapabilities());
+            this.appHashResolved = true;
+        }
+        return this.appHash;
+    }
+
+    /**
+     * @param appHash hash of the app binary (null if it's unknown).
+     */
+    private synchronized void setAppHash(String appHash) {
+        this.appHash = appHash;
+        this.appHashResolved = true;
     }
 
     /**
@@ -804,20 +1796,42 @@ public class AppiumHandledDriver {
      * @see {@link RemoteWebDriver#quit()}.
      */
     public void quit() {
-        driver.quit();
+        this.metrics.stopPeriodicDump();
+        SessionId sessionId = driver.getSessionId();
+        this.timed("quit", () -> driver.quit());
+        this.exportTrace(String.valueOf(sessionId));
+    }
+
+    /**
+     * It exports the trace of the commands if the tracing is enabled with a directory.
+     * @param name of the trace file (without extension).
+     */
+    private void exportTrace(String name) {
+        SessionTracer tracer = this.tracer;
+        Path directory = this.traceDirectory;
+        if (tracer != null && directory != null) {
+            try {
+                tracer.export(directory.resolve(name + ".trace.json"));
+            } catch (IOException ex) {
+                LOGGER.warn("The trace " + name + " couldn't be exported: " + ex.getMessage());
+            }
+        }
     }
 
     /**
      * @see {@link RemoteWebDriver#getWindowHandles()}
      */
     public Set<String> getWindowHandles() {
-        return driver.getWindowHandles();
+        return this.timed("getWindowHandles", () -> driver.getWindowHandles());
     }
 
     /**
      * @see {@link RemoteWebDriver#switchTo()}
      */
     public TargetLocator switchTo() {
+        this.invalidateScreenState();
+        // the target locator can switch the window, but not the context
+        this.state.setWindowHandle(null);
         return driver.switchTo();
     }
 
@@ -825,7 +1839,7 @@ public class AppiumHandledDriver {
      * @see {@link RemoteWebDriver#getWindowHandle()}
      */
     public String getWindowHandle() {
-        return driver.getWindowHandle();
+        return this.state.getWindowHandle(() -> this.timed("getWindowHandle", () -> driver.getWindowHandle()));
     }
 
     /**
@@ -835,10 +1849,311 @@ public class AppiumHandledDriver {
      */
     public Object executeJavaScript(String script) {
         JavascriptExecutor jsExecutor = (JavascriptExecutor) driver;
-        Object output = jsExecutor.executeScript(script);
+        this.invalidateScreenState();
+        Object output = this.timed("executeJavaScript", () -> jsExecutor.executeScript(script));
         return output;
     }
 
+    /**
+     * It gets the {@link ScriptRegistry} of this driver, to run named scripts sending them once and batching their
+     * invocations.
+     * @return the {@link ScriptRegistry} of this driver.
+     */
+    public synchronized ScriptRegistry scripts() {
+        if (this.scriptRegistry == null) {
+            this.scriptRegistry = new ScriptRegistry(this);
+        }
+        return this.scriptRegistry;
+    }
+
+    /**
+     * It executes a script recording its latency.
+     * @param command name.
+     * @param invalidate true if the script may change the screen.
+     * @param script to be executed.
+     * @param arguments of the script.
+     * @return the result of the execution.
+     */
+    Object runScript(String command, boolean invalidate, String script, Object... arguments) {
+        JavascriptExecutor jsExecutor = (JavascriptExecutor) driver;
+        if (invalidate) {
+            this.invalidateScreenState();
+        }
+        return this.timed(command, () -> jsExecutor.executeScript(script, arguments));
+    }
+
+    /**
+     * It gets the asynchronous facade of this driver, running on the shared pool of platform threads. Use
+     * {@link AppiumAsyncDriver#of(AppiumHandledDriver, java.util.concurrent.Executor)} to run it on virtual threads.
+     * @return the {@link AppiumAsyncDriver} of this driver.
+     */
+    public synchronized AppiumAsyncDriver async() {
+        if (this.asyncDriver == null) {
+            this.asyncDriver = AppiumAsyncDriver.of(this, AppiumAsyncDriver.platformThreadExecutor());
+        }
+        return this.asyncDriver;
+    }
+
+    /**
+     * @return the latency {@link CommandMetrics} of the commands executed by this driver.
+     */
+    public CommandMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * It enables the tracing of the commands executed by this driver (see {@link SessionTracer}).
+     * @param capacity max number of spans kept (the oldest ones are overwritten).
+     * @param directory where the trace is exported as a Chrome trace JSON file when the session is quitted (null to
+     * export it on demand using {@link SessionTracer#export(Path)}).
+     * @return the enabled {@link SessionTracer}.
+     */
+    public SessionTracer enableTracing(int capacity, Path directory) {
+        SessionTracer tracer = new SessionTracer(capacity, this.clock);
+        tracer.setProcessName("session " + driver.getSessionId());
+        this.traceDirectory = directory;
+        this.tracer = tracer;
+        return tracer;
+    }
+
+    /**
+     * It disables the tracing of the commands.
+     */
+    public void disableTracing() {
+        this.tracer = null;
+        this.traceDirectory = null;
+    }
+
+    /**
+     * @return the {@link SessionTracer} of the commands (null if the tracing is disabled).
+     */
+    public SessionTracer getTracer() {
+        return this.tracer;
+    }
+
+    /**
+     * It enables the cache of the string tables of the app (see {@link AppStringsCache}), so they're pulled from the
+     * device only once per app binary and language.
+     * @param directory where the tables are stored (null to use the default one).
+     * @return the enabled {@link AppStringsCache}.
+     */
+    public AppStringsCache enableAppStringsCache(Path directory) {
+        AppStringsCache cache = directory == null ? new AppStringsCache() : new AppStringsCache(directory);
+        this.appStringsCache = cache;
+        return cache;
+    }
+
+    /**
+     * It disables the cache of the string tables of the app.
+     */
+    public void disableAppStringsCache() {
+        this.appStringsCache = null;
+    }
+
+    /**
+     * @return the {@link AppStringsCache} of the string tables of the app (null if it's disabled).
+     */
+    public AppStringsCache getAppStringsCache() {
+        return this.appStringsCache;
+    }
+
+    /**
+     * @return the {@link SessionState} mirrored by this driver.
+     */
+    public SessionState getSessionState() {
+        return this.state;
+    }
+
+    /**
+     * @return the {@link Clock} used by the waits, sleeps and metrics of this driver.
+     */
+    public Clock getClock() {
+        return this.clock;
+    }
+
+    /**
+     * @param clock to be used by the waits, sleeps and metrics of this driver (a {@link VirtualClock} allows testing
+     * the waits without actually waiting).
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock == null ? SystemClock.INSTANCE : clock;
+        this.metrics.setClock(this.clock);
+    }
+
+    /**
+     * It executes a command recording its latency.
+     * @param command name.
+     * @param execution of the command.
+     * @return the result of the command.
+     */
+    private <T> T timed(String command, Supplier<T> execution) {
+        return this.timed(command, null, execution);
+    }
+
+    /**
+     * It executes a command recording its latency (and its span if the tracing is enabled).
+     * @param command name.
+     * @param detail of the command for the trace (it's only formatted if the trace is exported, it can be null).
+     * @param execution of the command.
+     * @return the result of the command.
+     */
+    private <T> T timed(String command, Object detail, Supplier<T> execution) {
+        SessionTracer tracer = this.tracer;
+        long traceStart = tracer == null ? 0 : tracer.start();
+        long start = this.metrics.start();
+        boolean failed = true;
+        try {
+            T result = budgeted(command, execution);
+            failed = false;
+            return result;
+        } catch (RuntimeException ex) {
+            if (!(ex instanceof NoSuchElementException) && !(ex instanceof LatencyBudgetExceededException)) {
+                // the session may be in an unexpected state, so the mirror is validated again
+                this.state.invalidate();
+            }
+            throw ex;
+        } finally {
+            this.metrics.stop(command, start);
+            if (tracer != null) {
+                tracer.record(command, detail, traceStart, failed);
+            }
+        }
+    }
+
+    /**
+     * It executes a command without result recording its latency.
+     * @param command name.
+     * @param execution of the command.
+     */
+    private void timed(String command, Runnable execution) {
+        this.timed(command, null, execution);
+    }
+
+    /**
+     * It executes a command without result recording its latency (and its span if the tracing is enabled).
+     * @param command name.
+     * @param detail of the command for the trace (it can be null).
+     * @param execution of the command.
+     */
+    private void timed(String command, Object detail, Runnable execution) {
+        this.timed(command, detail, () -> {
+            execution.run();
+            return null;
+        });
+    }
+
+    /**
+     * It executes a file transfer recording its latency (and its span if the tracing is enabled).
+     * @param command name.
+     * @param detail of the command for the trace (it can be null).
+     * @param transfer to be executed.
+     * @return the number of transferred bytes.
+     * @throws IOException if the transfer failed.
+     */
+    private long timedTransfer(String command, Object detail, Transfer transfer) throws IOException {
+        try {
+            return this.timed(command, detail, () -> {
+                try {
+                    return transfer.execute();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * File transfer executed by {@link AppiumHandledDriver#timedTransfer(String, Object, Transfer)}.
+     */
+    private interface Transfer {
+
+        /**
+         * @return the number of transferred bytes.
+         * @throws IOException if the transfer failed.
+         */
+        long execute() throws IOException;
+    }
+
+    /**
+     * It executes a command within the {@link LatencyBudget} of the current thread (if there is one): it fails fast
+     * if the budget was exceeded, it records the time spent on the command and it reports the failures caused by the
+     * deadline as an exceeded budget.
+     * @param command name.
+     * @param execution of the command.
+     * @return the result of the command.
+     */
+    private static <T> T budgeted(String command, Supplier<T> execution) {
+        LatencyBudget budget = LatencyBudget.current();
+        T result;
+        if (budget == null) {
+            result = execution.get();
+        } else {
+            budget.enter(command);
+            try {
+                result = execution.get();
+            } catch (RuntimeException ex) {
+                budget.exit(command);
+                throw budget.failure(command, ex);
+            }
+            budget.exit(command);
+        }
+        return result;
+    }
+
+    /**
+     * It executes a command within the {@link LatencyBudget} of the current thread (if there is one).
+     * @param command name.
+     * @param execution of the command.
+     */
+    private static void budgeted(String command, Runnable execution) {
+        budgeted(command, () -> {
+            execution.run();
+            return null;
+        });
+    }
+
+    /**
+     * It performs a lookup with an implicit wait fitting the {@link LatencyBudget} of the current thread.
+     * @param lookup to be performed.
+     * @return the result of the lookup.
+     */
+    private <T> T withinBudget(Supplier<T> lookup) {
+        this.fitImplicitWait(LatencyBudget.current());
+        return lookup.get();
+    }
+
+    /**
+     * It fits the implicit wait (if it's not suspended) to a budget: if the remaining time is lower than the current
+     * implicit wait, it's shortened to the half of the remaining time (so it's only updated a few times per budget).
+     * Without budget, the default implicit wait is restored.
+     * @param budget of the current thread (it can be null).
+     */
+    private synchronized void fitImplicitWait(LatencyBudget budget) {
+        if (this.implicitWaitSuspensions == 0) {
+            long target = TimeUnit.SECONDS.toMillis(IMPLICIT_WAIT_SECONDS);
+            if (budget != null) {
+                long remaining = budget.getRemainingMillis();
+                target = remaining < this.implicitWaitMillis ? remaining / 2 : this.implicitWaitMillis;
+            }
+            if (target != this.implicitWaitMillis) {
+                this.driver.manage().timeouts().implicitlyWait(target, TimeUnit.MILLISECONDS);
+                this.implicitWaitMillis = target;
+            }
+        }
+    }
+
+    /**
+     * It starts a {@link LatencyBudget} bound to the current thread using the clock of this driver. Every command
+     * executed by the thread until the budget is closed gets the remaining time as its timeout.
+     * @param budgetMillis time (in milliseconds) given to the operation.
+     * @return the started budget (to be closed when the operation finishes).
+     */
+    public LatencyBudget startBudget(long budgetMillis) {
+        return LatencyBudget.start(budgetMillis, this.clock);
+    }
+
     /**
      * Providing a way to get the native driver.
      * @return the native {@link AppiumDriver} instance.
@@ -0,0 +1,562 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+/**
+ * Pool of warm {@link AppiumHandledDriver} sessions. Sessions are keyed by a normalized fingerprint of their
+ * {@link DesiredCapabilities}, they can be pre-warmed in background and, when released, they are recycled resetting
+ * the app instead of quitting the whole session (which would mean a new app install and launch).
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class AppiumSessionPool {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(AppiumSessionPool.class);
+
+    /**
+     * Key of the app capability (its path is normalized to build the fingerprint).
+     */
+    private static String APP_KEY = "app";
+
+    /**
+     * Key of the platform capability (its value is normalized to build the fingerprint).
+     */
+    private static String PLATFORM_TYPE_KEY = "platformName";
+
+    /**
+     * Min period (in milliseconds) of the scheduled eviction of the expired sessions.
+     */
+    private static long MIN_EVICTION_PERIOD_MILLIS = 1000;
+
+    /**
+     * Default max time (in milliseconds) a lease waits for the sessions being warmed up or recycled.
+     */
+    private static long DEFAULT_PENDING_WAIT_MILLIS = 60000;
+
+    /**
+     * Appium server address used to build the sessions.
+     */
+    private final URL remoteAddress;
+
+    /**
+     * Max number of idle sessions kept for the same fingerprint.
+     */
+    private final int maxIdlePerKey;
+
+    /**
+     * Max age (in milliseconds) of a session before being evicted.
+     */
+    private final long maxAgeMillis;
+
+    /**
+     * Executor used to warm up, recycle and evict the sessions in background.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Max time (in milliseconds) a lease waits for the sessions being warmed up or recycled.
+     */
+    private volatile long pendingWaitMillis = DEFAULT_PENDING_WAIT_MILLIS;
+
+    /**
+     * Source of time of the session ages.
+     */
+    private volatile Clock clock = SystemClock.INSTANCE;
+
+    /**
+     * Idle sessions by fingerprint.
+     */
+    private final Map<String, Deque<PooledSession>> idle = new HashMap<String, Deque<PooledSession>>();
+
+    /**
+     * Sessions being warmed up or recycled by fingerprint.
+     */
+    private final Map<String, Integer> pending = new HashMap<String, Integer>();
+
+    /**
+     * Leased sessions.
+     */
+    private final Map<AppiumHandledDriver, PooledSession> leased = new IdentityHashMap<AppiumHandledDriver, PooledSession>();
+
+    /**
+     * Flag to know if the pool was shut down.
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor.
+     * @param remoteAddress of the Appium server.
+     * @param maxIdlePerKey max number of idle sessions kept for the same capabilities.
+     * @param maxAgeSeconds max age of a session. After it, the session is quit instead of recycled (the idle ones are
+     * evicted periodically, so the server doesn't kill them under the pool).
+     * @param warmingThreads number of threads used to warm up, recycle and evict sessions.
+     */
+    public AppiumSessionPool(URL remoteAddress, int maxIdlePerKey, long maxAgeSeconds, int warmingThreads) {
+        this.remoteAddress = remoteAddress;
+        this.maxIdlePerKey = maxIdlePerKey;
+        this.maxAgeMillis = maxAgeSeconds * 1000;
+        this.executor = Executors.newScheduledThreadPool(warmingThreads, new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "appium-session-pool-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (this.maxAgeMillis > 0) {
+            long period = Math.max(MIN_EVICTION_PERIOD_MILLIS, this.maxAgeMillis / 4);
+            this.executor.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        evictExpired();
+                    } catch (Exception ex) {
+                        LOGGER.error("An error occurred evicting the expired sessions", ex);
+                    }
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * It builds the normalized fingerprint of the capabilities: keys are sorted, the platform is lower cased and the
+     * app path is made absolute, so equivalent capabilities share the same sessions.
+     * @param capabilities to be fingerprinted.
+     * @return the fingerprint.
+     */
+    public static String fingerprint(Capabilities capabilities) {
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (Map.Entry<String, ?> entry : capabilities.asMap().entrySet()) {
+            if (entry.getValue() != null) {
+                String value = String.valueOf(entry.getValue());
+                if (PLATFORM_TYPE_KEY.equals(entry.getKey())) {
+                    value = value.toLowerCase();
+                } else if (APP_KEY.equals(entry.getKey()) && new File(value).exists()) {
+                    value = new File(value).getAbsolutePath();
+                }
+                sorted.put(entry.getKey(), value);
+            }
+        }
+        StringBuilder fingerprint = new StringBuilder();
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            fingerprint.append(entry.getKey()).append('=').append(entry.getValue()).append(';');
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * It warms up (in background) n sessions with the given capabilities. The sessions which wouldn't fit in the idle
+     * ones (counting the ones already being warmed up or recycled) are not built.
+     * @param desiredCapabilities to be used.
+     * @param sessions number of sessions to be warmed up.
+     */
+    public void prewarm(final DesiredCapabilities desiredCapabilities, int sessions) {
+        final String key = fingerprint(desiredCapabilities);
+        int warmed;
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            Deque<PooledSession> idleSessions = this.idle.get(key);
+            int room = this.maxIdlePerKey - (idleSessions == null ? 0 : idleSessions.size()) - this.getPending(key);
+            warmed = Math.max(0, Math.min(sessions, room));
+            this.addPending(key, warmed);
+        }
+        for (int i = 0; i < warmed; i++) {
+            this.executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    PooledSession session = null;
+                    try {
+                        session = createSession(key, desiredCapabilities);
+                    } catch (Exception ex) {
+                        LOGGER.error("An error occurred warming up a session for " + key, ex);
+                    }
+                    offer(key, session);
+                }
+            });
+        }
+    }
+
+    /**
+     * It leases a session with the given capabilities. If there is no idle session, it waits for the ones being warmed
+     * up or recycled (up to {@link #setPendingWaitMillis(long)}) and, if there is none, a new session is built.
+     * @param desiredCapabilities to be used.
+     * @return a leased {@link AppiumHandledDriver} instance. It has to be given back using
+     *         {@link AppiumSessionPool#release(AppiumHandledDriver)}.
+     */
+    public AppiumHandledDriver lease(DesiredCapabilities desiredCapabilities) {
+        String key = fingerprint(desiredCapabilities);
+        PooledSession session = null;
+        while (session == null) {
+            PooledSession candidate = null;
+            synchronized (this) {
+                if (this.closed) {
+                    throw new IllegalStateException("The session pool is shut down");
+                }
+                Deque<PooledSession> sessions = this.idle.get(key);
+                // the wait is bounded, so a hung build doesn't block the lessees (they build their own session)
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.pendingWaitMillis);
+                long remaining = this.pendingWaitMillis;
+                while ((sessions == null || sessions.isEmpty()) && this.getPending(key) > 0 && remaining > 0) {
+                    try {
+                        this.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for a warm session", e);
+                    }
+                    sessions = this.idle.get(key);
+                    remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                }
+                if ((sessions == null || sessions.isEmpty()) && this.getPending(key) > 0) {
+                    LOGGER.warn("No warm session for " + key + " after " + this.pendingWaitMillis
+                            + " ms, building a new one");
+                }
+                if (sessions != null) {
+                    candidate = sessions.pollFirst();
+                }
+            }
+            if (candidate == null) {
+                session = this.createSession(key, desiredCapabilities);
+            } else if (this.isHealthy(candidate)) {
+                session = candidate;
+            } else {
+                LOGGER.warn("Discarding an unhealthy or expired session for " + key);
+                this.quitQuietly(candidate);
+            }
+        }
+        synchronized (this) {
+            this.leased.put(session.driver, session);
+        }
+        return session.driver;
+    }
+
+    /**
+     * It gives back a leased session. The session is recycled in background (resetting the app) and it will be
+     * available for the next lease.
+     * @param driver previously leased.
+     */
+    public void release(AppiumHandledDriver driver) {
+        final PooledSession session;
+        synchronized (this) {
+            session = this.leased.remove(driver);
+            if (session == null) {
+                LOGGER.warn("The released driver was not leased by this pool");
+                return;
+            }
+            if (this.closed || this.isExpired(session)) {
+                session.expired = true;
+            } else {
+                this.addPending(session.key, 1);
+            }
+        }
+        if (session.expired) {
+            this.quitQuietly(session);
+        } else {
+            this.executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    offer(session.key, recycle(session) ? session : null);
+                }
+            });
+        }
+    }
+
+    /**
+     * It quits every idle session older than the max age.
+     */
+    public void evictExpired() {
+        Deque<PooledSession> expired = new ArrayDeque<PooledSession>();
+        synchronized (this) {
+            for (Deque<PooledSession> sessions : this.idle.values()) {
+                Iterator<PooledSession> iterator = sessions.iterator();
+                while (iterator.hasNext()) {
+                    PooledSession session = iterator.next();
+                    if (this.isExpired(session)) {
+                        iterator.remove();
+                        expired.add(session);
+                    }
+                }
+            }
+        }
+        for (PooledSession session : expired) {
+            this.quitQuietly(session);
+        }
+    }
+
+    /**
+     * It gets the number of idle sessions for the given capabilities.
+     * @param desiredCapabilities to check.
+     * @return the number of idle sessions.
+     */
+    public synchronized int getIdleCount(Capabilities desiredCapabilities) {
+        Deque<PooledSession> sessions = this.idle.get(fingerprint(desiredCapabilities));
+        return sessions == null ? 0 : sessions.size();
+    }
+
+    /**
+     * It gets the number of sessions being warmed up or recycled for the given capabilities.
+     * @param desiredCapabilities to check.
+     * @return the number of pending sessions.
+     */
+    public synchronized int getPendingCount(Capabilities desiredCapabilities) {
+        return this.getPending(fingerprint(desiredCapabilities));
+    }
+
+    /**
+     * @param pendingWaitMillis max time (in milliseconds) a lease waits for the sessions being warmed up or recycled
+     * before building its own session.
+     */
+    public void setPendingWaitMillis(long pendingWaitMillis) {
+        this.pendingWaitMillis = Math.max(0, pendingWaitMillis);
+    }
+
+    /**
+     * @param clock used to compute the age of the sessions (a {@link VirtualClock} allows testing the eviction).
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock == null ? SystemClock.INSTANCE : clock;
+    }
+
+    /**
+     * It shuts the pool down quitting every idle session. Leased sessions are quit when they are released.
+     */
+    public void shutdown() {
+        Deque<PooledSession> sessions = new ArrayDeque<PooledSession>();
+        synchronized (this) {
+            this.closed = true;
+            for (Deque<PooledSession> idleSessions : this.idle.values()) {
+                sessions.addAll(idleSessions);
+            }
+            this.idle.clear();
+            this.notifyAll();
+        }
+        this.executor.shutdown();
+        for (PooledSession session : sessions) {
+            this.quitQuietly(session);
+        }
+    }
+
+    /**
+     * It builds a new session.
+     * @param key fingerprint of the capabilities.
+     * @param desiredCapabilities to be used.
+     * @return the new session.
+     */
+    private PooledSession createSession(String key, DesiredCapabilities desiredCapabilities) {
+        AppiumHandledDriver driver = AppiumHandledDriver.buildInstance(this.remoteAddress,
+                new DesiredCapabilities(desiredCapabilities));
+        return new PooledSession(key, driver, this.clock.nanoTime());
+    }
+
+    /**
+     * It recycles the session resetting the app (clearing its data) and the settings of the driver. If the reset
+     * fails, the session is discarded (closing and launching the app again would keep the data of the previous lessee).
+     * @param session to be recycled.
+     * @return true if the session was recycled or false if it has to be discarded.
+     */
+    private boolean recycle(PooledSession session) {
+        boolean recycled = false;
+        AppiumHandledDriver driver = session.driver;
+        try {
+            driver.resetApp();
+            recycled = true;
+        } catch (Exception ex) {
+            LOGGER.error("The app couldn't be reset, so the session will be discarded", ex);
+        }
+        if (recycled) {
+            try {
+                if (driver.isHybrid()) {
+                    driver.switchToWebViewContext();
+                }
+                driver.onRecycled();
+                recycled = driver.isDriverReadyToTest();
+            } catch (Exception ex) {
+                LOGGER.error("The recycled session is not ready to test, so it will be discarded", ex);
+                recycled = false;
+            }
+        }
+        if (!recycled) {
+            this.quitQuietly(session);
+        }
+        return recycled;
+    }
+
+    /**
+     * It adds a warmed or recycled session to the idle ones (when there is room for it) and wakes up the waiting
+     * leases.
+     * @param key fingerprint of the capabilities.
+     * @param session to be added (or null if it couldn't be built).
+     */
+    private void offer(String key, PooledSession session) {
+        boolean discard = false;
+        synchronized (this) {
+            this.addPending(key, -1);
+            if (session != null) {
+                Deque<PooledSession> sessions = this.idle.get(key);
+                if (sessions == null) {
+                    sessions = new ArrayDeque<PooledSession>();
+                    this.idle.put(key, sessions);
+                }
+                if (this.closed || sessions.size() >= this.maxIdlePerKey) {
+                    discard = true;
+                } else {
+                    sessions.addLast(session);
+                }
+            }
+            this.notifyAll();
+        }
+        if (discard) {
+            this.quitQuietly(session);
+        }
+    }
+
+    /**
+     * It checks if the session can be leased: it's not expired and the server still answers.
+     * @param session to check.
+     * @return true if it's healthy.
+     */
+    private boolean isHealthy(PooledSession session) {
+        boolean healthy = false;
+        if (!this.isExpired(session) && session.driver.getDriver().getSessionId() != null) {
+            try {
+                session.driver.getDriver().getContext();
+                healthy = true;
+            } catch (Exception ex) {
+                LOGGER.warn("The health check of the session failed: " + ex.getMessage());
+            }
+        }
+        return healthy;
+    }
+
+    /**
+     * It checks if the session is older than the max age.
+     * @param session to check.
+     * @return true if it's expired.
+     */
+    private boolean isExpired(PooledSession session) {
+        return this.maxAgeMillis > 0
+                && TimeUnit.NANOSECONDS.toMillis(this.clock.nanoTime() - session.createdAt) > this.maxAgeMillis;
+    }
+
+    /**
+     * It quits the session ignoring any error.
+     * @param session to be quit.
+     */
+    private void quitQuietly(PooledSession session) {
+        try {
+            session.driver.quit();
+        } catch (Exception ex) {
+            LOGGER.warn("An error occurred quitting a pooled session: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * It gets the number of sessions being warmed up or recycled.
+     * @param key fingerprint of the capabilities.
+     * @return the number of pending sessions.
+     */
+    private int getPending(String key) {
+        Integer count = this.pending.get(key);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * It updates the number of sessions being warmed up or recycled.
+     * @param key fingerprint of the capabilities.
+     * @param delta to be added.
+     */
+    private void addPending(String key, int delta) {
+        this.pending.put(key, this.getPending(key) + delta);
+    }
+
+    /**
+     * Session handled by the pool.
+     */
+    private static class PooledSession {
+
+        /**
+         * Fingerprint of the session capabilities.
+         */
+        private final String key;
+
+        /**
+         * Wrapped driver.
+         */
+        private final AppiumHandledDriver driver;
+
+        /**
+         * Creation time (monotonic, in nanoseconds) of the session.
+         */
+        private final long createdAt;
+
+        /**
+         * Flag to know if the session has to be quit.
+         */
+        private boolean expired;
+
+        /**
+         * Constructor.
+         * @param key fingerprint of the session capabilities.
+         * @param driver wrapped driver.
+         * @param createdAt creation time (monotonic, in nanoseconds) of the session.
+         */
+        private PooledSession(String key, AppiumHandledDriver driver, long createdAt) {
+            this.key = key;
+            this.driver = driver;
+            this.createdAt = createdAt;
+        }
+    }
+
+}
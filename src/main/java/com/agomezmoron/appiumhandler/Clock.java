@@ -0,0 +1,55 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+/**
+ * Source of time used by every timing path of the {@link AppiumHandledDriver} (waits, sleeps, polls and metrics).
+ * The {@link SystemClock} is used by default and a {@link VirtualClock} allows testing the waits without actually
+ * waiting.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public interface Clock {
+
+    /**
+     * @return the current value (in nanoseconds) of the monotonic time source (it's only meaningful to compute elapsed
+     * times).
+     */
+    long nanoTime();
+
+    /**
+     * @return the current wall clock time (in milliseconds since the epoch).
+     */
+    long currentTimeMillis();
+
+    /**
+     * It pauses the current thread.
+     * @param millis to be paused (nothing is done if it's not positive).
+     * @throws InterruptedException if the thread is interrupted while it's paused.
+     */
+    void sleep(long millis) throws InterruptedException;
+
+}
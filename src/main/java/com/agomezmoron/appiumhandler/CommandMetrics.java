@@ -0,0 +1,204 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Latency metrics of the commands executed by an {@link AppiumHandledDriver}. Every command has its own
+ * {@link LatencyHistogram}, so recording a latency doesn't need any lock. The metrics can be read at any time or
+ * dumped periodically to the log.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class CommandMetrics {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(CommandMetrics.class);
+
+    /**
+     * Histograms by command.
+     */
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /**
+     * Flag to know if the metrics are being recorded.
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * Source of time of the measures.
+     */
+    private volatile Clock clock = SystemClock.INSTANCE;
+
+    /**
+     * Executor of the periodic dump (null if there is none).
+     */
+    private ScheduledExecutorService dumper;
+
+    /**
+     * It starts measuring a command.
+     * @return the start time to be given to {@link CommandMetrics#stop(String, long)}.
+     */
+    public long start() {
+        return this.clock.nanoTime();
+    }
+
+    /**
+     * It records the latency of a command.
+     * @param command name.
+     * @param start time returned by {@link CommandMetrics#start()}.
+     */
+    public void stop(String command, long start) {
+        if (this.enabled) {
+            this.histogram(command).record(TimeUnit.NANOSECONDS.toMicros(this.clock.nanoTime() - start));
+        }
+    }
+
+    /**
+     * @param command name.
+     * @return the histogram of the command (it's created if it doesn't exist).
+     */
+    private LatencyHistogram histogram(String command) {
+        LatencyHistogram histogram = this.histograms.get(command);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = this.histograms.putIfAbsent(command, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @param command name.
+     * @return the snapshot of the latencies (in microseconds) of the command or null if it was never executed.
+     */
+    public LatencyHistogram.Snapshot getSnapshot(String command) {
+        LatencyHistogram histogram = this.histograms.get(command);
+        return histogram == null ? null : histogram.snapshot();
+    }
+
+    /**
+     * @return the snapshots of the latencies (in microseconds) of every executed command sorted by name.
+     */
+    public Map<String, LatencyHistogram.Snapshot> getSnapshots() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<String, LatencyHistogram.Snapshot>();
+        for (Map.Entry<String, LatencyHistogram> entry : this.histograms.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return a human readable report of every executed command.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("Command latencies:");
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : this.getSnapshots().entrySet()) {
+            report.append(System.lineSeparator()).append("  ").append(entry.getKey()).append(": ")
+                    .append(entry.getValue());
+        }
+        return report.toString();
+    }
+
+    /**
+     * It resets the metrics of every command.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : this.histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * It starts dumping the report to the log periodically.
+     * @param periodSeconds between two dumps.
+     */
+    public synchronized void startPeriodicDump(long periodSeconds) {
+        this.stopPeriodicDump();
+        this.dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "appium-metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.dumper.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                LOGGER.info(report());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * It stops the periodic dump (if it was started).
+     */
+    public synchronized void stopPeriodicDump() {
+        if (this.dumper != null) {
+            this.dumper.shutdownNow();
+            this.dumper = null;
+        }
+    }
+
+    /**
+     * @param clock source of time of the measures.
+     */
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return true if the metrics are being recorded.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled flag to know if the metrics have to be recorded.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timeline of a WEBVIEW context switch performed by the {@link WebViewContextSwitcher}: how long each phase took and
+ * which context was selected.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class ContextSwitchTimeline {
+
+    /**
+     * Phase where the WEBVIEW context is waited for.
+     */
+    public static final String DISCOVERY = "discovery";
+
+    /**
+     * Phase where the driver is switched to the WEBVIEW context.
+     */
+    public static final String SWITCH = "switch";
+
+    /**
+     * Phase where the document of the WEBVIEW is waited to be ready.
+     */
+    public static final String READINESS = "readiness";
+
+    /**
+     * Milliseconds spent on every phase (in execution order).
+     */
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+    /**
+     * Selected WEBVIEW context.
+     */
+    private String context;
+
+    /**
+     * Flag to know if the driver was switched and the WEBVIEW is ready.
+     */
+    private boolean switched;
+
+    /**
+     * It records the duration of a phase.
+     * @param phase name.
+     * @param millis spent.
+     */
+    void record(String phase, long millis) {
+        this.phases.put(phase, millis);
+    }
+
+    /**
+     * @param context selected WEBVIEW context.
+     */
+    void setContext(String context) {
+        this.context = context;
+    }
+
+    /**
+     * @param switched flag to know if the switch succeeded.
+     */
+    void setSwitched(boolean switched) {
+        this.switched = switched;
+    }
+
+    /**
+     * @return the milliseconds spent on every phase (in execution order).
+     */
+    public Map<String, Long> getPhases() {
+        return Collections.unmodifiableMap(this.phases);
+    }
+
+    /**
+     * @param phase name.
+     * @return the milliseconds spent on the phase (0 if it wasn't executed).
+     */
+    public long getPhaseMillis(String phase) {
+        Long millis = this.phases.get(phase);
+        return millis == null ? 0 : millis;
+    }
+
+    /**
+     * @return the milliseconds spent on the whole switch.
+     */
+    public long getTotalMillis() {
+        long total = 0;
+        for (Long millis : this.phases.values()) {
+            total += millis;
+        }
+        return total;
+    }
+
+    /**
+     * @return the selected WEBVIEW context (null if none was found).
+     */
+    public String getContext() {
+        return context;
+    }
+
+    /**
+     * @return true if the driver was switched and the WEBVIEW is ready.
+     */
+    public boolean isSwitched() {
+        return switched;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(this.switched ? "switched to " : "not switched to ").append(this.context).append(" in ")
+                .append(this.getTotalMillis()).append(" ms");
+        for (Map.Entry<String, Long> phase : this.phases.entrySet()) {
+            builder.append(", ").append(phase.getKey()).append('=').append(phase.getValue()).append(" ms");
+        }
+        return builder.toString();
+    }
+
+}
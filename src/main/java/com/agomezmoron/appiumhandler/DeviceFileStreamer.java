@@ -0,0 +1,736 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpMethod;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+
+import com.google.gson.JsonObject;
+
+/**
+ * It pulls files and folders from the device streaming them to disk. The base64 payload of the Appium response is
+ * decoded while it's being read (in fixed size chunks) and the folder archives can be unzipped on the fly, so the
+ * memory used doesn't depend on the size of the pulled files. The requests go through the transport of the session:
+ * the pooled connections of its {@link TransportConfig} are streamed, while any other {@link HttpClient.Factory} (e.g.
+ * a {@link RecordingHttpClientFactory} or a {@link ReplayHttpClientFactory}) gets the whole request, so the transfers
+ * are recorded and replayed like any other command (but their responses are buffered).
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class DeviceFileStreamer {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(DeviceFileStreamer.class);
+
+    /**
+     * Appium endpoint to pull a file.
+     */
+    private static String PULL_FILE_PATH = "/appium/device/pull_file";
+
+    /**
+     * Appium endpoint to pull a folder.
+     */
+    private static String PULL_FOLDER_PATH = "/appium/device/pull_folder";
+
+    /**
+     * Size (in bytes) of the chunks.
+     */
+    private static int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Address of the Appium server.
+     */
+    private final URL remoteAddress;
+
+    /**
+     * Path of the session (relative to the server).
+     */
+    private final String sessionPath;
+
+    /**
+     * Factory of the HTTP clients of the session (null if it uses the default one).
+     */
+    private final HttpClient.Factory httpClientFactory;
+
+    /**
+     * Max time (in milliseconds) to connect to the server (when the session uses the default HTTP client).
+     */
+    private int connectTimeoutMillis = 60000;
+
+    /**
+     * Max time (in milliseconds) between two reads of the response (when the session uses the default HTTP client).
+     */
+    private int readTimeoutMillis = 120000;
+
+    /**
+     * Constructor.
+     * @param remoteAddress of the Appium server.
+     * @param sessionId of the session.
+     * @param httpClientFactory of the session (null if it uses the default one).
+     */
+    DeviceFileStreamer(URL remoteAddress, String sessionId, HttpClient.Factory httpClientFactory) {
+        this.remoteAddress = remoteAddress;
+        this.sessionPath = "/session/" + sessionId;
+        this.httpClientFactory = httpClientFactory;
+    }
+
+    /**
+     * It pulls a file from the device.
+     * @param remotePath of the file.
+     * @param output where the content of the file is written (it's not closed).
+     * @return the number of written bytes.
+     * @throws IOException if the file couldn't be transferred.
+     */
+    public long pullFile(String remotePath, OutputStream output) throws IOException {
+        try (InputStream content = this.open(PULL_FILE_PATH, remotePath)) {
+            return copy(content, output);
+        }
+    }
+
+    /**
+     * It pulls a file from the device.
+     * @param remotePath of the file.
+     * @param target where the file is written (it's overwritten if it exists, but it can't be a directory). The file is written to a temporary
+     * file which is moved to the target once the transfer succeeded, so a failed transfer doesn't leave a partial file.
+     * @return the number of written bytes.
+     * @throws IOException if the file couldn't be transferred or the target is a directory.
+     */
+    public long pullFile(String remotePath, Path target) throws IOException {
+        return this.pullFile(PULL_FILE_PATH, remotePath, target);
+    }
+
+    /**
+     * It pulls a folder from the device as a zip archive.
+     * @param remotePath of the folder.
+     * @param output where the zip archive is written (it's not closed).
+     * @return the number of written bytes.
+     * @throws IOException if the folder couldn't be transferred.
+     */
+    public long pullFolder(String remotePath, OutputStream output) throws IOException {
+        try (InputStream content = this.open(PULL_FOLDER_PATH, remotePath)) {
+            return copy(content, output);
+        }
+    }
+
+    /**
+     * It pulls a folder from the device.
+     * @param remotePath of the folder.
+     * @param target zip file where the archive is written or directory where it's extracted (it's replaced if it
+     * exists). The archive is written (or extracted) to a temporary file (or directory) which is moved to the target
+     * once the transfer succeeded, so a failed transfer doesn't leave a partial archive or tree (an existing tree is
+     * only deleted once the new one is in place, and the zip file can't be a directory).
+     * @param unzip true if the archive has to be extracted on the fly.
+     * @return the number of written bytes.
+     * @throws IOException if the folder couldn't be transferred or the zip file is a directory.
+     */
+    public long pullFolder(String remotePath, Path target, boolean unzip) throws IOException {
+        if (!unzip) {
+            return this.pullFile(PULL_FOLDER_PATH, remotePath, target);
+        }
+        createParent(target);
+        Path root = Files.createTempDirectory(target.toAbsolutePath().getParent(), ".pull").toAbsolutePath()
+                .normalize();
+        boolean moved = false;
+        try {
+            long written = 0;
+            try (ZipInputStream archive = new ZipInputStream(this.open(PULL_FOLDER_PATH, remotePath))) {
+                ZipEntry entry;
+                while ((entry = archive.getNextEntry()) != null) {
+                    Path file = root.resolve(entry.getName()).normalize();
+                    if (!file.startsWith(root)) {
+                        throw new IOException("The entry " + entry.getName() + " is outside of " + root);
+                    }
+                    if (entry.isDirectory()) {
+                        Files.createDirectories(file);
+                    } else {
+                        createParent(file);
+                        try (OutputStream output = Files.newOutputStream(file)) {
+                            written += copy(archive, output);
+                        }
+                    }
+                }
+            }
+            replaceTree(root, target);
+            moved = true;
+            return written;
+        } finally {
+            if (!moved) {
+                deleteQuietly(root);
+            }
+        }
+    }
+
+    /**
+     * It pulls a file or a zipped folder to a temporary file which is moved to the target once it's complete.
+     * @param endpoint to be called.
+     * @param remotePath of the file or folder.
+     * @param target where the content is written (it's overwritten if it exists, but it can't be a directory).
+     * @return the number of written bytes.
+     * @throws IOException if the content couldn't be transferred or the target is a directory.
+     */
+    private long pullFile(String endpoint, String remotePath, Path target) throws IOException {
+        rejectDirectory(target);
+        createParent(target);
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), ".pull", ".tmp");
+        boolean moved = false;
+        try {
+            long written;
+            try (InputStream content = this.open(endpoint, remotePath);
+                    OutputStream output = Files.newOutputStream(temp)) {
+                written = copy(content, output);
+            }
+            moveIntoPlace(temp, target);
+            moved = true;
+            return written;
+        } finally {
+            if (!moved) {
+                deleteQuietly(temp);
+            }
+        }
+    }
+
+    /**
+     * It moves a completely transferred file to its target, replacing the existing one.
+     * @param temp transferred file.
+     * @param target where it has to be moved.
+     * @throws IOException if it couldn't be moved.
+     */
+    private static void moveIntoPlace(Path temp, Path target) throws IOException {
+        rejectDirectory(target);
+        move(temp, target);
+    }
+
+    /**
+     * It moves a completely extracted tree to its target, replacing the existing one. The existing one is moved aside
+     * and it's only deleted once the new tree is in place (it's restored if the new tree couldn't be moved).
+     * @param tree extracted directory.
+     * @param target where it has to be moved.
+     * @throws IOException if it couldn't be moved.
+     */
+    private static void replaceTree(Path tree, Path target) throws IOException {
+        Path aside = null;
+        if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            // a non empty directory can't be replaced by a move
+            aside = Files.createTempDirectory(target.toAbsolutePath().getParent(), ".replaced").resolve("previous");
+            move(target, aside);
+        }
+        try {
+            move(tree, target);
+        } catch (IOException ex) {
+            if (aside != null) {
+                try {
+                    move(aside, target);
+                } catch (IOException restoreEx) {
+                    LOGGER.error("The previous " + target + " couldn't be restored, it's kept in " + aside);
+                    ex.addSuppressed(restoreEx);
+                    aside = null;
+                }
+            }
+            throw ex;
+        } finally {
+            if (aside != null) {
+                deleteQuietly(aside.getParent());
+            }
+        }
+    }
+
+    /**
+     * @param target of a file pull.
+     * @throws IOException if the target is a directory (which would be replaced by the file).
+     */
+    private static void rejectDirectory(Path target) throws IOException {
+        if (Files.isDirectory(target)) {
+            throw new IOException("The target " + target + " is a directory");
+        }
+    }
+
+    /**
+     * It moves a file or directory (atomically if the file system supports it).
+     * @param source to be moved.
+     * @param target where it has to be moved (a file is replaced).
+     * @throws IOException if it couldn't be moved.
+     */
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * It deletes a file or a directory tree, ignoring the errors.
+     * @param path to be deleted.
+     */
+    private static void deleteQuietly(Path path) {
+        if (Files.exists(path)) {
+            try (Stream<Path> paths = Files.walk(path)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            } catch (IOException | UncheckedIOException ex) {
+                LOGGER.warn("The partial transfer " + path + " couldn't be deleted: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * It sends a pull request and it opens the decoded content of the response.
+     * @param endpoint to be called.
+     * @param remotePath of the file or folder.
+     * @return the stream of the decoded content.
+     * @throws IOException if the request failed.
+     */
+    private InputStream open(String endpoint, String remotePath) throws IOException {
+        JsonObject body = new JsonObject();
+        body.addProperty("path", remotePath);
+        byte[] content = body.toString().getBytes(StandardCharsets.UTF_8);
+        InputStream response;
+        if (this.httpClientFactory instanceof PooledHttpClientFactory) {
+            response = this.openPooled(endpoint, remotePath, content);
+        } else if (this.httpClientFactory != null) {
+            response = this.openBuffered(endpoint, remotePath, content);
+        } else {
+            response = this.openDirect(endpoint, remotePath, content);
+        }
+        LOGGER.debug("Streaming " + remotePath + " from the device");
+        return Base64.getMimeDecoder().wrap(
+                new JsonValueInputStream(new BufferedInputStream(response, CHUNK_SIZE), remotePath));
+    }
+
+    /**
+     * @param endpoint to be called.
+     * @param content of the request.
+     * @return the Selenium request.
+     */
+    private HttpRequest request(String endpoint, byte[] content) {
+        HttpRequest request = new HttpRequest(HttpMethod.POST, this.sessionPath + endpoint);
+        request.setHeader("Content-Type", "application/json; charset=utf-8");
+        request.setHeader("Accept", "application/json");
+        request.setContent(content);
+        return request;
+    }
+
+    /**
+     * It sends a pull request using the pooled connections of the session (the response is streamed).
+     * @param endpoint to be called.
+     * @param remotePath of the file or folder.
+     * @param content of the request.
+     * @return the stream of the response.
+     * @throws IOException if the request failed.
+     */
+    private InputStream openPooled(String endpoint, String remotePath, byte[] content) throws IOException {
+        CloseableHttpResponse response = ((PooledHttpClientFactory) this.httpClientFactory)
+                .stream(this.remoteAddress, this.request(endpoint, content));
+        int status = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        if (status >= 400 || entity == null) {
+            String message = entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+            response.close();
+            throw pullFailed(remotePath, status, message);
+        }
+        return new FilterInputStream(entity.getContent()) {
+
+            @Override
+            public void close() throws IOException {
+                response.close();
+            }
+        };
+    }
+
+    /**
+     * It sends a pull request using the HTTP client of the session (the response is buffered).
+     * @param endpoint to be called.
+     * @param remotePath of the file or folder.
+     * @param content of the request.
+     * @return the stream of the response.
+     * @throws IOException if the request failed.
+     */
+    private InputStream openBuffered(String endpoint, String remotePath, byte[] content) throws IOException {
+        HttpClient client = this.httpClientFactory.createClient(this.remoteAddress);
+        try {
+            HttpResponse response = client.execute(this.request(endpoint, content), true);
+            if (response.getStatus() >= 400) {
+                throw pullFailed(remotePath, response.getStatus(), response.getContentString());
+            }
+            byte[] payload = response.getContent();
+            return new ByteArrayInputStream(payload == null ? new byte[0] : payload);
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * It sends a pull request using its own connection (the response is streamed).
+     * @param endpoint to be called.
+     * @param remotePath of the file or folder.
+     * @param content of the request.
+     * @return the stream of the response.
+     * @throws IOException if the request failed.
+     */
+    private InputStream openDirect(String endpoint, String remotePath, byte[] content) throws IOException {
+        String server = this.remoteAddress.toString();
+        if (server.endsWith("/")) {
+            server = server.substring(0, server.length() - 1);
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(server + this.sessionPath + endpoint)
+                .openConnection();
+        connection.setConnectTimeout(LatencyBudget.capConnectionTimeout(this.connectTimeoutMillis));
+        connection.setReadTimeout(LatencyBudget.capConnectionTimeout(this.readTimeoutMillis));
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        connection.setRequestProperty("Accept", "application/json");
+        try (OutputStream request = connection.getOutputStream()) {
+            request.write(content);
+        }
+        int status = connection.getResponseCode();
+        if (status >= 400) {
+            InputStream error = connection.getErrorStream();
+            String message = error == null ? "" : readAll(error);
+            connection.disconnect();
+            throw pullFailed(remotePath, status, message);
+        }
+        return connection.getInputStream();
+    }
+
+    /**
+     * @param remotePath of the file or folder.
+     * @param status of the response.
+     * @param message of the response.
+     * @return the exception of a failed pull.
+     */
+    private static WebDriverException pullFailed(String remotePath, int status, String message) {
+        return new WebDriverException("The device couldn't pull " + remotePath + " (HTTP " + status + "): " + message);
+    }
+
+    /**
+     * It copies a stream in fixed size chunks.
+     * @param input to be read.
+     * @param output to be written.
+     * @return the number of copied bytes.
+     * @throws IOException if the copy failed.
+     */
+    private static long copy(InputStream input, OutputStream output) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long copied = 0;
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            output.write(chunk, 0, read);
+            copied += read;
+        }
+        return copied;
+    }
+
+    /**
+     * @param input to be read (it's closed).
+     * @return the whole content as UTF-8 text.
+     * @throws IOException if it couldn't be read.
+     */
+    private static String readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            copy(input, buffer);
+        } finally {
+            input.close();
+        }
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param file whose parent directory has to exist.
+     * @throws IOException if the directory couldn't be created.
+     */
+    private static void createParent(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+    }
+
+    /**
+     * @param connectTimeoutMillis max time (in milliseconds) to connect to the server (when the session uses the
+     * default HTTP client, otherwise the timeouts of its transport are used).
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * @param readTimeoutMillis max time (in milliseconds) between two reads of the response (when the session uses
+     * the default HTTP client, otherwise the timeouts of its transport are used).
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Stream of the characters of the top level "value" string of a JSON response. The rest of the response is
+     * skipped without being buffered, and an error is thrown if the value is not a string (the server failed).
+     */
+    static class JsonValueInputStream extends InputStream {
+
+        /**
+         * Response to be parsed.
+         */
+        private final InputStream response;
+
+        /**
+         * Pulled path (for the error messages).
+         */
+        private final String remotePath;
+
+        /**
+         * Flag to know if the value string was reached.
+         */
+        private boolean started = false;
+
+        /**
+         * Flag to know if the value string was completely read.
+         */
+        private boolean finished = false;
+
+        /**
+         * Constructor.
+         * @param response to be parsed.
+         * @param remotePath pulled path.
+         */
+        JsonValueInputStream(InputStream response, String remotePath) {
+            this.response = response;
+            this.remotePath = remotePath;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!this.started) {
+                this.seekValue();
+            }
+            int character = -1;
+            while (!this.finished && character == -1) {
+                int next = this.next();
+                if (next == '"') {
+                    this.finished = true;
+                } else if (next == '\\') {
+                    // only the escaped slash is meaningful in a base64 string
+                    int escaped = this.next();
+                    if (escaped == '/') {
+                        character = '/';
+                    } else if (escaped == 'u') {
+                        for (int i = 0; i < 4; i++) {
+                            this.next();
+                        }
+                    }
+                } else {
+                    character = next;
+                }
+            }
+            return character;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = 0;
+            int character;
+            while (count < length && (character = this.read()) != -1) {
+                buffer[offset + count++] = (byte) character;
+                if (this.response.available() == 0) {
+                    break;
+                }
+            }
+            return count == 0 && this.finished ? -1 : count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.response.close();
+        }
+
+        /**
+         * It skips the response until the first character of the value string.
+         * @throws IOException if the response couldn't be read or the value is not a string.
+         */
+        private void seekValue() throws IOException {
+            this.started = true;
+            int next = this.nextToken();
+            if (next != '{') {
+                throw this.unexpected(next);
+            }
+            while (next != '}') {
+                if (this.nextToken() != '"') {
+                    throw new WebDriverException("Malformed response pulling " + this.remotePath);
+                }
+                String key = this.readString();
+                if (this.nextToken() != ':') {
+                    throw new WebDriverException("Malformed response pulling " + this.remotePath);
+                }
+                next = this.nextToken();
+                if ("value".equals(key)) {
+                    if (next != '"') {
+                        StringBuilder error = new StringBuilder();
+                        this.skipValue(next, error);
+                        throw new WebDriverException("The device couldn't pull " + this.remotePath + ": " + error);
+                    }
+                    return;
+                }
+                next = this.skipValue(next, null);
+            }
+            throw new WebDriverException("The response pulling " + this.remotePath + " has no value");
+        }
+
+        /**
+         * It skips a JSON value.
+         * @param first character of the value.
+         * @param text where the value is written (null if it's discarded).
+         * @return the first token after the value (',' or '}').
+         * @throws IOException if the response couldn't be read.
+         */
+        private int skipValue(int first, StringBuilder text) throws IOException {
+            int depth = 0;
+            int next = first;
+            boolean inString = false;
+            while (true) {
+                if (next == -1) {
+                    throw new WebDriverException("Truncated response pulling " + this.remotePath);
+                }
+                if (inString) {
+                    if (next == '\\') {
+                        append(text, next);
+                        next = this.next();
+                    } else if (next == '"') {
+                        inString = false;
+                    }
+                } else if (next == '"') {
+                    inString = true;
+                } else if (next == '{' || next == '[') {
+                    depth++;
+                } else if (next == '}' || next == ']') {
+                    if (depth == 0) {
+                        return next;
+                    }
+                    depth--;
+                } else if (next == ',' && depth == 0) {
+                    return next;
+                }
+                append(text, next);
+                next = this.next();
+            }
+        }
+
+        /**
+         * @param text where the character is appended (null if it's discarded).
+         * @param character to be appended.
+         */
+        private static void append(StringBuilder text, int character) {
+            if (text != null) {
+                text.append((char) character);
+            }
+        }
+
+        /**
+         * It reads a JSON string (the opening quote was already read).
+         * @return the string (escapes are kept as they are).
+         * @throws IOException if the response couldn't be read.
+         */
+        private String readString() throws IOException {
+            StringBuilder text = new StringBuilder();
+            int next;
+            while ((next = this.next()) != '"') {
+                if (next == -1) {
+                    throw new WebDriverException("Truncated response pulling " + this.remotePath);
+                }
+                if (next == '\\') {
+                    text.append((char) next);
+                    next = this.next();
+                }
+                text.append((char) next);
+            }
+            return text.toString();
+        }
+
+        /**
+         * @return the next non whitespace character.
+         * @throws IOException if the response couldn't be read.
+         */
+        private int nextToken() throws IOException {
+            int next;
+            do {
+                next = this.next();
+            } while (next == ' ' || next == '\n' || next == '\r' || next == '\t');
+            return next;
+        }
+
+        /**
+         * @return the next character.
+         * @throws IOException if the response couldn't be read or it's truncated.
+         */
+        private int next() throws IOException {
+            int next = this.response.read();
+            if (next == -1 && this.started && !this.finished) {
+                throw new IOException("Truncated response pulling " + this.remotePath);
+            }
+            return next;
+        }
+
+        /**
+         * @param next unexpected character.
+         * @return the error to be thrown.
+         */
+        private WebDriverException unexpected(int next) {
+            return new WebDriverException("Unexpected response pulling " + this.remotePath + ": "
+                    + (next == -1 ? "empty" : String.valueOf((char) next)));
+        }
+    }
+
+}
@@ -0,0 +1,362 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+/**
+ * Orchestrator of {@link AppiumHandledDriver} sessions across a list of devices. The sessions are built concurrently
+ * (with a bounded parallelism), a device failing or hanging doesn't stall the rest of them and every driver can be
+ * bound to a single thread at a time. All the sessions are quit together at the end.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class DeviceOrchestrator {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(DeviceOrchestrator.class);
+
+    /**
+     * Registered devices by name.
+     */
+    private final Map<String, Device> devices = new LinkedHashMap<String, Device>();
+
+    /**
+     * Started drivers by device name.
+     */
+    private final Map<String, AppiumHandledDriver> drivers = new LinkedHashMap<String, AppiumHandledDriver>();
+
+    /**
+     * Startup failures by device name.
+     */
+    private final Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+
+    /**
+     * Current startup attempt by device name (a build of an older attempt is late even if the device isn't failed
+     * anymore, e.g. a build which timed out and finished after the device was started again).
+     */
+    private final Map<String, Long> attempts = new HashMap<String, Long>();
+
+    /**
+     * Last startup attempt.
+     */
+    private long lastAttempt = 0;
+
+    /**
+     * Thread owning every bound device (it's the only binding state, so {@link #quitAll(long)} releases every
+     * binding and the devices of the dead threads can be bound again).
+     */
+    private final Map<String, Thread> owners = new LinkedHashMap<String, Thread>();
+
+    /**
+     * It registers a device.
+     * @param name of the device (it has to be unique).
+     * @param remoteAddress of the Appium server handling the device.
+     * @param desiredCapabilities of the session.
+     */
+    public synchronized void addDevice(String name, URL remoteAddress, DesiredCapabilities desiredCapabilities) {
+        if (this.devices.containsKey(name)) {
+            throw new IllegalArgumentException("The device " + name + " is already registered");
+        }
+        this.devices.put(name, new Device(name, remoteAddress, desiredCapabilities));
+    }
+
+    /**
+     * It builds the sessions of every registered device which is not started yet. The sessions are built
+     * concurrently and the method returns when all of them are built, failed or the timeout expires (the late ones
+     * are considered failed: the queued ones are cancelled and the ones being built are interrupted and quit as soon
+     * as they are built).
+     * @param parallelism max number of sessions built at the same time.
+     * @param timeoutSeconds max time to wait for the whole fleet.
+     * @return the started drivers by device name.
+     */
+    public Map<String, AppiumHandledDriver> startAll(int parallelism, long timeoutSeconds) {
+        List<Device> pending = new ArrayList<Device>();
+        long attempt;
+        synchronized (this) {
+            attempt = ++this.lastAttempt;
+            for (Device device : this.devices.values()) {
+                if (!this.drivers.containsKey(device.name)) {
+                    this.failures.remove(device.name);
+                    this.attempts.put(device.name, attempt);
+                    pending.add(device);
+                }
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism),
+                daemonThreads("appium-orchestrator-start"));
+        Map<Device, Future<AppiumHandledDriver>> futures = new LinkedHashMap<Device, Future<AppiumHandledDriver>>();
+        for (final Device device : pending) {
+            futures.put(device, executor.submit(() -> this.start(device, attempt)));
+        }
+        executor.shutdown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        for (Map.Entry<Device, Future<AppiumHandledDriver>> entry : futures.entrySet()) {
+            String name = entry.getKey().name;
+            try {
+                entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                entry.getValue().cancel(true);
+                this.fail(name, new TimeoutException("The session of " + name + " wasn't built after "
+                        + timeoutSeconds + " seconds"));
+            } catch (ExecutionException e) {
+                this.fail(name, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.fail(name, e);
+            }
+        }
+        if (!this.getFailures().isEmpty()) {
+            LOGGER.error("The sessions of " + this.getFailures().keySet() + " couldn't be started");
+        }
+        return this.getDrivers();
+    }
+
+    /**
+     * It builds the session of a device (executed by the startup threads).
+     * @param device to be started.
+     * @param attempt of the startup (the session is quit if it's not the current one of the device).
+     * @return the started driver.
+     */
+    private AppiumHandledDriver start(Device device, long attempt) {
+        AppiumHandledDriver driver = AppiumHandledDriver.buildInstance(device.remoteAddress,
+                new DesiredCapabilities(device.desiredCapabilities));
+        boolean late;
+        synchronized (this) {
+            late = this.failures.containsKey(device.name) || this.attempts.get(device.name) != attempt
+                    || this.drivers.containsKey(device.name);
+            if (!late) {
+                this.drivers.put(device.name, driver);
+            }
+        }
+        if (late) {
+            LOGGER.warn("The session of " + device.name + " was built after the timeout, so it will be quit");
+            quitQuietly(device.name, driver);
+        }
+        return driver;
+    }
+
+    /**
+     * It records the startup failure of a device.
+     * @param name of the device.
+     * @param cause of the failure.
+     */
+    private synchronized void fail(String name, Throwable cause) {
+        if (!this.drivers.containsKey(name)) {
+            LOGGER.error("The session of " + name + " couldn't be started: " + cause.getMessage());
+            this.failures.put(name, cause);
+        }
+    }
+
+    /**
+     * @param name of the device.
+     * @return the driver of the device or null if it's not started.
+     */
+    public synchronized AppiumHandledDriver get(String name) {
+        return this.drivers.get(name);
+    }
+
+    /**
+     * It binds a started device to the current thread, so it can be got using {@link #current()}. A device can only
+     * be bound to a thread at a time (a device bound to a thread which died is considered free).
+     * @param name of the device.
+     * @return the driver of the device.
+     */
+    public synchronized AppiumHandledDriver bind(String name) {
+        AppiumHandledDriver driver = this.drivers.get(name);
+        if (driver == null) {
+            throw new IllegalStateException("The device " + name + " is not started");
+        }
+        Thread owner = this.owners.get(name);
+        if (owner != null && owner != Thread.currentThread() && owner.isAlive()) {
+            throw new IllegalStateException("The device " + name + " is bound to the thread " + owner.getName());
+        }
+        if (owner != null && !owner.isAlive()) {
+            LOGGER.warn("The device " + name + " was bound to the dead thread " + owner.getName() + ", so it's freed");
+        }
+        this.unbind();
+        this.owners.put(name, Thread.currentThread());
+        return driver;
+    }
+
+    /**
+     * It unbinds the device bound to the current thread (if any).
+     */
+    public synchronized void unbind() {
+        String name = this.boundName();
+        if (name != null) {
+            this.owners.remove(name);
+        }
+    }
+
+    /**
+     * @return the name of the device bound to the current thread (null if there is none).
+     */
+    private String boundName() {
+        String name = null;
+        for (Map.Entry<String, Thread> entry : this.owners.entrySet()) {
+            if (entry.getValue() == Thread.currentThread()) {
+                name = entry.getKey();
+            }
+        }
+        return name;
+    }
+
+    /**
+     * @return the driver bound to the current thread.
+     */
+    public synchronized AppiumHandledDriver current() {
+        String name = this.boundName();
+        if (name == null) {
+            throw new IllegalStateException("There is no device bound to the current thread");
+        }
+        return this.drivers.get(name);
+    }
+
+    /**
+     * It quits every started session concurrently.
+     * @param timeoutSeconds max time to wait for the sessions to be quit.
+     */
+    public void quitAll(long timeoutSeconds) {
+        Map<String, AppiumHandledDriver> started;
+        synchronized (this) {
+            started = new LinkedHashMap<String, AppiumHandledDriver>(this.drivers);
+            this.drivers.clear();
+            this.owners.clear();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, started.size()),
+                daemonThreads("appium-orchestrator-quit"));
+        for (final Map.Entry<String, AppiumHandledDriver> entry : started.entrySet()) {
+            executor.execute(() -> quitQuietly(entry.getKey(), entry.getValue()));
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) {
+                LOGGER.warn("Some sessions weren't quit after " + timeoutSeconds + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the started drivers by device name.
+     */
+    public synchronized Map<String, AppiumHandledDriver> getDrivers() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, AppiumHandledDriver>(this.drivers));
+    }
+
+    /**
+     * @return the startup failures by device name.
+     */
+    public synchronized Map<String, Throwable> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, Throwable>(this.failures));
+    }
+
+    /**
+     * It quits a driver ignoring any error.
+     * @param name of the device.
+     * @param driver to be quit.
+     */
+    private static void quitQuietly(String name, AppiumHandledDriver driver) {
+        try {
+            driver.quit();
+        } catch (Exception ex) {
+            LOGGER.warn("An error occurred quitting the session of " + name + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @param prefix of the thread names.
+     * @return a factory of daemon threads.
+     */
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Registered device.
+     */
+    private static class Device {
+
+        /**
+         * Name of the device.
+         */
+        private final String name;
+
+        /**
+         * Address of the Appium server handling the device.
+         */
+        private final URL remoteAddress;
+
+        /**
+         * Capabilities of the session.
+         */
+        private final DesiredCapabilities desiredCapabilities;
+
+        /**
+         * Constructor.
+         * @param name of the device.
+         * @param remoteAddress of the Appium server.
+         * @param desiredCapabilities of the session.
+         */
+        private Device(String name, URL remoteAddress, DesiredCapabilities desiredCapabilities) {
+            this.name = name;
+            this.remoteAddress = remoteAddress;
+            this.desiredCapabilities = desiredCapabilities;
+        }
+    }
+
+}
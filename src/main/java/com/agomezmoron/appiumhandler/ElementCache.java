@@ -0,0 +1,274 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of the elements found by the {@link AppiumHandledDriver} finders. The entries are keyed by the context,
+ * the window handle and the locator, they expire after a TTL and the whole cache is invalidated by the driver when the
+ * screen may have changed (context or window switches, gestures, app lifecycle commands, stale elements...). As the
+ * cached elements can be used directly (a click may change the screen without the driver noticing it), every hit is
+ * validated by the driver before being returned.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class ElementCache {
+
+    /**
+     * Default time to live (in milliseconds) of every entry.
+     */
+    public static long DEFAULT_TTL_MILLIS = 2000;
+
+    /**
+     * Max number of cached locators.
+     */
+    private final int maxEntries;
+
+    /**
+     * Time to live (in milliseconds) of every entry (0 means no TTL).
+     */
+    private final long ttlMillis;
+
+    /**
+     * Cached entries (in access order).
+     */
+    private final Map<String, CachedLookup> entries;
+
+    /**
+     * Source of time of the TTL.
+     */
+    private final Clock clock;
+
+    /**
+     * Context and window handle of the cached entries (null until the first lookup after an invalidation).
+     */
+    private String scope;
+
+    /**
+     * Number of hits.
+     */
+    private long hits = 0;
+
+    /**
+     * Number of misses.
+     */
+    private long misses = 0;
+
+    /**
+     * Number of invalidations.
+     */
+    private long invalidations = 0;
+
+    /**
+     * Constructor using the default TTL ({@link #DEFAULT_TTL_MILLIS}).
+     * @param maxEntries max number of cached locators.
+     */
+    public ElementCache(final int maxEntries) {
+        this(maxEntries, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     * @param maxEntries max number of cached locators.
+     * @param ttlMillis time to live (in milliseconds) of every entry (0 means no TTL).
+     */
+    public ElementCache(final int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Constructor.
+     * @param maxEntries max number of cached locators.
+     * @param ttlMillis time to live (in milliseconds) of every entry (0 means no TTL).
+     * @param clock source of time of the TTL.
+     */
+    ElementCache(final int maxEntries, long ttlMillis, Clock clock) {
+        this.clock = clock;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, CachedLookup>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedLookup> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * It gets a cached lookup.
+     * @param locator of the lookup.
+     * @return the cached result or null if it's not cached (or it expired).
+     */
+    synchronized Object get(String locator) {
+        Object value = null;
+        CachedLookup entry = this.entries.get(this.key(locator));
+        if (entry != null) {
+            if (this.ttlMillis > 0 && this.clock.currentTimeMillis() - entry.createdAt > this.ttlMillis) {
+                this.entries.remove(this.key(locator));
+            } else {
+                value = entry.value;
+            }
+        }
+        if (value == null) {
+            this.misses++;
+        } else {
+            this.hits++;
+        }
+        return value;
+    }
+
+    /**
+     * It caches a lookup.
+     * @param locator of the lookup.
+     * @param value found.
+     */
+    synchronized void put(String locator, Object value) {
+        this.entries.put(this.key(locator), new CachedLookup(value, this.clock.currentTimeMillis()));
+    }
+
+    /**
+     * It evicts a cached lookup (e.g. its element is stale).
+     * @param locator of the lookup.
+     */
+    synchronized void remove(String locator) {
+        this.entries.remove(this.key(locator));
+    }
+
+    /**
+     * It invalidates every cached entry.
+     */
+    public synchronized void invalidate() {
+        if (this.scope != null || !this.entries.isEmpty()) {
+            this.invalidations++;
+        }
+        this.entries.clear();
+        this.scope = null;
+    }
+
+    /**
+     * @return true if the context and window handle of the entries are known.
+     */
+    synchronized boolean hasScope() {
+        return this.scope != null;
+    }
+
+    /**
+     * @param context current context.
+     * @param windowHandle current window handle.
+     */
+    synchronized void setScope(String context, String windowHandle) {
+        this.scope = context + "|" + windowHandle;
+    }
+
+    /**
+     * @param locator of the lookup.
+     * @return the key of the entry.
+     */
+    private String key(String locator) {
+        return this.scope + "|" + locator;
+    }
+
+    /**
+     * @return the number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of invalidations.
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the ratio (0 to 1) of lookups served by the cache.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : (double) this.hits / lookups;
+    }
+
+    /**
+     * @return the number of cached locators.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return the max number of cached locators.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ElementCache [size=" + this.entries.size() + ", hits=" + this.hits + ", misses=" + this.misses
+                + ", invalidations=" + this.invalidations + "]";
+    }
+
+    /**
+     * Cached lookup.
+     */
+    private static class CachedLookup {
+
+        /**
+         * Found element or elements.
+         */
+        private final Object value;
+
+        /**
+         * Creation time of the entry.
+         */
+        private final long createdAt;
+
+        /**
+         * Constructor.
+         * @param value found element or elements.
+         * @param createdAt creation time of the entry.
+         */
+        private CachedLookup(Object value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.UnsupportedCommandException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebElement;
+
+/**
+ * Cache of the rects of the elements used by the {@link AppiumHandledDriver} gestures. Every rect is fetched with a
+ * single round trip (falling back to the location and the size if the server doesn't support the rect command) and
+ * it's reused until the driver invalidates the cache (on the next gesture, context or window switch...).
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class ElementGeometry {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(ElementGeometry.class);
+
+    /**
+     * Cached rects by element id.
+     */
+    private final Map<String, Rectangle> rects = new HashMap<String, Rectangle>();
+
+    /**
+     * Flag to know if the server supports the rect command.
+     */
+    private volatile boolean rectSupported = true;
+
+    /**
+     * Number of hits.
+     */
+    private long hits = 0;
+
+    /**
+     * Number of misses.
+     */
+    private long misses = 0;
+
+    /**
+     * Number of invalidations.
+     */
+    private long invalidations = 0;
+
+    /**
+     * It gets the rect of an element, fetching it if it's not cached.
+     * @param element to be measured.
+     * @return its rect.
+     */
+    public Rectangle rectOf(WebElement element) {
+        String id = idOf(element);
+        Rectangle rect = this.cached(id);
+        if (rect == null) {
+            rect = this.fetch(element);
+            this.cache(id, rect);
+        }
+        return copyOf(rect);
+    }
+
+    /**
+     * It gets the rects of several elements, fetching only the ones which are not cached.
+     * @param elements to be measured.
+     * @return their rects (in the same order).
+     */
+    public List<Rectangle> rectsOf(List<? extends WebElement> elements) {
+        List<Rectangle> result = new ArrayList<Rectangle>(elements.size());
+        for (WebElement element : elements) {
+            result.add(this.rectOf(element));
+        }
+        return result;
+    }
+
+    /**
+     * @param element to be measured.
+     * @return the center of the element.
+     */
+    public Point centerOf(WebElement element) {
+        return centerOf(this.rectOf(element));
+    }
+
+    /**
+     * @param rect of an element.
+     * @return the center of the rect.
+     */
+    public static Point centerOf(Rectangle rect) {
+        return new Point(rect.getX() + rect.getWidth() / 2, rect.getY() + rect.getHeight() / 2);
+    }
+
+    /**
+     * It invalidates every cached rect.
+     */
+    public synchronized void invalidate() {
+        if (!this.rects.isEmpty()) {
+            this.invalidations++;
+            this.rects.clear();
+        }
+    }
+
+    /**
+     * @param id of the element (null if it can't be cached).
+     * @return the cached rect or null.
+     */
+    private synchronized Rectangle cached(String id) {
+        Rectangle rect = id == null ? null : this.rects.get(id);
+        if (rect == null) {
+            this.misses++;
+        } else {
+            this.hits++;
+        }
+        return rect;
+    }
+
+    /**
+     * @param id of the element (null if it can't be cached).
+     * @param rect to be cached.
+     */
+    private synchronized void cache(String id, Rectangle rect) {
+        if (id != null) {
+            this.rects.put(id, rect);
+        }
+    }
+
+    /**
+     * It fetches the rect of an element.
+     * @param element to be measured.
+     * @return its rect.
+     */
+    private Rectangle fetch(WebElement element) {
+        Rectangle rect = null;
+        if (this.rectSupported) {
+            try {
+                rect = element.getRect();
+            } catch (WebDriverException ex) {
+                if (!isUnsupported(ex)) {
+                    throw ex;
+                }
+                LOGGER.info("The rect command is not supported, so the location and the size will be used instead");
+                this.rectSupported = false;
+            }
+        }
+        if (rect == null) {
+            rect = new Rectangle(element.getLocation(), element.getSize());
+        }
+        return rect;
+    }
+
+    /**
+     * @param ex thrown by the rect command.
+     * @return true if the server doesn't know or doesn't implement the command (any other error, like a timeout or a
+     * stale element, doesn't tell anything about the support of the command).
+     */
+    private static boolean isUnsupported(WebDriverException ex) {
+        String message = String.valueOf(ex.getMessage()).toLowerCase();
+        return ex instanceof UnsupportedCommandException || message.contains("not yet implemented")
+                || message.contains("unknown command") || message.contains("not implemented");
+    }
+
+    /**
+     * @param element to be cached.
+     * @return its id or null if it's not a remote element.
+     */
+    private static String idOf(WebElement element) {
+        return element instanceof RemoteWebElement ? ((RemoteWebElement) element).getId() : null;
+    }
+
+    /**
+     * @param rect to be copied.
+     * @return a copy of the rect (the cached ones are mutable).
+     */
+    private static Rectangle copyOf(Rectangle rect) {
+        return new Rectangle(rect.getX(), rect.getY(), rect.getHeight(), rect.getWidth());
+    }
+
+    /**
+     * @return true if the server supports the rect command (as far as it's known).
+     */
+    public boolean isRectSupported() {
+        return rectSupported;
+    }
+
+    /**
+     * @return the number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of invalidations.
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the number of cached rects.
+     */
+    public synchronized int size() {
+        return this.rects.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ElementGeometry [size=" + this.rects.size() + ", hits=" + this.hits + ", misses=" + this.misses
+                + ", invalidations=" + this.invalidations + "]";
+    }
+
+}
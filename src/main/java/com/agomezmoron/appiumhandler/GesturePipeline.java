@@ -0,0 +1,381 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.Point;
+
+import io.appium.java_client.MobileElement;
+import io.appium.java_client.MultiTouchAction;
+import io.appium.java_client.TouchAction;
+import io.appium.java_client.ios.IOSDriver;
+
+/**
+ * Pipeline of gestures performed by an {@link AppiumHandledDriver}. The gestures are collected and, when the pipeline
+ * is performed, the consecutive single finger ones are chained into a single {@link TouchAction} and every multi
+ * finger one is sent as a {@link MultiTouchAction}, so a long flow (scroll, scroll, tap...) needs a round trip per
+ * submission instead of a round trip per gesture.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class GesturePipeline {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(GesturePipeline.class);
+
+    /**
+     * Driver performing the gestures.
+     */
+    private final AppiumHandledDriver handledDriver;
+
+    /**
+     * Collected steps.
+     */
+    private final List<Step> steps = new ArrayList<Step>();
+
+    /**
+     * Constructor.
+     * @param handledDriver performing the gestures.
+     */
+    GesturePipeline(AppiumHandledDriver handledDriver) {
+        this.handledDriver = handledDriver;
+    }
+
+    /**
+     * It adds a tap.
+     * @param x coordinate.
+     * @param y coordinate.
+     * @param duration of the tap (in milliseconds).
+     * @return the pipeline.
+     */
+    public GesturePipeline tap(int x, int y, int duration) {
+        return this.tap(1, x, y, duration);
+    }
+
+    /**
+     * It adds a tap with several fingers.
+     * @param fingers number of fingers.
+     * @param x coordinate.
+     * @param y coordinate.
+     * @param duration of the tap (in milliseconds).
+     * @return the pipeline.
+     */
+    public GesturePipeline tap(int fingers, int x, int y, int duration) {
+        this.steps.add(new Step("tap(" + fingers + ", " + x + ", " + y + ")", fingers,
+                (action, relativeMoves) -> action.press(x, y).waitAction(duration).release()));
+        return this;
+    }
+
+    /**
+     * It adds a tap on the center of an element. The center is resolved (using the cached geometry if it's
+     * available) when the pipeline is performed, before any of its gestures.
+     * @param element to be tapped.
+     * @param duration of the tap (in milliseconds).
+     * @return the pipeline.
+     */
+    public GesturePipeline tap(MobileElement element, int duration) {
+        this.steps.add(new Step("tap(" + element.getId() + ")", 1, (action, relativeMoves) -> {
+            Point center = ElementGeometry.centerOf(this.handledDriver.getRect(element));
+            action.press(center.getX(), center.getY()).waitAction(duration).release();
+        }));
+        return this;
+    }
+
+    /**
+     * It adds a swipe.
+     * @param startx x coordinate where the swipe starts.
+     * @param starty y coordinate where the swipe starts.
+     * @param endx x coordinate where the swipe ends.
+     * @param endy y coordinate where the swipe ends.
+     * @param duration of the swipe (in milliseconds).
+     * @return the pipeline.
+     */
+    public GesturePipeline swipe(int startx, int starty, int endx, int endy, int duration) {
+        this.steps.add(new Step("swipe(" + startx + ", " + starty + ", " + endx + ", " + endy + ")", 1,
+                (action, relativeMoves) -> appendSwipe(action, relativeMoves, startx, starty, endx, endy, duration)));
+        return this;
+    }
+
+    /**
+     * It adds a swipe from the center of an element.
+     * @param element where the swipe starts.
+     * @param endx x coordinate where the swipe ends.
+     * @param endy y coordinate where the swipe ends.
+     * @param duration of the swipe (in milliseconds).
+     * @return the pipeline.
+     */
+    public GesturePipeline swipeFromElement(MobileElement element, int endx, int endy, int duration) {
+        this.steps.add(new Step("swipeFromElement(" + element.getId() + ", " + endx + ", " + endy + ")", 1,
+                (action, relativeMoves) -> {
+                    Point center = ElementGeometry.centerOf(this.handledDriver.getRect(element));
+                    appendSwipe(action, relativeMoves, center.getX(), center.getY(), endx, endy, duration);
+                }));
+        return this;
+    }
+
+    /**
+     * It adds a pause between two gestures.
+     * @param millis of the pause.
+     * @return the pipeline.
+     */
+    public GesturePipeline pause(int millis) {
+        this.steps.add(new Step("pause(" + millis + ")", 1, (action, relativeMoves) -> action.waitAction(millis)));
+        return this;
+    }
+
+    /**
+     * @return the number of collected steps.
+     */
+    public int size() {
+        return this.steps.size();
+    }
+
+    /**
+     * It removes every collected step.
+     * @return the pipeline.
+     */
+    public GesturePipeline clear() {
+        this.steps.clear();
+        return this;
+    }
+
+    /**
+     * It performs the collected steps with as few submissions as possible and it clears the pipeline. Every element
+     * is resolved before the first submission, so the steps shouldn't depend on elements moved by the previous ones.
+     * @return the {@link Result} with the timing of every submission.
+     */
+    public Result perform() {
+        boolean relativeMoves = this.handledDriver.getDriver() instanceof IOSDriver;
+        List<Object> submissions = new ArrayList<Object>();
+        List<Integer> stepSubmissions = new ArrayList<Integer>();
+        List<String> descriptions = new ArrayList<String>();
+        TouchAction chain = null;
+        for (Step step : this.steps) {
+            if (step.fingers > 1) {
+                MultiTouchAction multiTouch = new MultiTouchAction(this.handledDriver.getDriver());
+                for (int i = 0; i < step.fingers; i++) {
+                    TouchAction finger = new TouchAction(this.handledDriver.getDriver());
+                    step.action.appendTo(finger, relativeMoves);
+                    multiTouch.add(finger);
+                }
+                submissions.add(multiTouch);
+                chain = null;
+            } else {
+                if (chain == null) {
+                    chain = new TouchAction(this.handledDriver.getDriver());
+                    submissions.add(chain);
+                }
+                step.action.appendTo(chain, relativeMoves);
+            }
+            stepSubmissions.add(submissions.size() - 1);
+            descriptions.add(step.description);
+        }
+        this.steps.clear();
+
+        Clock clock = this.handledDriver.getClock();
+        long[] submissionMillis = new long[submissions.size()];
+        for (int i = 0; i < submissions.size(); i++) {
+            long start = clock.nanoTime();
+            Object submission = submissions.get(i);
+            if (submission instanceof MultiTouchAction) {
+                this.handledDriver.performMultiTouchAction((MultiTouchAction) submission);
+            } else {
+                this.handledDriver.performTouchAction((TouchAction) submission);
+            }
+            submissionMillis[i] = TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - start);
+        }
+        Result result = new Result(descriptions, stepSubmissions, submissionMillis);
+        LOGGER.debug("Gesture pipeline performed: " + result);
+        return result;
+    }
+
+    /**
+     * It appends a swipe to a chain.
+     * @param action chain.
+     * @param relativeMoves true if the moves are relative to the press (iOS).
+     * @param startx x coordinate where the swipe starts.
+     * @param starty y coordinate where the swipe starts.
+     * @param endx x coordinate where the swipe ends.
+     * @param endy y coordinate where the swipe ends.
+     * @param duration of the swipe (in milliseconds).
+     */
+    private static void appendSwipe(TouchAction action, boolean relativeMoves, int startx, int starty, int endx,
+            int endy, int duration) {
+        action.press(startx, starty).waitAction(duration);
+        if (relativeMoves) {
+            action.moveTo(endx - startx, endy - starty);
+        } else {
+            action.moveTo(endx, endy);
+        }
+        action.release();
+    }
+
+    /**
+     * Action appended to a chain by a step.
+     */
+    private interface Action {
+
+        /**
+         * @param action chain where the step is appended.
+         * @param relativeMoves true if the moves are relative to the press (iOS).
+         */
+        void appendTo(TouchAction action, boolean relativeMoves);
+    }
+
+    /**
+     * Collected step.
+     */
+    private static class Step {
+
+        /**
+         * Description of the step.
+         */
+        private final String description;
+
+        /**
+         * Number of fingers.
+         */
+        private final int fingers;
+
+        /**
+         * Action of every finger.
+         */
+        private final Action action;
+
+        /**
+         * Constructor.
+         * @param description of the step.
+         * @param fingers number of fingers.
+         * @param action of every finger.
+         */
+        private Step(String description, int fingers, Action action) {
+            this.description = description;
+            this.fingers = fingers;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Timing of a performed pipeline. The steps chained into the same submission share its time.
+     */
+    public static class Result {
+
+        /**
+         * Description of every step.
+         */
+        private final List<String> steps;
+
+        /**
+         * Submission of every step.
+         */
+        private final List<Integer> stepSubmissions;
+
+        /**
+         * Milliseconds spent on every submission.
+         */
+        private final long[] submissionMillis;
+
+        /**
+         * Constructor.
+         * @param steps description of every step.
+         * @param stepSubmissions submission of every step.
+         * @param submissionMillis milliseconds spent on every submission.
+         */
+        Result(List<String> steps, List<Integer> stepSubmissions, long[] submissionMillis) {
+            this.steps = steps;
+            this.stepSubmissions = stepSubmissions;
+            this.submissionMillis = submissionMillis;
+        }
+
+        /**
+         * @return the description of every step.
+         */
+        public List<String> getSteps() {
+            return Collections.unmodifiableList(this.steps);
+        }
+
+        /**
+         * @return the number of submissions.
+         */
+        public int getSubmissions() {
+            return this.submissionMillis.length;
+        }
+
+        /**
+         * @param step index.
+         * @return the index of the submission containing the step.
+         */
+        public int getSubmissionOf(int step) {
+            return this.stepSubmissions.get(step);
+        }
+
+        /**
+         * @param submission index.
+         * @return the milliseconds spent on the submission.
+         */
+        public long getSubmissionMillis(int submission) {
+            return this.submissionMillis[submission];
+        }
+
+        /**
+         * @param step index.
+         * @return the milliseconds spent on the submission containing the step.
+         */
+        public long getStepMillis(int step) {
+            return this.submissionMillis[this.getSubmissionOf(step)];
+        }
+
+        /**
+         * @return the milliseconds spent on every submission.
+         */
+        public long getTotalMillis() {
+            long total = 0;
+            for (long millis : this.submissionMillis) {
+                total += millis;
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(this.steps.size()).append(" steps in ").append(this.submissionMillis.length)
+                    .append(" submissions (").append(this.getTotalMillis()).append(" ms)");
+            for (int i = 0; i < this.steps.size(); i++) {
+                builder.append(", ").append(this.steps.get(i)).append(" -> #").append(this.stepSubmissions.get(i));
+            }
+            return builder.toString();
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline shared by every remote call of a composite operation. The budget is bound to the current thread, so the
+ * nested calls of the {@link AppiumHandledDriver} find it without any extra parameter: every command is checked before
+ * it's sent (failing fast with a {@link LatencyBudgetExceededException}), the remaining time caps the timeouts of the
+ * waits, the WEBVIEW switch, the implicit wait and the HTTP requests of the pooled transport, and the time spent on
+ * every command is recorded to know where the budget went.
+ *
+ * <pre>
+ * try (LatencyBudget budget = driver.startBudget(5000)) {
+ *     driver.tap(1, driver.waitUntilVisible(By.id("login"), 10, null), 100);
+ * }
+ * </pre>
+ *
+ * Budgets can be nested: the inner one never outlives the outer one and its breakdown is also recorded by the outer
+ * one. A budget must be used and closed by the thread that started it.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class LatencyBudget implements AutoCloseable {
+
+    /**
+     * Budget of every thread.
+     */
+    private static final ThreadLocal<LatencyBudget> CURRENT = new ThreadLocal<LatencyBudget>();
+
+    /**
+     * Enclosing budget (null if there is none).
+     */
+    private final LatencyBudget parent;
+
+    /**
+     * Source of time of the deadline.
+     */
+    private final Clock clock;
+
+    /**
+     * Time (in milliseconds) given to the operation.
+     */
+    private final long budgetMillis;
+
+    /**
+     * Start (in nanoseconds) of the budget.
+     */
+    private final long startNanos;
+
+    /**
+     * Deadline (in nanoseconds), never beyond the one of the parent.
+     */
+    private final long deadlineNanos;
+
+    /**
+     * Time (in microseconds) spent on every command (in execution order), excluding the nested commands.
+     */
+    private final Map<String, Long> breakdown = new LinkedHashMap<String, Long>();
+
+    /**
+     * Commands being executed: start (in nanoseconds) and time (in microseconds) spent on their nested commands. It's
+     * shared with the nested budgets.
+     */
+    private final Deque<long[]> frames;
+
+    /**
+     * Constructor.
+     * @param parent enclosing budget (it can be null).
+     * @param clock source of time.
+     * @param budgetMillis time given to the operation.
+     */
+    private LatencyBudget(LatencyBudget parent, Clock clock, long budgetMillis) {
+        this.parent = parent;
+        this.clock = clock;
+        this.budgetMillis = budgetMillis;
+        this.startNanos = clock.nanoTime();
+        long deadline = this.startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, budgetMillis));
+        if (parent != null) {
+            deadline = Math.min(deadline, this.startNanos + TimeUnit.MILLISECONDS.toNanos(parent.getRemainingMillis()));
+        }
+        this.deadlineNanos = deadline;
+        this.frames = parent == null ? new ArrayDeque<long[]>() : parent.frames;
+    }
+
+    /**
+     * It starts a budget bound to the current thread.
+     * @param budgetMillis time (in milliseconds) given to the operation.
+     * @return the started budget (to be closed when the operation finishes).
+     */
+    public static LatencyBudget start(long budgetMillis) {
+        return start(budgetMillis, SystemClock.INSTANCE);
+    }
+
+    /**
+     * It starts a budget bound to the current thread.
+     * @param budgetMillis time (in milliseconds) given to the operation.
+     * @param clock source of time of the deadline.
+     * @return the started budget (to be closed when the operation finishes).
+     */
+    public static LatencyBudget start(long budgetMillis, Clock clock) {
+        LatencyBudget budget = new LatencyBudget(CURRENT.get(), clock, budgetMillis);
+        CURRENT.set(budget);
+        return budget;
+    }
+
+    /**
+     * @return the budget of the current thread (null if there is none).
+     */
+    public static LatencyBudget current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * It caps a timeout with the remaining time of the budget of the current thread.
+     * @param timeoutMillis to be capped.
+     * @return the timeout or the remaining time (in milliseconds) if it's lower.
+     */
+    public static long cap(long timeoutMillis) {
+        LatencyBudget budget = CURRENT.get();
+        return budget == null ? timeoutMillis : Math.min(timeoutMillis, budget.getRemainingMillis());
+    }
+
+    /**
+     * It caps the timeout of a connection with the remaining time of the budget of the current thread. The result is
+     * never 0, which means no timeout for the connections.
+     * @param timeoutMillis to be capped (0 means no timeout).
+     * @return the timeout or the remaining time (in milliseconds) if it's lower.
+     */
+    static int capConnectionTimeout(int timeoutMillis) {
+        LatencyBudget budget = CURRENT.get();
+        int capped = timeoutMillis;
+        if (budget != null) {
+            long remaining = Math.min(Integer.MAX_VALUE, Math.max(1, budget.getRemainingMillis()));
+            capped = (int) (timeoutMillis <= 0 ? remaining : Math.min(timeoutMillis, remaining));
+        }
+        return capped;
+    }
+
+    /**
+     * @return the remaining time (in milliseconds), 0 if the budget was exceeded.
+     */
+    public long getRemainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(this.deadlineNanos - this.clock.nanoTime()));
+    }
+
+    /**
+     * @return the time (in milliseconds) elapsed since the budget was started.
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.clock.nanoTime() - this.startNanos);
+    }
+
+    /**
+     * @return true if the deadline was reached.
+     */
+    public boolean isExceeded() {
+        return this.clock.nanoTime() >= this.deadlineNanos;
+    }
+
+    /**
+     * It checks that there is time left for a command.
+     * @param command to be executed.
+     * @throws LatencyBudgetExceededException if the deadline was reached.
+     */
+    public void check(String command) {
+        if (this.isExceeded()) {
+            throw this.exceeded(command, null);
+        }
+    }
+
+    /**
+     * It starts recording a command (checking there is time left for it).
+     * @param command to be executed.
+     * @throws LatencyBudgetExceededException if the deadline was reached.
+     */
+    void enter(String command) {
+        this.check(command);
+        this.frames.push(new long[] { this.clock.nanoTime(), 0 });
+    }
+
+    /**
+     * It finishes recording the command started by {@link #enter(String)}.
+     * @param command executed.
+     */
+    void exit(String command) {
+        long[] frame = this.frames.pop();
+        long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(this.clock.nanoTime() - frame[0]);
+        long[] enclosing = this.frames.peek();
+        if (enclosing != null) {
+            enclosing[1] += elapsedMicros;
+        }
+        for (LatencyBudget budget = this; budget != null; budget = budget.parent) {
+            budget.add(command, Math.max(0, elapsedMicros - frame[1]));
+        }
+    }
+
+    /**
+     * @param command executed.
+     * @param micros spent on it.
+     */
+    private synchronized void add(String command, long micros) {
+        Long spent = this.breakdown.get(command);
+        this.breakdown.put(command, spent == null ? micros : spent + micros);
+    }
+
+    /**
+     * It translates the failure of a command: if the deadline was reached, it's reported as an exceeded budget.
+     * @param command failed.
+     * @param failure of the command.
+     * @return the exception to be thrown.
+     */
+    RuntimeException failure(String command, RuntimeException failure) {
+        RuntimeException translated = failure;
+        if (!(failure instanceof LatencyBudgetExceededException) && this.isExceeded()) {
+            translated = this.exceeded(command, failure);
+        }
+        return translated;
+    }
+
+    /**
+     * @param command that couldn't be completed.
+     * @param cause of the failure (it can be null).
+     * @return the exception reporting the exceeded budget.
+     */
+    LatencyBudgetExceededException exceeded(String command, Throwable cause) {
+        return new LatencyBudgetExceededException(command, this.budgetMillis, this.getElapsedMillis(),
+                this.getBreakdown(), cause);
+    }
+
+    /**
+     * @return the time (in milliseconds) spent on every command (in execution order), excluding the nested commands.
+     */
+    public synchronized Map<String, Long> getBreakdown() {
+        Map<String, Long> millis = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> entry : this.breakdown.entrySet()) {
+            millis.put(entry.getKey(), TimeUnit.MICROSECONDS.toMillis(entry.getValue()));
+        }
+        return millis;
+    }
+
+    /**
+     * @return the time (in milliseconds) given to the operation.
+     */
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    /**
+     * It unbinds the budget from the current thread, restoring the enclosing one. The nested budgets which were not
+     * closed are unbound too, so an expired one doesn't stay bound to a pooled thread.
+     */
+    @Override
+    public void close() {
+        boolean bound = false;
+        for (LatencyBudget budget = CURRENT.get(); budget != null && !bound; budget = budget.parent) {
+            bound = budget == this;
+        }
+        if (bound) {
+            if (this.parent == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(this.parent);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyBudget [budget=" + this.budgetMillis + " ms, elapsed=" + this.getElapsedMillis()
+                + " ms, breakdown=" + this.getBreakdown() + "]";
+    }
+
+}
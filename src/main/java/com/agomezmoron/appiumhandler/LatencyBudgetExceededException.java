@@ -0,0 +1,109 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.openqa.selenium.TimeoutException;
+
+/**
+ * Exception thrown when a command can't be completed within the {@link LatencyBudget} of the operation. It reports
+ * where the budget went.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class LatencyBudgetExceededException extends TimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Command that couldn't be completed.
+     */
+    private final String command;
+
+    /**
+     * Time (in milliseconds) given to the operation.
+     */
+    private final long budgetMillis;
+
+    /**
+     * Time (in milliseconds) elapsed when the budget was exceeded.
+     */
+    private final long elapsedMillis;
+
+    /**
+     * Time (in milliseconds) spent on every command.
+     */
+    private final Map<String, Long> breakdown;
+
+    /**
+     * Constructor.
+     * @param command that couldn't be completed.
+     * @param budgetMillis time given to the operation.
+     * @param elapsedMillis time elapsed when the budget was exceeded.
+     * @param breakdown time spent on every command.
+     * @param cause of the failure (it can be null).
+     */
+    LatencyBudgetExceededException(String command, long budgetMillis, long elapsedMillis,
+            Map<String, Long> breakdown, Throwable cause) {
+        super("The latency budget of " + budgetMillis + " ms was exceeded before completing " + command + " (elapsed "
+                + elapsedMillis + " ms, breakdown " + breakdown + ")", cause);
+        this.command = command;
+        this.budgetMillis = budgetMillis;
+        this.elapsedMillis = elapsedMillis;
+        this.breakdown = Collections.unmodifiableMap(breakdown);
+    }
+
+    /**
+     * @return the command that couldn't be completed.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the time (in milliseconds) given to the operation.
+     */
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    /**
+     * @return the time (in milliseconds) elapsed when the budget was exceeded.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the time (in milliseconds) spent on every command (in execution order), excluding the nested commands.
+     */
+    public Map<String, Long> getBreakdown() {
+        return breakdown;
+    }
+
+}
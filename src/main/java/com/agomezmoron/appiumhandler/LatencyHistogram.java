@@ -0,0 +1,291 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with a fixed memory footprint. The values (in microseconds) are recorded in logarithmic
+ * buckets with 8 linear sub-buckets each (like HdrHistogram with a precision of ~12%), so every bucket is a single
+ * atomic counter.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class LatencyHistogram {
+
+    /**
+     * Bits used by the linear sub-buckets.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * Number of linear sub-buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of buckets needed to cover every positive long value.
+     */
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * Counter of every bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Number of recorded values.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Sum of the recorded values.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Max recorded value.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * It records a latency.
+     * @param micros latency in microseconds.
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        this.counts.incrementAndGet(index(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * It resets the histogram.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    /**
+     * It takes a snapshot of the histogram. Values recorded while the snapshot is taken may be partially included.
+     * @return the {@link Snapshot}.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.counts.get(i);
+            total += copy[i];
+        }
+        long maxValue = this.max.get();
+        return new Snapshot(total, total == 0 ? 0 : this.sum.get() / (double) total, maxValue,
+                percentile(copy, total, 0.5, maxValue), percentile(copy, total, 0.9, maxValue),
+                percentile(copy, total, 0.99, maxValue), percentile(copy, total, 0.999, maxValue));
+    }
+
+    /**
+     * It computes a percentile as the highest value of the bucket where it falls.
+     * @param counts of the buckets.
+     * @param total number of values.
+     * @param percentile to be computed (0 to 1).
+     * @param maxValue recorded value.
+     * @return the percentile (in microseconds).
+     */
+    private static long percentile(long[] counts, long total, double percentile, long maxValue) {
+        long value = 0;
+        if (total > 0) {
+            long target = Math.max(1, (long) Math.ceil(total * percentile));
+            long accumulated = 0;
+            for (int i = 0; i < counts.length; i++) {
+                accumulated += counts[i];
+                if (accumulated >= target) {
+                    value = Math.min(highestValue(i), maxValue);
+                    break;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @param value to be recorded.
+     * @return the index of its bucket.
+     */
+    static int index(long value) {
+        int index;
+        if (value < SUB_BUCKETS) {
+            index = (int) value;
+        } else {
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+            index = (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+        return index;
+    }
+
+    /**
+     * @param index of a bucket.
+     * @return the highest value recorded in the bucket.
+     */
+    static long highestValue(int index) {
+        long value;
+        if (index < SUB_BUCKETS) {
+            value = index;
+        } else {
+            int shift = index / SUB_BUCKETS - 1;
+            long subBucket = SUB_BUCKETS + index % SUB_BUCKETS;
+            value = ((subBucket + 1) << shift) - 1;
+        }
+        return value;
+    }
+
+    /**
+     * Immutable view of the histogram (values in microseconds).
+     */
+    public static class Snapshot {
+
+        /**
+         * Number of recorded values.
+         */
+        private final long count;
+
+        /**
+         * Mean of the recorded values.
+         */
+        private final double mean;
+
+        /**
+         * Max recorded value.
+         */
+        private final long max;
+
+        /**
+         * Percentile 50.
+         */
+        private final long p50;
+
+        /**
+         * Percentile 90.
+         */
+        private final long p90;
+
+        /**
+         * Percentile 99.
+         */
+        private final long p99;
+
+        /**
+         * Percentile 99.9.
+         */
+        private final long p999;
+
+        /**
+         * Constructor.
+         * @param count of values.
+         * @param mean of the values.
+         * @param max value.
+         * @param p50 percentile 50.
+         * @param p90 percentile 90.
+         * @param p99 percentile 99.
+         * @param p999 percentile 99.9.
+         */
+        Snapshot(long count, double mean, long max, long p50, long p90, long p99, long p999) {
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        /**
+         * @return the number of recorded values.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the mean of the recorded values.
+         */
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return the max recorded value.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return the percentile 50.
+         */
+        public long getP50() {
+            return p50;
+        }
+
+        /**
+         * @return the percentile 90.
+         */
+        public long getP90() {
+            return p90;
+        }
+
+        /**
+         * @return the percentile 99.
+         */
+        public long getP99() {
+            return p99;
+        }
+
+        /**
+         * @return the percentile 99.9.
+         */
+        public long getP999() {
+            return p999;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms p99.9=%.1fms max=%.1fms",
+                    count, mean / 1000, p50 / 1000.0, p90 / 1000.0, p99 / 1000.0, p999 / 1000.0, max / 1000.0);
+        }
+    }
+
+}
@@ -0,0 +1,390 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Optimizer of the locators used by the {@link AppiumHandledDriver} finders. The common XPath shapes (a class and
+ * some attribute conditions) are rewritten to the fastest native strategy of the platform (id, accessibility id,
+ * UiAutomator or iOS predicate) and the time spent on every locator is recorded, so the slowest ones can be reported.
+ * A rewrite which misses an element found by the original XPath is never used again.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class LocatorOptimizer {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(LocatorOptimizer.class);
+
+    /**
+     * Appium id strategy.
+     */
+    public static final String ID = "id";
+
+    /**
+     * Appium accessibility id strategy.
+     */
+    public static final String ACCESSIBILITY_ID = "accessibility id";
+
+    /**
+     * Appium UiAutomator strategy (Android).
+     */
+    public static final String ANDROID_UIAUTOMATOR = "-android uiautomator";
+
+    /**
+     * Appium predicate strategy (iOS XCUITest).
+     */
+    public static final String IOS_PREDICATE = "-ios predicate string";
+
+    /**
+     * Supported XPath shape: //class or //class[conditions].
+     */
+    private static Pattern XPATH = Pattern.compile("^//([\\w.*]+)(?:\\[(.+)\\])?$");
+
+    /**
+     * Supported condition: @attribute='value', contains(@attribute, 'value') or starts-with(@attribute, 'value').
+     */
+    private static Pattern CONDITION = Pattern.compile(
+            "^\\s*(?:@([\\w-]+)\\s*=\\s*(?:'([^']*)'|\"([^\"]*)\")|(contains|starts-with)\\(\\s*@([\\w-]+)\\s*,\\s*(?:'([^']*)'|\"([^\"]*)\")\\s*\\))\\s*$");
+
+    /**
+     * Flag to know if the platform is iOS.
+     */
+    private final boolean ios;
+
+    /**
+     * Flag to know if the iOS predicates are supported (XCUITest).
+     */
+    private final boolean predicates;
+
+    /**
+     * Max number of locators with recorded timing.
+     */
+    private int maxTrackedLocators = 1000;
+
+    /**
+     * Rewrites by XPath (NO_REWRITE if the XPath can't be rewritten).
+     */
+    private final ConcurrentMap<String, Rewrite> rewrites = new ConcurrentHashMap<String, Rewrite>();
+
+    /**
+     * Timing by locator.
+     */
+    private final ConcurrentMap<String, LatencyHistogram> timings = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /**
+     * Marker of the XPaths which can't be rewritten.
+     */
+    private static final Rewrite NO_REWRITE = new Rewrite(null, null);
+
+    /**
+     * Constructor.
+     * @param ios true if the platform is iOS (Android otherwise).
+     * @param predicates true if the iOS predicates are supported (XCUITest).
+     */
+    public LocatorOptimizer(boolean ios, boolean predicates) {
+        this.ios = ios;
+        this.predicates = predicates;
+    }
+
+    /**
+     * It gets the rewrite of an XPath.
+     * @param xpath to be rewritten.
+     * @return the {@link Rewrite} or null if the XPath can't be rewritten (or its rewrite missed elements).
+     */
+    public Rewrite rewrite(String xpath) {
+        Rewrite rewrite = this.rewrites.get(xpath);
+        if (rewrite == null) {
+            rewrite = this.parse(xpath);
+            this.rewrites.putIfAbsent(xpath, rewrite == null ? NO_REWRITE : rewrite);
+            LOGGER.debug(rewrite == null ? "The XPath " + xpath + " can't be rewritten"
+                    : "The XPath " + xpath + " is rewritten to " + rewrite);
+        }
+        return rewrite == NO_REWRITE ? null : rewrite;
+    }
+
+    /**
+     * It discards the rewrite of an XPath because it missed elements found by the XPath.
+     * @param xpath whose rewrite missed.
+     */
+    public void reject(String xpath) {
+        LOGGER.warn("The rewrite of " + xpath + " missed some elements, so the XPath will be used");
+        this.rewrites.put(xpath, NO_REWRITE);
+    }
+
+    /**
+     * It records the time spent looking a locator up.
+     * @param locator used.
+     * @param micros spent on the lookup.
+     */
+    public void record(String locator, long micros) {
+        LatencyHistogram histogram = this.timings.get(locator);
+        if (histogram == null && this.timings.size() < this.maxTrackedLocators) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = this.timings.putIfAbsent(locator, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        if (histogram != null) {
+            histogram.record(micros);
+        }
+    }
+
+    /**
+     * @param limit max number of locators.
+     * @return the slowest locators (by their mean time) with their timing in microseconds.
+     */
+    public List<Map.Entry<String, LatencyHistogram.Snapshot>> getSlowestLocators(int limit) {
+        List<Map.Entry<String, LatencyHistogram.Snapshot>> slowest = new ArrayList<Map.Entry<String, LatencyHistogram.Snapshot>>();
+        for (Map.Entry<String, LatencyHistogram> entry : this.timings.entrySet()) {
+            slowest.add(new AbstractMap.SimpleImmutableEntry<String, LatencyHistogram.Snapshot>(
+                    entry.getKey(), entry.getValue().snapshot()));
+        }
+        Collections.sort(slowest, new Comparator<Map.Entry<String, LatencyHistogram.Snapshot>>() {
+
+            @Override
+            public int compare(Map.Entry<String, LatencyHistogram.Snapshot> a,
+                    Map.Entry<String, LatencyHistogram.Snapshot> b) {
+                return Double.compare(b.getValue().getMean(), a.getValue().getMean());
+            }
+        });
+        return slowest.size() > limit ? new ArrayList<Map.Entry<String, LatencyHistogram.Snapshot>>(
+                slowest.subList(0, limit)) : slowest;
+    }
+
+    /**
+     * @param limit max number of locators.
+     * @return a human readable report of the slowest locators.
+     */
+    public String report(int limit) {
+        StringBuilder report = new StringBuilder("Slowest locators:");
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : this.getSlowestLocators(limit)) {
+            Rewrite rewrite = this.rewrites.get(entry.getKey().substring(entry.getKey().indexOf('=') + 1));
+            report.append(System.lineSeparator()).append("  ").append(entry.getKey()).append(": ")
+                    .append(entry.getValue());
+            if (rewrite != null && rewrite != NO_REWRITE) {
+                report.append(" (rewritten to ").append(rewrite).append(')');
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * It resets the recorded timing.
+     */
+    public void reset() {
+        this.timings.clear();
+    }
+
+    /**
+     * @param maxTrackedLocators max number of locators with recorded timing.
+     */
+    public void setMaxTrackedLocators(int maxTrackedLocators) {
+        this.maxTrackedLocators = maxTrackedLocators;
+    }
+
+    /**
+     * It parses an XPath and it builds its rewrite for the platform.
+     * @param xpath to be parsed.
+     * @return the rewrite or null if the XPath shape is not supported.
+     */
+    private Rewrite parse(String xpath) {
+        Matcher matcher = XPATH.matcher(xpath.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        String tag = matcher.group(1);
+        List<String[]> conditions = new ArrayList<String[]>();
+        if (matcher.group(2) != null) {
+            for (String condition : matcher.group(2).split("\\s+and\\s+")) {
+                Matcher parsed = CONDITION.matcher(condition);
+                if (!parsed.matches()) {
+                    return null;
+                }
+                if (parsed.group(1) != null) {
+                    conditions.add(new String[] { "=", parsed.group(1),
+                            parsed.group(2) != null ? parsed.group(2) : parsed.group(3) });
+                } else {
+                    conditions.add(new String[] { parsed.group(4), parsed.group(5),
+                            parsed.group(6) != null ? parsed.group(6) : parsed.group(7) });
+                }
+            }
+        }
+        return this.ios ? this.iosRewrite(tag, conditions) : this.androidRewrite(tag, conditions);
+    }
+
+    /**
+     * @param tag of the XPath.
+     * @param conditions of the XPath (operator, attribute and value).
+     * @return the Android rewrite or null if it's not possible.
+     */
+    private Rewrite androidRewrite(String tag, List<String[]> conditions) {
+        if ("*".equals(tag) && conditions.size() == 1 && "=".equals(conditions.get(0)[0])) {
+            String attribute = conditions.get(0)[1];
+            if ("resource-id".equals(attribute) && conditions.get(0)[2].contains(":id/")) {
+                // Appium prefixes a bare id with the package of the app, so only the full ids are exact
+                return new Rewrite(ID, conditions.get(0)[2]);
+            } else if ("content-desc".equals(attribute)) {
+                return new Rewrite(ACCESSIBILITY_ID, conditions.get(0)[2]);
+            }
+        }
+        StringBuilder selector = new StringBuilder("new UiSelector()");
+        if (!"*".equals(tag)) {
+            selector.append(".className(").append(javaString(tag)).append(')');
+        }
+        for (String[] condition : conditions) {
+            String method = androidMethod(condition[0], condition[1]);
+            if (method == null) {
+                return null;
+            }
+            selector.append('.').append(method).append('(').append(javaString(condition[2])).append(')');
+        }
+        return conditions.isEmpty() && "*".equals(tag) ? null : new Rewrite(ANDROID_UIAUTOMATOR, selector.toString());
+    }
+
+    /**
+     * @param operator of the condition.
+     * @param attribute of the condition.
+     * @return the UiSelector method or null if there is none.
+     */
+    private static String androidMethod(String operator, String attribute) {
+        String method = null;
+        if ("text".equals(attribute)) {
+            method = "=".equals(operator) ? "text" : "contains".equals(operator) ? "textContains" : "textStartsWith";
+        } else if ("content-desc".equals(attribute)) {
+            method = "=".equals(operator) ? "description"
+                    : "contains".equals(operator) ? "descriptionContains" : "descriptionStartsWith";
+        } else if ("resource-id".equals(attribute) && "=".equals(operator)) {
+            method = "resourceId";
+        } else if ("class".equals(attribute) && "=".equals(operator)) {
+            method = "className";
+        }
+        return method;
+    }
+
+    /**
+     * @param tag of the XPath.
+     * @param conditions of the XPath (operator, attribute and value).
+     * @return the iOS rewrite or null if it's not possible.
+     */
+    private Rewrite iosRewrite(String tag, List<String[]> conditions) {
+        if ("*".equals(tag) && conditions.size() == 1 && "=".equals(conditions.get(0)[0])
+                && "name".equals(conditions.get(0)[1])) {
+            return new Rewrite(ACCESSIBILITY_ID, conditions.get(0)[2]);
+        }
+        if (!this.predicates || (conditions.isEmpty() && "*".equals(tag))) {
+            return null;
+        }
+        List<String> predicates = new ArrayList<String>();
+        if (!"*".equals(tag)) {
+            predicates.add("type == " + javaString(tag));
+        }
+        for (String[] condition : conditions) {
+            String attribute = condition[1];
+            if (!"name".equals(attribute) && !"label".equals(attribute) && !"value".equals(attribute)
+                    && !"type".equals(attribute)) {
+                return null;
+            }
+            String operator = "=".equals(condition[0]) ? "==" : "contains".equals(condition[0]) ? "CONTAINS"
+                    : "BEGINSWITH";
+            predicates.add(attribute + " " + operator + " " + javaString(condition[2]));
+        }
+        StringBuilder predicate = new StringBuilder();
+        for (String part : predicates) {
+            predicate.append(predicate.length() == 0 ? "" : " AND ").append(part);
+        }
+        return new Rewrite(IOS_PREDICATE, predicate.toString());
+    }
+
+    /**
+     * @param value to be quoted.
+     * @return the value as a double quoted string literal (valid for UiSelector and NSPredicate).
+     */
+    private static String javaString(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Rewrite of an XPath: the strategy and the value to be used instead.
+     */
+    public static class Rewrite {
+
+        /**
+         * Appium strategy.
+         */
+        private final String strategy;
+
+        /**
+         * Value of the locator.
+         */
+        private final String value;
+
+        /**
+         * Constructor.
+         * @param strategy Appium strategy.
+         * @param value of the locator.
+         */
+        Rewrite(String strategy, String value) {
+            this.strategy = strategy;
+            this.value = value;
+        }
+
+        /**
+         * @return the Appium strategy.
+         */
+        public String getStrategy() {
+            return strategy;
+        }
+
+        /**
+         * @return the value of the locator.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return this.strategy + "=" + this.value;
+        }
+    }
+
+}
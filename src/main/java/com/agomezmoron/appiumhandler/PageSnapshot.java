@@ -0,0 +1,479 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.InvalidSelectorException;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.WebDriverException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import io.appium.java_client.MobileElement;
+
+/**
+ * Snapshot of the page source of a screen. The source is fetched once and indexed (by id, class, text and
+ * accessibility id), so XPath and attribute queries are evaluated locally instead of on the server. The matches are
+ * {@link Node}s which are only mapped to {@link MobileElement}s when an interaction needs them.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class PageSnapshot {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(PageSnapshot.class);
+
+    /**
+     * Attributes with the id of a node (Android and iOS).
+     */
+    private static String[] ID_ATTRIBUTES = { "resource-id", "name" };
+
+    /**
+     * Attributes with the accessibility id of a node (Android and iOS).
+     */
+    private static String[] ACCESSIBILITY_ID_ATTRIBUTES = { "content-desc", "name" };
+
+    /**
+     * Attributes with the text of a node (Android and iOS).
+     */
+    private static String[] TEXT_ATTRIBUTES = { "text", "label", "value" };
+
+    /**
+     * Attributes matched by the name locator strategy.
+     */
+    private static String[] NAME_ATTRIBUTES = { "name", "content-desc", "text", "label" };
+
+    /**
+     * Android bounds format: [x1,y1][x2,y2].
+     */
+    private static Pattern ANDROID_BOUNDS = Pattern.compile("\\[(-?\\d+),(-?\\d+)\\]\\[(-?\\d+),(-?\\d+)\\]");
+
+    /**
+     * Driver used to resolve the nodes.
+     */
+    private final AppiumHandledDriver handledDriver;
+
+    /**
+     * Parsed page source.
+     */
+    private final Document document;
+
+    /**
+     * Every node in document order.
+     */
+    private final List<Node> nodes = new ArrayList<Node>();
+
+    /**
+     * Nodes by DOM element.
+     */
+    private final Map<Element, Node> byElement = new IdentityHashMap<Element, Node>();
+
+    /**
+     * Nodes by id.
+     */
+    private final Map<String, List<Node>> byId = new HashMap<String, List<Node>>();
+
+    /**
+     * Nodes by accessibility id.
+     */
+    private final Map<String, List<Node>> byAccessibilityId = new HashMap<String, List<Node>>();
+
+    /**
+     * Nodes by class.
+     */
+    private final Map<String, List<Node>> byClass = new HashMap<String, List<Node>>();
+
+    /**
+     * Nodes by text.
+     */
+    private final Map<String, List<Node>> byText = new HashMap<String, List<Node>>();
+
+    /**
+     * Nodes by any of the attributes matched by the name locator strategy.
+     */
+    private final Map<String, List<Node>> byName = new HashMap<String, List<Node>>();
+
+    /**
+     * Creation time of the snapshot.
+     */
+    private final long createdAt;
+
+    /**
+     * Constructor.
+     * @param handledDriver used to resolve the nodes.
+     * @param pageSource to be indexed.
+     */
+    PageSnapshot(AppiumHandledDriver handledDriver, String pageSource) {
+        this.handledDriver = handledDriver;
+        this.createdAt = handledDriver.getClock().currentTimeMillis();
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            this.document = builder.parse(new InputSource(new StringReader(pageSource)));
+        } catch (Exception ex) {
+            throw new WebDriverException("The page source couldn't be parsed: " + ex.getMessage(), ex);
+        }
+        this.index(this.document.getDocumentElement(), "");
+        LOGGER.debug("Page snapshot with " + this.nodes.size() + " nodes");
+    }
+
+    /**
+     * It indexes an element and its children.
+     * @param element to be indexed.
+     * @param parentPath absolute XPath of the parent.
+     */
+    private void index(Element element, String parentPath) {
+        String tag = element.getTagName();
+        int position = 1;
+        for (org.w3c.dom.Node sibling = element.getPreviousSibling(); sibling != null; sibling = sibling
+                .getPreviousSibling()) {
+            if (sibling instanceof Element && tag.equals(((Element) sibling).getTagName())) {
+                position++;
+            }
+        }
+        String path = parentPath + "/" + tag + "[" + position + "]";
+        Node node = new Node(element, path);
+        this.nodes.add(node);
+        this.byElement.put(element, node);
+        for (String attribute : ID_ATTRIBUTES) {
+            put(this.byId, node.getAttribute(attribute), node);
+        }
+        for (String attribute : ACCESSIBILITY_ID_ATTRIBUTES) {
+            put(this.byAccessibilityId, node.getAttribute(attribute), node);
+        }
+        for (String attribute : TEXT_ATTRIBUTES) {
+            put(this.byText, node.getAttribute(attribute), node);
+        }
+        for (String attribute : NAME_ATTRIBUTES) {
+            put(this.byName, node.getAttribute(attribute), node);
+        }
+        put(this.byClass, node.getClassName(), node);
+        for (org.w3c.dom.Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                this.index((Element) child, path);
+            }
+        }
+    }
+
+    /**
+     * @param index to be updated.
+     * @param key of the node (ignored if it's empty).
+     * @param node to be indexed.
+     */
+    private static void put(Map<String, List<Node>> index, String key, Node node) {
+        if (key != null && !key.isEmpty()) {
+            List<Node> nodes = index.get(key);
+            if (nodes == null) {
+                nodes = new ArrayList<Node>(1);
+                index.put(key, nodes);
+            }
+            if (!nodes.contains(node)) {
+                nodes.add(node);
+            }
+        }
+    }
+
+    /**
+     * @param index to be read.
+     * @param key to be found.
+     * @return the indexed nodes (an empty list if there is none).
+     */
+    private static List<Node> get(Map<String, List<Node>> index, String key) {
+        List<Node> nodes = index.get(key);
+        return nodes == null ? Collections.<Node> emptyList() : Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * It evaluates an XPath expression against the snapshot.
+     * @param xpath to be evaluated.
+     * @return the matched nodes (in document order).
+     */
+    public synchronized List<Node> findByXPath(String xpath) {
+        NodeList matches;
+        try {
+            matches = (NodeList) XPathFactory.newInstance().newXPath().evaluate(xpath, this.document,
+                    XPathConstants.NODESET);
+        } catch (XPathExpressionException ex) {
+            throw new InvalidSelectorException("Invalid XPath " + xpath + ": " + ex.getMessage());
+        }
+        List<Node> result = new ArrayList<Node>(matches.getLength());
+        for (int i = 0; i < matches.getLength(); i++) {
+            Node node = this.byElement.get(matches.item(i));
+            if (node != null) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param id to be found (resource-id on Android, name on iOS).
+     * @return the matched nodes.
+     */
+    public List<Node> findById(String id) {
+        return get(this.byId, id);
+    }
+
+    /**
+     * @param accessibilityId to be found (content-desc on Android, name on iOS).
+     * @return the matched nodes.
+     */
+    public List<Node> findByAccessibilityId(String accessibilityId) {
+        return get(this.byAccessibilityId, accessibilityId);
+    }
+
+    /**
+     * @param className to be found.
+     * @return the matched nodes.
+     */
+    public List<Node> findByClass(String className) {
+        return get(this.byClass, className);
+    }
+
+    /**
+     * @param text to be found (text on Android, label or value on iOS).
+     * @return the matched nodes.
+     */
+    public List<Node> findByText(String text) {
+        return get(this.byText, text);
+    }
+
+    /**
+     * @param name to be found by any of the attributes used by the name locator strategy.
+     * @return the matched nodes.
+     */
+    public List<Node> findByName(String name) {
+        return get(this.byName, name);
+    }
+
+    /**
+     * @return every node in document order.
+     */
+    public List<Node> getNodes() {
+        return Collections.unmodifiableList(this.nodes);
+    }
+
+    /**
+     * @return the number of nodes.
+     */
+    public int size() {
+        return this.nodes.size();
+    }
+
+    /**
+     * @return the milliseconds elapsed since the snapshot was taken.
+     */
+    public long getAgeMillis() {
+        return this.handledDriver.getClock().currentTimeMillis() - this.createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "PageSnapshot [nodes=" + this.nodes.size() + ", age=" + this.getAgeMillis() + " ms]";
+    }
+
+    /**
+     * Node of the snapshot. It can be read without any round trip and it's mapped to its {@link MobileElement} on
+     * demand.
+     */
+    public class Node {
+
+        /**
+         * DOM element.
+         */
+        private final Element element;
+
+        /**
+         * Absolute XPath of the node.
+         */
+        private final String xpath;
+
+        /**
+         * Resolved element (null until it's resolved).
+         */
+        private MobileElement resolved;
+
+        /**
+         * Constructor.
+         * @param element DOM element.
+         * @param xpath absolute XPath of the node.
+         */
+        private Node(Element element, String xpath) {
+            this.element = element;
+            this.xpath = xpath;
+        }
+
+        /**
+         * @param name of the attribute.
+         * @return its value or null if the node doesn't have it.
+         */
+        public String getAttribute(String name) {
+            return this.element.hasAttribute(name) ? this.element.getAttribute(name) : null;
+        }
+
+        /**
+         * @return the tag name of the node.
+         */
+        public String getTagName() {
+            return this.element.getTagName();
+        }
+
+        /**
+         * @return the class of the node (the class attribute on Android, the tag name otherwise).
+         */
+        public String getClassName() {
+            String className = this.getAttribute("class");
+            return className == null ? this.getTagName() : className;
+        }
+
+        /**
+         * @return the text of the node (null if it has none).
+         */
+        public String getText() {
+            String text = null;
+            for (int i = 0; i < TEXT_ATTRIBUTES.length && text == null; i++) {
+                text = this.getAttribute(TEXT_ATTRIBUTES[i]);
+            }
+            return text;
+        }
+
+        /**
+         * @return the absolute XPath of the node.
+         */
+        public String getXPath() {
+            return this.xpath;
+        }
+
+        /**
+         * @return the bounds of the node (null if the page source doesn't have them).
+         */
+        public Rectangle getBounds() {
+            Rectangle bounds = null;
+            String android = this.getAttribute("bounds");
+            if (android != null) {
+                Matcher matcher = ANDROID_BOUNDS.matcher(android);
+                if (matcher.matches()) {
+                    int x1 = Integer.parseInt(matcher.group(1));
+                    int y1 = Integer.parseInt(matcher.group(2));
+                    int x2 = Integer.parseInt(matcher.group(3));
+                    int y2 = Integer.parseInt(matcher.group(4));
+                    bounds = new Rectangle(x1, y1, y2 - y1, x2 - x1);
+                }
+            } else if (this.getAttribute("x") != null && this.getAttribute("width") != null) {
+                try {
+                    bounds = new Rectangle(Integer.parseInt(this.getAttribute("x")),
+                            Integer.parseInt(this.getAttribute("y")), Integer.parseInt(this.getAttribute("height")),
+                            Integer.parseInt(this.getAttribute("width")));
+                } catch (NumberFormatException ex) {
+                    bounds = null;
+                }
+            }
+            return bounds;
+        }
+
+        /**
+         * @return true if the node can be resolved with a fast locator (a unique id or accessibility id).
+         */
+        public boolean hasFastLocator() {
+            return this.uniqueAccessibilityId() != null || this.uniqueId() != null;
+        }
+
+        /**
+         * It maps the node to its {@link MobileElement}, using a unique accessibility id or id if it's available and
+         * its absolute XPath otherwise.
+         * @return the element or null if it couldn't be found.
+         */
+        public synchronized MobileElement resolve() {
+            if (this.resolved == null) {
+                String accessibilityId = this.uniqueAccessibilityId();
+                String id = this.uniqueId();
+                if (accessibilityId != null) {
+                    List<MobileElement> elements = handledDriver.findElementsByAccessibilityId(accessibilityId);
+                    this.resolved = elements.isEmpty() ? null : elements.get(0);
+                } else if (id != null) {
+                    this.resolved = handledDriver.findElementById(id);
+                } else {
+                    List<MobileElement> elements = handledDriver.getDriver().findElementsByXPath(this.xpath);
+                    this.resolved = elements.isEmpty() ? null : elements.get(0);
+                }
+            }
+            return this.resolved;
+        }
+
+        /**
+         * @return the accessibility id of the node if no other node has it (null otherwise).
+         */
+        private String uniqueAccessibilityId() {
+            for (String attribute : ACCESSIBILITY_ID_ATTRIBUTES) {
+                String value = this.getAttribute(attribute);
+                if (value != null && findByAccessibilityId(value).size() == 1) {
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the id of the node if no other node has it (null otherwise).
+         */
+        private String uniqueId() {
+            for (String attribute : ID_ATTRIBUTES) {
+                String value = this.getAttribute(attribute);
+                if (value != null && findById(value).size() == 1) {
+                    return value;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return this.xpath;
+        }
+    }
+
+}
@@ -0,0 +1,318 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+
+/**
+ * Factory of HTTP clients sharing a keep-alive connection pool (configured by a {@link TransportConfig}). The read
+ * timeout of every request depends on its {@link TransportConfig.CommandClass} and the requests can optionally be
+ * performed by a bounded pool of I/O threads.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class PooledHttpClientFactory implements HttpClient.Factory {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(PooledHttpClientFactory.class);
+
+    /**
+     * Max number of redirects followed by a request.
+     */
+    private static int MAX_REDIRECTS = 5;
+
+    /**
+     * Configuration of the transport.
+     */
+    private final TransportConfig config;
+
+    /**
+     * Shared connection pool.
+     */
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    /**
+     * Shared Apache client.
+     */
+    private final CloseableHttpClient client;
+
+    /**
+     * Threads performing the I/O (null if the caller thread is used).
+     */
+    private final ExecutorService ioExecutor;
+
+    /**
+     * Constructor.
+     * @param config of the transport.
+     */
+    PooledHttpClientFactory(TransportConfig config) {
+        this.config = config;
+        this.connectionManager = new PoolingHttpClientConnectionManager(config.getIdleTimeoutMillis(),
+                TimeUnit.MILLISECONDS);
+        this.connectionManager.setMaxTotal(config.getMaxConnections());
+        this.connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerServer());
+        this.connectionManager.setValidateAfterInactivity(2000);
+        HttpClientBuilder builder = HttpClientBuilder.create().setConnectionManager(this.connectionManager)
+                .setConnectionManagerShared(true).disableRedirectHandling().disableAutomaticRetries()
+                .evictIdleConnections(config.getIdleTimeoutMillis(), TimeUnit.MILLISECONDS);
+        if (!config.isCompression()) {
+            builder.disableContentCompression();
+        }
+        this.client = builder.build();
+        this.ioExecutor = config.getIoThreads() > 0 ? Executors.newFixedThreadPool(config.getIoThreads(),
+                new ThreadFactory() {
+
+                    private final AtomicInteger counter = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "appium-http-io-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }) : null;
+    }
+
+    @Override
+    public HttpClient createClient(URL url) {
+        return new PooledHttpClient(url);
+    }
+
+    /**
+     * It closes the connection pool and the I/O threads.
+     */
+    void close() {
+        if (this.ioExecutor != null) {
+            this.ioExecutor.shutdownNow();
+        }
+        try {
+            this.client.close();
+        } catch (IOException ex) {
+            LOGGER.warn("The HTTP client couldn't be closed: " + ex.getMessage());
+        }
+        this.connectionManager.shutdown();
+    }
+
+    /**
+     * It sends a request without buffering its response, so the big ones (file transfers) can be streamed. The
+     * connection goes back to the pool when the response is closed.
+     * @param url of the server.
+     * @param request to be sent.
+     * @return the response (it has to be closed).
+     * @throws IOException if the request failed.
+     */
+    CloseableHttpResponse stream(URL url, HttpRequest request) throws IOException {
+        PooledHttpClient pooledClient = new PooledHttpClient(url);
+        HttpRequestBase apacheRequest = pooledClient.convert(request,
+                URI.create(pooledClient.server + request.getUri()));
+        apacheRequest.setConfig(this.requestConfig(request));
+        return this.client.execute(apacheRequest);
+    }
+
+    /**
+     * It computes the timeouts of a request: the ones of its {@link TransportConfig.CommandClass} capped by the
+     * {@link LatencyBudget} of the current thread.
+     * @param request to be sent.
+     * @return the config of the request.
+     */
+    RequestConfig requestConfig(HttpRequest request) {
+        String method = request.getMethod().name();
+        TransportConfig.CommandClass commandClass = TransportConfig.CommandClass.of(method, request.getUri());
+        int connectTimeout = LatencyBudget.capConnectionTimeout(this.config.getConnectTimeoutMillis());
+        return RequestConfig.custom().setConnectTimeout(connectTimeout).setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(LatencyBudget.capConnectionTimeout(this.config.getReadTimeoutMillis(commandClass)))
+                .build();
+    }
+
+    /**
+     * @return the number of connections leased, pending and available in the pool.
+     */
+    public String getPoolStats() {
+        return this.connectionManager.getTotalStats().toString();
+    }
+
+    /**
+     * HTTP client of a server using the shared connection pool.
+     */
+    private class PooledHttpClient implements HttpClient {
+
+        /**
+         * URL of the server.
+         */
+        private final String server;
+
+        /**
+         * Constructor.
+         * @param url of the server.
+         */
+        private PooledHttpClient(URL url) {
+            String base = url.toString();
+            this.server = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
+        }
+
+        @Override
+        public HttpResponse execute(final HttpRequest request, final boolean followRedirects) throws IOException {
+            HttpResponse response;
+            // the timeouts are computed by the calling thread (it owns the latency budget)
+            RequestConfig requestConfig = requestConfig(request);
+            if (ioExecutor == null) {
+                response = this.perform(request, followRedirects, requestConfig);
+            } else {
+                Future<HttpResponse> future = ioExecutor
+                        .submit(() -> this.perform(request, followRedirects, requestConfig));
+                try {
+                    response = future.get();
+                } catch (InterruptedException e) {
+                    future.cancel(true);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for " + request.getUri());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+            return response;
+        }
+
+        /**
+         * It performs a request.
+         * @param request to be sent.
+         * @param followRedirects true if the redirects have to be followed.
+         * @param requestConfig with the timeouts of the request.
+         * @return the response.
+         * @throws IOException if the request failed.
+         */
+        private HttpResponse perform(HttpRequest request, boolean followRedirects, RequestConfig requestConfig)
+                throws IOException {
+            HttpRequestBase apacheRequest = this.convert(request, URI.create(this.server + request.getUri()));
+            apacheRequest.setConfig(requestConfig);
+            int redirects = 0;
+            while (true) {
+                try (CloseableHttpResponse apacheResponse = client.execute(apacheRequest)) {
+                    int status = apacheResponse.getStatusLine().getStatusCode();
+                    Header location = apacheResponse.getFirstHeader("Location");
+                    if (followRedirects && status >= 300 && status < 400 && location != null
+                            && redirects++ < MAX_REDIRECTS) {
+                        EntityUtils.consumeQuietly(apacheResponse.getEntity());
+                        apacheRequest = new HttpGet(URI.create(this.server).resolve(location.getValue()));
+                        apacheRequest.setConfig(requestConfig);
+                    } else {
+                        return this.convert(apacheResponse);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param request Selenium request.
+         * @param uri absolute URI of the request.
+         * @return the Apache request.
+         */
+        private HttpRequestBase convert(HttpRequest request, URI uri) {
+            HttpRequestBase apacheRequest;
+            switch (request.getMethod()) {
+            case DELETE:
+                apacheRequest = new HttpDelete(uri);
+                break;
+            case GET:
+                apacheRequest = new HttpGet(uri);
+                break;
+            default:
+                apacheRequest = new HttpPost(uri);
+                break;
+            }
+            for (String name : request.getHeaderNames()) {
+                // the length is computed by the entity
+                if (!"Content-Length".equalsIgnoreCase(name)) {
+                    for (String value : request.getHeaders(name)) {
+                        apacheRequest.addHeader(name, value);
+                    }
+                }
+            }
+            if (apacheRequest instanceof HttpEntityEnclosingRequestBase) {
+                byte[] content = request.getContent();
+                ((HttpEntityEnclosingRequestBase) apacheRequest)
+                        .setEntity(new ByteArrayEntity(content == null ? new byte[0] : content));
+            }
+            return apacheRequest;
+        }
+
+        /**
+         * @param apacheResponse Apache response.
+         * @return the Selenium response.
+         * @throws IOException if the content couldn't be read.
+         */
+        private HttpResponse convert(CloseableHttpResponse apacheResponse) throws IOException {
+            HttpResponse response = new HttpResponse();
+            response.setStatus(apacheResponse.getStatusLine().getStatusCode());
+            for (Header header : apacheResponse.getAllHeaders()) {
+                response.addHeader(header.getName(), header.getValue());
+            }
+            HttpEntity entity = apacheResponse.getEntity();
+            response.setContent(entity == null ? new byte[0] : EntityUtils.toByteArray(entity));
+            return response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the connection pool is shared, so it's closed by its transport configuration
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.IOException;
+import java.net.URL;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+import org.openqa.selenium.remote.internal.ApacheHttpClient;
+
+/**
+ * Factory of HTTP clients recording every command exchanged with the Appium server (with its timing) in a
+ * {@link SessionJournal}, so the session can be replayed later with a {@link ReplayHttpClientFactory}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class RecordingHttpClientFactory implements HttpClient.Factory {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(RecordingHttpClientFactory.class);
+
+    /**
+     * Factory of the clients actually talking to the server.
+     */
+    private final HttpClient.Factory delegate;
+
+    /**
+     * Journal where the commands are recorded.
+     */
+    private final SessionJournal journal;
+
+    /**
+     * Constructor using the default HTTP clients.
+     * @param journal where the commands are recorded.
+     */
+    public RecordingHttpClientFactory(SessionJournal journal) {
+        this(new ApacheHttpClient.Factory(), journal);
+    }
+
+    /**
+     * Constructor.
+     * @param delegate factory of the clients actually talking to the server (e.g. the one of a
+     * {@link TransportConfig}).
+     * @param journal where the commands are recorded.
+     */
+    public RecordingHttpClientFactory(HttpClient.Factory delegate, SessionJournal journal) {
+        this.delegate = delegate;
+        this.journal = journal;
+    }
+
+    @Override
+    public HttpClient createClient(URL url) {
+        final HttpClient client = this.delegate.createClient(url);
+        return new HttpClient() {
+
+            @Override
+            public HttpResponse execute(HttpRequest request, boolean followRedirects) throws IOException {
+                long offset = journal.elapsedMicros();
+                long start = System.nanoTime();
+                HttpResponse response = client.execute(request, followRedirects);
+                long duration = (System.nanoTime() - start) / 1000;
+                try {
+                    journal.append(new SessionJournal.Entry(offset, duration, request.getMethod().name(),
+                            request.getUri(), request.getContent(), response.getStatus(),
+                            response.getHeader("Content-Type"), response.getContent()));
+                } catch (IOException ex) {
+                    LOGGER.warn("The command " + request.getUri() + " couldn't be recorded: " + ex.getMessage());
+                }
+                return response;
+            }
+
+            @Override
+            public void close() throws IOException {
+                client.close();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,248 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+
+/**
+ * Factory of HTTP clients replaying a {@link SessionJournal} instead of talking to an Appium server, so a recorded
+ * session can be run without devices. Every request gets the next recorded response of the same command (same
+ * method, URI and content, or just the same method and URI if the content changed) and the last one is repeated if
+ * the command is sent more times than it was recorded. The recorded latencies can be reproduced at any speed.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class ReplayHttpClientFactory implements HttpClient.Factory {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(ReplayHttpClientFactory.class);
+
+    /**
+     * Response of the commands which weren't recorded.
+     */
+    private static String NOT_RECORDED = "{\"status\":9,\"value\":{\"message\":\"The command wasn't recorded\"}}";
+
+    /**
+     * Pending entries by method, URI and content.
+     */
+    private final Map<String, Deque<SessionJournal.Entry>> byContent = new HashMap<String, Deque<SessionJournal.Entry>>();
+
+    /**
+     * Pending entries by method and URI.
+     */
+    private final Map<String, Deque<SessionJournal.Entry>> byUri = new HashMap<String, Deque<SessionJournal.Entry>>();
+
+    /**
+     * Entries already replayed.
+     */
+    private final Set<SessionJournal.Entry> replayed = Collections
+            .newSetFromMap(new IdentityHashMap<SessionJournal.Entry, Boolean>());
+
+    /**
+     * Speed factor of the recorded latencies (0 means no latency, 1 the recorded one, 2 twice as fast...).
+     */
+    private volatile double speed = 0;
+
+    /**
+     * Number of commands which weren't recorded.
+     */
+    private int misses = 0;
+
+    /**
+     * Constructor.
+     * @param journal file to be replayed.
+     * @throws IOException if the journal couldn't be read.
+     */
+    public ReplayHttpClientFactory(Path journal) throws IOException {
+        this(SessionJournal.read(journal));
+    }
+
+    /**
+     * Constructor.
+     * @param entries to be replayed.
+     */
+    public ReplayHttpClientFactory(List<SessionJournal.Entry> entries) {
+        for (SessionJournal.Entry entry : entries) {
+            queue(this.byContent, contentKey(entry.getMethod(), entry.getUri(), entry.getRequestContent()), entry);
+            queue(this.byUri, uriKey(entry.getMethod(), entry.getUri()), entry);
+        }
+    }
+
+    @Override
+    public HttpClient createClient(URL url) {
+        return new HttpClient() {
+
+            @Override
+            public HttpResponse execute(HttpRequest request, boolean followRedirects) throws IOException {
+                return replay(request);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // there is nothing to be closed
+            }
+        };
+    }
+
+    /**
+     * It replays the recorded response of a request.
+     * @param request to be replayed.
+     * @return the recorded response.
+     * @throws IOException if the replay was interrupted.
+     */
+    private HttpResponse replay(HttpRequest request) throws IOException {
+        String method = request.getMethod().name();
+        SessionJournal.Entry entry;
+        synchronized (this) {
+            entry = next(this.byContent.get(contentKey(method, request.getUri(), request.getContent())));
+            if (entry == null) {
+                entry = next(this.byUri.get(uriKey(method, request.getUri())));
+            }
+            if (entry == null) {
+                this.misses++;
+            }
+        }
+        HttpResponse response = new HttpResponse();
+        if (entry == null) {
+            LOGGER.warn("The command " + method + " " + request.getUri() + " wasn't recorded");
+            response.setStatus(500);
+            response.setHeader("Content-Type", "application/json; charset=utf-8");
+            response.setContent(NOT_RECORDED.getBytes(StandardCharsets.UTF_8));
+        } else {
+            this.pause(entry.getDurationMicros());
+            response.setStatus(entry.getStatus());
+            if (!entry.getContentType().isEmpty()) {
+                response.setHeader("Content-Type", entry.getContentType());
+            }
+            response.setContent(entry.getResponseContent());
+        }
+        return response;
+    }
+
+    /**
+     * It reproduces a recorded latency at the current speed.
+     * @param micros recorded latency.
+     * @throws IOException if the pause was interrupted.
+     */
+    private void pause(long micros) throws IOException {
+        double currentSpeed = this.speed;
+        if (currentSpeed > 0) {
+            long nanos = (long) (TimeUnit.MICROSECONDS.toNanos(micros) / currentSpeed);
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("The replay was interrupted");
+            }
+        }
+    }
+
+    /**
+     * @param entries pending entries of a command (null if there are none).
+     * @return the next entry (the last one is kept to be repeated) or null if there are none.
+     */
+    private SessionJournal.Entry next(Deque<SessionJournal.Entry> entries) {
+        SessionJournal.Entry entry = null;
+        if (entries != null && !entries.isEmpty()) {
+            // the entries replayed through the other index are skipped
+            while (entries.size() > 1 && this.replayed.contains(entries.peekFirst())) {
+                entries.pollFirst();
+            }
+            entry = entries.size() > 1 ? entries.pollFirst() : entries.peekFirst();
+            this.replayed.add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @param index to be updated.
+     * @param key of the entry.
+     * @param entry to be queued.
+     */
+    private static void queue(Map<String, Deque<SessionJournal.Entry>> index, String key, SessionJournal.Entry entry) {
+        Deque<SessionJournal.Entry> entries = index.get(key);
+        if (entries == null) {
+            entries = new ArrayDeque<SessionJournal.Entry>();
+            index.put(key, entries);
+        }
+        entries.addLast(entry);
+    }
+
+    /**
+     * @param method HTTP method.
+     * @param uri of the command.
+     * @return the key of the command.
+     */
+    private static String uriKey(String method, String uri) {
+        return method + " " + uri;
+    }
+
+    /**
+     * @param method HTTP method.
+     * @param uri of the command.
+     * @param content of the request.
+     * @return the key of the command with its content.
+     */
+    private static String contentKey(String method, String uri, byte[] content) {
+        return uriKey(method, uri) + " " + Arrays.hashCode(content == null ? new byte[0] : content);
+    }
+
+    /**
+     * @param speed factor of the recorded latencies (0 means no latency, 1 the recorded one, 2 twice as fast...).
+     */
+    public void setSpeed(double speed) {
+        this.speed = Math.max(0, speed);
+    }
+
+    /**
+     * @return the number of commands which weren't recorded.
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+}
@@ -0,0 +1,479 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.WebDriverException;
+
+import com.google.gson.Gson;
+
+/**
+ * Registry of named scripts executed in the WEBVIEW of an hybrid app. Every script is sent once: it's installed as a
+ * function of the page (together with every other registered script) and then it's invoked by name, so every call
+ * only sends its name and arguments. The invocations can be queued in a {@link Batch} to run all of them in a single
+ * round trip, and their results are decoded to the expected types. If the page was reloaded (so the functions are
+ * gone), the scripts are installed again transparently.
+ *
+ * <pre>
+ * ScriptRegistry scripts = driver.scripts();
+ * scripts.register("title", "return document.title;", true);
+ * scripts.register("count", "return document.querySelectorAll(arguments[0]).length;", true);
+ * ScriptRegistry.Batch batch = scripts.batch();
+ * ScriptRegistry.Invocation&lt;String&gt; title = batch.add("title", String.class);
+ * ScriptRegistry.Invocation&lt;Long&gt; items = batch.add("count", Long.class, ".item");
+ * batch.execute();
+ * </pre>
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class ScriptRegistry {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(ScriptRegistry.class);
+
+    /**
+     * Property of the window where the functions are installed.
+     */
+    private static String FUNCTIONS = "window.__appiumHandlerScripts";
+
+    /**
+     * Property of the window with the generation of the installed functions.
+     */
+    private static String GENERATION = "window.__appiumHandlerScriptsGeneration";
+
+    /**
+     * Result returned when some of the invoked functions are not installed (or they're outdated).
+     */
+    private static String MISSING = "appium-handler:missing";
+
+    /**
+     * Script running the invocations given as first argument (a list of name and arguments pairs) if the installed
+     * functions belong to the generation given as second argument. Every result is wrapped in an object with the value
+     * (v) or the error (e).
+     */
+    private static String RUN = "var f=" + FUNCTIONS + ",c=arguments[0],o=[],i;"
+            + "if(!f||" + GENERATION + "!==arguments[1])return '" + MISSING + "';"
+            + "for(i=0;i<c.length;i++){if(!f[c[i][0]])return '" + MISSING + "';}"
+            + "for(i=0;i<c.length;i++){try{o.push({v:f[c[i][0]].apply(null,c[i][1])});}"
+            + "catch(e){o.push({e:String(e&&e.message||e)});}}return o;";
+
+    /**
+     * JSON serializer of the names.
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Driver used to run the scripts.
+     */
+    private final AppiumHandledDriver handledDriver;
+
+    /**
+     * Registered scripts by name.
+     */
+    private final Map<String, Script> scripts = new LinkedHashMap<String, Script>();
+
+    /**
+     * Script installing every registered function (null if it has to be rebuilt).
+     */
+    private String installer;
+
+    /**
+     * Generation of the registered scripts (it changes when a script is added or replaced, so the pages with older
+     * functions install them again).
+     */
+    private long generation = 0;
+
+    /**
+     * Number of executed invocations.
+     */
+    private long invocations = 0;
+
+    /**
+     * Number of round trips.
+     */
+    private long roundTrips = 0;
+
+    /**
+     * Number of installs.
+     */
+    private long installs = 0;
+
+    /**
+     * Constructor.
+     * @param handledDriver used to run the scripts.
+     */
+    ScriptRegistry(AppiumHandledDriver handledDriver) {
+        this.handledDriver = handledDriver;
+    }
+
+    /**
+     * It registers a script which may change the page (so the cached elements are invalidated when it's run).
+     * @param name of the script.
+     * @param body of the script (like the ones given to executeScript: it reads its arguments from the arguments array
+     * and it returns its result).
+     */
+    public void register(String name, String body) {
+        this.register(name, body, false);
+    }
+
+    /**
+     * It registers a script (replacing the one with the same name).
+     * @param name of the script.
+     * @param body of the script (like the ones given to executeScript: it reads its arguments from the arguments array
+     * and it returns its result).
+     * @param readOnly true if the script doesn't change the page (so the cached elements are kept).
+     */
+    public synchronized void register(String name, String body, boolean readOnly) {
+        Script previous = this.scripts.put(name, new Script(body, readOnly));
+        if (previous != null && !previous.body.equals(body)) {
+            LOGGER.warn("The script " + name + " was replaced");
+        }
+        if (previous == null || !previous.body.equals(body)) {
+            this.generation++;
+            this.installer = null;
+        }
+    }
+
+    /**
+     * @param name of the script.
+     * @return true if the script is registered.
+     */
+    public synchronized boolean isRegistered(String name) {
+        return this.scripts.containsKey(name);
+    }
+
+    /**
+     * It runs a single script.
+     * @param name of the script.
+     * @param type of the result.
+     * @param arguments of the script.
+     * @return the decoded result.
+     */
+    public <T> T call(String name, Class<T> type, Object... arguments) {
+        Batch batch = this.batch();
+        Invocation<T> invocation = batch.add(name, type, arguments);
+        batch.execute();
+        return invocation.get();
+    }
+
+    /**
+     * @return a new {@link Batch} of invocations.
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * It runs the invocations of a batch, installing the functions if they are missing.
+     * @param batch to be executed.
+     * @return the raw results (one per invocation).
+     */
+    private List<?> run(Batch batch) {
+        boolean readOnly = true;
+        List<Object> calls = new ArrayList<Object>();
+        for (Invocation<?> invocation : batch.invocations) {
+            Script script;
+            synchronized (this) {
+                script = this.scripts.get(invocation.name);
+            }
+            if (script == null) {
+                throw new WebDriverException("The script " + invocation.name + " is not registered");
+            }
+            readOnly &= script.readOnly;
+            calls.add(Arrays.asList(invocation.name, Arrays.asList(invocation.arguments)));
+        }
+        long expected;
+        synchronized (this) {
+            expected = this.generation;
+        }
+        Object output = this.handledDriver.runScript("executeScriptBatch", !readOnly, RUN, calls, expected);
+        synchronized (this) {
+            this.roundTrips++;
+        }
+        if (MISSING.equals(output)) {
+            // the page was reloaded or the scripts changed, so the functions are installed along with the run
+            String installer;
+            synchronized (this) {
+                installer = this.installer();
+                expected = this.generation;
+            }
+            output = this.handledDriver.runScript("executeScriptBatch", !readOnly, installer + RUN, calls, expected);
+            synchronized (this) {
+                this.roundTrips++;
+                this.installs++;
+            }
+        }
+        if (!(output instanceof List) || ((List<?>) output).size() != calls.size()) {
+            throw new WebDriverException("Unexpected result of the script batch: " + output);
+        }
+        synchronized (this) {
+            this.invocations += calls.size();
+        }
+        return (List<?>) output;
+    }
+
+    /**
+     * @return the script installing every registered function.
+     */
+    private synchronized String installer() {
+        if (this.installer == null) {
+            StringBuilder builder = new StringBuilder(FUNCTIONS).append("=").append(FUNCTIONS).append("||{};")
+                    .append(GENERATION).append('=').append(this.generation).append(';');
+            for (Map.Entry<String, Script> entry : this.scripts.entrySet()) {
+                builder.append(FUNCTIONS).append('[').append(GSON.toJson(entry.getKey())).append("]=function(){")
+                        .append(entry.getValue().body).append("\n};");
+            }
+            this.installer = builder.toString();
+        }
+        return this.installer;
+    }
+
+    /**
+     * It decodes a result.
+     * @param name of the script.
+     * @param value returned by the script.
+     * @param type expected.
+     * @return the decoded result.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T decode(String name, Object value, Class<T> type) {
+        Object decoded;
+        if (value == null || type == Object.class || type.isInstance(value)) {
+            decoded = value;
+        } else if (value instanceof Number && (type == Long.class || type == long.class)) {
+            decoded = ((Number) value).longValue();
+        } else if (value instanceof Number && (type == Integer.class || type == int.class)) {
+            decoded = ((Number) value).intValue();
+        } else if (value instanceof Number && (type == Double.class || type == double.class)) {
+            decoded = ((Number) value).doubleValue();
+        } else if (value instanceof Number && (type == Float.class || type == float.class)) {
+            decoded = ((Number) value).floatValue();
+        } else if (value instanceof Boolean && type == boolean.class) {
+            decoded = value;
+        } else if (type == String.class) {
+            decoded = value.toString();
+        } else {
+            throw new WebDriverException("The result of the script " + name + " (" + value
+                    + ") can't be decoded as " + type.getSimpleName());
+        }
+        return (T) decoded;
+    }
+
+    /**
+     * @return the number of executed invocations.
+     */
+    public synchronized long getInvocations() {
+        return invocations;
+    }
+
+    /**
+     * @return the number of round trips.
+     */
+    public synchronized long getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * @return the number of times the functions were installed.
+     */
+    public synchronized long getInstalls() {
+        return installs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ScriptRegistry [scripts=" + this.scripts.size() + ", invocations=" + this.invocations
+                + ", roundTrips=" + this.roundTrips + ", installs=" + this.installs + "]";
+    }
+
+    /**
+     * Registered script.
+     */
+    private static class Script {
+
+        /**
+         * Body of the script.
+         */
+        private final String body;
+
+        /**
+         * Flag to know if the script doesn't change the page.
+         */
+        private final boolean readOnly;
+
+        /**
+         * Constructor.
+         * @param body of the script.
+         * @param readOnly true if the script doesn't change the page.
+         */
+        private Script(String body, boolean readOnly) {
+            this.body = body;
+            this.readOnly = readOnly;
+        }
+    }
+
+    /**
+     * Queue of invocations executed in a single round trip.
+     */
+    public class Batch {
+
+        /**
+         * Queued invocations.
+         */
+        private final List<Invocation<?>> invocations = new ArrayList<Invocation<?>>();
+
+        /**
+         * It queues an invocation.
+         * @param name of the script.
+         * @param type of the result.
+         * @param arguments of the script.
+         * @return the {@link Invocation} to get the result once the batch is executed.
+         */
+        public <T> Invocation<T> add(String name, Class<T> type, Object... arguments) {
+            Invocation<T> invocation = new Invocation<T>(name, type, arguments);
+            this.invocations.add(invocation);
+            return invocation;
+        }
+
+        /**
+         * @return the number of queued invocations.
+         */
+        public int size() {
+            return this.invocations.size();
+        }
+
+        /**
+         * It executes every queued invocation in a single round trip and it clears the queue.
+         */
+        public void execute() {
+            if (!this.invocations.isEmpty()) {
+                List<?> results = run(this);
+                for (int i = 0; i < results.size(); i++) {
+                    this.invocations.get(i).complete(results.get(i));
+                }
+                this.invocations.clear();
+            }
+        }
+    }
+
+    /**
+     * Invocation of a script queued in a {@link Batch}.
+     * @param <T> type of the result.
+     */
+    public static class Invocation<T> {
+
+        /**
+         * Name of the script.
+         */
+        private final String name;
+
+        /**
+         * Type of the result.
+         */
+        private final Class<T> type;
+
+        /**
+         * Arguments of the script.
+         */
+        private final Object[] arguments;
+
+        /**
+         * Flag to know if the invocation was executed.
+         */
+        private boolean done = false;
+
+        /**
+         * Decoded result.
+         */
+        private T value;
+
+        /**
+         * Error thrown by the script (null if it succeeded).
+         */
+        private String error;
+
+        /**
+         * Constructor.
+         * @param name of the script.
+         * @param type of the result.
+         * @param arguments of the script.
+         */
+        private Invocation(String name, Class<T> type, Object[] arguments) {
+            this.name = name;
+            this.type = type;
+            this.arguments = arguments == null ? new Object[0] : arguments;
+        }
+
+        /**
+         * It completes the invocation with its raw result.
+         * @param result object with the value (v) or the error (e).
+         */
+        private void complete(Object result) {
+            Map<?, ?> wrapper = result instanceof Map ? (Map<?, ?>) result : null;
+            if (wrapper != null && wrapper.containsKey("e")) {
+                this.error = String.valueOf(wrapper.get("e"));
+            } else {
+                this.value = decode(this.name, wrapper == null ? null : wrapper.get("v"), this.type);
+            }
+            this.done = true;
+        }
+
+        /**
+         * @return the decoded result.
+         * @throws WebDriverException if the batch wasn't executed or the script failed.
+         */
+        public T get() {
+            if (!this.done) {
+                throw new WebDriverException("The batch of the script " + this.name + " wasn't executed");
+            }
+            if (this.error != null) {
+                throw new WebDriverException("The script " + this.name + " failed: " + this.error);
+            }
+            return this.value;
+        }
+
+        /**
+         * @return true if the script failed.
+         */
+        public boolean isFailed() {
+            return this.error != null;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + Arrays.toString(this.arguments);
+        }
+    }
+
+}
@@ -0,0 +1,295 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
+
+import io.appium.java_client.MobileElement;
+
+/**
+ * Lazy sequence of the elements of a long list (RecyclerView, UITableView...) matching a locator. The elements are
+ * found page by page: the visible ones are yielded first and the list is only swiped when the consumer asks for more.
+ * The rows of a page which were already yielded by the previous one are skipped (using the key given by the key
+ * function, which has to identify a row, e.g. {@link #byAttribute(String)} with an attribute unique per row) and only
+ * the keys of the last page are kept, so iterating a list of thousands of rows needs bounded memory. The sequence ends
+ * when a swipe leaves the page unchanged (the end of the list) or the max number of swipes is reached.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class ScrollingElements implements Iterable<MobileElement> {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(ScrollingElements.class);
+
+    /**
+     * Driver finding the elements and performing the swipes.
+     */
+    private final AppiumHandledDriver handledDriver;
+
+    /**
+     * Locator of the rows.
+     */
+    private final By by;
+
+    /**
+     * Function giving the identity of a row.
+     */
+    private Function<MobileElement, String> keyFunction;
+
+    /**
+     * Container of the list (null to swipe over the whole screen).
+     */
+    private MobileElement container;
+
+    /**
+     * Fraction (0 to 1) of the container height covered by every swipe.
+     */
+    private double swipeRatio = 0.6;
+
+    /**
+     * Duration (in milliseconds) of every swipe.
+     */
+    private int swipeDurationMillis = 400;
+
+    /**
+     * Max number of swipes of an iteration.
+     */
+    private int maxSwipes = 1000;
+
+    /**
+     * Area swiped (resolved by the first swipe).
+     */
+    private Rectangle area;
+
+    /**
+     * Constructor.
+     * @param handledDriver finding the elements and performing the swipes.
+     * @param by locator of the rows.
+     * @param keyFunction giving the identity of a row.
+     */
+    ScrollingElements(AppiumHandledDriver handledDriver, By by, Function<MobileElement, String> keyFunction) {
+        this.handledDriver = handledDriver;
+        this.by = by;
+        this.setKeyFunction(keyFunction);
+    }
+
+    /**
+     * @param attribute unique per row (like the content description or the accessibility name of the row).
+     * @return a key function reading the attribute of the rows (a round trip per row).
+     */
+    public static Function<MobileElement, String> byAttribute(String attribute) {
+        return element -> element.getAttribute(attribute);
+    }
+
+    /**
+     * It creates an iterator which starts on the current page of the list (it doesn't scroll back).
+     * @return the new iterator.
+     */
+    @Override
+    public Iterator<MobileElement> iterator() {
+        return new PageIterator();
+    }
+
+    /**
+     * @return a sequential stream of the rows (a short-circuiting operation stops the swipes).
+     */
+    public Stream<MobileElement> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this.iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * @return the rows of the current page.
+     */
+    List<MobileElement> page() {
+        return this.handledDriver.findElements(this.by);
+    }
+
+    /**
+     * It swipes the list a page forward.
+     */
+    void scroll() {
+        if (this.area == null) {
+            if (this.container != null) {
+                this.area = this.handledDriver.getRect(this.container);
+            } else {
+                this.area = new Rectangle(new Point(0, 0), this.handledDriver.getWindowSize());
+            }
+        }
+        int x = this.area.getX() + this.area.getWidth() / 2;
+        int offset = (int) (this.area.getHeight() * this.swipeRatio / 2);
+        int center = this.area.getY() + this.area.getHeight() / 2;
+        this.handledDriver.swipe(x, center + offset, x, center - offset, this.swipeDurationMillis);
+    }
+
+    /**
+     * @param keyFunction giving the identity of a row, used to skip the rows already yielded and to detect the end of
+     * the list (two different rows mustn't share a key).
+     * @return the sequence.
+     */
+    public ScrollingElements setKeyFunction(Function<MobileElement, String> keyFunction) {
+        if (keyFunction == null) {
+            throw new IllegalArgumentException("The key function of the rows is required");
+        }
+        this.keyFunction = keyFunction;
+        return this;
+    }
+
+    /**
+     * @param container of the list (null to swipe over the whole screen).
+     * @return the sequence.
+     */
+    public ScrollingElements setContainer(MobileElement container) {
+        this.container = container;
+        this.area = null;
+        return this;
+    }
+
+    /**
+     * @param swipeRatio fraction (0 to 1) of the container height covered by every swipe.
+     * @return the sequence.
+     */
+    public ScrollingElements setSwipeRatio(double swipeRatio) {
+        this.swipeRatio = Math.max(0.1, Math.min(0.9, swipeRatio));
+        return this;
+    }
+
+    /**
+     * @param swipeDurationMillis duration (in milliseconds) of every swipe.
+     * @return the sequence.
+     */
+    public ScrollingElements setSwipeDurationMillis(int swipeDurationMillis) {
+        this.swipeDurationMillis = swipeDurationMillis;
+        return this;
+    }
+
+    /**
+     * @param maxSwipes max number of swipes of an iteration.
+     * @return the sequence.
+     */
+    public ScrollingElements setMaxSwipes(int maxSwipes) {
+        this.maxSwipes = Math.max(0, maxSwipes);
+        return this;
+    }
+
+    /**
+     * Iterator loading a page when the previous one is consumed.
+     */
+    private class PageIterator implements Iterator<MobileElement> {
+
+        /**
+         * Rows of the current page not yielded yet.
+         */
+        private final Deque<MobileElement> pending = new ArrayDeque<MobileElement>();
+
+        /**
+         * Keys of the rows of the last page (in page order).
+         */
+        private List<String> previousKeys = Collections.emptyList();
+
+        /**
+         * Flag to know if the first page was loaded.
+         */
+        private boolean loaded = false;
+
+        /**
+         * Flag to know if the end of the list was reached.
+         */
+        private boolean finished = false;
+
+        /**
+         * Number of swipes.
+         */
+        private int swipes = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (this.pending.isEmpty() && !this.finished) {
+                this.load();
+            }
+            return !this.pending.isEmpty();
+        }
+
+        @Override
+        public MobileElement next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.pending.poll();
+        }
+
+        /**
+         * It loads the next page (swiping the list if the first one was already loaded).
+         */
+        private void load() {
+            if (this.loaded) {
+                if (this.swipes >= maxSwipes) {
+                    LOGGER.warn("The end of the list " + by + " wasn't reached after " + this.swipes + " swipes");
+                    this.finished = true;
+                    return;
+                }
+                scroll();
+                this.swipes++;
+            }
+            boolean swiped = this.loaded;
+            this.loaded = true;
+            List<MobileElement> page = page();
+            List<String> keys = new ArrayList<String>(page.size());
+            Set<String> seen = new HashSet<String>(this.previousKeys);
+            for (MobileElement element : page) {
+                String key = keyFunction.apply(element);
+                keys.add(key);
+                if (!seen.contains(key)) {
+                    this.pending.add(element);
+                }
+            }
+            // the end of the list is reached when there are no rows or a swipe doesn't move them
+            this.finished = page.isEmpty() || (swiped && keys.equals(this.previousKeys));
+            this.previousKeys = keys;
+        }
+    }
+
+}
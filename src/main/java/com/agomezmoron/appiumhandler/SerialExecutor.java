@@ -0,0 +1,221 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+/**
+ * {@link Executor} that runs its tasks one at a time (in submission order) on top of a shared executor. It doesn't
+ * own any thread, so a session only needs a thread while it's executing a command. If the shared executor rejects a
+ * task, the task fails (the futures of {@link #supply(Supplier)} complete exceptionally) and the next ones are still
+ * scheduled, so the session is never wedged.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class SerialExecutor implements Executor {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(SerialExecutor.class);
+
+    /**
+     * Shared executor running the tasks.
+     */
+    private final Executor delegate;
+
+    /**
+     * Pending tasks.
+     */
+    private final Queue<Task> tasks = new ArrayDeque<Task>();
+
+    /**
+     * Task being executed (null if there is none).
+     */
+    private Task active;
+
+    /**
+     * Constructor.
+     * @param delegate shared executor running the tasks.
+     */
+    public SerialExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * {@inheritDoc} If the shared executor rejects the task when it's submitted, the
+     * {@link RejectedExecutionException} is thrown to the caller.
+     */
+    @Override
+    public void execute(Runnable task) {
+        Task queued = new Task(task, null);
+        this.enqueue(queued);
+        if (queued.rejection != null) {
+            throw queued.rejection;
+        }
+    }
+
+    /**
+     * It executes a supplier after the pending tasks.
+     * @param supplier to be executed.
+     * @return the future result of the supplier. It completes exceptionally if the supplier fails or the shared
+     *         executor rejects it.
+     */
+    public <T> CompletableFuture<T> supply(final Supplier<T> supplier) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        this.enqueue(new Task(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    future.complete(supplier.get());
+                } catch (Throwable ex) {
+                    future.completeExceptionally(new CompletionException(ex));
+                }
+            }
+        }, future));
+        return future;
+    }
+
+    /**
+     * It queues a task, scheduling it if no other one is being executed.
+     * @param task to be queued.
+     */
+    private void enqueue(Task task) {
+        List<Task> rejected = null;
+        synchronized (this) {
+            this.tasks.add(task);
+            if (this.active == null) {
+                rejected = this.scheduleNext();
+            }
+        }
+        fail(rejected, task);
+    }
+
+    /**
+     * It schedules the next pending task once the active one finished.
+     */
+    private void completed() {
+        List<Task> rejected;
+        synchronized (this) {
+            rejected = this.scheduleNext();
+        }
+        fail(rejected, null);
+    }
+
+    /**
+     * It hands the next pending task to the shared executor (the lock must be held). The rejected tasks are skipped,
+     * so the queue keeps moving.
+     * @return the rejected tasks (null if there is none).
+     */
+    private List<Task> scheduleNext() {
+        List<Task> rejected = null;
+        this.active = this.tasks.poll();
+        while (this.active != null) {
+            try {
+                this.delegate.execute(this.active);
+                break;
+            } catch (RejectedExecutionException ex) {
+                this.active.rejection = ex;
+                if (rejected == null) {
+                    rejected = new ArrayList<Task>();
+                }
+                rejected.add(this.active);
+                this.active = this.tasks.poll();
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * It fails the rejected tasks (out of the lock, as the futures run their dependent stages).
+     * @param rejected tasks (it can be null).
+     * @param submitted task whose rejection is thrown to its caller (it can be null).
+     */
+    private static void fail(List<Task> rejected, Task submitted) {
+        if (rejected != null) {
+            for (Task task : rejected) {
+                if (task.future != null) {
+                    task.future.completeExceptionally(new CompletionException(task.rejection));
+                } else if (task != submitted) {
+                    LOGGER.error("A task was rejected by the shared executor, so it won't be executed",
+                            task.rejection);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queued task.
+     */
+    private class Task implements Runnable {
+
+        /**
+         * Task to be executed.
+         */
+        private final Runnable task;
+
+        /**
+         * Future completed by the task (null if it's a plain task).
+         */
+        private final CompletableFuture<?> future;
+
+        /**
+         * Rejection of the shared executor (null if it wasn't rejected).
+         */
+        private RejectedExecutionException rejection;
+
+        /**
+         * Constructor.
+         * @param task to be executed.
+         * @param future completed by the task (null if it's a plain task).
+         */
+        private Task(Runnable task, CompletableFuture<?> future) {
+            this.task = task;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.task.run();
+            } finally {
+                completed();
+            }
+        }
+    }
+
+}
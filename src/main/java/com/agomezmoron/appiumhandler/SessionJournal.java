@@ -0,0 +1,338 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only journal of the commands exchanged by a session with the Appium server. Every {@link Entry} is a binary
+ * record (the large bodies are deflated) written and flushed as soon as the response is received, so a journal is
+ * readable even if the session didn't finish.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class SessionJournal implements Closeable {
+
+    /**
+     * Magic number of the journal files.
+     */
+    private static int MAGIC = 0x41484a31;
+
+    /**
+     * Bodies larger than this size (in bytes) are deflated.
+     */
+    private static int DEFLATE_THRESHOLD = 512;
+
+    /**
+     * Output of the journal.
+     */
+    private final DataOutputStream output;
+
+    /**
+     * Start time (in nanoseconds) of the journal.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * Constructor. The journal file is created (or truncated).
+     * @param file of the journal.
+     * @throws IOException if the file couldn't be created.
+     */
+    public SessionJournal(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)));
+        this.output.writeInt(MAGIC);
+        this.output.flush();
+    }
+
+    /**
+     * @return the microseconds elapsed since the journal was created.
+     */
+    long elapsedMicros() {
+        return (System.nanoTime() - this.start) / 1000;
+    }
+
+    /**
+     * It appends an entry to the journal.
+     * @param entry to be appended.
+     * @throws IOException if the entry couldn't be written.
+     */
+    public synchronized void append(Entry entry) throws IOException {
+        this.output.writeLong(entry.offsetMicros);
+        this.output.writeLong(entry.durationMicros);
+        this.output.writeUTF(entry.method);
+        this.output.writeUTF(entry.uri);
+        writeBody(this.output, entry.requestContent);
+        this.output.writeInt(entry.status);
+        this.output.writeUTF(entry.contentType);
+        writeBody(this.output, entry.responseContent);
+        this.output.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.output.close();
+    }
+
+    /**
+     * It reads every entry of a journal (a truncated last entry is ignored).
+     * @param file of the journal.
+     * @return the entries in recording order.
+     * @throws IOException if the file couldn't be read or it's not a journal.
+     */
+    public static List<Entry> read(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException(file + " is not a session journal");
+            }
+            while (true) {
+                try {
+                    long offset = input.readLong();
+                    long duration = input.readLong();
+                    String method = input.readUTF();
+                    String uri = input.readUTF();
+                    byte[] request = readBody(input);
+                    int status = input.readInt();
+                    String contentType = input.readUTF();
+                    byte[] response = readBody(input);
+                    entries.add(new Entry(offset, duration, method, uri, request, status, contentType, response));
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * It writes a body, deflating it if it's large.
+     * @param output of the journal.
+     * @param body to be written.
+     * @throws IOException if it couldn't be written.
+     */
+    private static void writeBody(DataOutputStream output, byte[] body) throws IOException {
+        if (body.length > DEFLATE_THRESHOLD) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(body.length / 4);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                deflated.write(chunk, 0, deflater.deflate(chunk));
+            }
+            deflater.end();
+            output.writeByte(1);
+            output.writeInt(body.length);
+            output.writeInt(deflated.size());
+            deflated.writeTo(output);
+        } else {
+            output.writeByte(0);
+            output.writeInt(body.length);
+            output.write(body);
+        }
+    }
+
+    /**
+     * It reads a body, inflating it if it's deflated.
+     * @param input of the journal.
+     * @return the body.
+     * @throws IOException if it couldn't be read.
+     */
+    private static byte[] readBody(DataInputStream input) throws IOException {
+        boolean deflated = input.readByte() == 1;
+        byte[] body = new byte[input.readInt()];
+        if (deflated) {
+            byte[] compressed = new byte[input.readInt()];
+            input.readFully(compressed);
+            Inflater inflater = new Inflater();
+            inflater.setInput(compressed);
+            try {
+                int read = 0;
+                while (read < body.length && !inflater.finished()) {
+                    read += inflater.inflate(body, read, body.length - read);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted journal body", e);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            input.readFully(body);
+        }
+        return body;
+    }
+
+    /**
+     * Command exchanged with the server.
+     */
+    public static class Entry {
+
+        /**
+         * Microseconds elapsed since the journal was created when the command was sent.
+         */
+        private final long offsetMicros;
+
+        /**
+         * Microseconds spent waiting for the response.
+         */
+        private final long durationMicros;
+
+        /**
+         * HTTP method.
+         */
+        private final String method;
+
+        /**
+         * URI of the command (relative to the server).
+         */
+        private final String uri;
+
+        /**
+         * Content of the request.
+         */
+        private final byte[] requestContent;
+
+        /**
+         * HTTP status of the response.
+         */
+        private final int status;
+
+        /**
+         * Content type of the response (empty if it had none).
+         */
+        private final String contentType;
+
+        /**
+         * Content of the response.
+         */
+        private final byte[] responseContent;
+
+        /**
+         * Constructor.
+         * @param offsetMicros when the command was sent.
+         * @param durationMicros spent waiting for the response.
+         * @param method HTTP method.
+         * @param uri of the command.
+         * @param requestContent content of the request.
+         * @param status of the response.
+         * @param contentType of the response.
+         * @param responseContent content of the response.
+         */
+        Entry(long offsetMicros, long durationMicros, String method, String uri, byte[] requestContent, int status,
+                String contentType, byte[] responseContent) {
+            this.offsetMicros = offsetMicros;
+            this.durationMicros = durationMicros;
+            this.method = method;
+            this.uri = uri;
+            this.requestContent = requestContent == null ? new byte[0] : requestContent;
+            this.status = status;
+            this.contentType = contentType == null ? "" : contentType;
+            this.responseContent = responseContent == null ? new byte[0] : responseContent;
+        }
+
+        /**
+         * @return the microseconds elapsed since the journal was created when the command was sent.
+         */
+        public long getOffsetMicros() {
+            return offsetMicros;
+        }
+
+        /**
+         * @return the microseconds spent waiting for the response.
+         */
+        public long getDurationMicros() {
+            return durationMicros;
+        }
+
+        /**
+         * @return the HTTP method.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return the URI of the command.
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @return the content of the request.
+         */
+        public byte[] getRequestContent() {
+            return requestContent;
+        }
+
+        /**
+         * @return the HTTP status of the response.
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the content type of the response (empty if it had none).
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return the content of the response.
+         */
+        public byte[] getResponseContent() {
+            return responseContent;
+        }
+
+        @Override
+        public String toString() {
+            return this.method + " " + this.uri + " -> " + this.status + " (" + this.durationMicros / 1000.0 + " ms)";
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.openqa.selenium.ScreenOrientation;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Local mirror of the state of a session kept by the {@link AppiumHandledDriver}: the current context, window handle,
+ * orientation and settings. Every value is fetched from the server the first time it's needed, then it's updated by
+ * the commands of the driver changing it and it's forgotten when it may have changed behind the driver's back (app
+ * lifecycle commands or failed commands), so the frequent state checks don't need any round trip.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class SessionState {
+
+    /**
+     * Current context (null if it's unknown).
+     */
+    private volatile String context;
+
+    /**
+     * Current window handle (null if it's unknown).
+     */
+    private volatile String windowHandle;
+
+    /**
+     * Current orientation (null if it's unknown).
+     */
+    private volatile ScreenOrientation orientation;
+
+    /**
+     * Current settings as JSON (null if they're unknown).
+     */
+    private volatile String settings;
+
+    /**
+     * Number of values served by the mirror.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Number of values fetched from the server.
+     */
+    private final AtomicLong fetches = new AtomicLong();
+
+    /**
+     * @param fetch to get the context from the server if it's unknown.
+     * @return the current context.
+     */
+    String getContext(Supplier<String> fetch) {
+        String value = this.context;
+        if (value == null) {
+            value = this.fetch(fetch);
+            this.context = value;
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * @param fetch to get the window handle from the server if it's unknown.
+     * @return the current window handle.
+     */
+    String getWindowHandle(Supplier<String> fetch) {
+        String value = this.windowHandle;
+        if (value == null) {
+            value = this.fetch(fetch);
+            this.windowHandle = value;
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * @param fetch to get the orientation from the server if it's unknown.
+     * @return the current orientation.
+     */
+    ScreenOrientation getOrientation(Supplier<ScreenOrientation> fetch) {
+        ScreenOrientation value = this.orientation;
+        if (value == null) {
+            value = this.fetch(fetch);
+            this.orientation = value;
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * @param fetch to get the settings from the server if they're unknown.
+     * @return a copy of the current settings.
+     */
+    JsonObject getSettings(Supplier<JsonObject> fetch) {
+        String value = this.settings;
+        JsonObject copy;
+        if (value == null) {
+            copy = this.fetch(fetch);
+            this.settings = copy == null ? null : copy.toString();
+        } else {
+            this.hits.incrementAndGet();
+            copy = new JsonParser().parse(value).getAsJsonObject();
+        }
+        return copy;
+    }
+
+    /**
+     * @param fetch to get a value from the server.
+     * @return the fetched value.
+     */
+    private <T> T fetch(Supplier<T> fetch) {
+        this.fetches.incrementAndGet();
+        return fetch.get();
+    }
+
+    /**
+     * @param context current context (null if it's unknown).
+     */
+    void setContext(String context) {
+        this.context = context;
+    }
+
+    /**
+     * @param windowHandle current window handle (null if it's unknown).
+     */
+    void setWindowHandle(String windowHandle) {
+        this.windowHandle = windowHandle;
+    }
+
+    /**
+     * @param orientation current orientation (null if it's unknown).
+     */
+    void setOrientation(ScreenOrientation orientation) {
+        this.orientation = orientation;
+    }
+
+    /**
+     * It forgets the settings, so they're fetched again. It has to be called if the settings were changed by other
+     * means than the {@link AppiumHandledDriver} (e.g. using its native driver).
+     */
+    public void invalidateSettings() {
+        this.settings = null;
+    }
+
+    /**
+     * It forgets everything, so the values are fetched again.
+     */
+    void invalidate() {
+        this.context = null;
+        this.windowHandle = null;
+        this.orientation = null;
+        this.settings = null;
+    }
+
+    /**
+     * @return the context as far as it's known (null if it's unknown).
+     */
+    public String getKnownContext() {
+        return context;
+    }
+
+    /**
+     * @return the window handle as far as it's known (null if it's unknown).
+     */
+    public String getKnownWindowHandle() {
+        return windowHandle;
+    }
+
+    /**
+     * @return the orientation as far as it's known (null if it's unknown).
+     */
+    public ScreenOrientation getKnownOrientation() {
+        return orientation;
+    }
+
+    /**
+     * @return the number of values served by the mirror.
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of values fetched from the server.
+     */
+    public long getFetches() {
+        return this.fetches.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SessionState [context=" + this.context + ", windowHandle=" + this.windowHandle + ", orientation="
+                + this.orientation + ", hits=" + this.hits.get() + ", fetches=" + this.fetches.get() + "]";
+    }
+
+}
@@ -0,0 +1,369 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Timeline of the commands executed by an {@link AppiumHandledDriver}. Every command is recorded as a span into a
+ * lock-free ring buffer (the oldest spans are overwritten when it's full) and the details of the spans (locators,
+ * selectors...) are only formatted when they're exported. The timeline can be exported as a Chrome trace JSON file
+ * (to be opened with chrome://tracing or Perfetto), where the commands executed inside a wait are nested under it.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class SessionTracer {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(SessionTracer.class);
+
+    /**
+     * Recorded spans (the slot of a span is its sequence number modulo the capacity).
+     */
+    private final AtomicReferenceArray<Span> spans;
+
+    /**
+     * Mask to get the slot of a sequence number (the capacity is a power of two).
+     */
+    private final int mask;
+
+    /**
+     * Sequence number of the next span.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Source of time of the spans.
+     */
+    private final Clock clock;
+
+    /**
+     * Origin (in nanoseconds) of the timeline.
+     */
+    private final long originNanos;
+
+    /**
+     * Name of the traced process (the session).
+     */
+    private volatile String processName = "appium";
+
+    /**
+     * Constructor.
+     * @param capacity max number of spans kept (rounded up to a power of two).
+     */
+    public SessionTracer(int capacity) {
+        this(capacity, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Constructor.
+     * @param capacity max number of spans kept (rounded up to a power of two).
+     * @param clock source of time of the spans.
+     */
+    public SessionTracer(int capacity, Clock clock) {
+        int size = Integer.highestOneBit(Math.max(1, Math.min(capacity, 1 << 30)));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.spans = new AtomicReferenceArray<Span>(size);
+        this.mask = size - 1;
+        this.clock = clock;
+        this.originNanos = clock.nanoTime();
+    }
+
+    /**
+     * It starts a span.
+     * @return the start time to be given to {@link #record(String, Object, long, boolean)}.
+     */
+    public long start() {
+        return this.clock.nanoTime();
+    }
+
+    /**
+     * It records a span executed by the current thread.
+     * @param name of the command.
+     * @param detail of the command (it's formatted only if it's exported, it can be null).
+     * @param start time returned by {@link #start()}.
+     * @param failed true if the command failed.
+     */
+    public void record(String name, Object detail, long start, boolean failed) {
+        long end = this.clock.nanoTime();
+        Thread thread = Thread.currentThread();
+        Span span = new Span(name, detail, start - this.originNanos, end - start, thread.getId(), thread.getName(),
+                failed);
+        this.spans.set((int) (this.sequence.getAndIncrement() & this.mask), span);
+    }
+
+    /**
+     * @return the kept spans sorted by their start (the enclosing spans first).
+     */
+    public List<Span> getSpans() {
+        List<Span> kept = new ArrayList<Span>();
+        for (int i = 0; i < this.spans.length(); i++) {
+            Span span = this.spans.get(i);
+            if (span != null) {
+                kept.add(span);
+            }
+        }
+        Collections.sort(kept, new Comparator<Span>() {
+
+            @Override
+            public int compare(Span one, Span other) {
+                int order = Long.compare(one.startNanos, other.startNanos);
+                return order != 0 ? order : Long.compare(other.durationNanos, one.durationNanos);
+            }
+        });
+        return kept;
+    }
+
+    /**
+     * @return the number of recorded spans (including the overwritten ones).
+     */
+    public long getRecorded() {
+        return this.sequence.get();
+    }
+
+    /**
+     * @return the number of spans overwritten because the buffer was full.
+     */
+    public long getDropped() {
+        return Math.max(0, this.sequence.get() - this.spans.length());
+    }
+
+    /**
+     * It discards every span.
+     */
+    public void reset() {
+        for (int i = 0; i < this.spans.length(); i++) {
+            this.spans.set(i, null);
+        }
+        this.sequence.set(0);
+    }
+
+    /**
+     * @param processName name of the traced process shown by the viewers (the session).
+     */
+    public void setProcessName(String processName) {
+        this.processName = processName;
+    }
+
+    /**
+     * It exports the timeline as a Chrome trace JSON file.
+     * @param file to be written.
+     * @throws IOException if the file couldn't be written.
+     */
+    public void export(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            this.export(writer);
+        }
+        LOGGER.info("Trace exported to " + file);
+    }
+
+    /**
+     * It exports the timeline as a Chrome trace JSON document.
+     * @param writer where the document is written (it's not closed).
+     * @throws IOException if the document couldn't be written.
+     */
+    public void export(Writer writer) throws IOException {
+        List<Span> kept = this.getSpans();
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.name("displayTimeUnit").value("ms");
+        json.name("traceEvents").beginArray();
+        json.beginObject().name("name").value("process_name").name("ph").value("M").name("pid").value(1)
+                .name("args").beginObject().name("name").value(this.processName).endObject().endObject();
+        Map<Long, String> threads = new LinkedHashMap<Long, String>();
+        for (Span span : kept) {
+            threads.put(span.threadId, span.threadName);
+        }
+        for (Map.Entry<Long, String> thread : threads.entrySet()) {
+            json.beginObject().name("name").value("thread_name").name("ph").value("M").name("pid").value(1)
+                    .name("tid").value(thread.getKey()).name("args").beginObject().name("name")
+                    .value(thread.getValue()).endObject().endObject();
+        }
+        for (Span span : kept) {
+            json.beginObject();
+            json.name("name").value(span.name);
+            json.name("cat").value("appium");
+            json.name("ph").value("X");
+            json.name("ts").value(span.getStartMicros());
+            json.name("dur").value(span.getDurationMicros());
+            json.name("pid").value(1);
+            json.name("tid").value(span.threadId);
+            if (span.detail != null || span.failed) {
+                json.name("args").beginObject();
+                if (span.detail != null) {
+                    json.name("detail").value(span.getDetail());
+                }
+                if (span.failed) {
+                    json.name("failed").value(true);
+                }
+                json.endObject();
+            }
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    @Override
+    public String toString() {
+        return "SessionTracer [capacity=" + this.spans.length() + ", recorded=" + this.sequence.get() + ", dropped="
+                + this.getDropped() + "]";
+    }
+
+    /**
+     * Command recorded by the tracer.
+     */
+    public static class Span {
+
+        /**
+         * Name of the command.
+         */
+        private final String name;
+
+        /**
+         * Detail of the command (formatted on demand).
+         */
+        private final Object detail;
+
+        /**
+         * Start (in nanoseconds) since the origin of the timeline.
+         */
+        private final long startNanos;
+
+        /**
+         * Duration (in nanoseconds).
+         */
+        private final long durationNanos;
+
+        /**
+         * Id of the thread which executed the command.
+         */
+        private final long threadId;
+
+        /**
+         * Name of the thread which executed the command.
+         */
+        private final String threadName;
+
+        /**
+         * Flag to know if the command failed.
+         */
+        private final boolean failed;
+
+        /**
+         * Constructor.
+         * @param name of the command.
+         * @param detail of the command.
+         * @param startNanos since the origin of the timeline.
+         * @param durationNanos of the command.
+         * @param threadId of the thread.
+         * @param threadName of the thread.
+         * @param failed true if the command failed.
+         */
+        private Span(String name, Object detail, long startNanos, long durationNanos, long threadId,
+                String threadName, boolean failed) {
+            this.name = name;
+            this.detail = detail;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = threadId;
+            this.threadName = threadName;
+            this.failed = failed;
+        }
+
+        /**
+         * @return the name of the command.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the detail of the command (null if there is none).
+         */
+        public String getDetail() {
+            return detail == null ? null : detail.toString();
+        }
+
+        /**
+         * @return the start (in microseconds) since the origin of the timeline.
+         */
+        public long getStartMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(startNanos);
+        }
+
+        /**
+         * @return the duration (in microseconds).
+         */
+        public long getDurationMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(durationNanos);
+        }
+
+        /**
+         * @return the name of the thread which executed the command.
+         */
+        public String getThreadName() {
+            return threadName;
+        }
+
+        /**
+         * @return true if the command failed.
+         */
+        public boolean isFailed() {
+            return failed;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + (this.detail == null ? "" : "(" + this.getDetail() + ")") + " at "
+                    + this.getStartMicros() + " us for " + this.getDurationMicros() + " us"
+                    + (this.failed ? " (failed)" : "");
+        }
+    }
+
+}
@@ -0,0 +1,856 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Scheduler running a suite of tests on the devices started by a {@link DeviceOrchestrator}. The tests are assigned
+ * using their historical durations (recorded in a local file): the longest ones first, always to the least loaded
+ * device (LPT). The tests sharing a fingerprint (app or capabilities) are kept together on the same device as far as
+ * the balance allows it, so every session is reused. While running, a device without pending tests steals the
+ * shortest pending test of the most loaded device (preferring the ones with its current fingerprint), so no device is
+ * idle while another one runs a long tail.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class TestShardScheduler {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(TestShardScheduler.class);
+
+    /**
+     * Max time (in milliseconds) to wait for the interrupted workers when the timeout of the run expires.
+     */
+    private static long STOP_GRACE_MILLIS = 5000;
+
+    /**
+     * Default file of the durations.
+     */
+    private static Path DEFAULT_DURATIONS = Paths.get(System.getProperty("user.home"), ".appium-handler",
+            "test-durations.properties");
+
+    /**
+     * Orchestrator of the devices.
+     */
+    private final DeviceOrchestrator orchestrator;
+
+    /**
+     * File of the durations.
+     */
+    private final Path durationsFile;
+
+    /**
+     * Historical durations (in milliseconds) by test name (null until they're loaded).
+     */
+    private Properties durations;
+
+    /**
+     * Registered tests (in registration order).
+     */
+    private final List<Task> tests = new ArrayList<Task>();
+
+    /**
+     * Estimated duration (in milliseconds) of the tests without history when there is no history at all.
+     */
+    private long defaultDurationMillis = 30000;
+
+    /**
+     * Hook preparing a device for a new fingerprint (null if there is none).
+     */
+    private FingerprintSwitcher switcher;
+
+    /**
+     * Source of time of the measures.
+     */
+    private Clock clock = SystemClock.INSTANCE;
+
+    /**
+     * Pending tests by device name (only while running).
+     */
+    private Map<String, Deque<Task>> queues;
+
+    /**
+     * Flag to know if the pending tests have to be discarded.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Tests being run by device name (only while running).
+     */
+    private final Map<String, Task> running = new HashMap<String, Task>();
+
+    /**
+     * Constructor using the default durations file (~/.appium-handler/test-durations.properties).
+     * @param orchestrator with the started devices.
+     */
+    public TestShardScheduler(DeviceOrchestrator orchestrator) {
+        this(orchestrator, DEFAULT_DURATIONS);
+    }
+
+    /**
+     * Constructor.
+     * @param orchestrator with the started devices.
+     * @param durationsFile where the durations of the tests are recorded.
+     */
+    public TestShardScheduler(DeviceOrchestrator orchestrator, Path durationsFile) {
+        this.orchestrator = orchestrator;
+        this.durationsFile = durationsFile;
+    }
+
+    /**
+     * It registers a test.
+     * @param name of the test (it identifies its historical duration).
+     * @param fingerprint of the app or capabilities needed by the test (see
+     * {@link AppiumSessionPool#fingerprint(org.openqa.selenium.Capabilities)}), null if any session is valid.
+     * @param body of the test.
+     */
+    public synchronized void addTest(String name, String fingerprint, TestBody body) {
+        this.tests.add(new Task(name, fingerprint, body));
+    }
+
+    /**
+     * It plans the assignment of the registered tests to the started devices.
+     * @return the names of the tests by device name (in execution order, before any steal).
+     */
+    public synchronized Map<String, List<String>> plan() {
+        Map<String, List<String>> plan = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, Deque<Task>> entry : this.assign(this.orchestrator.getDrivers().keySet()).entrySet()) {
+            List<String> names = new ArrayList<String>();
+            for (Task task : entry.getValue()) {
+                names.add(task.name);
+            }
+            plan.put(entry.getKey(), names);
+        }
+        return plan;
+    }
+
+    /**
+     * It assigns the tests to the devices: the tests are grouped by fingerprint in bundles (a group is split if it's
+     * longer than the fair share of a device) and the bundles are assigned longest first to the least loaded device.
+     * Inside a bundle, the longest tests go first, so the shortest ones are the ones stolen.
+     * @param devices names of the devices.
+     * @return the queues of the devices.
+     */
+    private Map<String, Deque<Task>> assign(Iterable<String> devices) {
+        Map<String, Deque<Task>> assigned = new LinkedHashMap<String, Deque<Task>>();
+        Map<String, Long> loads = new LinkedHashMap<String, Long>();
+        for (String device : devices) {
+            assigned.put(device, new ArrayDeque<Task>());
+            loads.put(device, 0L);
+        }
+        if (!assigned.isEmpty()) {
+            long total = 0;
+            Map<String, List<Task>> groups = new LinkedHashMap<String, List<Task>>();
+            for (Task task : this.tests) {
+                task.estimateMillis = this.getEstimatedMillis(task.name);
+                total += task.estimateMillis;
+                List<Task> group = groups.get(task.fingerprint);
+                if (group == null) {
+                    group = new ArrayList<Task>();
+                    groups.put(task.fingerprint, group);
+                }
+                group.add(task);
+            }
+            long share = Math.max(1, (total + assigned.size() - 1) / assigned.size());
+            List<Bundle> bundles = new ArrayList<Bundle>();
+            for (List<Task> group : groups.values()) {
+                Collections.sort(group, LONGEST_FIRST);
+                Bundle bundle = new Bundle();
+                for (Task task : group) {
+                    if (!bundle.tasks.isEmpty() && bundle.millis + task.estimateMillis > share) {
+                        bundles.add(bundle);
+                        bundle = new Bundle();
+                    }
+                    bundle.tasks.add(task);
+                    bundle.millis += task.estimateMillis;
+                }
+                bundles.add(bundle);
+            }
+            Collections.sort(bundles, new Comparator<Bundle>() {
+
+                @Override
+                public int compare(Bundle one, Bundle other) {
+                    return Long.compare(other.millis, one.millis);
+                }
+            });
+            for (Bundle bundle : bundles) {
+                String device = null;
+                for (Map.Entry<String, Long> load : loads.entrySet()) {
+                    if (device == null || load.getValue() < loads.get(device)) {
+                        device = load.getKey();
+                    }
+                }
+                assigned.get(device).addAll(bundle.tasks);
+                loads.put(device, loads.get(device) + bundle.millis);
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * It runs the registered tests on the started devices (a thread per device, bound to its device in the
+     * orchestrator) and it records their durations.
+     * @param timeoutSeconds max time to run the suite (the tests not started by then are skipped and the workers are
+     * interrupted, so the tests still running are reported as failed by the timeout).
+     * @return the {@link Report} of the run.
+     */
+    public Report run(long timeoutSeconds) {
+        Map<String, AppiumHandledDriver> drivers = this.orchestrator.getDrivers();
+        Report report = new Report();
+        synchronized (this) {
+            this.queues = this.assign(drivers.keySet());
+            this.running.clear();
+            this.stopped = false;
+        }
+        long start = this.clock.nanoTime();
+        List<Thread> workers = new ArrayList<Thread>();
+        for (final String device : drivers.keySet()) {
+            Thread worker = new Thread(() -> this.work(device, report), "appium-shard-" + device);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        long deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        try {
+            for (Thread worker : workers) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - this.clock.nanoTime());
+                if (remaining > 0) {
+                    worker.join(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            this.stopped = true;
+            for (Deque<Task> queue : this.queues.values()) {
+                for (Task task : queue) {
+                    report.skipped.add(task.name);
+                }
+                queue.clear();
+            }
+        }
+        this.stopWorkers(workers);
+        synchronized (this) {
+            // the tests still running are reported now, so their late results are discarded
+            for (Map.Entry<String, Task> entry : this.running.entrySet()) {
+                Task task = entry.getValue();
+                long millis = TimeUnit.NANOSECONDS.toMillis(this.clock.nanoTime() - task.startedAt);
+                LOGGER.error("The test " + task.name + " was still running on " + entry.getKey() + " after "
+                        + timeoutSeconds + " seconds");
+                // it took at least this time, so it's only recorded if the history is shorter
+                if (millis > this.getEstimatedMillis(task.name)) {
+                    this.recordDuration(task.name, millis);
+                }
+                report.add(new TestResult(task.name, entry.getKey(), millis, new TimeoutException("The test "
+                        + task.name + " was still running after " + timeoutSeconds + " seconds")));
+            }
+            this.running.clear();
+        }
+        report.wallMillis = TimeUnit.NANOSECONDS.toMillis(this.clock.nanoTime() - start);
+        this.saveDurations();
+        if (!report.skipped.isEmpty()) {
+            LOGGER.error("The tests " + report.skipped + " weren't run after " + timeoutSeconds + " seconds");
+        }
+        LOGGER.info("Suite run: " + report);
+        return report;
+    }
+
+    /**
+     * It interrupts the workers still running when the timeout expires and it waits a bit for them.
+     * @param workers of the run.
+     */
+    private void stopWorkers(List<Thread> workers) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STOP_GRACE_MILLIS);
+        try {
+            for (Thread worker : workers) {
+                if (worker.isAlive()) {
+                    worker.interrupt();
+                    worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * It runs the tests of a device (executed by its worker thread).
+     * @param device name.
+     * @param report where the results are added.
+     */
+    private void work(String device, Report report) {
+        String fingerprint = null;
+        try {
+            AppiumHandledDriver driver;
+            try {
+                driver = this.orchestrator.bind(device);
+            } catch (RuntimeException ex) {
+                // the tests of the device will be stolen by the other ones
+                LOGGER.error("The device " + device + " couldn't be bound, so it won't run any test: "
+                        + ex.getMessage());
+                report.addDeviceFailure(device, ex);
+                return;
+            }
+            Task task;
+            while ((task = this.next(device, fingerprint, report)) != null) {
+                Throwable failure = null;
+                boolean started = false;
+                try {
+                    if (task.fingerprint != null && !task.fingerprint.equals(fingerprint)) {
+                        if (this.switcher != null) {
+                            this.switcher.prepare(driver, task.fingerprint);
+                            report.addSwitch();
+                            // the switch is a cost of the device, not of the test
+                            synchronized (this) {
+                                task.startedAt = this.clock.nanoTime();
+                            }
+                        }
+                        fingerprint = task.fingerprint;
+                    }
+                    started = true;
+                    task.body.run(driver);
+                } catch (Throwable ex) {
+                    // the assertions of the test frameworks fail with errors, so they're caught too
+                    LOGGER.error("The test " + task.name + " failed on " + device + ": " + ex.getMessage());
+                    failure = ex;
+                }
+                synchronized (this) {
+                    // the test is discarded if it was already reported by the timeout of the run
+                    if (this.running.remove(device) == task) {
+                        long millis = TimeUnit.NANOSECONDS.toMillis(this.clock.nanoTime() - task.startedAt);
+                        // a test which failed before running its body doesn't tell anything about its duration, and
+                        // a test cut by the timeout of the run only tells its minimum duration
+                        if (started && (!this.stopped || millis > this.getEstimatedMillis(task.name))) {
+                            this.recordDuration(task.name, millis);
+                        }
+                        report.add(new TestResult(task.name, device, millis, failure));
+                    }
+                }
+            }
+        } finally {
+            this.orchestrator.unbind();
+        }
+    }
+
+    /**
+     * It takes the next test of a device: the first one of its queue or, if it's empty, one stolen from the most
+     * loaded device.
+     * @param device name.
+     * @param fingerprint current fingerprint of the device.
+     * @param report where the steals are counted.
+     * @return the next test or null if there is none left.
+     */
+    private synchronized Task next(String device, String fingerprint, Report report) {
+        Task task = null;
+        if (!this.stopped) {
+            task = this.queues.get(device).pollFirst();
+            if (task == null) {
+                Deque<Task> victim = null;
+                long victimMillis = 0;
+                for (Deque<Task> queue : this.queues.values()) {
+                    long millis = 0;
+                    for (Task pending : queue) {
+                        millis += pending.estimateMillis;
+                    }
+                    if (!queue.isEmpty() && (victim == null || millis > victimMillis)) {
+                        victim = queue;
+                        victimMillis = millis;
+                    }
+                }
+                if (victim != null) {
+                    task = this.steal(victim, fingerprint);
+                    report.addSteal();
+                    LOGGER.debug(device + " stole the test " + task.name);
+                }
+            }
+        }
+        if (task != null) {
+            task.startedAt = this.clock.nanoTime();
+            this.running.put(device, task);
+        }
+        return task;
+    }
+
+    /**
+     * It steals the shortest pending test of a queue with the given fingerprint or, if there is none, the shortest
+     * one (the latest queued one on ties).
+     * @param victim queue.
+     * @param fingerprint preferred.
+     * @return the stolen test.
+     */
+    private Task steal(Deque<Task> victim, String fingerprint) {
+        Task shortest = null;
+        Task shortestMatching = null;
+        Iterator<Task> iterator = victim.descendingIterator();
+        while (iterator.hasNext()) {
+            Task task = iterator.next();
+            if (shortest == null || task.estimateMillis < shortest.estimateMillis) {
+                shortest = task;
+            }
+            if (fingerprint != null && fingerprint.equals(task.fingerprint)
+                    && (shortestMatching == null || task.estimateMillis < shortestMatching.estimateMillis)) {
+                shortestMatching = task;
+            }
+        }
+        Task stolen = shortestMatching != null ? shortestMatching : shortest;
+        victim.remove(stolen);
+        return stolen;
+    }
+
+    /**
+     * @param name of the test.
+     * @return the estimated duration (in milliseconds) of the test: its historical duration, the mean of the known
+     * durations or the default duration.
+     */
+    public synchronized long getEstimatedMillis(String name) {
+        Properties history = this.durations();
+        String millis = history.getProperty(name);
+        long estimate;
+        if (millis != null) {
+            estimate = Long.parseLong(millis);
+        } else if (!history.isEmpty()) {
+            long total = 0;
+            for (Object value : history.values()) {
+                total += Long.parseLong((String) value);
+            }
+            estimate = total / history.size();
+        } else {
+            estimate = this.defaultDurationMillis;
+        }
+        return estimate;
+    }
+
+    /**
+     * It records the duration of a test, smoothing it with the previous one.
+     * @param name of the test.
+     * @param millis spent.
+     */
+    private synchronized void recordDuration(String name, long millis) {
+        String previous = this.durations().getProperty(name);
+        long smoothed = previous == null ? millis : (Long.parseLong(previous) + millis) / 2;
+        this.durations.setProperty(name, String.valueOf(smoothed));
+    }
+
+    /**
+     * @return the historical durations (loaded on demand).
+     */
+    private Properties durations() {
+        if (this.durations == null) {
+            this.durations = new Properties();
+            if (Files.exists(this.durationsFile)) {
+                try (InputStream input = Files.newInputStream(this.durationsFile)) {
+                    this.durations.load(input);
+                } catch (IOException ex) {
+                    LOGGER.warn("The durations " + this.durationsFile + " couldn't be loaded: " + ex.getMessage());
+                }
+            }
+        }
+        return this.durations;
+    }
+
+    /**
+     * It saves the durations.
+     */
+    private synchronized void saveDurations() {
+        try {
+            Path parent = this.durationsFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path temp = Files.createTempFile(parent, "test-durations", ".tmp");
+            try (OutputStream output = Files.newOutputStream(temp)) {
+                this.durations().store(output, "Test durations (ms) recorded by appium-handler");
+            }
+            try {
+                Files.move(temp, this.durationsFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, this.durationsFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("The durations " + this.durationsFile + " couldn't be saved: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @param defaultDurationMillis estimated duration of the tests when there is no history at all.
+     */
+    public synchronized void setDefaultDurationMillis(long defaultDurationMillis) {
+        this.defaultDurationMillis = defaultDurationMillis;
+    }
+
+    /**
+     * @param switcher hook preparing a device when it runs a test with a different fingerprint.
+     */
+    public void setFingerprintSwitcher(FingerprintSwitcher switcher) {
+        this.switcher = switcher;
+    }
+
+    /**
+     * @param clock source of time of the measures.
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Comparator sorting the longest tests first.
+     */
+    private static final Comparator<Task> LONGEST_FIRST = new Comparator<Task>() {
+
+        @Override
+        public int compare(Task one, Task other) {
+            return Long.compare(other.estimateMillis, one.estimateMillis);
+        }
+    };
+
+    /**
+     * Body of a test.
+     */
+    public interface TestBody {
+
+        /**
+         * It runs the test.
+         * @param driver of the device running the test.
+         * @throws Exception if the test failed.
+         */
+        void run(AppiumHandledDriver driver) throws Exception;
+    }
+
+    /**
+     * Hook preparing a device for the tests of a fingerprint (installing or launching another app, for instance).
+     */
+    public interface FingerprintSwitcher {
+
+        /**
+         * It prepares a device. It's called before the first test of every device with a fingerprint and every time
+         * the fingerprint changes.
+         * @param driver of the device.
+         * @param fingerprint of the next tests.
+         * @throws Exception if the device couldn't be prepared (the next test fails).
+         */
+        void prepare(AppiumHandledDriver driver, String fingerprint) throws Exception;
+    }
+
+    /**
+     * Registered test.
+     */
+    private static class Task {
+
+        /**
+         * Name of the test.
+         */
+        private final String name;
+
+        /**
+         * Fingerprint of the test.
+         */
+        private final String fingerprint;
+
+        /**
+         * Body of the test.
+         */
+        private final TestBody body;
+
+        /**
+         * Estimated duration (in milliseconds), computed when the tests are assigned.
+         */
+        private long estimateMillis;
+
+        /**
+         * Start time (in nanoseconds) of the last run of the test.
+         */
+        private long startedAt;
+
+        /**
+         * Constructor.
+         * @param name of the test.
+         * @param fingerprint of the test.
+         * @param body of the test.
+         */
+        private Task(String name, String fingerprint, TestBody body) {
+            this.name = name;
+            this.fingerprint = fingerprint;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Tests of the same fingerprint assigned together.
+     */
+    private static class Bundle {
+
+        /**
+         * Tests of the bundle.
+         */
+        private final List<Task> tasks = new ArrayList<Task>();
+
+        /**
+         * Estimated duration (in milliseconds) of the bundle.
+         */
+        private long millis = 0;
+    }
+
+    /**
+     * Result of a test.
+     */
+    public static class TestResult {
+
+        /**
+         * Name of the test.
+         */
+        private final String name;
+
+        /**
+         * Device which ran the test.
+         */
+        private final String device;
+
+        /**
+         * Duration (in milliseconds).
+         */
+        private final long millis;
+
+        /**
+         * Failure of the test (null if it passed).
+         */
+        private final Throwable failure;
+
+        /**
+         * Constructor.
+         * @param name of the test.
+         * @param device which ran the test.
+         * @param millis spent.
+         * @param failure of the test.
+         */
+        private TestResult(String name, String device, long millis, Throwable failure) {
+            this.name = name;
+            this.device = device;
+            this.millis = millis;
+            this.failure = failure;
+        }
+
+        /**
+         * @return the name of the test.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the device which ran the test.
+         */
+        public String getDevice() {
+            return device;
+        }
+
+        /**
+         * @return the duration (in milliseconds).
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return the failure of the test (null if it passed).
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + " on " + this.device + " in " + this.millis + " ms"
+                    + (this.failure == null ? "" : " (failed)");
+        }
+    }
+
+    /**
+     * Report of a suite run.
+     */
+    public static class Report {
+
+        /**
+         * Results of the run tests (in completion order).
+         */
+        private final List<TestResult> results = new ArrayList<TestResult>();
+
+        /**
+         * Names of the skipped tests.
+         */
+        private final List<String> skipped = new ArrayList<String>();
+
+        /**
+         * Failures of the devices which couldn't run any test by device name.
+         */
+        private final Map<String, Throwable> deviceFailures = new LinkedHashMap<String, Throwable>();
+
+        /**
+         * Number of stolen tests.
+         */
+        private int steals = 0;
+
+        /**
+         * Number of fingerprint switches.
+         */
+        private int switches = 0;
+
+        /**
+         * Wall clock time (in milliseconds) of the run.
+         */
+        private long wallMillis;
+
+        /**
+         * @param result of a test.
+         */
+        private synchronized void add(TestResult result) {
+            this.results.add(result);
+        }
+
+        /**
+         * @param device which couldn't run any test.
+         * @param failure of the device.
+         */
+        private synchronized void addDeviceFailure(String device, Throwable failure) {
+            this.deviceFailures.put(device, failure);
+        }
+
+        /**
+         * It counts a steal.
+         */
+        private synchronized void addSteal() {
+            this.steals++;
+        }
+
+        /**
+         * It counts a fingerprint switch.
+         */
+        private synchronized void addSwitch() {
+            this.switches++;
+        }
+
+        /**
+         * @return the results of the run tests (in completion order).
+         */
+        public synchronized List<TestResult> getResults() {
+            return new ArrayList<TestResult>(this.results);
+        }
+
+        /**
+         * @return the failed tests.
+         */
+        public synchronized List<TestResult> getFailures() {
+            List<TestResult> failures = new ArrayList<TestResult>();
+            for (TestResult result : this.results) {
+                if (result.failure != null) {
+                    failures.add(result);
+                }
+            }
+            return failures;
+        }
+
+        /**
+         * @return the names of the tests which weren't run before the timeout.
+         */
+        public synchronized List<String> getSkipped() {
+            return new ArrayList<String>(this.skipped);
+        }
+
+        /**
+         * @return the failures of the devices which couldn't run any test by device name.
+         */
+        public synchronized Map<String, Throwable> getDeviceFailures() {
+            return new LinkedHashMap<String, Throwable>(this.deviceFailures);
+        }
+
+        /**
+         * @return the busy time (in milliseconds) of every device.
+         */
+        public synchronized Map<String, Long> getBusyMillis() {
+            Map<String, Long> busy = new LinkedHashMap<String, Long>();
+            for (TestResult result : this.results) {
+                Long millis = busy.get(result.device);
+                busy.put(result.device, (millis == null ? 0 : millis) + result.millis);
+            }
+            return busy;
+        }
+
+        /**
+         * @return the number of tests stolen by idle devices.
+         */
+        public synchronized int getSteals() {
+            return steals;
+        }
+
+        /**
+         * @return the number of times a device was prepared for a fingerprint.
+         */
+        public synchronized int getSwitches() {
+            return switches;
+        }
+
+        /**
+         * @return the wall clock time (in milliseconds) of the run.
+         */
+        public synchronized long getWallMillis() {
+            return wallMillis;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Report [tests=" + this.results.size() + ", failures=" + this.getFailures().size() + ", skipped="
+                    + this.skipped.size() + ", steals=" + this.steals + ", switches=" + this.switches + ", wall="
+                    + this.wallMillis + " ms, busy=" + this.getBusyMillis() + "]";
+        }
+    }
+
+}
@@ -0,0 +1,316 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.openqa.selenium.remote.http.HttpClient;
+
+/**
+ * Configuration of the HTTP transport used by the {@link AppiumHandledDriver} sessions to talk to the Appium server.
+ * Every session built with the same configuration shares its keep-alive connection pool, so the connections are
+ * reused across sessions. The read timeouts can be tuned by {@link CommandClass}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class TransportConfig {
+
+    /**
+     * Classes of commands with their own read timeout.
+     */
+    public enum CommandClass {
+
+        /**
+         * Session creation (it includes the app install and launch).
+         */
+        SESSION,
+
+        /**
+         * Element lookups (they include the implicit wait).
+         */
+        FIND,
+
+        /**
+         * Gestures and scripts.
+         */
+        ACTION,
+
+        /**
+         * App lifecycle commands (install, remove, reset, launch, close...).
+         */
+        APP,
+
+        /**
+         * File transfers.
+         */
+        FILE,
+
+        /**
+         * Any other command.
+         */
+        DEFAULT;
+
+        /**
+         * It classifies a command by its HTTP method and URI.
+         * @param method of the request.
+         * @param uri of the request.
+         * @return the class of the command.
+         */
+        public static CommandClass of(String method, String uri) {
+            CommandClass commandClass = DEFAULT;
+            if ("POST".equals(method) && uri.endsWith("/session")) {
+                commandClass = SESSION;
+            } else if (uri.endsWith("/element") || uri.endsWith("/elements")) {
+                commandClass = FIND;
+            } else if (uri.contains("/appium/app/") || endsWithAny(uri, APP_DEVICE_COMMANDS)) {
+                commandClass = APP;
+            } else if (endsWithAny(uri, FILE_COMMANDS)) {
+                commandClass = FILE;
+            } else if (uri.contains("/touch/") || uri.contains("/execute")) {
+                commandClass = ACTION;
+            }
+            return commandClass;
+        }
+
+        /**
+         * @param uri of the request.
+         * @param commands paths of the commands.
+         * @return true if the URI is one of the commands.
+         */
+        private static boolean endsWithAny(String uri, String[] commands) {
+            boolean matches = false;
+            for (String command : commands) {
+                matches = matches || uri.endsWith(command);
+            }
+            return matches;
+        }
+    }
+
+    /**
+     * Device commands of the app lifecycle (the /appium/app/* ones are app commands too).
+     */
+    private static final String[] APP_DEVICE_COMMANDS = { "/appium/device/install_app", "/appium/device/remove_app",
+            "/appium/device/app_installed", "/appium/device/start_activity", "/appium/device/app_state" };
+
+    /**
+     * File transfer commands.
+     */
+    private static final String[] FILE_COMMANDS = { "/appium/device/pull_file", "/appium/device/pull_folder",
+            "/appium/device/push_file" };
+
+    /**
+     * Max number of pooled connections.
+     */
+    private int maxConnections = 200;
+
+    /**
+     * Max number of pooled connections to the same server.
+     */
+    private int maxConnectionsPerServer = 50;
+
+    /**
+     * Max time (in milliseconds) to connect to the server.
+     */
+    private int connectTimeoutMillis = 10000;
+
+    /**
+     * Max time (in milliseconds) idle connections are kept in the pool.
+     */
+    private long idleTimeoutMillis = 60000;
+
+    /**
+     * Read timeouts (in milliseconds) by command class.
+     */
+    private final Map<CommandClass, Integer> readTimeouts = new EnumMap<CommandClass, Integer>(CommandClass.class);
+
+    /**
+     * Flag to know if the responses can be compressed.
+     */
+    private boolean compression = true;
+
+    /**
+     * Number of threads performing the I/O (0 means the caller thread).
+     */
+    private int ioThreads = 0;
+
+    /**
+     * Factory of the HTTP clients (created on demand).
+     */
+    private PooledHttpClientFactory factory;
+
+    /**
+     * Constructor with the default timeouts.
+     */
+    public TransportConfig() {
+        this.readTimeouts.put(CommandClass.SESSION, 600000);
+        this.readTimeouts.put(CommandClass.FIND, 120000);
+        this.readTimeouts.put(CommandClass.ACTION, 120000);
+        this.readTimeouts.put(CommandClass.APP, 600000);
+        this.readTimeouts.put(CommandClass.FILE, 600000);
+        this.readTimeouts.put(CommandClass.DEFAULT, 120000);
+    }
+
+    /**
+     * It gets the factory of HTTP clients of this configuration. The factory (and its connection pool) is shared by
+     * every session using this configuration, so the configuration can't be modified once it's created.
+     * @return the factory.
+     */
+    public synchronized HttpClient.Factory getFactory() {
+        if (this.factory == null) {
+            this.factory = new PooledHttpClientFactory(this);
+        }
+        return this.factory;
+    }
+
+    /**
+     * It closes the connection pool and the I/O threads (the sessions using them can't be used anymore).
+     */
+    public synchronized void close() {
+        if (this.factory != null) {
+            this.factory.close();
+            this.factory = null;
+        }
+    }
+
+    /**
+     * It checks the configuration can be modified.
+     */
+    private synchronized void checkNotStarted() {
+        if (this.factory != null) {
+            throw new IllegalStateException("The transport is already in use, so its configuration can't change");
+        }
+    }
+
+    /**
+     * @return the max number of pooled connections.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @param maxConnections max number of pooled connections.
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.checkNotStarted();
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return the max number of pooled connections to the same server.
+     */
+    public int getMaxConnectionsPerServer() {
+        return maxConnectionsPerServer;
+    }
+
+    /**
+     * @param maxConnectionsPerServer max number of pooled connections to the same server.
+     */
+    public void setMaxConnectionsPerServer(int maxConnectionsPerServer) {
+        this.checkNotStarted();
+        this.maxConnectionsPerServer = maxConnectionsPerServer;
+    }
+
+    /**
+     * @return the max time (in milliseconds) to connect to the server.
+     */
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @param connectTimeoutMillis max time (in milliseconds) to connect to the server.
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.checkNotStarted();
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * @return the max time (in milliseconds) idle connections are kept in the pool.
+     */
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * @param idleTimeoutMillis max time (in milliseconds) idle connections are kept in the pool.
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.checkNotStarted();
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @param commandClass of the commands.
+     * @return the read timeout (in milliseconds) of the commands.
+     */
+    public int getReadTimeoutMillis(CommandClass commandClass) {
+        return this.readTimeouts.get(commandClass);
+    }
+
+    /**
+     * @param commandClass of the commands.
+     * @param readTimeoutMillis read timeout (in milliseconds) of the commands.
+     */
+    public void setReadTimeoutMillis(CommandClass commandClass, int readTimeoutMillis) {
+        this.checkNotStarted();
+        this.readTimeouts.put(commandClass, readTimeoutMillis);
+    }
+
+    /**
+     * @return true if the responses can be compressed.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * @param compression flag to know if the responses can be compressed (gzip/deflate).
+     */
+    public void setCompression(boolean compression) {
+        this.checkNotStarted();
+        this.compression = compression;
+    }
+
+    /**
+     * @return the number of threads performing the I/O (0 means the caller thread).
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * @param ioThreads number of threads performing the I/O (0 means the caller thread). It bounds the number of
+     * requests in flight across every session.
+     */
+    public void setIoThreads(int ioThreads) {
+        this.checkNotStarted();
+        this.ioThreads = ioThreads;
+    }
+
+}
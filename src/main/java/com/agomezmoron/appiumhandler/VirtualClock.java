@@ -0,0 +1,154 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Clock} whose time only moves when it's told to, so the wait logic can be tested in microseconds. By default
+ * every sleep advances the time instantly. If the auto advance is disabled, the sleeping threads are blocked until
+ * another thread advances the time beyond their deadline (like a scheduler driven by the test).
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class VirtualClock implements Clock {
+
+    /**
+     * Current monotonic time (in nanoseconds).
+     */
+    private long nanos = 0;
+
+    /**
+     * Wall clock time (in milliseconds since the epoch) when the virtual time was 0.
+     */
+    private final long epochMillis;
+
+    /**
+     * Flag to know if the sleeps advance the time by themselves.
+     */
+    private boolean autoAdvance = true;
+
+    /**
+     * Number of sleeps.
+     */
+    private long sleeps = 0;
+
+    /**
+     * Total time (in milliseconds) requested by the sleeps.
+     */
+    private long sleptMillis = 0;
+
+    /**
+     * Constructor starting at the epoch.
+     */
+    public VirtualClock() {
+        this(0);
+    }
+
+    /**
+     * Constructor.
+     * @param epochMillis wall clock time (in milliseconds since the epoch) when the virtual time starts.
+     */
+    public VirtualClock(long epochMillis) {
+        this.epochMillis = epochMillis;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return this.nanos;
+    }
+
+    @Override
+    public synchronized long currentTimeMillis() {
+        return this.epochMillis + TimeUnit.NANOSECONDS.toMillis(this.nanos);
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (millis > 0) {
+            synchronized (this) {
+                this.sleeps++;
+                this.sleptMillis += millis;
+                long deadline = this.nanos + TimeUnit.MILLISECONDS.toNanos(millis);
+                if (this.autoAdvance) {
+                    this.nanos = deadline;
+                    this.notifyAll();
+                } else {
+                    while (this.nanos < deadline) {
+                        this.wait();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * It advances the time, waking up the threads whose sleeps finished.
+     * @param millis to be advanced.
+     */
+    public synchronized void advance(long millis) {
+        this.advanceNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * It advances the time, waking up the threads whose sleeps finished.
+     * @param nanos to be advanced.
+     */
+    public synchronized void advanceNanos(long nanos) {
+        this.nanos += Math.max(0, nanos);
+        this.notifyAll();
+    }
+
+    /**
+     * @param autoAdvance flag to know if the sleeps advance the time by themselves (true by default).
+     */
+    public synchronized void setAutoAdvance(boolean autoAdvance) {
+        this.autoAdvance = autoAdvance;
+    }
+
+    /**
+     * @return the number of sleeps.
+     */
+    public synchronized long getSleeps() {
+        return sleeps;
+    }
+
+    /**
+     * @return the total time (in milliseconds) requested by the sleeps.
+     */
+    public synchronized long getSleptMillis() {
+        return sleptMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "VirtualClock [nanos=" + this.nanos + ", sleeps=" + this.sleeps + "]";
+    }
+
+}
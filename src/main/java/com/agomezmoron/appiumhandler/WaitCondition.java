@@ -0,0 +1,90 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.List;
+
+import io.appium.java_client.MobileElement;
+
+/**
+ * Conditions supported by the {@link WaitEngine}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public enum WaitCondition {
+
+    /**
+     * The element exists (it doesn't matter if it's displayed or not).
+     */
+    PRESENT {
+
+        @Override
+        boolean isSatisfied(List<MobileElement> elements) {
+            return !elements.isEmpty();
+        }
+    },
+
+    /**
+     * The element exists and it's displayed.
+     */
+    VISIBLE {
+
+        @Override
+        boolean isSatisfied(List<MobileElement> elements) {
+            return !elements.isEmpty() && elements.get(0).isDisplayed();
+        }
+    },
+
+    /**
+     * The element exists, it's displayed and enabled.
+     */
+    CLICKABLE {
+
+        @Override
+        boolean isSatisfied(List<MobileElement> elements) {
+            return !elements.isEmpty() && elements.get(0).isDisplayed() && elements.get(0).isEnabled();
+        }
+    },
+
+    /**
+     * The element doesn't exist or it's not displayed.
+     */
+    GONE {
+
+        @Override
+        boolean isSatisfied(List<MobileElement> elements) {
+            return elements.isEmpty() || !elements.get(0).isDisplayed();
+        }
+    };
+
+    /**
+     * It checks the condition against the elements found by the selector.
+     * @param elements found (it can be empty).
+     * @return true if the condition is satisfied.
+     */
+    abstract boolean isSatisfied(List<MobileElement> elements);
+
+}
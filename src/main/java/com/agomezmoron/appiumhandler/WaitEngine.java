@@ -0,0 +1,287 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.StaleElementReferenceException;
+
+import io.appium.java_client.MobileElement;
+
+/**
+ * Polling engine used by the explicit waits of the {@link AppiumHandledDriver}. While waiting, the implicit wait of
+ * the driver is suspended (so a single lookup can't block beyond the deadline), the lookups are spaced using an
+ * exponential backoff with jitter and the deadline is honored to the millisecond. The timeout is capped by the
+ * {@link LatencyBudget} of the current thread.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class WaitEngine {
+
+    /**
+     * Driver used to perform the lookups.
+     */
+    private final AppiumHandledDriver handledDriver;
+
+    /**
+     * Default first pause (in milliseconds) between two lookups.
+     */
+    private static long INITIAL_POLL_MILLIS = 50;
+
+    /**
+     * Default max pause (in milliseconds) between two lookups.
+     */
+    private static long MAX_POLL_MILLIS = 1000;
+
+    /**
+     * Default factor applied to the pause after each failed lookup.
+     */
+    private static double MULTIPLIER = 1.5;
+
+    /**
+     * Default random variation applied to every pause.
+     */
+    private static double JITTER = 0.2;
+
+    /**
+     * First pause (in milliseconds) between two lookups.
+     */
+    private volatile long initialPollMillis = INITIAL_POLL_MILLIS;
+
+    /**
+     * Max pause (in milliseconds) between two lookups.
+     */
+    private volatile long maxPollMillis = MAX_POLL_MILLIS;
+
+    /**
+     * Factor applied to the pause after each failed lookup.
+     */
+    private volatile double multiplier = MULTIPLIER;
+
+    /**
+     * Random variation (0 to 1) applied to every pause to avoid synchronized polling.
+     */
+    private volatile double jitter = JITTER;
+
+    /**
+     * Constructor.
+     * @param handledDriver used to perform the lookups.
+     */
+    WaitEngine(AppiumHandledDriver handledDriver) {
+        this.handledDriver = handledDriver;
+    }
+
+    /**
+     * It waits until the condition is satisfied by the element described by the selector.
+     * @param selector to get the element.
+     * @param condition to be satisfied.
+     * @param timeoutMillis to wait for (it's never exceeded by the pauses between lookups).
+     * @return the {@link Result} of the wait.
+     */
+    public Result until(By selector, WaitCondition condition, long timeoutMillis) {
+        Clock clock = this.handledDriver.getClock();
+        LatencyBudget budget = LatencyBudget.current();
+        long start = clock.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(LatencyBudget.cap(timeoutMillis));
+        long pause = this.initialPollMillis;
+        int attempts = 0;
+        boolean satisfied = false;
+        MobileElement element = null;
+        this.handledDriver.suspendImplicitWait();
+        try {
+            while (true) {
+                attempts++;
+                List<MobileElement> elements = this.lookup(selector);
+                try {
+                    satisfied = condition.isSatisfied(elements);
+                } catch (StaleElementReferenceException ex) {
+                    // the element was removed while it was being checked
+                    satisfied = condition == WaitCondition.GONE;
+                    elements = new ArrayList<MobileElement>();
+                }
+                element = elements.isEmpty() ? null : elements.get(0);
+                long remaining = deadline - clock.nanoTime();
+                if (satisfied || remaining <= 0) {
+                    break;
+                }
+                long sleep = Math.min(TimeUnit.NANOSECONDS.toMillis(remaining), this.withJitter(pause));
+                if (sleep > 0) {
+                    try {
+                        clock.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                pause = Math.min(this.maxPollMillis, (long) (pause * this.multiplier));
+            }
+        } finally {
+            this.handledDriver.restoreImplicitWait();
+        }
+        if (!satisfied && budget != null && budget.isExceeded()) {
+            // the wait was cut by the budget, not by its own timeout
+            throw budget.exceeded("wait for " + selector, null);
+        }
+        return new Result(satisfied, satisfied && condition != WaitCondition.GONE ? element : null, attempts,
+                TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - start));
+    }
+
+    /**
+     * It looks the elements up without throwing any exception.
+     * @param selector to be used.
+     * @return the found elements (or an empty list).
+     */
+    private List<MobileElement> lookup(By selector) {
+        List<MobileElement> elements;
+        try {
+            elements = this.handledDriver.waitLookup(selector);
+        } catch (Exception ex) {
+            elements = null;
+        }
+        return elements == null ? new ArrayList<MobileElement>() : elements;
+    }
+
+    /**
+     * It applies the jitter to the pause.
+     * @param pause to be modified.
+     * @return the modified pause.
+     */
+    private long withJitter(long pause) {
+        double variation = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * this.jitter;
+        return Math.max(1, Math.round(pause * (1 + variation)));
+    }
+
+    /**
+     * It restores the default tuning (used when a pooled session is recycled).
+     */
+    void reset() {
+        this.initialPollMillis = INITIAL_POLL_MILLIS;
+        this.maxPollMillis = MAX_POLL_MILLIS;
+        this.multiplier = MULTIPLIER;
+        this.jitter = JITTER;
+    }
+
+    /**
+     * @param initialPollMillis first pause (in milliseconds) between two lookups.
+     */
+    public void setInitialPollMillis(long initialPollMillis) {
+        this.initialPollMillis = Math.max(1, initialPollMillis);
+    }
+
+    /**
+     * @param maxPollMillis max pause (in milliseconds) between two lookups.
+     */
+    public void setMaxPollMillis(long maxPollMillis) {
+        this.maxPollMillis = Math.max(1, maxPollMillis);
+    }
+
+    /**
+     * @param multiplier factor applied to the pause after each failed lookup.
+     */
+    public void setMultiplier(double multiplier) {
+        this.multiplier = Math.max(1, multiplier);
+    }
+
+    /**
+     * @param jitter random variation (0 to 1) applied to every pause.
+     */
+    public void setJitter(double jitter) {
+        this.jitter = Math.min(1, Math.max(0, jitter));
+    }
+
+    /**
+     * Result of a wait.
+     */
+    public static class Result {
+
+        /**
+         * Flag to know if the condition was satisfied before the deadline.
+         */
+        private final boolean satisfied;
+
+        /**
+         * Element that satisfied the condition (null for {@link WaitCondition#GONE} or timeouts).
+         */
+        private final MobileElement element;
+
+        /**
+         * Number of lookups performed.
+         */
+        private final int attempts;
+
+        /**
+         * Time spent waiting.
+         */
+        private final long elapsedMillis;
+
+        /**
+         * Constructor.
+         * @param satisfied flag.
+         * @param element that satisfied the condition.
+         * @param attempts number of lookups.
+         * @param elapsedMillis time spent waiting.
+         */
+        Result(boolean satisfied, MobileElement element, int attempts, long elapsedMillis) {
+            this.satisfied = satisfied;
+            this.element = element;
+            this.attempts = attempts;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return true if the condition was satisfied before the deadline.
+         */
+        public boolean isSatisfied() {
+            return satisfied;
+        }
+
+        /**
+         * @return the element that satisfied the condition or null.
+         */
+        public MobileElement getElement() {
+            return element;
+        }
+
+        /**
+         * @return the number of lookups performed.
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return the time spent waiting.
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+
+}
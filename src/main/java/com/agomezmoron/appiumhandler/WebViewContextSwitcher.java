@@ -0,0 +1,333 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.JavascriptExecutor;
+
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.MobileElement;
+
+/**
+ * It switches a driver to the WEBVIEW context of an hybrid app. Instead of fixed sleeps, it polls the context handles
+ * with a tight backoff, it selects the right WEBVIEW when there are several of them and, once switched, it probes the
+ * document until it's ready. The time spent on every phase is reported by a {@link ContextSwitchTimeline} and the
+ * timeouts of the phases are capped by the {@link LatencyBudget} of the current thread.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class WebViewContextSwitcher {
+
+    /**
+     * Log instance.
+     */
+    private final static Logger LOGGER = Logger.getLogger(WebViewContextSwitcher.class);
+
+    /**
+     * Capability with the max time (in seconds) to wait for the WEBVIEW context to be available.
+     */
+    public static String WEBVIEW_TIMEOUT_KEY = "webviewTimeout";
+
+    /**
+     * Capability with the max time (in seconds) to wait for the WEBVIEW document to be ready.
+     */
+    public static String WEBVIEW_READY_TIMEOUT_KEY = "webviewReadyTimeout";
+
+    /**
+     * Capability with a fragment of the name of the WEBVIEW to be selected when there are several of them.
+     */
+    public static String WEBVIEW_NAME_KEY = "webviewName";
+
+    /**
+     * Text contained by every WEBVIEW context.
+     */
+    private static String WEBVIEW = "WEBVIEW";
+
+    /**
+     * Script used to probe the readiness of the document.
+     */
+    private static String READY_STATE_SCRIPT = "return document.readyState";
+
+    /**
+     * Max time (in milliseconds) to wait for the WEBVIEW context to be available.
+     */
+    private long discoveryTimeoutMillis = 15000;
+
+    /**
+     * Max time (in milliseconds) to get the driver switched to the WEBVIEW context.
+     */
+    private long switchTimeoutMillis = 10000;
+
+    /**
+     * Max time (in milliseconds) to wait for the WEBVIEW document to be ready.
+     */
+    private long readinessTimeoutMillis = 10000;
+
+    /**
+     * First pause (in milliseconds) between two polls.
+     */
+    private long initialPollMillis = 100;
+
+    /**
+     * Max pause (in milliseconds) between two polls.
+     */
+    private long maxPollMillis = 1000;
+
+    /**
+     * Fragment of the name of the preferred WEBVIEW.
+     */
+    private String preferredWebView;
+
+    /**
+     * Flag to know if the readiness of the document has to be probed.
+     */
+    private boolean readinessProbe = true;
+
+    /**
+     * Source of time of the polls.
+     */
+    private Clock clock = SystemClock.INSTANCE;
+
+    /**
+     * It builds a switcher configured with the custom capabilities ({@link #WEBVIEW_TIMEOUT_KEY},
+     * {@link #WEBVIEW_READY_TIMEOUT_KEY} and {@link #WEBVIEW_NAME_KEY}) if they are defined.
+     * @param capabilities to be read.
+     * @return the configured switcher.
+     */
+    public static WebViewContextSwitcher fromCapabilities(Capabilities capabilities) {
+        WebViewContextSwitcher switcher = new WebViewContextSwitcher();
+        Object timeout = capabilities.getCapability(WEBVIEW_TIMEOUT_KEY);
+        if (timeout instanceof Number) {
+            switcher.setDiscoveryTimeoutMillis(((Number) timeout).longValue() * 1000);
+        }
+        Object readyTimeout = capabilities.getCapability(WEBVIEW_READY_TIMEOUT_KEY);
+        if (readyTimeout instanceof Number) {
+            switcher.setReadinessTimeoutMillis(((Number) readyTimeout).longValue() * 1000);
+        }
+        Object name = capabilities.getCapability(WEBVIEW_NAME_KEY);
+        if (name instanceof String) {
+            switcher.setPreferredWebView((String) name);
+        }
+        return switcher;
+    }
+
+    /**
+     * It switches the driver to the WEBVIEW context.
+     * @param driver to be switched.
+     * @return the {@link ContextSwitchTimeline} of the switch.
+     */
+    public ContextSwitchTimeline switchTo(AppiumDriver<MobileElement> driver) {
+        ContextSwitchTimeline timeline = new ContextSwitchTimeline();
+
+        // discovery: waiting for the WEBVIEW context handle
+        long start = this.clock.nanoTime();
+        String context = null;
+        long pause = this.initialPollMillis;
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(LatencyBudget.cap(this.discoveryTimeoutMillis));
+        do {
+            try {
+                context = this.select(driver, driver.getContextHandles());
+            } catch (Exception ex) {
+                LOGGER.warn("An error occurred getting the context handles. Trying again...");
+            }
+        } while (context == null && (pause = this.pause(pause, deadline)) > 0);
+        timeline.record(ContextSwitchTimeline.DISCOVERY, elapsedMillis(start));
+        timeline.setContext(context);
+
+        if (context != null) {
+            // switch: the context change may need some extra time
+            start = this.clock.nanoTime();
+            boolean switched = false;
+            pause = this.initialPollMillis;
+            deadline = start + TimeUnit.MILLISECONDS.toNanos(LatencyBudget.cap(this.switchTimeoutMillis));
+            do {
+                try {
+                    driver.context(context);
+                    switched = driver.getContext().contains(WEBVIEW);
+                } catch (Exception ex) {
+                    LOGGER.warn("An error occurred switching the context. Trying again...");
+                }
+            } while (!switched && (pause = this.pause(pause, deadline)) > 0);
+            timeline.record(ContextSwitchTimeline.SWITCH, elapsedMillis(start));
+
+            // readiness: waiting for the document
+            boolean ready = switched;
+            if (switched && this.readinessProbe) {
+                start = this.clock.nanoTime();
+                ready = false;
+                pause = this.initialPollMillis;
+                deadline = start + TimeUnit.MILLISECONDS.toNanos(LatencyBudget.cap(this.readinessTimeoutMillis));
+                do {
+                    try {
+                        ready = "complete".equals(((JavascriptExecutor) driver).executeScript(READY_STATE_SCRIPT));
+                    } catch (Exception ex) {
+                        LOGGER.debug("The WEBVIEW document is not ready yet: " + ex.getMessage());
+                    }
+                } while (!ready && (pause = this.pause(pause, deadline)) > 0);
+                timeline.record(ContextSwitchTimeline.READINESS, elapsedMillis(start));
+                if (!ready) {
+                    LOGGER.warn("The WEBVIEW document wasn't ready after " + this.readinessTimeoutMillis + " ms");
+                }
+            }
+            timeline.setSwitched(switched && ready);
+        }
+
+        if (!timeline.isSwitched()) {
+            LOGGER.error("The driver couldn't switched to the WEBVIEW context, so the test of the hybrid application "
+                    + "will failed! " + timeline);
+        } else {
+            LOGGER.info("WEBVIEW context switch: " + timeline);
+        }
+        return timeline;
+    }
+
+    /**
+     * It selects the WEBVIEW context: the preferred one if it's defined, the one of the app package (or bundle) if
+     * there are several of them or, otherwise, the last one (the most recent).
+     * @param driver in use.
+     * @param contextHandles available.
+     * @return the selected WEBVIEW context or null if there is none.
+     */
+    private String select(AppiumDriver<MobileElement> driver, Set<String> contextHandles) {
+        List<String> webViews = new ArrayList<String>();
+        for (String context : contextHandles) {
+            if (context.contains(WEBVIEW)) {
+                webViews.add(context);
+            }
+        }
+        String selected = null;
+        if (!webViews.isEmpty()) {
+            selected = webViews.get(webViews.size() - 1);
+            String hint = this.preferredWebView;
+            if (hint == null && webViews.size() > 1) {
+                Object appPackage = driver.getCapabilities().getCapability("appPackage");
+                if (appPackage == null) {
+                    appPackage = driver.getCapabilities().getCapability("bundleId");
+                }
+                hint = appPackage instanceof String ? (String) appPackage : null;
+            }
+            if (hint != null) {
+                for (String webView : webViews) {
+                    if (webView.contains(hint)) {
+                        selected = webView;
+                    }
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * It pauses the current thread before the next poll, never beyond the deadline.
+     * @param pause current pause (in milliseconds).
+     * @param deadline in nanoseconds.
+     * @return the next pause or 0 if the deadline was reached.
+     */
+    private long pause(long pause, long deadline) {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - this.clock.nanoTime());
+        long next = 0;
+        if (remaining > 0) {
+            try {
+                this.clock.sleep(Math.min(pause, remaining));
+                next = Math.min(this.maxPollMillis, pause * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @param start in nanoseconds.
+     * @return the milliseconds elapsed since the start.
+     */
+    private long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(this.clock.nanoTime() - start);
+    }
+
+    /**
+     * @param discoveryTimeoutMillis max time (in milliseconds) to wait for the WEBVIEW context to be available.
+     */
+    public void setDiscoveryTimeoutMillis(long discoveryTimeoutMillis) {
+        this.discoveryTimeoutMillis = discoveryTimeoutMillis;
+    }
+
+    /**
+     * @param switchTimeoutMillis max time (in milliseconds) to get the driver switched to the WEBVIEW context.
+     */
+    public void setSwitchTimeoutMillis(long switchTimeoutMillis) {
+        this.switchTimeoutMillis = switchTimeoutMillis;
+    }
+
+    /**
+     * @param readinessTimeoutMillis max time (in milliseconds) to wait for the WEBVIEW document to be ready.
+     */
+    public void setReadinessTimeoutMillis(long readinessTimeoutMillis) {
+        this.readinessTimeoutMillis = readinessTimeoutMillis;
+    }
+
+    /**
+     * @param initialPollMillis first pause (in milliseconds) between two polls.
+     */
+    public void setInitialPollMillis(long initialPollMillis) {
+        this.initialPollMillis = Math.max(1, initialPollMillis);
+    }
+
+    /**
+     * @param maxPollMillis max pause (in milliseconds) between two polls.
+     */
+    public void setMaxPollMillis(long maxPollMillis) {
+        this.maxPollMillis = Math.max(1, maxPollMillis);
+    }
+
+    /**
+     * @param preferredWebView fragment of the name of the WEBVIEW to be selected when there are several of them.
+     */
+    public void setPreferredWebView(String preferredWebView) {
+        this.preferredWebView = preferredWebView;
+    }
+
+    /**
+     * @param clock source of time of the polls.
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @param readinessProbe flag to know if the readiness of the document has to be probed.
+     */
+    public void setReadinessProbe(boolean readinessProbe) {
+        this.readinessProbe = readinessProbe;
+    }
+
+}
@@ -0,0 +1,198 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import io.appium.java_client.remote.AndroidMobileCapabilityType;
+import io.appium.java_client.remote.MobileCapabilityType;
+
+/**
+ * Tests of the {@link AppInstallManager} index and of the sessions built skipping the install against a
+ * {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class AppInstallManagerTest {
+
+    /**
+     * Folder of the app and the index.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Fake server of the sessions.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Manager under test.
+     */
+    private AppInstallManager manager;
+
+    /**
+     * Binary of the app.
+     */
+    private File app;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new FakeAppiumServer();
+        this.manager = new AppInstallManager(this.folder.getRoot().toPath().resolve("index.properties"));
+        this.app = this.folder.newFile("app.apk");
+        Files.write(this.app.toPath(), "first build".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void installIsSkippedOnlyForTheRecordedBinary() throws IOException {
+        DesiredCapabilities capabilities = this.capabilities("emulator-5554");
+        assertFalse(this.manager.prepareCapabilities(capabilities));
+        assertEquals(Boolean.FALSE, capabilities.getCapability(MobileCapabilityType.NO_RESET));
+        this.manager.recordInstalled(this.capabilities("emulator-5554"));
+
+        capabilities = this.capabilities("emulator-5554");
+        assertTrue(this.manager.prepareCapabilities(capabilities));
+        assertNull(capabilities.getCapability(MobileCapabilityType.APP));
+        // the data of the app is still cleared
+        assertEquals(Boolean.FALSE, capabilities.getCapability(MobileCapabilityType.NO_RESET));
+        // other device
+        assertFalse(this.manager.prepareCapabilities(this.capabilities("emulator-5556")));
+        // new binary
+        Files.write(this.app.toPath(), "second build".getBytes(StandardCharsets.UTF_8));
+        this.app.setLastModified(this.app.lastModified() + 2000);
+        assertFalse(this.manager.prepareCapabilities(this.capabilities("emulator-5554")));
+    }
+
+    @Test
+    public void resetCapabilitiesOfTheCallerAreKept() {
+        this.manager.recordInstalled(this.capabilities("emulator-5554"));
+        DesiredCapabilities capabilities = this.capabilities("emulator-5554");
+        capabilities.setCapability(MobileCapabilityType.NO_RESET, true);
+        assertTrue(this.manager.prepareCapabilities(capabilities));
+        assertEquals(Boolean.TRUE, capabilities.getCapability(MobileCapabilityType.NO_RESET));
+        // a full reset reinstalls the app
+        capabilities = this.capabilities("emulator-5554");
+        capabilities.setCapability(MobileCapabilityType.FULL_RESET, true);
+        assertFalse(this.manager.prepareCapabilities(capabilities));
+        assertNotNull(capabilities.getCapability(MobileCapabilityType.APP));
+    }
+
+    @Test
+    public void managersSharingTheIndexKeepEachOtherUpdates() {
+        AppInstallManager other = new AppInstallManager(this.folder.getRoot().toPath().resolve("index.properties"));
+        // both managers read the index before updating it
+        assertFalse(this.manager.prepareCapabilities(this.capabilities("emulator-5554")));
+        assertFalse(other.prepareCapabilities(this.capabilities("emulator-5556")));
+        this.manager.recordInstalled(this.capabilities("emulator-5554"));
+        other.recordInstalled(this.capabilities("emulator-5556"));
+        AppInstallManager reloaded = new AppInstallManager(this.folder.getRoot().toPath().resolve("index.properties"));
+        assertTrue(reloaded.prepareCapabilities(this.capabilities("emulator-5554")));
+        assertTrue(reloaded.prepareCapabilities(this.capabilities("emulator-5556")));
+        assertTrue(this.manager.prepareCapabilities(this.capabilities("emulator-5556")));
+    }
+
+    @Test
+    public void devicesWithoutUdidAreNeverSkipped() {
+        this.manager.recordInstalled(this.capabilities(null));
+        assertFalse(this.manager.prepareCapabilities(this.capabilities(null)));
+    }
+
+    @Test
+    public void bundlesAreHashedWithTheirRelativePaths() throws IOException {
+        Path bundle = this.folder.newFolder("Sample.app").toPath();
+        Files.write(bundle.resolve("a"), "content".getBytes(StandardCharsets.UTF_8));
+        String hash = AppInstallManager.hashOf(bundle.toFile());
+        Files.move(bundle.resolve("a"), bundle.resolve("b"));
+        bundle.toFile().setLastModified(bundle.toFile().lastModified() + 2000);
+        assertFalse(hash.equals(AppInstallManager.hashOf(bundle.toFile())));
+    }
+
+    @Test
+    public void staleIndexFallsBackToTheInstall() {
+        this.manager.recordInstalled(this.capabilities("emulator-5554"));
+        this.server.setFailedSessions(1);
+        AppiumHandledDriver driver = AppiumHandledDriver.buildInstance(this.server.getUrl(),
+                this.capabilities("emulator-5554"), this.manager);
+        assertNotNull(driver);
+        assertEquals(1, this.server.getSessions());
+        assertTrue(this.manager.prepareCapabilities(this.capabilities("emulator-5554")));
+    }
+
+    @Test
+    public void configurationFailureQuitsTheSessionWithoutReinstalling() {
+        this.manager.recordInstalled(this.capabilities("emulator-5554"));
+        this.server.setFailingPath("/timeouts");
+        try {
+            AppiumHandledDriver.buildInstance(this.server.getUrl(), this.capabilities("emulator-5554"), this.manager);
+            fail("The session shouldn't have been built");
+        } catch (WebDriverException ex) {
+            // expected
+        }
+        assertEquals(1, this.server.getSessions());
+        assertEquals(1, this.server.getQuits());
+        assertTrue(this.manager.prepareCapabilities(this.capabilities("emulator-5554")));
+    }
+
+    /**
+     * @param udid of the device (null to not define it).
+     * @return the capabilities of a session installing the app.
+     */
+    private DesiredCapabilities capabilities(String udid) {
+        DesiredCapabilities capabilities = FakeAppiumServer.capabilities();
+        capabilities.setCapability(MobileCapabilityType.APP, this.app.getPath());
+        capabilities.setCapability(AndroidMobileCapabilityType.APP_PACKAGE, "com.example.sample");
+        if (udid != null) {
+            capabilities.setCapability(MobileCapabilityType.UDID, udid);
+        }
+        return capabilities;
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the memory and disk levels of the {@link AppStringsCache}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class AppStringsCacheTest {
+
+    /**
+     * Folder of the stored tables.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Folder of the stored tables.
+     */
+    private Path directory;
+
+    /**
+     * Number of tables pulled from the "device".
+     */
+    private AtomicInteger pulls;
+
+    @Before
+    public void setUp() {
+        this.directory = this.folder.getRoot().toPath();
+        this.pulls = new AtomicInteger();
+    }
+
+    @Test
+    public void tablesAreStoredByAppHashAndLanguage() {
+        AppStringsCache first = new AppStringsCache(this.directory);
+        assertEquals("Hola", first.get("hash", "es", this.table("Hola")).get("hello"));
+        assertEquals("Hola", first.get("hash", "es", this.table("Hello")).get("hello"));
+        assertEquals(1, first.getMemoryHits());
+        // another run against the same build
+        AppStringsCache second = new AppStringsCache(this.directory);
+        assertEquals("Hola", second.get("hash", "es", this.table("Hello")).get("hello"));
+        assertEquals(1, second.getDiskHits());
+        // another build
+        assertEquals("Bonjour", second.get("other", "es", this.table("Bonjour")).get("hello"));
+        assertEquals(2, this.pulls.get());
+    }
+
+    @Test
+    public void defaultTableIsStoredByDeviceLocale() {
+        new AppStringsCache(this.directory).getDefault("hash", "es_ES", this.table("Hola"));
+        AppStringsCache cache = new AppStringsCache(this.directory);
+        assertEquals("Hola", cache.getDefault("hash", "es_ES", this.table("Hello")).get("hello"));
+        // a device with another locale doesn't get the stored table
+        assertEquals("Bonjour", cache.getDefault("hash", "fr_FR", this.table("Bonjour")).get("hello"));
+        assertEquals(2, this.pulls.get());
+    }
+
+    @Test
+    public void defaultTableOfAnUnknownLocaleIsOnlyKeptInMemory() {
+        AppStringsCache cache = new AppStringsCache(this.directory);
+        cache.getDefault("hash", null, this.table("Hola"));
+        assertEquals("Hola", cache.get("hash", null, this.table("Hello")).get("hello"));
+        assertEquals(1, cache.getMemoryHits());
+        assertEquals("Hello", new AppStringsCache(this.directory).get("hash", null, this.table("Hello")).get("hello"));
+        assertEquals(2, this.pulls.get());
+    }
+
+    @Test
+    public void languagesAreEncodedWithoutCollisions() {
+        assertEquals("pt-BR", AppStringsCache.encode("pt-BR"));
+        assertFalse(AppStringsCache.encode("pt_BR").equals(AppStringsCache.encode("pt-BR")));
+        assertFalse(AppStringsCache.encode("_").equals(AppStringsCache.encode(null)));
+    }
+
+    /**
+     * @param hello translation of "hello".
+     * @return the fetch of a table with the translation, counting the pulls.
+     */
+    private Supplier<Map<String, String>> table(String hello) {
+        return () -> {
+            this.pulls.incrementAndGet();
+            return Collections.singletonMap("hello", hello);
+        };
+    }
+
+}
@@ -0,0 +1,194 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+/**
+ * Tests of the {@link AppiumSessionPool} lease, recycle, warm up and eviction against a {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class AppiumSessionPoolTest {
+
+    /**
+     * Max time (in milliseconds) waited for the background tasks of the pool.
+     */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Fake server of the sessions.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Pool under test.
+     */
+    private AppiumSessionPool pool;
+
+    /**
+     * Age of the sessions.
+     */
+    private VirtualClock clock;
+
+    /**
+     * Capabilities of the pooled sessions.
+     */
+    private DesiredCapabilities capabilities;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new FakeAppiumServer();
+        this.pool = new AppiumSessionPool(this.server.getUrl(), 2, 600, 1);
+        this.clock = new VirtualClock();
+        this.pool.setClock(this.clock);
+        this.capabilities = FakeAppiumServer.capabilities();
+    }
+
+    @After
+    public void tearDown() {
+        this.pool.shutdown();
+        this.server.stop();
+    }
+
+    @Test
+    public void releasedSessionIsRecycledForTheNextLease() throws InterruptedException {
+        AppiumHandledDriver first = this.pool.lease(this.capabilities);
+        assertEquals(1, this.server.getSessions());
+        this.pool.release(first);
+        AppiumHandledDriver second = this.pool.lease(this.capabilities);
+        assertSame(first, second);
+        assertEquals(1, this.server.getSessions());
+        assertEquals(0, this.server.getQuits());
+    }
+
+    @Test
+    public void recycledSessionGetsTheDefaultSettings() {
+        AppiumHandledDriver first = this.pool.lease(this.capabilities);
+        first.enableElementCache(10);
+        first.enableSnapshotMode(1000);
+        first.enableLocatorOptimizer();
+        first.enableTracing(100, null);
+        first.setClock(new VirtualClock());
+        this.pool.release(first);
+        AppiumHandledDriver second = this.pool.lease(this.capabilities);
+        assertSame(first, second);
+        assertNull(second.getElementCache());
+        assertNull(second.getLocatorOptimizer());
+        assertNull(second.getTracer());
+        assertSame(SystemClock.INSTANCE, second.getClock());
+    }
+
+    @Test
+    public void sessionIsDiscardedWhenTheAppCantBeReset() {
+        AppiumHandledDriver first = this.pool.lease(this.capabilities);
+        this.server.setFailingPath("/app/reset");
+        this.pool.release(first);
+        AppiumHandledDriver second = this.pool.lease(this.capabilities);
+        assertNotSame(first, second);
+        assertEquals(2, this.server.getSessions());
+        assertEquals(1, this.server.getQuits());
+    }
+
+    @Test
+    public void leaseDoesNotWaitForeverForAHungWarmUp() throws InterruptedException {
+        this.server.setHungSessions(1);
+        this.pool.setPendingWaitMillis(200);
+        this.pool.prewarm(this.capabilities, 1);
+        assertEquals(1, this.pool.getPendingCount(this.capabilities));
+        assertNotNull(this.pool.lease(this.capabilities));
+        assertEquals(1, this.pool.getPendingCount(this.capabilities));
+    }
+
+    @Test
+    public void equivalentCapabilitiesShareTheFingerprint() {
+        DesiredCapabilities other = new DesiredCapabilities();
+        other.setCapability("deviceName", "fake");
+        other.setCapability("platformName", "ANDROID");
+        assertEquals(AppiumSessionPool.fingerprint(this.capabilities), AppiumSessionPool.fingerprint(other));
+    }
+
+    @Test
+    public void prewarmIsCappedByTheIdleRoom() throws InterruptedException {
+        this.pool.prewarm(this.capabilities, 5);
+        this.awaitIdle(2);
+        assertEquals(0, this.pool.getPendingCount(this.capabilities));
+        assertEquals(2, this.server.getSessions());
+        this.pool.prewarm(this.capabilities, 1);
+        assertEquals(0, this.pool.getPendingCount(this.capabilities));
+        AppiumHandledDriver first = this.pool.lease(this.capabilities);
+        AppiumHandledDriver second = this.pool.lease(this.capabilities);
+        assertNotSame(first, second);
+        assertEquals(2, this.server.getSessions());
+    }
+
+    @Test
+    public void expiredIdleSessionsAreEvicted() throws InterruptedException {
+        this.pool.prewarm(this.capabilities, 1);
+        this.awaitIdle(1);
+        this.clock.advance(600000);
+        this.pool.evictExpired();
+        assertEquals(1, this.pool.getIdleCount(this.capabilities));
+        this.clock.advance(1);
+        this.pool.evictExpired();
+        assertEquals(0, this.pool.getIdleCount(this.capabilities));
+        assertEquals(1, this.server.getQuits());
+    }
+
+    @Test
+    public void expiredSessionIsQuitWhenReleased() {
+        AppiumHandledDriver driver = this.pool.lease(this.capabilities);
+        this.clock.advance(600001);
+        this.pool.release(driver);
+        assertEquals(1, this.server.getQuits());
+        assertEquals(0, this.pool.getPendingCount(this.capabilities));
+        assertNotSame(driver, this.pool.lease(this.capabilities));
+        assertEquals(2, this.server.getSessions());
+    }
+
+    /**
+     * It waits until the pool has the given number of idle sessions.
+     * @param count of idle sessions.
+     * @throws InterruptedException if the test is interrupted.
+     */
+    private void awaitIdle(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (this.pool.getIdleCount(this.capabilities) < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, this.pool.getIdleCount(this.capabilities));
+    }
+
+}
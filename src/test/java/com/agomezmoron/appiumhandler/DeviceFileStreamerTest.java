@@ -0,0 +1,232 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Tests of the parsing of the pull responses by the {@link DeviceFileStreamer} and of the pulls to disk.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class DeviceFileStreamerTest {
+
+    /**
+     * Folder of the pulled files.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Server answering the pulls.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Streamer of the session.
+     */
+    private DeviceFileStreamer streamer;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new FakeAppiumServer();
+        this.streamer = new DeviceFileStreamer(this.server.getUrl(), "fake-session", null);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    /**
+     * @param response JSON of the pull response.
+     * @return the value string read through the {@link DeviceFileStreamer.JsonValueInputStream}.
+     * @throws IOException if the response couldn't be read.
+     */
+    private static String value(String response) throws IOException {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        try (InputStream input = new DeviceFileStreamer.JsonValueInputStream(
+                new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), "/sdcard/file")) {
+            byte[] buffer = new byte[3];
+            int read;
+            while ((read = input.read(buffer, 0, buffer.length)) != -1) {
+                value.write(buffer, 0, read);
+            }
+        }
+        return new String(value.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void valueStringIsStreamed() throws IOException {
+        assertEquals("QUJDRA==", value("{\"sessionId\":\"s\",\"status\":0,\"value\":\"QUJDRA==\"}"));
+    }
+
+    @Test
+    public void escapesOfTheValueAreDecoded() throws IOException {
+        assertEquals("ab/cd+/", value("{\"value\":\"ab\\/cd+\\/\"}"));
+        // the line breaks of some base64 encoders are dropped
+        assertEquals("abcd", value("{\"value\":\"ab\\ncd\\u000a\"}"));
+    }
+
+    @Test
+    public void membersBeforeTheValueAreSkipped() throws IOException {
+        String response = "{ \"sessionId\" : \"s\\\"}\", \"meta\": {\"a\": [1, \"]}\", {\"b\": null}]},\n"
+                + "\t\"value\": \"QQ==\", \"status\": 0}";
+        assertEquals("QQ==", value(response));
+    }
+
+    @Test
+    public void emptyValueIsEmpty() throws IOException {
+        assertEquals("", value("{\"status\":0,\"value\":\"\"}"));
+    }
+
+    @Test
+    public void errorValueIsReported() throws IOException {
+        try {
+            value("{\"status\":13,\"value\":{\"message\":\"Remote path does not exist\",\"trace\":[\"a,b\"]}}");
+            fail("The error value should have been reported");
+        } catch (WebDriverException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("/sdcard/file"));
+            assertTrue(ex.getMessage(), ex.getMessage().contains("Remote path does not exist"));
+        }
+    }
+
+    @Test(expected = WebDriverException.class)
+    public void responseWithoutValueIsReported() throws IOException {
+        value("{\"sessionId\":\"s\",\"status\":0}");
+    }
+
+    @Test(expected = WebDriverException.class)
+    public void responseNotBeingAnObjectIsReported() throws IOException {
+        value("[\"QQ==\"]");
+    }
+
+    @Test
+    public void truncatedValueIsReported() {
+        try {
+            value("{\"status\":0,\"value\":\"QUJD");
+            fail("The truncated value should have been reported");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("Truncated"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void responseTruncatedBeforeTheValueIsReported() throws IOException {
+        value("{\"status\":0,\"val");
+    }
+
+    @Test
+    public void fileIsPulledToDisk() throws IOException {
+        this.server.answer("/pull_file", "\"" + Base64.getEncoder().encodeToString("log".getBytes()) + "\"");
+        Path target = this.folder.getRoot().toPath().resolve("x.log");
+        assertEquals(3, this.streamer.pullFile("/sdcard/x.log", target));
+        assertArrayEquals("log".getBytes(), Files.readAllBytes(target));
+    }
+
+    @Test
+    public void filePullIntoADirectoryIsRejected() throws IOException {
+        this.server.answer("/pull_file", "\"" + Base64.getEncoder().encodeToString("log".getBytes()) + "\"");
+        Path downloads = this.folder.newFolder("downloads").toPath();
+        Path kept = Files.write(downloads.resolve("kept.txt"), "kept".getBytes());
+        try {
+            this.streamer.pullFile("/sdcard/x.log", downloads);
+            fail("A directory can't be replaced by a file");
+        } catch (IOException e) {
+            assertTrue(Files.exists(kept));
+        }
+        assertEquals(0, this.server.getRequests("/pull_file"));
+    }
+
+    @Test
+    public void folderPullReplacesTheTree() throws IOException {
+        this.server.answer("/pull_folder", "\"" + zip("new.txt", "new") + "\"");
+        Path target = this.folder.newFolder("logs").toPath();
+        Files.write(target.resolve("old.txt"), "old".getBytes());
+        this.streamer.pullFolder("/sdcard/logs", target, true);
+        assertArrayEquals("new".getBytes(), Files.readAllBytes(target.resolve("new.txt")));
+        assertFalse(Files.exists(target.resolve("old.txt")));
+        try (Stream<Path> files = Files.list(this.folder.getRoot().toPath())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void failedFolderPullKeepsTheTree() throws IOException {
+        this.server.setFailingPath("/pull_folder");
+        Path target = this.folder.newFolder("logs").toPath();
+        Path old = Files.write(target.resolve("old.txt"), "old".getBytes());
+        try {
+            this.streamer.pullFolder("/sdcard/logs", target, true);
+            fail("The pull failed");
+        } catch (WebDriverException e) {
+            assertTrue(Files.exists(old));
+        }
+        try (Stream<Path> files = Files.list(this.folder.getRoot().toPath())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    /**
+     * @param name of the only entry of the archive.
+     * @param content of the entry.
+     * @return the base64 zip archive.
+     * @throws IOException if the archive couldn't be built.
+     */
+    private static String zip(String name, String content) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (ZipOutputStream output = new ZipOutputStream(archive)) {
+            output.putNextEntry(new ZipEntry(name));
+            output.write(content.getBytes(StandardCharsets.UTF_8));
+            output.closeEntry();
+        }
+        return Base64.getEncoder().encodeToString(archive.toByteArray());
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link DeviceOrchestrator} startup, thread bindings and shutdown against a {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class DeviceOrchestratorTest {
+
+    /**
+     * Fake server of the devices.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Orchestrator under test.
+     */
+    private DeviceOrchestrator orchestrator;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new FakeAppiumServer();
+        this.orchestrator = new DeviceOrchestrator();
+        this.orchestrator.addDevice("first", this.server.getUrl(), FakeAppiumServer.capabilities());
+        this.orchestrator.addDevice("second", this.server.getUrl(), FakeAppiumServer.capabilities());
+    }
+
+    @After
+    public void tearDown() {
+        this.orchestrator.quitAll(5);
+        this.server.stop();
+    }
+
+    @Test
+    public void everyDeviceIsStartedAndQuit() {
+        Map<String, AppiumHandledDriver> drivers = this.orchestrator.startAll(2, 30);
+        assertEquals(2, drivers.size());
+        assertTrue(this.orchestrator.getFailures().isEmpty());
+        assertEquals(2, this.server.getSessions());
+        this.orchestrator.quitAll(5);
+        assertEquals(2, this.server.getQuits());
+        assertTrue(this.orchestrator.getDrivers().isEmpty());
+    }
+
+    @Test
+    public void lateBuildOfAnEarlierStartupIsQuit() throws InterruptedException {
+        this.server.setHungSessions(1);
+        this.orchestrator.startAll(2, 1);
+        assertEquals(1, this.orchestrator.getFailures().size());
+        assertEquals(1, this.orchestrator.getDrivers().size());
+        // the hung build of the first startup is still in flight
+        Map<String, AppiumHandledDriver> drivers = this.orchestrator.startAll(2, 30);
+        assertEquals(2, drivers.size());
+        assertTrue(this.orchestrator.getFailures().isEmpty());
+        this.server.releaseHungSessions();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (this.server.getQuits() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, this.server.getQuits());
+        assertEquals(drivers, this.orchestrator.getDrivers());
+    }
+
+    @Test
+    public void deviceIsBoundToASingleLiveThread() throws Exception {
+        this.orchestrator.startAll(2, 30);
+        CountDownLatch bound = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread owner = new Thread(() -> {
+            this.orchestrator.bind("first");
+            bound.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        owner.start();
+        assertTrue(bound.await(5, TimeUnit.SECONDS));
+        try {
+            this.orchestrator.bind("first");
+            fail("The device should be bound to the other thread");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        // the owner dies without unbinding the device
+        release.countDown();
+        owner.join();
+        assertSame(this.orchestrator.get("first"), this.orchestrator.bind("first"));
+        assertSame(this.orchestrator.get("first"), this.orchestrator.current());
+        this.orchestrator.bind("second");
+        assertSame(this.orchestrator.get("second"), this.orchestrator.current());
+        this.orchestrator.unbind();
+        try {
+            this.orchestrator.current();
+            fail("There should be no device bound");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void quitAllReleasesTheBindings() {
+        this.orchestrator.startAll(2, 30);
+        this.orchestrator.bind("first");
+        this.orchestrator.quitAll(5);
+        this.orchestrator.startAll(2, 30);
+        try {
+            this.orchestrator.current();
+            fail("The binding should have been released");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertSame(this.orchestrator.get("first"), this.orchestrator.bind("first"));
+    }
+
+}
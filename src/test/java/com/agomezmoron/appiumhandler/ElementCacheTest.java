@@ -0,0 +1,183 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link ElementCache} TTL and LRU eviction, driven by a {@link VirtualClock}, and of the validation of
+ * the cached elements against a {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class ElementCacheTest {
+
+    /**
+     * Time of the TTL.
+     */
+    private VirtualClock clock;
+
+    @Before
+    public void setUp() {
+        this.clock = new VirtualClock();
+    }
+
+    /**
+     * @param maxEntries of the cache.
+     * @param ttlMillis of the cache.
+     * @return a scoped cache.
+     */
+    private ElementCache cache(int maxEntries, long ttlMillis) {
+        ElementCache cache = new ElementCache(maxEntries, ttlMillis, this.clock);
+        cache.setScope("NATIVE_APP", "main");
+        return cache;
+    }
+
+    @Test
+    public void defaultTtlIsShortButNotZero() {
+        ElementCache cache = new ElementCache(10);
+        assertTrue(ElementCache.DEFAULT_TTL_MILLIS > 0);
+        assertEquals(10, cache.getMaxEntries());
+    }
+
+    @Test
+    public void entriesExpireAfterTheTtl() {
+        ElementCache cache = this.cache(10, 2000);
+        cache.put("id=login", "element");
+        this.clock.advance(2000);
+        assertEquals("element", cache.get("id=login"));
+        this.clock.advance(1);
+        assertNull(cache.get("id=login"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void entriesNeverExpireWithoutTtl() {
+        ElementCache cache = this.cache(10, 0);
+        cache.put("id=login", "element");
+        this.clock.advance(3600000);
+        assertEquals("element", cache.get("id=login"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        ElementCache cache = this.cache(2, 0);
+        cache.put("id=a", "a");
+        cache.put("id=b", "b");
+        // reading a makes b the least recently used one
+        assertEquals("a", cache.get("id=a"));
+        cache.put("id=c", "c");
+        assertEquals(2, cache.size());
+        assertNull(cache.get("id=b"));
+        assertEquals("a", cache.get("id=a"));
+        assertEquals("c", cache.get("id=c"));
+    }
+
+    @Test
+    public void entriesAreScopedByContextAndWindow() {
+        ElementCache cache = this.cache(10, 0);
+        cache.put("id=a", "native");
+        cache.setScope("WEBVIEW_1", "main");
+        assertNull(cache.get("id=a"));
+        cache.setScope("NATIVE_APP", "main");
+        assertEquals("native", cache.get("id=a"));
+    }
+
+    @Test
+    public void removeOnlyEvictsTheLocator() {
+        ElementCache cache = this.cache(10, 0);
+        cache.put("id=a", "a");
+        cache.put("id=b", "b");
+        cache.remove("id=a");
+        assertNull(cache.get("id=a"));
+        assertEquals("b", cache.get("id=b"));
+        assertEquals(0, cache.getInvalidations());
+    }
+
+    @Test
+    public void hiddenCachedElementIsReused() throws IOException {
+        FakeAppiumServer server = new FakeAppiumServer();
+        try {
+            server.setMissingLookups(0);
+            server.answer("/displayed", "false");
+            AppiumHandledDriver driver = server.buildDriver();
+            driver.enableElementCache(10, 0);
+            driver.findElementsById("row");
+            assertEquals(1, driver.findElementsById("row").size());
+            assertEquals(1, server.getLookups());
+            assertEquals(0, driver.getElementCache().getInvalidations());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void staleCachedElementOnlyEvictsItsLocator() throws IOException {
+        FakeAppiumServer server = new FakeAppiumServer();
+        try {
+            server.setMissingLookups(0);
+            server.answer("/displayed", "true");
+            AppiumHandledDriver driver = server.buildDriver();
+            driver.enableElementCache(10, 0);
+            driver.findElementsById("a");
+            driver.findElementsById("b");
+            server.setFailingPath("/displayed", 10);
+            assertEquals(1, driver.findElementsById("a").size());
+            assertEquals(3, server.getLookups());
+            server.setFailingPath(null);
+            driver.findElementsById("b");
+            assertEquals(3, server.getLookups());
+            assertEquals(0, driver.getElementCache().getInvalidations());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void invalidateClearsTheEntriesAndTheScope() {
+        ElementCache cache = this.cache(10, 0);
+        cache.put("id=a", "a");
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        assertFalse(cache.hasScope());
+        assertEquals(1, cache.getInvalidations());
+        // an empty unscoped cache isn't invalidated again
+        cache.invalidate();
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(0, cache.getHitRatio(), 0);
+    }
+
+}
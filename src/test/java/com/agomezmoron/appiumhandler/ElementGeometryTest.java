@@ -0,0 +1,131 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.WebDriverException;
+
+import io.appium.java_client.MobileElement;
+
+/**
+ * Tests of the {@link ElementGeometry} cache and of its fallback to the location and the size when the server doesn't
+ * support the rect command, against a {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class ElementGeometryTest {
+
+    /**
+     * Fake server.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Driver connected to the fake server.
+     */
+    private AppiumHandledDriver driver;
+
+    /**
+     * Element to be measured.
+     */
+    private MobileElement element;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new FakeAppiumServer();
+        this.server.setMissingLookups(0);
+        this.server.answer("/rect", "{\"x\":10,\"y\":20,\"width\":100,\"height\":40}");
+        this.server.answer("/location", "{\"x\":1,\"y\":2}");
+        this.server.answer("/size", "{\"width\":30,\"height\":8}");
+        this.driver = this.server.buildDriver();
+        this.element = this.driver.findElementById("row");
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void rectIsFetchedOnceAndCached() {
+        ElementGeometry geometry = new ElementGeometry();
+        Rectangle rect = geometry.rectOf(this.element);
+        assertEquals(new Rectangle(10, 20, 40, 100), rect);
+        assertEquals(new Point(60, 40), geometry.centerOf(this.element));
+        assertEquals(1, this.server.getRequests("/rect"));
+        assertEquals(1, geometry.getMisses());
+        assertEquals(1, geometry.getHits());
+        geometry.invalidate();
+        geometry.rectOf(this.element);
+        assertEquals(2, this.server.getRequests("/rect"));
+        assertEquals(0, this.server.getRequests("/location"));
+    }
+
+    @Test
+    public void unsupportedRectFallsBackToTheLocationAndTheSize() {
+        ElementGeometry geometry = new ElementGeometry();
+        // 9: unknown command
+        this.server.setFailingPath("/rect", 9);
+        assertEquals(new Rectangle(1, 2, 8, 30), geometry.rectOf(this.element));
+        assertFalse(geometry.isRectSupported());
+        assertEquals(1, this.server.getRequests("/location"));
+        assertEquals(1, this.server.getRequests("/size"));
+        // the rect command isn't tried again
+        geometry.invalidate();
+        assertEquals(new Rectangle(1, 2, 8, 30), geometry.rectOf(this.element));
+        assertEquals(1, this.server.getRequests("/rect"));
+        assertEquals(2, this.server.getRequests("/location"));
+    }
+
+    @Test
+    public void otherRectErrorsAreThrownAndKeepTheSupport() {
+        ElementGeometry geometry = new ElementGeometry();
+        // 10: stale element reference
+        this.server.setFailingPath("/rect", 10);
+        try {
+            geometry.rectOf(this.element);
+            fail("The stale element should have been reported");
+        } catch (WebDriverException ex) {
+            assertTrue(geometry.isRectSupported());
+        }
+        assertEquals(0, this.server.getRequests("/location"));
+        assertEquals(0, geometry.size());
+        this.server.setFailingPath(null);
+        assertEquals(new Rectangle(10, 20, 40, 100), geometry.rectOf(this.element));
+    }
+
+}
@@ -0,0 +1,442 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process fake of an Appium server speaking the JSON wire protocol, used to build real
+ * {@link AppiumHandledDriver} instances in the tests. The element lookups find nothing until a configurable number of
+ * lookups was done, so the waits can be tested.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class FakeAppiumServer implements HttpHandler {
+
+    /**
+     * Base path of the server.
+     */
+    private static final String BASE_PATH = "/wd/hub";
+
+    /**
+     * JSON of the fake element.
+     */
+    private static final String ELEMENT = "{\"ELEMENT\":\"1\"}";
+
+    /**
+     * Underlying HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Number of lookups answered with no elements (before the element is found).
+     */
+    private volatile int missingLookups = Integer.MAX_VALUE;
+
+    /**
+     * Threads handling the requests (so a hung request doesn't block the others).
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fake-appium-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Number of session creations which hang until they're released (or the server is stopped).
+     */
+    private final AtomicInteger hungSessions = new AtomicInteger();
+
+    /**
+     * Latch ending the hung session creations.
+     */
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    /**
+     * Number of session creations answered with an error (before the sessions are created).
+     */
+    private final AtomicInteger failedSessions = new AtomicInteger();
+
+    /**
+     * Suffix of the paths of the commands answered with an error (null if no command fails).
+     */
+    private volatile String failingPath;
+
+    /**
+     * Status of the error of the failing commands.
+     */
+    private volatile int failingStatus = 13;
+
+    /**
+     * Page source of the screen.
+     */
+    private volatile String pageSource = "<hierarchy/>";
+
+    /**
+     * Number of page source requests.
+     */
+    private final AtomicInteger pageSources = new AtomicInteger();
+
+    /**
+     * Number of element lookups.
+     */
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    /**
+     * Number of created sessions.
+     */
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    /**
+     * Number of quit sessions.
+     */
+    private final AtomicInteger quits = new AtomicInteger();
+
+    /**
+     * Answers of the commands by the suffix of their paths (they get the request body and return the JSON value).
+     */
+    private final Map<String, Function<String, String>> answers = new ConcurrentHashMap<String, Function<String, String>>();
+
+    /**
+     * Locations of the redirected commands by the suffix of their paths.
+     */
+    private final Map<String, String> redirects = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Paths of the received requests.
+     */
+    private final List<String> requests = new CopyOnWriteArrayList<String>();
+
+    /**
+     * Constructor. The server listens on a random free port of the loopback interface.
+     * @throws IOException if the server can't be started.
+     */
+    public FakeAppiumServer() throws IOException {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext(BASE_PATH, this);
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    /**
+     * It stops the server.
+     */
+    public void stop() {
+        this.released.countDown();
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * It builds a driver connected to the server.
+     * @return the built driver.
+     */
+    public AppiumHandledDriver buildDriver() {
+        return AppiumHandledDriver.buildInstance(this.getUrl(), capabilities());
+    }
+
+    /**
+     * @return the capabilities of the sessions of the server.
+     */
+    public static DesiredCapabilities capabilities() {
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("platformName", "Android");
+        capabilities.setCapability("deviceName", "fake");
+        return capabilities;
+    }
+
+    /**
+     * @return the URL to be given to the drivers.
+     */
+    public URL getUrl() {
+        try {
+            return new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + BASE_PATH);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param missingLookups number of lookups answered with no elements (before the element is found).
+     */
+    public void setMissingLookups(int missingLookups) {
+        this.missingLookups = missingLookups;
+    }
+
+    /**
+     * @param failedSessions number of session creations answered with a "session not created" error.
+     */
+    public void setFailedSessions(int failedSessions) {
+        this.failedSessions.set(failedSessions);
+    }
+
+    /**
+     * @param hungSessions number of session creations which hang until they're released (or the server is stopped).
+     */
+    public void setHungSessions(int hungSessions) {
+        this.hungSessions.set(hungSessions);
+    }
+
+    /**
+     * It lets the hung session creations go on (the sessions are created).
+     */
+    public void releaseHungSessions() {
+        this.released.countDown();
+    }
+
+    /**
+     * @param failingPath suffix of the paths of the commands answered with an error (null if no command fails).
+     */
+    public void setFailingPath(String failingPath) {
+        this.setFailingPath(failingPath, 13);
+    }
+
+    /**
+     * @param failingPath suffix of the paths of the commands answered with an error (null if no command fails).
+     * @param status of the error (e.g. 10 for a stale element).
+     */
+    public void setFailingPath(String failingPath, int status) {
+        this.failingStatus = status;
+        this.failingPath = failingPath;
+    }
+
+    /**
+     * @param pageSource of the screen.
+     */
+    public void setPageSource(String pageSource) {
+        this.pageSource = pageSource;
+    }
+
+    /**
+     * @return the number of page source requests.
+     */
+    public int getPageSources() {
+        return this.pageSources.get();
+    }
+
+    /**
+     * @return the number of element lookups.
+     */
+    public int getLookups() {
+        return this.lookups.get();
+    }
+
+    /**
+     * @return the number of created sessions.
+     */
+    public int getSessions() {
+        return this.sessions.get();
+    }
+
+    /**
+     * @return the number of quit sessions.
+     */
+    public int getQuits() {
+        return this.quits.get();
+    }
+
+    /**
+     * @param suffix of the paths of the command.
+     * @param value JSON of the value answered to the command.
+     */
+    public void answer(String suffix, String value) {
+        this.answer(suffix, body -> value);
+    }
+
+    /**
+     * @param suffix of the paths of the command.
+     * @param answer giving the JSON of the value answered to the command from the request body (the command fails if
+     * it throws an {@link IllegalStateException}).
+     */
+    public void answer(String suffix, Function<String, String> answer) {
+        this.answers.put(suffix, answer);
+    }
+
+    /**
+     * @param suffix of the paths of the command.
+     * @param location where the command is redirected (with a 303 response).
+     */
+    public void redirect(String suffix, String location) {
+        this.redirects.put(suffix, location);
+    }
+
+    /**
+     * @param suffix of the paths of the command.
+     * @return the number of received requests of the command.
+     */
+    public int getRequests(String suffix) {
+        int count = 0;
+        for (String path : this.requests) {
+            if (path.endsWith(suffix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+        String body = read(exchange.getRequestBody());
+        this.requests.add(path);
+        String failing = this.failingPath;
+        String location = null;
+        for (Map.Entry<String, String> entry : this.redirects.entrySet()) {
+            if (path.endsWith(entry.getKey())) {
+                location = entry.getValue();
+            }
+        }
+        Function<String, String> answer = null;
+        for (Map.Entry<String, Function<String, String>> entry : this.answers.entrySet()) {
+            if (path.endsWith(entry.getKey())) {
+                answer = entry.getValue();
+            }
+        }
+        if ("/session".equals(path) && this.hungSessions.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            try {
+                this.released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if ("/session".equals(path) && this.failedSessions.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            fail(exchange, 33, "A new session could not be created");
+        } else if (failing != null && path.endsWith(failing)) {
+            fail(exchange, this.failingStatus, "The command " + path + " failed");
+        } else if ("/session".equals(path)) {
+            this.sessions.incrementAndGet();
+            respond(exchange, "{\"platformName\":\"Android\",\"deviceName\":\"fake\"}");
+        } else if ("DELETE".equals(exchange.getRequestMethod()) && path.startsWith("/session/")
+                && path.indexOf('/', "/session/".length()) < 0) {
+            this.quits.incrementAndGet();
+            respond(exchange, "null");
+        } else if (location != null) {
+            exchange.getResponseHeaders().set("Location", location);
+            exchange.sendResponseHeaders(303, -1);
+            exchange.close();
+        } else if (answer != null) {
+            String value = null;
+            String error = null;
+            try {
+                value = answer.apply(body);
+            } catch (IllegalStateException ex) {
+                error = ex.getMessage();
+            }
+            if (error == null) {
+                respond(exchange, value);
+            } else {
+                fail(exchange, 13, error);
+            }
+        } else if (path.endsWith("/context")) {
+            respond(exchange, "\"NATIVE_APP\"");
+        } else if (path.endsWith("/elements")) {
+            respond(exchange, this.lookups.incrementAndGet() > this.missingLookups ? "[" + ELEMENT + "]" : "[]");
+        } else if (path.endsWith("/element")) {
+            if (this.lookups.incrementAndGet() > this.missingLookups) {
+                respond(exchange, ELEMENT);
+            } else {
+                fail(exchange, 7, "An element could not be located on the page");
+            }
+        } else if (path.endsWith("/source")) {
+            this.pageSources.incrementAndGet();
+            respond(exchange, "\"" + this.pageSource.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+        } else {
+            respond(exchange, "null");
+        }
+    }
+
+    /**
+     * It writes a successful JSON wire protocol response.
+     * @param exchange in progress.
+     * @param value JSON of the value.
+     * @throws IOException if the response can't be written.
+     */
+    private static void respond(HttpExchange exchange, String value) throws IOException {
+        byte[] response = ("{\"sessionId\":\"fake-session\",\"status\":0,\"value\":" + value + "}")
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, response.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(response);
+        output.close();
+    }
+
+    /**
+     * It writes a failed JSON wire protocol response.
+     * @param exchange in progress.
+     * @param status of the error.
+     * @param message of the error.
+     * @throws IOException if the response can't be written.
+     */
+    private static void fail(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] response = ("{\"sessionId\":\"fake-session\",\"status\":" + status + ",\"value\":{\"message\":\""
+                + message + "\"}}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(500, response.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(response);
+        output.close();
+    }
+
+    /**
+     * @param input to be consumed.
+     * @return the read content.
+     * @throws IOException if it can't be read.
+     */
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,140 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.appium.java_client.MobileElement;
+
+/**
+ * Tests of the batching of the {@link GesturePipeline} gestures into touch and multi touch submissions, against a
+ * {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class GesturePipelineTest {
+
+    /**
+     * Fake server.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Driver connected to the fake server.
+     */
+    private AppiumHandledDriver driver;
+
+    /**
+     * Bodies of the single finger submissions.
+     */
+    private List<String> chains;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new FakeAppiumServer();
+        this.server.setMissingLookups(0);
+        this.server.answer("/rect", "{\"x\":0,\"y\":100,\"width\":200,\"height\":50}");
+        this.chains = new CopyOnWriteArrayList<String>();
+        this.server.answer("/touch/perform", body -> {
+            this.chains.add(body);
+            return "null";
+        });
+        this.server.answer("/touch/multi/perform", "null");
+        this.driver = this.server.buildDriver();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    /**
+     * @param body of a submission.
+     * @param action name.
+     * @return the number of actions of the given name.
+     */
+    private static int count(String body, String action) {
+        return body.split("\"" + action + "\"", -1).length - 1;
+    }
+
+    @Test
+    public void singleFingerGesturesAreChainedInOneSubmission() {
+        GesturePipeline.Result result = this.driver.gestures().tap(10, 10, 50).swipe(100, 500, 100, 100, 300)
+                .pause(200).tap(20, 20, 50).perform();
+        assertEquals(1, result.getSubmissions());
+        assertEquals(4, result.getSteps().size());
+        assertEquals(0, result.getSubmissionOf(3));
+        assertEquals(1, this.server.getRequests("/touch/perform"));
+        assertEquals(0, this.server.getRequests("/touch/multi/perform"));
+        assertEquals(3, count(this.chains.get(0), "press"));
+        assertEquals(3, count(this.chains.get(0), "release"));
+    }
+
+    @Test
+    public void multiFingerGestureSplitsTheChain() {
+        GesturePipeline pipeline = this.driver.gestures().tap(10, 10, 50).tap(2, 50, 50, 50).swipe(100, 500, 100,
+                100, 300);
+        assertEquals(3, pipeline.size());
+        GesturePipeline.Result result = pipeline.perform();
+        assertEquals(3, result.getSubmissions());
+        assertEquals(0, result.getSubmissionOf(0));
+        assertEquals(1, result.getSubmissionOf(1));
+        assertEquals(2, result.getSubmissionOf(2));
+        assertEquals(2, this.server.getRequests("/touch/perform"));
+        assertEquals(1, this.server.getRequests("/touch/multi/perform"));
+        // the pipeline is cleared once performed
+        assertEquals(0, pipeline.size());
+    }
+
+    @Test
+    public void elementsAreResolvedOnceBeforeTheSubmissions() {
+        MobileElement element = this.driver.findElementById("row");
+        GesturePipeline.Result result = this.driver.gestures().tap(element, 50).swipeFromElement(element, 100, 0, 300)
+                .perform();
+        assertEquals(1, result.getSubmissions());
+        assertEquals(1, this.server.getRequests("/rect"));
+        assertTrue(this.chains.get(0).contains("\"x\":100"));
+        assertTrue(this.chains.get(0).contains("\"y\":125"));
+    }
+
+    @Test
+    public void emptyPipelineSubmitsNothing() {
+        GesturePipeline.Result result = this.driver.gestures().perform();
+        assertEquals(0, result.getSubmissions());
+        assertEquals(0, result.getTotalMillis());
+        assertEquals(0, this.server.getRequests("/touch/perform"));
+    }
+
+}
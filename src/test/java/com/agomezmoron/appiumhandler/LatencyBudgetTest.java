@@ -0,0 +1,167 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link LatencyBudget} nesting and breakdown, driven by a {@link VirtualClock}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class LatencyBudgetTest {
+
+    /**
+     * Time of the budgets.
+     */
+    private final VirtualClock clock = new VirtualClock();
+
+    @After
+    public void tearDown() {
+        assertNull("Every budget has to be closed", LatencyBudget.current());
+    }
+
+    @Test
+    public void budgetIsBoundToTheThreadUntilItsClosed() {
+        try (LatencyBudget budget = LatencyBudget.start(1000, this.clock)) {
+            assertSame(budget, LatencyBudget.current());
+            this.clock.advance(400);
+            assertEquals(600, budget.getRemainingMillis());
+            assertEquals(400, budget.getElapsedMillis());
+            assertEquals(600, LatencyBudget.cap(5000));
+            assertEquals(100, LatencyBudget.cap(100));
+        }
+        assertEquals(5000, LatencyBudget.cap(5000));
+    }
+
+    @Test
+    public void nestedBudgetIsCappedByTheEnclosingOne() {
+        try (LatencyBudget outer = LatencyBudget.start(1000, this.clock)) {
+            this.clock.advance(700);
+            try (LatencyBudget inner = LatencyBudget.start(5000, this.clock)) {
+                assertSame(inner, LatencyBudget.current());
+                assertEquals(300, inner.getRemainingMillis());
+                this.clock.advance(300);
+                assertTrue(inner.isExceeded());
+                assertTrue(outer.isExceeded());
+            }
+            assertSame(outer, LatencyBudget.current());
+        }
+    }
+
+    @Test
+    public void nestedBudgetDoesNotExtendTheEnclosingOne() {
+        try (LatencyBudget outer = LatencyBudget.start(1000, this.clock)) {
+            try (LatencyBudget inner = LatencyBudget.start(100, this.clock)) {
+                this.clock.advance(200);
+                assertTrue(inner.isExceeded());
+                assertFalse(outer.isExceeded());
+            }
+            assertEquals(800, outer.getRemainingMillis());
+        }
+    }
+
+    @Test
+    public void breakdownExcludesTheNestedCommands() {
+        try (LatencyBudget budget = LatencyBudget.start(1000, this.clock)) {
+            budget.enter("waitUntilVisible");
+            this.clock.advance(10);
+            budget.enter("waitLookup");
+            this.clock.advance(30);
+            budget.exit("waitLookup");
+            this.clock.advance(5);
+            budget.enter("waitLookup");
+            this.clock.advance(20);
+            budget.exit("waitLookup");
+            budget.exit("waitUntilVisible");
+            Map<String, Long> breakdown = budget.getBreakdown();
+            assertEquals(2, breakdown.size());
+            assertEquals(Long.valueOf(15), breakdown.get("waitUntilVisible"));
+            assertEquals(Long.valueOf(50), breakdown.get("waitLookup"));
+        }
+    }
+
+    @Test
+    public void commandsOfANestedBudgetAreAddedToTheEnclosingOne() {
+        try (LatencyBudget outer = LatencyBudget.start(1000, this.clock)) {
+            outer.enter("buildInstance");
+            this.clock.advance(10);
+            try (LatencyBudget inner = LatencyBudget.start(500, this.clock)) {
+                inner.enter("newSession");
+                this.clock.advance(40);
+                inner.exit("newSession");
+                assertEquals(1, inner.getBreakdown().size());
+                assertEquals(Long.valueOf(40), inner.getBreakdown().get("newSession"));
+            }
+            outer.exit("buildInstance");
+            assertEquals(Long.valueOf(10), outer.getBreakdown().get("buildInstance"));
+            assertEquals(Long.valueOf(40), outer.getBreakdown().get("newSession"));
+        }
+    }
+
+    @Test
+    public void exceededBudgetReportsItsBreakdown() {
+        try (LatencyBudget budget = LatencyBudget.start(100, this.clock)) {
+            budget.enter("click");
+            this.clock.advance(150);
+            budget.exit("click");
+            try {
+                budget.check("sendKeys");
+                fail("The budget should be exceeded");
+            } catch (LatencyBudgetExceededException ex) {
+                assertEquals("sendKeys", ex.getCommand());
+                assertEquals(Long.valueOf(150), ex.getBreakdown().get("click"));
+            }
+            assertEquals(0, budget.getRemainingMillis());
+        }
+    }
+
+    @Test
+    public void closingAnEnclosingBudgetUnbindsTheNestedOnes() {
+        LatencyBudget outer = LatencyBudget.start(1000, this.clock);
+        LatencyBudget middle = LatencyBudget.start(500, this.clock);
+        LatencyBudget.start(100, this.clock);
+        this.clock.advance(200);
+        middle.close();
+        assertSame(outer, LatencyBudget.current());
+        outer.close();
+        assertNull(LatencyBudget.current());
+        // closing a budget which is not bound anymore doesn't change anything
+        middle.close();
+        assertNull(LatencyBudget.current());
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link LatencyHistogram} buckets and percentiles and of the {@link CommandMetrics} measured with a
+ * {@link VirtualClock}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, LatencyHistogram.index(value));
+            assertEquals(value, LatencyHistogram.highestValue(value));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguousWithBoundedError() {
+        long value = 8;
+        while (value > 0 && value < Long.MAX_VALUE / 2) {
+            int index = LatencyHistogram.index(value);
+            long highest = LatencyHistogram.highestValue(index);
+            assertTrue(value + " is above its bucket", highest >= value);
+            // 8 sub-buckets per power of two: the bucket is at most 1/8 of its lowest value wide
+            assertTrue(value + " is in a too wide bucket", highest - value <= value / 8);
+            assertEquals(index, LatencyHistogram.index(highest));
+            assertEquals(index + 1, LatencyHistogram.index(highest + 1));
+            value = value * 3 / 2 + 1;
+        }
+        assertEquals(487, LatencyHistogram.index(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(487));
+    }
+
+    @Test
+    public void percentilesAreTheHighestValueOfTheirBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50.5, snapshot.getMean(), 0.001);
+        assertEquals(100, snapshot.getMax());
+        // 50 is in the 48-51 bucket, 90 in the 88-95 one
+        assertEquals(51, snapshot.getP50());
+        assertEquals(95, snapshot.getP90());
+        // 99 is in the 96-103 bucket, capped by the max
+        assertEquals(100, snapshot.getP99());
+        assertEquals(100, snapshot.getP999());
+    }
+
+    @Test
+    public void singleValueIsReportedExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1234);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1234, snapshot.getP50());
+        assertEquals(1234, snapshot.getP999());
+    }
+
+    @Test
+    public void resetEmptiesTheHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.reset();
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getP50());
+    }
+
+    @Test
+    public void metricsMeasureTheCommandsWithTheClock() {
+        VirtualClock clock = new VirtualClock();
+        CommandMetrics metrics = new CommandMetrics();
+        metrics.setClock(clock);
+        long start = metrics.start();
+        clock.advance(3);
+        metrics.stop("findElement", start);
+        LatencyHistogram.Snapshot snapshot = metrics.getSnapshot("findElement");
+        assertEquals(1, snapshot.getCount());
+        assertEquals(3000, snapshot.getMax());
+        assertEquals(3000, snapshot.getP50());
+        metrics.setEnabled(false);
+        metrics.stop("findElement", metrics.start());
+        assertEquals(1, metrics.getSnapshot("findElement").getCount());
+        assertNull(metrics.getSnapshot("click"));
+    }
+
+}
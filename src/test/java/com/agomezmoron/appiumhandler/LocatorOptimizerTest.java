@@ -0,0 +1,130 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests of the XPath rewrites of the {@link LocatorOptimizer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class LocatorOptimizerTest {
+
+    /**
+     * Optimizer of the Android locators.
+     */
+    private final LocatorOptimizer android = new LocatorOptimizer(false, false);
+
+    /**
+     * Optimizer of the XCUITest locators.
+     */
+    private final LocatorOptimizer xcuitest = new LocatorOptimizer(true, true);
+
+    /**
+     * Optimizer of the iOS locators without predicates (UIAutomation).
+     */
+    private final LocatorOptimizer uiautomation = new LocatorOptimizer(true, false);
+
+    /**
+     * @param optimizer to be used.
+     * @param xpath to be rewritten.
+     * @param strategy expected.
+     * @param value expected.
+     */
+    private static void assertRewrite(LocatorOptimizer optimizer, String xpath, String strategy, String value) {
+        LocatorOptimizer.Rewrite rewrite = optimizer.rewrite(xpath);
+        assertNotNull(xpath + " should be rewritten", rewrite);
+        assertEquals(strategy, rewrite.getStrategy());
+        assertEquals(value, rewrite.getValue());
+    }
+
+    @Test
+    public void androidIdsAndDescriptionsUseTheirStrategies() {
+        assertRewrite(this.android, "//*[@resource-id='com.app:id/login']", LocatorOptimizer.ID, "com.app:id/login");
+        // a bare id would be prefixed with the package of the app by Appium
+        assertRewrite(this.android, "//*[@resource-id='login']", LocatorOptimizer.ANDROID_UIAUTOMATOR,
+                "new UiSelector().resourceId(\"login\")");
+        assertRewrite(this.android, "//*[@content-desc=\"Back\"]", LocatorOptimizer.ACCESSIBILITY_ID, "Back");
+    }
+
+    @Test
+    public void androidConditionsUseUiSelectors() {
+        assertRewrite(this.android, "//android.widget.Button", LocatorOptimizer.ANDROID_UIAUTOMATOR,
+                "new UiSelector().className(\"android.widget.Button\")");
+        assertRewrite(this.android,
+                "//android.widget.TextView[contains(@text, 'Hello') and @resource-id='com.app:id/title']",
+                LocatorOptimizer.ANDROID_UIAUTOMATOR, "new UiSelector().className(\"android.widget.TextView\")"
+                        + ".textContains(\"Hello\").resourceId(\"com.app:id/title\")");
+        assertRewrite(this.android, "//*[starts-with(@content-desc, 'Item')]", LocatorOptimizer.ANDROID_UIAUTOMATOR,
+                "new UiSelector().descriptionStartsWith(\"Item\")");
+    }
+
+    @Test
+    public void valuesAreQuoted() {
+        assertRewrite(this.android, "//*[@text='Say \"hi\" \\o/']", LocatorOptimizer.ANDROID_UIAUTOMATOR,
+                "new UiSelector().text(\"Say \\\"hi\\\" \\\\o/\")");
+    }
+
+    @Test
+    public void unsupportedShapesAreNotRewritten() {
+        assertNull(this.android.rewrite("//*"));
+        assertNull(this.android.rewrite("//android.widget.ListView/android.widget.TextView"));
+        assertNull(this.android.rewrite("//*[@index='1']"));
+        assertNull(this.android.rewrite("//*[contains(@resource-id, 'login')]"));
+        assertNull(this.android.rewrite("(//android.widget.Button)[2]"));
+        assertNull(this.android.rewrite("//*[@text='a' or @text='b']"));
+    }
+
+    @Test
+    public void iosNamesUseTheAccessibilityId() {
+        assertRewrite(this.xcuitest, "//*[@name='login']", LocatorOptimizer.ACCESSIBILITY_ID, "login");
+        assertRewrite(this.uiautomation, "//*[@name='login']", LocatorOptimizer.ACCESSIBILITY_ID, "login");
+    }
+
+    @Test
+    public void iosConditionsUsePredicates() {
+        assertRewrite(this.xcuitest, "//XCUIElementTypeButton[@label='OK']", LocatorOptimizer.IOS_PREDICATE,
+                "type == \"XCUIElementTypeButton\" AND label == \"OK\"");
+        assertRewrite(this.xcuitest, "//*[contains(@value, 'mail') and starts-with(@name, 'user')]",
+                LocatorOptimizer.IOS_PREDICATE, "value CONTAINS \"mail\" AND name BEGINSWITH \"user\"");
+        assertNull(this.xcuitest.rewrite("//*[@text='OK']"));
+        assertNull(this.uiautomation.rewrite("//UIAButton[@label='OK']"));
+    }
+
+    @Test
+    public void rejectedRewritesAreNotUsedAgain() {
+        String xpath = "//android.widget.Button[@text='OK']";
+        assertNotNull(this.android.rewrite(xpath));
+        this.android.reject(xpath);
+        assertNull(this.android.rewrite(xpath));
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.Rectangle;
+
+import io.appium.java_client.MobileElement;
+
+/**
+ * Tests of the {@link PageSnapshot} index and of the snapshot mode of the finders against a {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class PageSnapshotTest {
+
+    /**
+     * Page source of the tests.
+     */
+    private static final String SOURCE = "<hierarchy>"
+            + "<android.widget.FrameLayout class=\"android.widget.FrameLayout\" bounds=\"[0,0][1080,1920]\">"
+            + "<android.widget.Button class=\"android.widget.Button\" resource-id=\"app:id/ok\" text=\"OK\""
+            + " bounds=\"[10,20][110,70]\"/>"
+            + "<android.widget.TextView class=\"android.widget.TextView\" text=\"Row\"/>"
+            + "<android.widget.TextView class=\"android.widget.TextView\" text=\"Row\"/>"
+            + "</android.widget.FrameLayout></hierarchy>";
+
+    /**
+     * Fake server of the driver.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Driver under test.
+     */
+    private AppiumHandledDriver driver;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new FakeAppiumServer();
+        this.server.setPageSource(SOURCE);
+        this.driver = this.server.buildDriver();
+        this.driver.setClock(new VirtualClock());
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void nodesAreIndexed() {
+        PageSnapshot snapshot = this.driver.snapshot();
+        assertEquals(5, snapshot.size());
+        assertEquals(1, snapshot.findById("app:id/ok").size());
+        assertEquals(2, snapshot.findByText("Row").size());
+        assertEquals(2, snapshot.findByClass("android.widget.TextView").size());
+        assertEquals(1, snapshot.findByName("OK").size());
+        List<PageSnapshot.Node> rows = snapshot.findByXPath("//*[@text='Row']");
+        assertEquals(2, rows.size());
+        assertTrue(!rows.get(0).hasFastLocator());
+        PageSnapshot.Node ok = snapshot.findByXPath("//android.widget.Button").get(0);
+        assertTrue(ok.hasFastLocator());
+        assertEquals(new Rectangle(10, 20, 50, 100), ok.getBounds());
+    }
+
+    @Test
+    public void snapshotIsReusedUntilTheScreenMayChange() {
+        PageSnapshot first = this.driver.snapshot();
+        assertSame(first, this.driver.snapshot());
+        assertEquals(1, this.server.getPageSources());
+        this.driver.hideKeyboard();
+        PageSnapshot second = this.driver.snapshot();
+        assertNotSame(first, second);
+        this.driver.invalidateElementCache();
+        assertNotSame(second, this.driver.snapshot());
+        assertEquals(3, this.server.getPageSources());
+    }
+
+    @Test
+    public void snapshotIsTakenAgainWhenItsTooOld() {
+        this.driver.enableSnapshotMode(1000);
+        PageSnapshot first = this.driver.snapshot();
+        ((VirtualClock) this.driver.getClock()).advance(1001);
+        assertNotSame(first, this.driver.snapshot());
+    }
+
+    @Test
+    public void missesAreLookedUpOnTheServer() {
+        this.driver.enableSnapshotMode(60000);
+        this.server.setMissingLookups(0);
+        // the element is not in the snapshot, but the screen changed (e.g. an element was clicked)
+        List<MobileElement> elements = this.driver.findElementsByXPath("//*[@text='Next']");
+        assertEquals(1, elements.size());
+        assertEquals(1, this.server.getLookups());
+        assertNotNull(this.driver.findElementByName("Next"));
+        assertEquals(2, this.server.getLookups());
+    }
+
+    @Test
+    public void hitsAreResolvedWithFastLocators() {
+        this.driver.enableSnapshotMode(60000);
+        this.server.setMissingLookups(0);
+        List<MobileElement> elements = this.driver.findElementsByXPath("//android.widget.Button[@text='OK']");
+        assertEquals(1, elements.size());
+        // resolved by id (the XPath engine of the server isn't used)
+        assertEquals(1, this.server.getLookups());
+        assertEquals(1, this.server.getPageSources());
+    }
+
+    @Test
+    public void staleHitIsLookedUpOnTheServer() {
+        this.driver.enableSnapshotMode(60000);
+        PageSnapshot snapshot = this.driver.snapshot();
+        // the button is gone from the screen: the id lookup fails and the XPath is looked up on the server
+        List<MobileElement> elements = this.driver.findElementsByXPath("//android.widget.Button[@text='OK']");
+        assertTrue(elements.isEmpty());
+        assertEquals(2, this.server.getLookups());
+        assertNotSame(snapshot, this.driver.snapshot());
+    }
+
+}
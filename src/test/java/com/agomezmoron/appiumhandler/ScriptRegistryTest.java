@@ -0,0 +1,191 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.openqa.selenium.WebDriverException;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests of the decoding of the results of the {@link ScriptRegistry} and of the install and batching of its scripts
+ * against a {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class ScriptRegistryTest {
+
+    /**
+     * Generation installed by the scripts.
+     */
+    private static final Pattern INSTALLED = Pattern.compile("__appiumHandlerScriptsGeneration=(\\d+);");
+
+    /**
+     * It answers the executed scripts like a page: the invocations only run if the installed functions belong to the
+     * expected generation, and every invocation returns the name of its script.
+     * @param server where the scripts are executed.
+     * @param page generation of the functions installed in the page (-1 if there are none).
+     */
+    private static void fakePage(FakeAppiumServer server, AtomicLong page) {
+        server.answer("/execute", body -> {
+            JsonObject request = new JsonParser().parse(body).getAsJsonObject();
+            Matcher installer = INSTALLED.matcher(request.get("script").getAsString());
+            if (installer.find()) {
+                page.set(Long.parseLong(installer.group(1)));
+            }
+            JsonArray args = request.getAsJsonArray("args");
+            String result = "\"appium-handler:missing\"";
+            if (page.get() == args.get(1).getAsLong()) {
+                JsonArray results = new JsonArray();
+                for (int i = 0; i < args.get(0).getAsJsonArray().size(); i++) {
+                    JsonObject wrapper = new JsonObject();
+                    wrapper.add("v", args.get(0).getAsJsonArray().get(i).getAsJsonArray().get(0));
+                    results.add(wrapper);
+                }
+                result = results.toString();
+            }
+            return result;
+        });
+    }
+
+    @Test
+    public void numbersAreDecodedAsTheExpectedType() {
+        assertEquals(Integer.valueOf(3), ScriptRegistry.decode("count", 3L, Integer.class));
+        assertEquals(Long.valueOf(3), ScriptRegistry.decode("count", 3.0d, long.class));
+        assertEquals(Double.valueOf(3), ScriptRegistry.decode("count", 3L, Double.class));
+        assertEquals("3", ScriptRegistry.decode("count", 3L, String.class));
+    }
+
+    @Test
+    public void nullAndMatchingValuesAreKept() {
+        assertNull(ScriptRegistry.decode("title", null, String.class));
+        assertEquals(Boolean.TRUE, ScriptRegistry.decode("visible", true, boolean.class));
+        assertEquals("title", ScriptRegistry.decode("title", "title", Object.class));
+    }
+
+    @Test(expected = WebDriverException.class)
+    public void undecodableValuesAreRejected() {
+        ScriptRegistry.decode("visible", "yes", Boolean.class);
+    }
+
+    @Test
+    public void missingFunctionsAreInstalledWithTheRun() throws IOException {
+        FakeAppiumServer server = new FakeAppiumServer();
+        try {
+            AtomicLong page = new AtomicLong(-1);
+            fakePage(server, page);
+            ScriptRegistry scripts = server.buildDriver().scripts();
+            scripts.register("title", "return document.title;", true);
+            assertEquals("title", scripts.call("title", String.class));
+            assertEquals(1, scripts.getInstalls());
+            assertEquals(2, scripts.getRoundTrips());
+            // once installed, the functions are only invoked
+            assertEquals("title", scripts.call("title", String.class));
+            assertEquals(1, scripts.getInstalls());
+            assertEquals(3, scripts.getRoundTrips());
+            // a reloaded page installs them again
+            page.set(-1);
+            assertEquals("title", scripts.call("title", String.class));
+            assertEquals(2, scripts.getInstalls());
+            assertEquals(5, server.getRequests("/execute"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void changedScriptsAreInstalledAgain() throws IOException {
+        FakeAppiumServer server = new FakeAppiumServer();
+        try {
+            AtomicLong page = new AtomicLong(-1);
+            fakePage(server, page);
+            ScriptRegistry scripts = server.buildDriver().scripts();
+            scripts.register("title", "return document.title;", true);
+            scripts.call("title", String.class);
+            long installed = page.get();
+            // registering the same body doesn't bump the generation
+            scripts.register("title", "return document.title;", true);
+            scripts.call("title", String.class);
+            assertEquals(1, scripts.getInstalls());
+            scripts.register("count", "return document.querySelectorAll(arguments[0]).length;", true);
+            assertEquals("count", scripts.call("count", String.class, ".item"));
+            assertEquals(2, scripts.getInstalls());
+            assertTrue(page.get() > installed);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void batchRunsInASingleRoundTrip() throws IOException {
+        FakeAppiumServer server = new FakeAppiumServer();
+        try {
+            AtomicLong page = new AtomicLong(-1);
+            fakePage(server, page);
+            ScriptRegistry scripts = server.buildDriver().scripts();
+            scripts.register("title", "return document.title;", true);
+            scripts.register("count", "return document.querySelectorAll(arguments[0]).length;", true);
+            scripts.call("title", String.class);
+            int requests = server.getRequests("/execute");
+            ScriptRegistry.Batch batch = scripts.batch();
+            ScriptRegistry.Invocation<String> title = batch.add("title", String.class);
+            ScriptRegistry.Invocation<String> items = batch.add("count", String.class, ".item");
+            ScriptRegistry.Invocation<String> rows = batch.add("count", String.class, ".row");
+            batch.execute();
+            assertEquals(requests + 1, server.getRequests("/execute"));
+            assertEquals(0, batch.size());
+            assertEquals("title", title.get());
+            assertEquals("count", items.get());
+            assertEquals("count", rows.get());
+            assertEquals(4, scripts.getInvocations());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test(expected = WebDriverException.class)
+    public void unregisteredScriptsAreRejectedBeforeTheRoundTrip() throws IOException {
+        FakeAppiumServer server = new FakeAppiumServer();
+        try {
+            server.buildDriver().scripts().call("title", String.class);
+        } finally {
+            assertEquals(0, server.getRequests("/execute"));
+            server.stop();
+        }
+    }
+
+}
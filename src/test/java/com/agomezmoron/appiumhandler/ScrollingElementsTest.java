@@ -0,0 +1,161 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.openqa.selenium.By;
+
+import io.appium.java_client.MobileElement;
+import io.appium.java_client.android.AndroidElement;
+
+/**
+ * Tests of the paging of the {@link ScrollingElements} over a virtual list (the pages and swipes don't need a
+ * driver).
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class ScrollingElementsTest {
+
+    /**
+     * List of rows shown through a window of a few rows.
+     */
+    private static class VirtualList extends ScrollingElements {
+
+        /**
+         * Keys of the rows of the list.
+         */
+        private final List<String> rows;
+
+        /**
+         * Number of rows shown at the same time.
+         */
+        private final int window;
+
+        /**
+         * Number of rows moved by every swipe.
+         */
+        private final int step;
+
+        /**
+         * First shown row.
+         */
+        private int first = 0;
+
+        /**
+         * Number of swipes.
+         */
+        private int swipes = 0;
+
+        /**
+         * Constructor.
+         * @param size number of rows.
+         * @param window number of rows shown at the same time.
+         * @param step number of rows moved by every swipe.
+         */
+        private VirtualList(int size, int window, int step) {
+            super(null, By.className("row"), MobileElement::getId);
+            this.rows = new ArrayList<String>();
+            for (int i = 0; i < size; i++) {
+                this.rows.add(String.valueOf(i));
+            }
+            this.window = window;
+            this.step = step;
+        }
+
+        @Override
+        List<MobileElement> page() {
+            List<MobileElement> page = new ArrayList<MobileElement>();
+            for (String key : this.rows.subList(this.first, Math.min(this.rows.size(), this.first + this.window))) {
+                MobileElement element = new AndroidElement();
+                element.setId(key);
+                page.add(element);
+            }
+            return page;
+        }
+
+        @Override
+        void scroll() {
+            this.swipes++;
+            this.first = Math.max(0, Math.min(this.rows.size() - this.window, this.first + this.step));
+        }
+    }
+
+    /**
+     * @param list to be iterated.
+     * @return the keys of the yielded rows.
+     */
+    private static List<String> keys(ScrollingElements list) {
+        return list.stream().map(MobileElement::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void rowsOfThePreviousPageAreSkipped() {
+        VirtualList list = new VirtualList(10, 4, 2);
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"), keys(list));
+        // the last swipe leaves the page unchanged
+        assertEquals(4, list.swipes);
+    }
+
+    @Test
+    public void shortListEndsWithoutMovingTheRows() {
+        VirtualList list = new VirtualList(3, 4, 2);
+        assertEquals(Arrays.asList("0", "1", "2"), keys(list));
+        assertEquals(1, list.swipes);
+    }
+
+    @Test
+    public void emptyListEndsWithoutSwipes() {
+        VirtualList list = new VirtualList(0, 4, 2);
+        assertEquals(0, keys(list).size());
+        assertEquals(0, list.swipes);
+    }
+
+    @Test
+    public void swipesAreCappedByTheMaxSwipes() {
+        VirtualList list = new VirtualList(100, 4, 2);
+        list.setMaxSwipes(2);
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7"), keys(list));
+        assertEquals(2, list.swipes);
+    }
+
+    @Test
+    public void shortCircuitingStreamStopsTheSwipes() {
+        VirtualList list = new VirtualList(100, 4, 2);
+        assertEquals(3, list.stream().limit(3).count());
+        assertEquals(0, list.swipes);
+        assertEquals("5", list.stream().filter(row -> "5".equals(row.getId())).findFirst().get().getId());
+        // the second iteration starts on the current page
+        assertEquals(1, list.swipes);
+    }
+
+}
@@ -0,0 +1,144 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link SerialExecutor} order and of its recovery when the shared executor rejects a task.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class SerialExecutorTest {
+
+    /**
+     * Threads of the shared executor.
+     */
+    private ExecutorService threads;
+
+    /**
+     * Flag to reject the tasks handed to the shared executor.
+     */
+    private volatile boolean rejecting;
+
+    /**
+     * Executor under test.
+     */
+    private SerialExecutor executor;
+
+    @Before
+    public void setUp() {
+        this.threads = Executors.newFixedThreadPool(4);
+        Executor shared = task -> {
+            if (this.rejecting) {
+                throw new RejectedExecutionException("rejected by the test");
+            }
+            this.threads.execute(task);
+        };
+        this.executor = new SerialExecutor(shared);
+    }
+
+    @After
+    public void tearDown() {
+        this.threads.shutdownNow();
+    }
+
+    @Test
+    public void tasksRunInSubmissionOrder() throws Exception {
+        StringBuffer order = new StringBuffer();
+        CompletableFuture<?> last = null;
+        for (int i = 0; i < 20; i++) {
+            final int index = i;
+            last = this.executor.supply(() -> order.append(index).append(','));
+        }
+        last.get(5, TimeUnit.SECONDS);
+        assertEquals("0,1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,", order.toString());
+    }
+
+    @Test
+    public void rejectedSubmissionFailsWithoutWedgingTheQueue() throws Exception {
+        this.rejecting = true;
+        assertRejected(this.executor.supply(() -> 1));
+        try {
+            this.executor.execute(() -> {
+            });
+            fail("The plain task should have been rejected");
+        } catch (RejectedExecutionException ex) {
+            // expected
+        }
+        this.rejecting = false;
+        assertEquals(Integer.valueOf(2), this.executor.supply(() -> 2).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rejectedQueuedTaskFailsWithoutWedgingTheQueue() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> blocking = this.executor.supply(() -> {
+            try {
+                return release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        CompletableFuture<Integer> queued = this.executor.supply(() -> 1);
+        this.rejecting = true;
+        release.countDown();
+        assertTrue(blocking.get(5, TimeUnit.SECONDS));
+        assertRejected(queued);
+        this.rejecting = false;
+        assertEquals(Integer.valueOf(3), this.executor.supply(() -> 3).get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * It checks that a future failed because of a rejection.
+     * @param future to check.
+     * @throws Exception if the test fails.
+     */
+    private static void assertRejected(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("The task should have been rejected");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+}
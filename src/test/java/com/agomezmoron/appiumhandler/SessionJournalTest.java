@@ -0,0 +1,131 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the {@link SessionJournal} file format.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class SessionJournalTest {
+
+    /**
+     * Folder of the journals.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @param size of the body.
+     * @return a body with repeated content (so it's deflated when it's large).
+     */
+    private static byte[] body(int size) {
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        return body;
+    }
+
+    /**
+     * @param expected entry.
+     * @param actual entry.
+     */
+    private static void assertEntry(SessionJournal.Entry expected, SessionJournal.Entry actual) {
+        assertEquals(expected.getOffsetMicros(), actual.getOffsetMicros());
+        assertEquals(expected.getDurationMicros(), actual.getDurationMicros());
+        assertEquals(expected.getMethod(), actual.getMethod());
+        assertEquals(expected.getUri(), actual.getUri());
+        assertArrayEquals(expected.getRequestContent(), actual.getRequestContent());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getContentType(), actual.getContentType());
+        assertArrayEquals(expected.getResponseContent(), actual.getResponseContent());
+    }
+
+    @Test
+    public void entriesAreReadAsTheyWereWritten() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("journals").resolve("session.journal");
+        List<SessionJournal.Entry> entries = Arrays.asList(
+                new SessionJournal.Entry(0, 1500, "POST", "/session", "{\"desiredCapabilities\":{}}"
+                        .getBytes(StandardCharsets.UTF_8), 200, "application/json; charset=utf-8", body(100)),
+                new SessionJournal.Entry(1600, 250, "GET", "/session/1/screenshot", null, 200, null, body(100000)),
+                new SessionJournal.Entry(2000, 40, "DELETE", "/session/1", body(513), 500, "text/plain", null));
+        try (SessionJournal journal = new SessionJournal(file)) {
+            for (SessionJournal.Entry entry : entries) {
+                journal.append(entry);
+            }
+        }
+        // the large body was deflated
+        assertTrue(Files.size(file) < 100000);
+        List<SessionJournal.Entry> read = SessionJournal.read(file);
+        assertEquals(entries.size(), read.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEntry(entries.get(i), read.get(i));
+        }
+        assertEquals("", read.get(1).getContentType());
+        assertEquals(0, read.get(2).getResponseContent().length);
+    }
+
+    @Test
+    public void truncatedLastEntryIsIgnored() throws IOException {
+        Path file = this.folder.newFile("truncated.journal").toPath();
+        try (SessionJournal journal = new SessionJournal(file)) {
+            journal.append(new SessionJournal.Entry(0, 10, "GET", "/status", null, 200, "", body(10)));
+            journal.append(new SessionJournal.Entry(20, 10, "GET", "/status", null, 200, "", body(2000)));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+        List<SessionJournal.Entry> read = SessionJournal.read(file);
+        assertEquals(1, read.size());
+        assertArrayEquals(body(10), read.get(0).getResponseContent());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        Path file = this.folder.newFile("other.journal").toPath();
+        Files.write(file, "not a journal".getBytes(StandardCharsets.UTF_8));
+        SessionJournal.read(file);
+    }
+
+}
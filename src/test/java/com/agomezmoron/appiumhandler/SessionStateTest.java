@@ -0,0 +1,86 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openqa.selenium.ScreenOrientation;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Tests of the mirror of the {@link SessionState}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class SessionStateTest {
+
+    @Test
+    public void valuesAreFetchedOnceUntilInvalidated() {
+        SessionState state = new SessionState();
+        AtomicInteger fetches = new AtomicInteger();
+        assertEquals("NATIVE_APP", state.getContext(() -> {
+            fetches.incrementAndGet();
+            return "NATIVE_APP";
+        }));
+        assertEquals("NATIVE_APP", state.getContext(() -> "WEBVIEW_1"));
+        assertEquals(1, fetches.get());
+        assertEquals(1, state.getHits());
+        state.invalidate();
+        assertNull(state.getKnownContext());
+        assertEquals("WEBVIEW_1", state.getContext(() -> "WEBVIEW_1"));
+        assertEquals(2, state.getFetches());
+    }
+
+    @Test
+    public void settersUpdateTheMirror() {
+        SessionState state = new SessionState();
+        state.setOrientation(ScreenOrientation.LANDSCAPE);
+        state.setWindowHandle("main");
+        assertEquals(ScreenOrientation.LANDSCAPE, state.getOrientation(() -> ScreenOrientation.PORTRAIT));
+        assertEquals("main", state.getWindowHandle(() -> "other"));
+        assertEquals(0, state.getFetches());
+    }
+
+    @Test
+    public void settingsAreCopied() {
+        SessionState state = new SessionState();
+        JsonObject settings = new JsonObject();
+        settings.addProperty("ignoreUnimportantViews", true);
+        state.getSettings(() -> settings).addProperty("ignoreUnimportantViews", false);
+        JsonObject copy = state.getSettings(() -> new JsonObject());
+        assertEquals(true, copy.get("ignoreUnimportantViews").getAsBoolean());
+        copy.remove("ignoreUnimportantViews");
+        assertEquals(1, state.getSettings(() -> new JsonObject()).entrySet().size());
+        state.invalidateSettings();
+        assertEquals(0, state.getSettings(() -> new JsonObject()).entrySet().size());
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Tests of the spans recorded by the {@link SessionTracer} of an {@link AppiumHandledDriver} against a
+ * {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class SessionTracerTest {
+
+    /**
+     * Fake server of the driver.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Driver under test.
+     */
+    private AppiumHandledDriver driver;
+
+    /**
+     * Tracer of the driver.
+     */
+    private SessionTracer tracer;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new FakeAppiumServer();
+        this.driver = this.server.buildDriver();
+        this.tracer = this.driver.enableTracing(100, null);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void probesAreTracedAndBudgeted() {
+        try (LatencyBudget budget = this.driver.startBudget(60000)) {
+            assertFalse(this.driver.exists(By.id("missing")));
+            assertTrue(budget.getBreakdown().containsKey("probe"));
+        }
+        SessionTracer.Span probe = this.span("probe");
+        assertFalse(probe.isFailed());
+        assertTrue(probe.getDetail().contains("missing"));
+    }
+
+    @Test
+    public void failedStreamingPullsAreTraced() throws IOException {
+        try {
+            this.driver.pullFile("/sdcard/missing.txt", new ByteArrayOutputStream());
+            fail("The pull should have failed");
+        } catch (WebDriverException ex) {
+            // expected, the fake server doesn't return any content
+        }
+        assertTrue(this.span("pullFileStreaming").isFailed());
+        assertEquals(1, this.driver.getMetrics().getSnapshot("pullFileStreaming").getCount());
+    }
+
+    /**
+     * @param name of the command.
+     * @return its only span.
+     */
+    private SessionTracer.Span span(String name) {
+        List<SessionTracer.Span> spans = new ArrayList<SessionTracer.Span>();
+        for (SessionTracer.Span span : this.tracer.getSpans()) {
+            if (name.equals(span.getName())) {
+                spans.add(span);
+            }
+        }
+        assertEquals(1, spans.size());
+        return spans.get(0);
+    }
+
+}
@@ -0,0 +1,201 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the {@link TestShardScheduler} plan (LPT), steals and failures on devices started against a
+ * {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class TestShardSchedulerTest {
+
+    /**
+     * Folder of the durations.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Fake server of the devices.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Orchestrator of the devices.
+     */
+    private DeviceOrchestrator orchestrator;
+
+    /**
+     * Scheduler under test.
+     */
+    private TestShardScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new FakeAppiumServer();
+        this.orchestrator = new DeviceOrchestrator();
+        this.orchestrator.addDevice("first", this.server.getUrl(), FakeAppiumServer.capabilities());
+        this.orchestrator.addDevice("second", this.server.getUrl(), FakeAppiumServer.capabilities());
+        this.orchestrator.startAll(2, 30);
+        Path durations = this.folder.getRoot().toPath().resolve("durations.properties");
+        writeDurations(durations, "a", 50, "b", 40, "c", 30, "d", 20, "e", 10);
+        this.scheduler = new TestShardScheduler(this.orchestrator, durations);
+    }
+
+    @After
+    public void tearDown() {
+        this.orchestrator.quitAll(5);
+        this.server.stop();
+    }
+
+    @Test
+    public void longestBundlesGoToTheLeastLoadedDevice() {
+        for (String name : new String[] { "e", "d", "c", "b", "a" }) {
+            this.scheduler.addTest(name, null, driver -> {
+            });
+        }
+        // fair share of 75 ms: bundles [b, c] (70), [a] (50) and [d, e] (30)
+        Map<String, List<String>> plan = this.scheduler.plan();
+        assertEquals(new HashSet<List<String>>(Arrays.asList(Arrays.asList("b", "c"), Arrays.asList("a", "d", "e"))),
+                new HashSet<List<String>>(plan.values()));
+    }
+
+    @Test
+    public void idleDeviceStealsTheShortestPendingTests() {
+        CountDownLatch started = new CountDownLatch(1);
+        // "b" waits for "a", so "a" can't be stolen by a device whose worker started earlier
+        this.scheduler.addTest("b", null, driver -> started.await(5, TimeUnit.SECONDS));
+        for (String name : new String[] { "c", "d", "e" }) {
+            this.scheduler.addTest(name, null, driver -> {
+            });
+        }
+        this.scheduler.addTest("a", null, driver -> {
+            started.countDown();
+            Thread.sleep(1000);
+        });
+        TestShardScheduler.Report report = this.scheduler.run(30);
+        assertEquals(5, report.getResults().size());
+        assertTrue(report.getFailures().isEmpty());
+        assertTrue(report.getSkipped().isEmpty());
+        // the device running "a" only runs it, the other one steals "e" and "d"
+        assertEquals(2, report.getSteals());
+        Set<String> devices = new HashSet<String>();
+        for (TestShardScheduler.TestResult result : report.getResults()) {
+            if (!"a".equals(result.getName())) {
+                devices.add(result.getDevice());
+            }
+        }
+        assertEquals(1, devices.size());
+    }
+
+    @Test
+    public void failedAssertionsAreReportedAndTheDeviceGoesOn() {
+        this.scheduler.addTest("a", null, driver -> {
+            throw new AssertionError("expected:<1> but was:<2>");
+        });
+        for (String name : new String[] { "b", "c", "d", "e" }) {
+            this.scheduler.addTest(name, null, driver -> {
+            });
+        }
+        TestShardScheduler.Report report = this.scheduler.run(30);
+        assertEquals(5, report.getResults().size());
+        assertEquals(1, report.getFailures().size());
+        assertTrue(report.getFailures().get(0).getFailure() instanceof AssertionError);
+        assertTrue(report.getSkipped().isEmpty());
+    }
+
+    @Test
+    public void testsOfAnUnboundableDeviceAreStolen() throws InterruptedException {
+        for (String name : new String[] { "a", "b", "c", "d", "e" }) {
+            this.scheduler.addTest(name, null, driver -> {
+            });
+        }
+        CountDownLatch bound = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread owner = new Thread(() -> {
+            this.orchestrator.bind("first");
+            bound.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        owner.start();
+        assertTrue(bound.await(5, TimeUnit.SECONDS));
+        try {
+            TestShardScheduler.Report report = this.scheduler.run(30);
+            assertEquals(5, report.getResults().size());
+            assertTrue(report.getDeviceFailures().containsKey("first"));
+            for (TestShardScheduler.TestResult result : report.getResults()) {
+                assertEquals("second", result.getDevice());
+            }
+        } finally {
+            release.countDown();
+            owner.join();
+        }
+    }
+
+    /**
+     * It writes the historical durations of the tests.
+     * @param file of the durations.
+     * @param entries names and durations (in milliseconds) of the tests.
+     * @throws IOException if the file can't be written.
+     */
+    private static void writeDurations(Path file, Object... entries) throws IOException {
+        Properties durations = new Properties();
+        for (int i = 0; i < entries.length; i += 2) {
+            durations.setProperty((String) entries[i], String.valueOf(entries[i + 1]));
+        }
+        try (OutputStream output = Files.newOutputStream(file)) {
+            durations.store(output, null);
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.client.config.RequestConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.http.HttpMethod;
+import org.openqa.selenium.remote.http.HttpRequest;
+import org.openqa.selenium.remote.http.HttpResponse;
+
+import com.agomezmoron.appiumhandler.TransportConfig.CommandClass;
+
+/**
+ * Tests of the {@link TransportConfig} command classes and of the {@link PooledHttpClientFactory} timeouts and
+ * redirects against a {@link FakeAppiumServer}.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class TransportConfigTest {
+
+    /**
+     * Base path of the commands of the session.
+     */
+    private static final String SESSION = "/session/fake-session";
+
+    /**
+     * Fake server of the requests.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Configuration under test.
+     */
+    private TransportConfig config;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new FakeAppiumServer();
+        this.config = new TransportConfig();
+    }
+
+    @After
+    public void tearDown() {
+        this.config.close();
+        this.server.stop();
+    }
+
+    @Test
+    public void commandsAreClassifiedByTheirUri() {
+        assertEquals(CommandClass.SESSION, CommandClass.of("POST", "/session"));
+        assertEquals(CommandClass.DEFAULT, CommandClass.of("GET", "/session"));
+        assertEquals(CommandClass.FIND, CommandClass.of("POST", SESSION + "/element"));
+        assertEquals(CommandClass.FIND, CommandClass.of("POST", SESSION + "/element/1/elements"));
+        assertEquals(CommandClass.APP, CommandClass.of("POST", SESSION + "/appium/app/reset"));
+        assertEquals(CommandClass.APP, CommandClass.of("POST", SESSION + "/appium/device/install_app"));
+        assertEquals(CommandClass.FILE, CommandClass.of("POST", SESSION + "/appium/device/pull_folder"));
+        assertEquals(CommandClass.ACTION, CommandClass.of("POST", SESSION + "/touch/perform"));
+        assertEquals(CommandClass.ACTION, CommandClass.of("POST", SESSION + "/execute"));
+        assertEquals(CommandClass.DEFAULT, CommandClass.of("GET", SESSION + "/source"));
+    }
+
+    @Test
+    public void timeoutsDependOnTheCommandClass() {
+        this.config.setReadTimeoutMillis(CommandClass.FIND, 5000);
+        RequestConfig find = this.factory().requestConfig(new HttpRequest(HttpMethod.POST, SESSION + "/element"));
+        assertEquals(5000, find.getSocketTimeout());
+        assertEquals(this.config.getConnectTimeoutMillis(), find.getConnectTimeout());
+        RequestConfig session = this.factory().requestConfig(new HttpRequest(HttpMethod.POST, "/session"));
+        assertEquals(600000, session.getSocketTimeout());
+    }
+
+    @Test
+    public void timeoutsAreCappedByTheLatencyBudget() {
+        VirtualClock clock = new VirtualClock();
+        try (LatencyBudget budget = LatencyBudget.start(3000, clock)) {
+            clock.advance(1000);
+            RequestConfig requestConfig = this.factory()
+                    .requestConfig(new HttpRequest(HttpMethod.POST, SESSION + "/element"));
+            assertEquals(2000, requestConfig.getSocketTimeout());
+            assertEquals(2000, requestConfig.getConnectTimeout());
+            assertEquals(2000, budget.getRemainingMillis());
+            clock.advance(5000);
+            // 0 would mean no timeout
+            assertEquals(1, this.factory().requestConfig(new HttpRequest(HttpMethod.GET, SESSION + "/source"))
+                    .getSocketTimeout());
+        }
+    }
+
+    @Test
+    public void redirectsAreFollowedOnlyWhenRequested() throws IOException {
+        this.server.redirect("/moved", "/wd/hub" + SESSION + "/target");
+        this.server.answer("/target", "\"target\"");
+        HttpClient client = this.config.getFactory().createClient(this.server.getUrl());
+        HttpResponse response = client.execute(new HttpRequest(HttpMethod.POST, SESSION + "/moved"), true);
+        assertEquals(200, response.getStatus());
+        assertTrue(new String(response.getContent(), StandardCharsets.UTF_8).contains("\"target\""));
+        assertEquals(303, client.execute(new HttpRequest(HttpMethod.POST, SESSION + "/moved"), false).getStatus());
+    }
+
+    @Test
+    public void redirectLoopsAreCut() throws IOException {
+        this.server.redirect("/loop", "/wd/hub" + SESSION + "/loop");
+        HttpClient client = this.config.getFactory().createClient(this.server.getUrl());
+        assertEquals(303, client.execute(new HttpRequest(HttpMethod.GET, SESSION + "/loop"), true).getStatus());
+        // the request and 5 redirects
+        assertEquals(6, this.server.getRequests("/loop"));
+    }
+
+    /**
+     * @return the factory of the configuration.
+     */
+    private PooledHttpClientFactory factory() {
+        return (PooledHttpClientFactory) this.config.getFactory();
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the {@link VirtualClock} and of the sleeps of the {@link AppiumHandledDriver} driven by it.
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class VirtualClockTest {
+
+    /**
+     * Fake server of the driver.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Driver under test.
+     */
+    private AppiumHandledDriver driver;
+
+    /**
+     * Time of the sleeps.
+     */
+    private VirtualClock clock;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new FakeAppiumServer();
+        this.driver = this.server.buildDriver();
+        this.clock = new VirtualClock(1000);
+        this.driver.setClock(this.clock);
+    }
+
+    @After
+    public void tearDown() {
+        Thread.interrupted();
+        this.server.stop();
+    }
+
+    @Test
+    public void sleepsAdvanceTheTimeInstantly() throws InterruptedException {
+        this.clock.sleep(250);
+        this.clock.sleep(0);
+        this.clock.sleep(-5);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(250), this.clock.nanoTime());
+        assertEquals(1250, this.clock.currentTimeMillis());
+        assertEquals(1, this.clock.getSleeps());
+        assertEquals(250, this.clock.getSleptMillis());
+    }
+
+    @Test
+    public void sleepsWaitForTheTestWithoutAutoAdvance() throws InterruptedException {
+        this.clock.setAutoAdvance(false);
+        CountDownLatch woken = new CountDownLatch(1);
+        Thread sleeper = new Thread(() -> {
+            try {
+                this.clock.sleep(100);
+                woken.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sleeper.start();
+        while (this.clock.getSleeps() == 0) {
+            Thread.yield();
+        }
+        this.clock.advance(60);
+        assertFalse(woken.await(50, TimeUnit.MILLISECONDS));
+        this.clock.advance(40);
+        assertTrue(woken.await(5, TimeUnit.SECONDS));
+        sleeper.join();
+    }
+
+    @Test
+    public void driverSleepsUseItsClock() {
+        this.driver.wait(2);
+        this.driver.sleep(3);
+        assertEquals(5000, this.clock.getSleptMillis());
+        assertEquals(2, this.clock.getSleeps());
+    }
+
+    @Test
+    public void interruptedSleepReturnsKeepingTheInterruption() {
+        Thread.currentThread().interrupt();
+        this.driver.sleep(10);
+        assertTrue(Thread.currentThread().isInterrupted());
+        assertEquals(0, this.clock.getSleptMillis());
+    }
+
+}
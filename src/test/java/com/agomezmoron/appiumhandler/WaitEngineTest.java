@@ -0,0 +1,166 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.By;
+
+/**
+ * Tests of the {@link WaitEngine} backoff and deadline, driven by a {@link VirtualClock} (the sleeps don't wait).
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class WaitEngineTest {
+
+    /**
+     * Locator of the waited element.
+     */
+    private static final By SELECTOR = By.id("waited");
+
+    /**
+     * Fake server of the driver.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Driver under test.
+     */
+    private AppiumHandledDriver driver;
+
+    /**
+     * Time of the waits.
+     */
+    private VirtualClock clock;
+
+    /**
+     * Engine under test.
+     */
+    private WaitEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new FakeAppiumServer();
+        this.driver = this.server.buildDriver();
+        this.clock = new VirtualClock();
+        this.driver.setClock(this.clock);
+        this.engine = this.driver.getWaitEngine();
+        this.engine.setJitter(0);
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void pausesGrowExponentiallyUpToTheMaxPause() {
+        this.engine.setInitialPollMillis(50);
+        this.engine.setMultiplier(2);
+        this.engine.setMaxPollMillis(1000);
+        WaitEngine.Result result = this.engine.until(SELECTOR, WaitCondition.PRESENT, 10000);
+        assertFalse(result.isSatisfied());
+        assertNull(result.getElement());
+        // 50 + 100 + 200 + 400 + 800, then 8 pauses of 1000 and the last 450 up to the deadline
+        assertEquals(14, this.clock.getSleeps());
+        assertEquals(15, result.getAttempts());
+        assertEquals(15, this.server.getLookups());
+    }
+
+    @Test
+    public void deadlineIsHonoredToTheMillisecond() {
+        this.engine.setInitialPollMillis(50);
+        this.engine.setMultiplier(2);
+        WaitEngine.Result result = this.engine.until(SELECTOR, WaitCondition.PRESENT, 120);
+        assertFalse(result.isSatisfied());
+        // the second pause (100) is cut to the 70 left
+        assertEquals(120, this.clock.getSleptMillis());
+        assertEquals(120, result.getElapsedMillis());
+        assertEquals(3, result.getAttempts());
+    }
+
+    @Test
+    public void waitStopsWhenTheConditionIsSatisfied() {
+        this.server.setMissingLookups(2);
+        this.engine.setInitialPollMillis(100);
+        this.engine.setMultiplier(1.5);
+        WaitEngine.Result result = this.engine.until(SELECTOR, WaitCondition.PRESENT, 10000);
+        assertTrue(result.isSatisfied());
+        assertNotNull(result.getElement());
+        assertEquals(3, result.getAttempts());
+        assertEquals(250, result.getElapsedMillis());
+    }
+
+    @Test
+    public void goneIsSatisfiedWithoutElements() {
+        WaitEngine.Result result = this.engine.until(SELECTOR, WaitCondition.GONE, 10000);
+        assertTrue(result.isSatisfied());
+        assertNull(result.getElement());
+        assertEquals(1, result.getAttempts());
+        assertEquals(0, this.clock.getSleeps());
+    }
+
+    @Test
+    public void timeoutIsCappedByTheLatencyBudget() {
+        this.engine.setInitialPollMillis(50);
+        LatencyBudget budget = LatencyBudget.start(300, this.clock);
+        try {
+            this.engine.until(SELECTOR, WaitCondition.PRESENT, 10000);
+            fail("The wait should have exceeded the budget");
+        } catch (LatencyBudgetExceededException ex) {
+            assertEquals(300, this.clock.getSleptMillis());
+            assertTrue(budget.isExceeded());
+        } finally {
+            budget.close();
+        }
+        assertNull(LatencyBudget.current());
+    }
+
+    @Test
+    public void failedSuspensionOfTheImplicitWaitIsNotCounted() {
+        this.server.setFailingPath("/timeouts");
+        try {
+            this.engine.until(SELECTOR, WaitCondition.GONE, 10000);
+            fail("The implicit wait couldn't be suspended");
+        } catch (RuntimeException ex) {
+            // expected
+        }
+        this.server.setFailingPath(null);
+        int timeouts = this.server.getRequests("/timeouts");
+        assertTrue(this.engine.until(SELECTOR, WaitCondition.GONE, 10000).isSatisfied());
+        // suspended and restored again
+        assertEquals(timeouts + 2, this.server.getRequests("/timeouts"));
+    }
+
+}
@@ -0,0 +1,177 @@
+/**
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Alejandro Gómez Morón
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package com.agomezmoron.appiumhandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.appium.java_client.AppiumDriver;
+import io.appium.java_client.MobileElement;
+
+/**
+ * Tests of the {@link WebViewContextSwitcher} phases against a {@link FakeAppiumServer}, driven by a
+ * {@link VirtualClock} (the polls don't wait).
+ *
+ * @author Alejandro Gomez <agommor@gmail.com>
+ *
+ */
+public class WebViewContextSwitcherTest {
+
+    /**
+     * Fake server of the hybrid app.
+     */
+    private FakeAppiumServer server;
+
+    /**
+     * Driver of the session.
+     */
+    private AppiumDriver<MobileElement> driver;
+
+    /**
+     * Time of the polls.
+     */
+    private VirtualClock clock;
+
+    /**
+     * Switcher under test.
+     */
+    private WebViewContextSwitcher switcher;
+
+    /**
+     * Current context of the session.
+     */
+    private volatile String context = "NATIVE_APP";
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new FakeAppiumServer();
+        this.driver = this.server.buildDriver().getDriver();
+        this.clock = new VirtualClock();
+        this.switcher = new WebViewContextSwitcher();
+        this.switcher.setClock(this.clock);
+        this.server.answer("/context", body -> {
+            if (body.contains("name")) {
+                this.context = body.substring(body.indexOf("WEBVIEW"), body.lastIndexOf('"'));
+                return "null";
+            }
+            return "\"" + this.context + "\"";
+        });
+        this.server.answer("/execute", "\"complete\"");
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    @Test
+    public void discoveryBacksOffUntilTheWebViewIsAvailable() {
+        AtomicInteger polls = new AtomicInteger();
+        this.server.answer("/contexts", body -> polls.incrementAndGet() < 4 ? "[\"NATIVE_APP\"]"
+                : "[\"NATIVE_APP\",\"WEBVIEW_1\"]");
+        ContextSwitchTimeline timeline = this.switcher.switchTo(this.driver);
+        assertTrue(timeline.isSwitched());
+        assertEquals("WEBVIEW_1", timeline.getContext());
+        // 100 + 200 + 400
+        assertEquals(3, this.clock.getSleeps());
+        assertEquals(700, timeline.getPhaseMillis(ContextSwitchTimeline.DISCOVERY));
+    }
+
+    @Test
+    public void preferredWebViewIsSelected() {
+        this.server.answer("/contexts", "[\"NATIVE_APP\",\"WEBVIEW_com.app\",\"WEBVIEW_chrome\"]");
+        this.switcher.setPreferredWebView("com.app");
+        assertEquals("WEBVIEW_com.app", this.switcher.switchTo(this.driver).getContext());
+        assertEquals("WEBVIEW_com.app", this.context);
+    }
+
+    @Test
+    public void lastWebViewIsSelectedWithoutHints() {
+        this.server.answer("/contexts", "[\"NATIVE_APP\",\"WEBVIEW_1\",\"WEBVIEW_2\"]");
+        assertEquals("WEBVIEW_2", this.switcher.switchTo(this.driver).getContext());
+    }
+
+    @Test
+    public void failingContextHandlesAreRetried() {
+        AtomicInteger polls = new AtomicInteger();
+        this.server.answer("/contexts", body -> {
+            if (polls.incrementAndGet() == 1) {
+                throw new IllegalStateException("The context handles couldn't be got");
+            }
+            return "[\"NATIVE_APP\",\"WEBVIEW_1\"]";
+        });
+        assertTrue(this.switcher.switchTo(this.driver).isSwitched());
+        assertEquals(1, this.clock.getSleeps());
+    }
+
+    @Test
+    public void failingSwitchIsRetried() {
+        this.server.answer("/contexts", "[\"NATIVE_APP\",\"WEBVIEW_1\"]");
+        AtomicInteger switches = new AtomicInteger();
+        this.server.answer("/context", body -> {
+            if (body.contains("name")) {
+                if (switches.incrementAndGet() == 1) {
+                    throw new IllegalStateException("The context couldn't be switched");
+                }
+                this.context = "WEBVIEW_1";
+                return "null";
+            }
+            return "\"" + this.context + "\"";
+        });
+        ContextSwitchTimeline timeline = this.switcher.switchTo(this.driver);
+        assertTrue(timeline.isSwitched());
+        assertEquals(2, switches.get());
+        assertEquals(100, timeline.getPhaseMillis(ContextSwitchTimeline.SWITCH));
+    }
+
+    @Test
+    public void documentNotReadyTimesOut() {
+        this.server.answer("/contexts", "[\"NATIVE_APP\",\"WEBVIEW_1\"]");
+        this.server.answer("/execute", "\"loading\"");
+        this.switcher.setReadinessTimeoutMillis(2000);
+        ContextSwitchTimeline timeline = this.switcher.switchTo(this.driver);
+        assertFalse(timeline.isSwitched());
+        assertEquals(2000, timeline.getPhaseMillis(ContextSwitchTimeline.READINESS));
+    }
+
+    @Test
+    public void phasesAreCappedByTheLatencyBudget() {
+        this.server.answer("/contexts", "[\"NATIVE_APP\"]");
+        try (LatencyBudget budget = LatencyBudget.start(500, this.clock)) {
+            ContextSwitchTimeline timeline = this.switcher.switchTo(this.driver);
+            assertFalse(timeline.isSwitched());
+            assertTrue(budget.isExceeded());
+        }
+        assertEquals(500, this.clock.getSleptMillis());
+    }
+
+}